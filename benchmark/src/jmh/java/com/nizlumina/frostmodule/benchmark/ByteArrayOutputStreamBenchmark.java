@@ -0,0 +1,148 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Nizlumina Studio (Malaysia)
+ *
+ * Unless specified, permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package com.nizlumina.frostmodule.benchmark;
+
+import org.apache.commons.io.output.ByteArrayOutputStream;
+import org.apache.commons.io.output.PooledByteArrayOutputStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Building a payload in the byte streams and getting it back out: the synchronized commons-io stream against the JDK one and the pooled variant,
+ * and flattening with toByteArray() against the chunk views.
+ * <p/>
+ * writeSize 1 goes through write(int), the path bencode and DataOutputStream users hit most.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Thread)
+public class ByteArrayOutputStreamBenchmark
+{
+    @Param({"1024", "1048576", "67108864", "1073741824"})
+    public int size;
+
+    @Param({"1", "4096"})
+    public int writeSize;
+
+    private byte[] mChunk;
+    private byte[] mReadBuffer;
+    private RandomAccessFile mDevNull;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException
+    {
+        mChunk = Payloads.randomBytes(writeSize);
+        mReadBuffer = new byte[8192];
+        mDevNull = new RandomAccessFile("/dev/null", "rw");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException
+    {
+        mDevNull.close();
+    }
+
+    private void fill(java.io.OutputStream out) throws IOException
+    {
+        if (writeSize == 1)
+        {
+            for (int i = 0; i < size; i++)
+            {
+                out.write(i);
+            }
+            return;
+        }
+        for (int written = 0; written < size; written += writeSize)
+        {
+            out.write(mChunk, 0, Math.min(writeSize, size - written));
+        }
+    }
+
+    @Benchmark
+    public byte[] jdkToByteArray() throws IOException
+    {
+        final java.io.ByteArrayOutputStream out = new java.io.ByteArrayOutputStream();
+        fill(out);
+        return out.toByteArray();
+    }
+
+    @Benchmark
+    public byte[] toByteArray() throws IOException
+    {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        fill(out);
+        return out.toByteArray();
+    }
+
+    @Benchmark
+    public byte[] pooledToByteArray() throws IOException
+    {
+        final PooledByteArrayOutputStream out = new PooledByteArrayOutputStream();
+        try
+        {
+            fill(out);
+            return out.toByteArray();
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+
+    @Benchmark
+    public long toInputStream() throws IOException
+    {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        fill(out);
+
+        final InputStream in = out.toInputStream();
+        long total = 0;
+        int n;
+        while ((n = in.read(mReadBuffer)) != -1)
+        {
+            total += n;
+        }
+        return total;
+    }
+
+    @Benchmark
+    public long gatheringWriteTo() throws IOException
+    {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        fill(out);
+
+        final FileChannel channel = mDevNull.getChannel();
+        return out.writeTo(channel);
+    }
+}
@@ -0,0 +1,185 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Nizlumina Studio (Malaysia)
+ *
+ * Unless specified, permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package com.nizlumina.frostmodule.benchmark;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link FileUtils} file to file copies and whole file reads, heap against channel, direct and mapped paths.
+ * <p/>
+ * The payload usually sits in the page cache after the first iteration, so these compare the cost of getting the bytes
+ * through each path rather than disk speed.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Benchmark)
+public class FileUtilsBenchmark
+{
+    private static final int PAGE_SIZE = 4096;
+
+    @Param({"1024", "1048576", "67108864", "1073741824"})
+    public long size;
+
+    private File mSource;
+    private File mTarget;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException
+    {
+        mSource = Payloads.createFile(size);
+        mTarget = new File(mSource.getPath() + ".copy");
+        mTarget.deleteOnExit();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown()
+    {
+        mSource.delete();
+        mTarget.delete();
+    }
+
+    /**
+     * How files were copied before the channel paths: through a 4KB heap buffer.
+     */
+    @Benchmark
+    public long copyHeapBuffer() throws IOException
+    {
+        final FileInputStream in = new FileInputStream(mSource);
+        try
+        {
+            final FileOutputStream out = new FileOutputStream(mTarget);
+            try
+            {
+                return IOUtils.copyLarge(in, out, new byte[4096]);
+            }
+            finally
+            {
+                out.close();
+            }
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    /**
+     * File streams on both ends, which copyLarge turns into a transferTo.
+     */
+    @Benchmark
+    public long copyFileStreams() throws IOException
+    {
+        final FileInputStream in = new FileInputStream(mSource);
+        try
+        {
+            final FileOutputStream out = new FileOutputStream(mTarget);
+            try
+            {
+                return IOUtils.copyLarge(in, out);
+            }
+            finally
+            {
+                out.close();
+            }
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    @Benchmark
+    public File copyFile() throws IOException
+    {
+        FileUtils.copyFile(mSource, mTarget, false);
+        return mTarget;
+    }
+
+    @Benchmark
+    public byte[] readFileToByteArray() throws IOException
+    {
+        return FileUtils.readFileToByteArray(mSource);
+    }
+
+    @Benchmark
+    public ByteBuffer readFileToHeapBuffer() throws IOException
+    {
+        return FileUtils.readFileToByteBuffer(mSource, false);
+    }
+
+    @Benchmark
+    public ByteBuffer readFileToDirectBuffer() throws IOException
+    {
+        return FileUtils.readFileToByteBuffer(mSource, true);
+    }
+
+    /**
+     * Mapping alone reads nothing, so every page is touched once to make it comparable with the reads.
+     */
+    @Benchmark
+    public long mapFile() throws IOException
+    {
+        final MappedByteBuffer mapping = FileUtils.mapFile(mSource);
+        long sum = 0;
+        for (int i = 0; i < mapping.limit(); i += PAGE_SIZE)
+        {
+            sum += mapping.get(i);
+        }
+        return sum;
+    }
+
+    /**
+     * Sending a file to a channel, e.g. a socket, without reading it into the heap.
+     */
+    @Benchmark
+    public long copyFileToChannel() throws IOException
+    {
+        final FileOutputStream out = new FileOutputStream(mTarget);
+        try
+        {
+            final FileChannel channel = out.getChannel();
+            return FileUtils.copyFile(mSource, 0, size, channel);
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+}
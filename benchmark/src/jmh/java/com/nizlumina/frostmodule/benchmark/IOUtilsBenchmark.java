@@ -0,0 +1,185 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Nizlumina Studio (Malaysia)
+ *
+ * Unless specified, permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package com.nizlumina.frostmodule.benchmark;
+
+import org.apache.commons.io.IOUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link IOUtils} copy and read paths over a file payload, with the buffer sizes and kinds as parameters.
+ * <p/>
+ * Copies go to a sink that drops the bytes, so these measure the reading side and the cost of the buffer itself.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class IOUtilsBenchmark
+{
+    @State(Scope.Benchmark)
+    public static class Source
+    {
+        @Param({"1024", "1048576", "67108864", "1073741824"})
+        public long size;
+
+        File mFile;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException
+        {
+            mFile = Payloads.createFile(size);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown()
+        {
+            mFile.delete();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class ArrayBuffer
+    {
+        @Param({"1024", "4096", "65536", "1048576"})
+        public int bufferSize;
+
+        byte[] mBuffer;
+
+        @Setup(Level.Trial)
+        public void setUp()
+        {
+            mBuffer = new byte[bufferSize];
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class NioBuffer
+    {
+        @Param({"4096", "65536", "1048576"})
+        public int bufferSize;
+
+        @Param({"false", "true"})
+        public boolean direct;
+
+        ByteBuffer mBuffer;
+
+        @Setup(Level.Trial)
+        public void setUp()
+        {
+            mBuffer = direct ? ByteBuffer.allocateDirect(bufferSize) : ByteBuffer.allocate(bufferSize);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Allocation
+    {
+        @Param({"false", "true"})
+        public boolean direct;
+    }
+
+    @Benchmark
+    public long copyLargeStream(Source source, ArrayBuffer buffer) throws IOException
+    {
+        final InputStream in = new FileInputStream(source.mFile);
+        try
+        {
+            return IOUtils.copyLarge(in, Payloads.NULL_OUTPUT_STREAM, buffer.mBuffer);
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    @Benchmark
+    public long copyLargeChannel(Source source, NioBuffer buffer) throws IOException
+    {
+        final FileInputStream in = new FileInputStream(source.mFile);
+        try
+        {
+            return IOUtils.copyLarge(in.getChannel(), Payloads.nullChannel(), buffer.mBuffer);
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    @Benchmark
+    public byte[] toByteArrayKnownSize(Source source) throws IOException
+    {
+        final InputStream in = new FileInputStream(source.mFile);
+        try
+        {
+            return IOUtils.toByteArray(in, source.size);
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    /**
+     * Goes through ByteArrayOutputStream chunk growth and the final flattening copy.
+     */
+    @Benchmark
+    public byte[] toByteArrayUnknownSize(Source source) throws IOException
+    {
+        final InputStream in = new FileInputStream(source.mFile);
+        try
+        {
+            return IOUtils.toByteArray(in);
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    @Benchmark
+    public ByteBuffer toByteBuffer(Source source, Allocation allocation) throws IOException
+    {
+        final FileInputStream in = new FileInputStream(source.mFile);
+        try
+        {
+            final FileChannel channel = in.getChannel();
+            return IOUtils.toByteBuffer(channel, (int) Math.min(Integer.MAX_VALUE, channel.size()), allocation.direct);
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+}
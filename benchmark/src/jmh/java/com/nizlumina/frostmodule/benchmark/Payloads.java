@@ -0,0 +1,118 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Nizlumina Studio (Malaysia)
+ *
+ * Unless specified, permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package com.nizlumina.frostmodule.benchmark;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.Random;
+
+/**
+ * Payloads and sinks shared by the benchmarks.
+ * <p/>
+ * Payloads are random so no layer (filesystem compression, page dedup) gets to cheat, and seeded so every run reads the same bytes.
+ */
+final class Payloads
+{
+    static final long SEED = 0x46524f5354L;
+    private static final int WRITE_CHUNK = 1024 * 1024;
+
+    /**
+     * Discards everything, so only the reading side of a copy is measured.
+     */
+    static final OutputStream NULL_OUTPUT_STREAM = new OutputStream()
+    {
+        @Override
+        public void write(int b)
+        {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len)
+        {
+        }
+    };
+
+    private Payloads()
+    {
+    }
+
+    static byte[] randomBytes(int size)
+    {
+        final byte[] bytes = new byte[size];
+        new Random(SEED).nextBytes(bytes);
+        return bytes;
+    }
+
+    /**
+     * Writes a temporary file of random bytes, deleted when the JVM exits if the benchmark doesn't get to it first.
+     */
+    static File createFile(long size) throws IOException
+    {
+        final File file = File.createTempFile("frostmodule-bench-", ".bin");
+        file.deleteOnExit();
+
+        final Random random = new Random(SEED);
+        final byte[] chunk = new byte[WRITE_CHUNK];
+        final FileOutputStream out = new FileOutputStream(file);
+        try
+        {
+            long remaining = size;
+            while (remaining > 0)
+            {
+                random.nextBytes(chunk);
+                final int length = (int) Math.min(remaining, chunk.length);
+                out.write(chunk, 0, length);
+                remaining -= length;
+            }
+            out.getFD().sync(); //Don't let writeback of the payload leak into the first iterations
+        }
+        finally
+        {
+            out.close();
+        }
+        return file;
+    }
+
+    static WritableByteChannel nullChannel()
+    {
+        return new WritableByteChannel()
+        {
+            private boolean mOpen = true;
+
+            @Override
+            public int write(ByteBuffer src)
+            {
+                final int length = src.remaining();
+                src.position(src.limit());
+                return length;
+            }
+
+            @Override
+            public boolean isOpen()
+            {
+                return mOpen;
+            }
+
+            @Override
+            public void close()
+            {
+                mOpen = false;
+            }
+        };
+    }
+}
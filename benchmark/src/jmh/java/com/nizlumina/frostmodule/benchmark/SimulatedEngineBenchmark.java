@@ -0,0 +1,110 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Nizlumina Studio (Malaysia)
+ *
+ * Unless specified, permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package com.nizlumina.frostmodule.benchmark;
+
+import com.nizlumina.frostmodule.common.EngineConfig;
+import com.nizlumina.frostmodule.common.TorrentObject;
+import com.nizlumina.frostmodule.common.TorrentStatusTable;
+import com.nizlumina.frostmodule.simulation.SimulatedTorrentEngine;
+import com.nizlumina.frostmodule.simulation.SimulationConfig;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The per tick work of the engine facing code at library sizes well past what a device holds, on the {@link SimulatedTorrentEngine}.
+ * <p/>
+ * Run with -prof gc to get the allocation rate per tick next to the timings.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SimulatedEngineBenchmark
+{
+    @Param({"1000", "10000", "50000"})
+    public int torrentCount;
+
+    private SimulatedTorrentEngine mEngine;
+    private final TorrentStatusTable.Row mRow = new TorrentStatusTable.Row();
+
+    @Setup(Level.Trial)
+    public void setUp()
+    {
+        mEngine = new SimulatedTorrentEngine(new SimulationConfig.Builder()
+                .setTorrentCount(torrentCount)
+                .setAutoAdvance(false)
+                .build());
+        mEngine.initializeEngine(new EngineConfig.Builder().build());
+        mEngine.startEngine();
+
+        final TorrentObject.TorrentListener listener = new TorrentObject.TorrentListener()
+        {
+            @Override
+            public void onUpdate(long downloaded, long uploaded, long completedBytes, long size, int activePeersNumber, int seedersNumber)
+            {
+            }
+        };
+        for (String id : mEngine.getTorrentIds())
+        {
+            mEngine.setTorrentListener(id, listener);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown()
+    {
+        mEngine.stopEngine();
+    }
+
+    /**
+     * One progress tick: the model, the status table and posting every torrent to the bus.
+     */
+    @Benchmark
+    public void advance()
+    {
+        mEngine.advance(250);
+    }
+
+    /**
+     * What a list adapter does on every frame: walk the ids in order and read each status.
+     */
+    @Benchmark
+    public void readAllStatus(Blackhole blackhole)
+    {
+        final TorrentStatusTable table = mEngine.getStatusTable();
+        final List<String> ids = mEngine.getTorrentIds();
+        for (int i = 0; i < ids.size(); i++)
+        {
+            if (table.read(table.getSlot(ids.get(i)), mRow))
+                blackhole.consume(mRow.getCompletedBytes());
+        }
+    }
+}
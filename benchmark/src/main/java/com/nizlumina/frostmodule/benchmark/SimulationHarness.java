@@ -0,0 +1,153 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Nizlumina Studio (Malaysia)
+ *
+ * Unless specified, permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package com.nizlumina.frostmodule.benchmark;
+
+import com.nizlumina.frostmodule.common.EngineConfig;
+import com.nizlumina.frostmodule.common.EngineEventBus;
+import com.nizlumina.frostmodule.common.TorrentObject;
+import com.nizlumina.frostmodule.simulation.SimulatedTorrentEngine;
+import com.nizlumina.frostmodule.simulation.SimulationConfig;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Load test of the engine facing code: a {@link SimulatedTorrentEngine} with a listener on every torrent, ticking in real time.
+ * <p/>
+ * Reports how long each model tick takes, how late progress reaches the listeners, how many updates per second get through and how much
+ * the whole process allocates meanwhile.
+ * <p/>
+ * Arguments: [torrent count, default 10000] [duration in seconds, default 60] [progress tick in millis, default 250]
+ */
+public final class SimulationHarness
+{
+    private SimulationHarness()
+    {
+    }
+
+    public static void main(String[] args) throws InterruptedException
+    {
+        final int torrentCount = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+        final int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 60;
+        final long tickMillis = args.length > 2 ? Long.parseLong(args[2]) : EngineEventBus.DEFAULT_TICK_MILLIS;
+        final int ticks = (int) (TimeUnit.SECONDS.toMillis(seconds) / tickMillis);
+
+        final SimulatedTorrentEngine engine = new SimulatedTorrentEngine(new SimulationConfig.Builder()
+                .setTorrentCount(torrentCount)
+                .setAutoAdvance(false) //Driven below so every tick can be timed
+                .build());
+        engine.initializeEngine(new EngineConfig.Builder().setProgressTickMillis(tickMillis).build());
+        engine.startEngine();
+
+        final LatencyRecorder dispatchLatency = new LatencyRecorder(ticks * torrentCount);
+        final AtomicLong updates = new AtomicLong();
+        for (String id : engine.getTorrentIds())
+        {
+            engine.setTorrentListener(id, new TorrentObject.TorrentListener()
+            {
+                @Override
+                public void onUpdate(long downloaded, long uploaded, long completedBytes, long size, int activePeersNumber, int seedersNumber)
+                {
+                    dispatchLatency.record(System.nanoTime() - engine.getLastAdvanceStartNanos());
+                    updates.incrementAndGet();
+                }
+            });
+        }
+
+        final LatencyRecorder advanceTime = new LatencyRecorder(ticks);
+        final long allocatedBefore = allocatedBytes();
+        final long start = System.nanoTime();
+        long next = start;
+        for (int i = 0; i < ticks; i++)
+        {
+            next += TimeUnit.MILLISECONDS.toNanos(tickMillis);
+            engine.advance(tickMillis);
+            advanceTime.record(engine.getLastAdvanceNanos());
+
+            final long sleep = next - System.nanoTime();
+            if (sleep > 0)
+                TimeUnit.NANOSECONDS.sleep(sleep);
+        }
+        final double elapsedSeconds = (System.nanoTime() - start) / 1e9;
+        final long allocated = allocatedBytes() - allocatedBefore;
+        final long dropped = engine.getDroppedUpdateCount();
+        engine.stopEngine();
+
+        System.out.println(String.format(Locale.US, "%d torrents, %d ticks of %d ms in %.1f s", torrentCount, ticks, tickMillis, elapsedSeconds));
+        System.out.println("advance     " + advanceTime.summary());
+        System.out.println("dispatch    " + dispatchLatency.summary());
+        System.out.println(String.format(Locale.US, "updates     %d (%.0f/s), %d dropped by the bus", updates.get(), updates.get() / elapsedSeconds, dropped));
+        if (allocated >= 0)
+            System.out.println(String.format(Locale.US, "allocated   %.1f MB (%.1f MB/s)", allocated / 1e6, allocated / 1e6 / elapsedSeconds));
+        System.exit(0); //The bus keeps idle delivery threads around for a while
+    }
+
+    /**
+     * @return Bytes allocated by every live thread so far, or -1 if the JVM can't tell.
+     */
+    private static long allocatedBytes()
+    {
+        final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (!(threads instanceof com.sun.management.ThreadMXBean)) return -1;
+
+        final com.sun.management.ThreadMXBean hotspot = (com.sun.management.ThreadMXBean) threads;
+        if (!hotspot.isThreadAllocatedMemorySupported()) return -1;
+        long total = 0;
+        for (long allocated : hotspot.getThreadAllocatedBytes(threads.getAllThreadIds()))
+        {
+            if (allocated > 0)
+                total += allocated;
+        }
+        return total;
+    }
+
+    /**
+     * Keeps every sample up to a bound and sorts them once at the end, the run is short enough for that.
+     */
+    private static final class LatencyRecorder
+    {
+        private final long[] mSamples;
+        private int mCount;
+
+        LatencyRecorder(int capacity)
+        {
+            mSamples = new long[Math.max(1, capacity)];
+        }
+
+        synchronized void record(long nanos)
+        {
+            if (mCount < mSamples.length)
+                mSamples[mCount++] = nanos;
+        }
+
+        synchronized String summary()
+        {
+            if (mCount == 0) return "no samples";
+
+            final long[] sorted = Arrays.copyOf(mSamples, mCount);
+            Arrays.sort(sorted);
+            return String.format(Locale.US, "p50 %.3f ms, p99 %.3f ms, max %.3f ms (%d samples)",
+                    percentile(sorted, 0.50), percentile(sorted, 0.99), sorted[sorted.length - 1] / 1e6, mCount);
+        }
+
+        private static double percentile(long[] sorted, double percentile)
+        {
+            return sorted[(int) Math.min(sorted.length - 1, Math.round(percentile * (sorted.length - 1)))] / 1e6;
+        }
+    }
+}
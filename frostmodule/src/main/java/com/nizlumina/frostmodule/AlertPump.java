@@ -0,0 +1,344 @@
+package com.nizlumina.frostmodule;
+
+import android.util.Log;
+
+import com.frostwire.jlibtorrent.AlertListener;
+import com.frostwire.jlibtorrent.Session;
+import com.frostwire.jlibtorrent.TorrentStatus;
+import com.frostwire.jlibtorrent.alerts.Alert;
+import com.frostwire.jlibtorrent.alerts.AlertType;
+import com.frostwire.jlibtorrent.alerts.PieceFinishedAlert;
+import com.frostwire.jlibtorrent.alerts.SaveResumeDataAlert;
+import com.frostwire.jlibtorrent.alerts.StateUpdateAlert;
+import com.frostwire.jlibtorrent.alerts.TorrentAlert;
+import com.nizlumina.frostmodule.common.TorrentObject;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Turns libtorrent alerts into typed {@link Event}s and hands them to the engine in batches, so nothing has to poll every handle.
+ * <p/>
+ * Progress comes from libtorrent's own state updates: once per tick the pump asks the session to post them, and the session only reports the
+ * torrents whose status changed since the last post. While every torrent is paused (see {@link Handler#hasActiveTorrents()}) the pump doesn't
+ * even do that and simply blocks until the next alert, so an idle library costs no wakeups at all.
+ * <p/>
+ * Alerts are only valid while jlibtorrent dispatches them, so they're copied into events right on the alert thread and everything else happens
+ * on the pump thread.
+ */
+final class AlertPump
+{
+    private static final String TAG = AlertPump.class.getSimpleName();
+    private static final int MAX_BATCH = 512;
+
+    private static final int[] TYPES = {
+            AlertType.STATE_UPDATE.getSwig(),
+            AlertType.STATE_CHANGED.getSwig(),
+            AlertType.STATS.getSwig(),
+            AlertType.TORRENT_ADDED.getSwig(),
+            AlertType.TORRENT_FINISHED.getSwig(),
+            AlertType.TORRENT_PAUSED.getSwig(),
+            AlertType.TORRENT_RESUMED.getSwig(),
+            AlertType.SAVE_RESUME_DATA.getSwig(),
+            AlertType.SAVE_RESUME_DATA_FAILED.getSwig(),
+            AlertType.PIECE_FINISHED.getSwig(),
+            AlertType.TRACKER_REPLY.getSwig(),
+            AlertType.TRACKER_ERROR.getSwig()
+    };
+
+    enum Kind
+    {
+        /**
+         * The latest values of a torrent whose status changed.
+         */
+        STATUS,
+        ADDED,
+        FINISHED,
+        PAUSED,
+        RESUMED,
+        /**
+         * libtorrent moved the torrent to another state, e.g. from checking to downloading.
+         */
+        STATE_CHANGED,
+        /**
+         * The torrent transferred something during the last stats interval.
+         */
+        STATS,
+        RESUME_DATA,
+        RESUME_DATA_FAILED,
+        /**
+         * A piece passed its hash check and is on disk, see {@link Event#piece}.
+         */
+        PIECE_FINISHED,
+        /**
+         * A tracker answered or failed to.
+         */
+        TRACKER
+    }
+
+    interface Handler
+    {
+        /**
+         * Called on the pump thread with every event gathered since the previous call, oldest first. The list is reused afterwards.
+         */
+        void onEvents(List<Event> events);
+
+        /**
+         * @return False while no torrent can make progress, which lets the pump stop asking for state updates.
+         */
+        boolean hasActiveTorrents();
+    }
+
+    private final Session mSession;
+    private final Handler mHandler;
+    private final long mTickMillis;
+    private final EngineMetrics mMetrics;
+    private final BlockingQueue<Event> mEvents = new LinkedBlockingQueue<>(); //libtorrent bounds its own alert queue
+    private final AlertListener mAlertListener = new AlertListener()
+    {
+        @Override
+        public int[] types()
+        {
+            return TYPES;
+        }
+
+        @Override
+        public void alert(Alert<?> alert)
+        {
+            onAlert(alert);
+        }
+    };
+    private volatile boolean mUpdatesWanted = true; //Whether something happened that the next state update should pick up
+    private Thread mPump;
+
+    AlertPump(Session session, long tickMillis, EngineMetrics metrics, Handler handler)
+    {
+        mSession = session;
+        mTickMillis = tickMillis;
+        mMetrics = metrics;
+        mHandler = handler;
+    }
+
+    synchronized void start()
+    {
+        if (mPump != null) return;
+
+        mSession.addListener(mAlertListener);
+        mPump = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                pump();
+            }
+        }, TAG);
+        mPump.start();
+    }
+
+    /**
+     * Stops listening and lets the pump finish the batch in hand. Events not delivered yet are dropped.
+     */
+    void stop()
+    {
+        final Thread pump;
+        synchronized (this)
+        {
+            pump = mPump;
+            mPump = null;
+        }
+        if (pump == null) return;
+
+        mSession.removeListener(mAlertListener);
+        pump.interrupt();
+        try
+        {
+            pump.join();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+        mEvents.clear();
+    }
+
+    private void pump()
+    {
+        final List<Event> batch = new ArrayList<>(MAX_BATCH);
+        long nextPost = System.currentTimeMillis() + mTickMillis;
+        try
+        {
+            while (!Thread.currentThread().isInterrupted())
+            {
+                final boolean posting = mUpdatesWanted || mHandler.hasActiveTorrents();
+                final long now = System.currentTimeMillis();
+                if (posting && now >= nextPost)
+                {
+                    mUpdatesWanted = false;
+                    final long start = System.nanoTime();
+                    try
+                    {
+                        mSession.postTorrentUpdates(); //Answered with a state update alert
+                    }
+                    catch (RuntimeException e)
+                    {
+                        Log.e(TAG, "Asking for torrent updates failed", e); //Tried again on the next tick
+                    }
+                    mMetrics.jniPostTorrentUpdates.recordSince(start);
+                    nextPost = now + mTickMillis;
+                }
+
+                final Event first = posting ? mEvents.poll(Math.max(0, nextPost - now), TimeUnit.MILLISECONDS) : mEvents.take();
+                if (first == null) continue;
+                if (!posting)
+                    nextPost = System.currentTimeMillis(); //Waking up from idle, ask for updates right away
+
+                batch.add(first);
+                mEvents.drainTo(batch, MAX_BATCH - 1);
+                final long start = System.nanoTime();
+                try
+                {
+                    mHandler.onEvents(batch);
+                }
+                catch (RuntimeException e)
+                {
+                    //The pump is the only way status, finished pieces and resume data get anywhere, it must outlive a broken batch
+                    Log.e(TAG, "Batch of " + batch.size() + " events failed", e);
+                }
+                finally
+                {
+                    mMetrics.alertBatchSize.record(batch.size());
+                    mMetrics.alertBatch.recordSince(start);
+                    batch.clear();
+                }
+            }
+        }
+        catch (InterruptedException e)
+        {
+            //Stopped
+        }
+    }
+
+    /**
+     * Runs on the jlibtorrent alert thread, so only copies what's needed and never blocks.
+     */
+    private void onAlert(Alert<?> alert)
+    {
+        if (alert instanceof StateUpdateAlert)
+        {
+            final List<TorrentStatus> statuses = ((StateUpdateAlert) alert).getStatus();
+            for (int i = 0; i < statuses.size(); i++)
+            {
+                mEvents.offer(Event.status(statuses.get(i)));
+            }
+            return;
+        }
+        if (!(alert instanceof TorrentAlert)) return;
+
+        final String id = ((TorrentAlert<?>) alert).getHandle().getInfoHash().toString(); //id = infohash
+        final AlertType type = alert.getType();
+        if (alert instanceof SaveResumeDataAlert)
+        {
+            mEvents.offer(new Event(Kind.RESUME_DATA, id, ((SaveResumeDataAlert) alert).resumeData().bencode()));
+            return;
+        }
+        if (alert instanceof PieceFinishedAlert)
+        {
+            final Event event = new Event(Kind.PIECE_FINISHED, id, null);
+            event.piece = ((PieceFinishedAlert) alert).getPieceIndex();
+            mEvents.offer(event);
+            return;
+        }
+
+        final Kind kind;
+        switch (type)
+        {
+            case SAVE_RESUME_DATA_FAILED:
+                kind = Kind.RESUME_DATA_FAILED;
+                break;
+            case TORRENT_ADDED:
+                kind = Kind.ADDED;
+                break;
+            case TORRENT_FINISHED:
+                kind = Kind.FINISHED;
+                break;
+            case TORRENT_PAUSED:
+                kind = Kind.PAUSED;
+                break;
+            case TORRENT_RESUMED:
+                kind = Kind.RESUMED;
+                break;
+            case STATE_CHANGED:
+                kind = Kind.STATE_CHANGED;
+                break;
+            case STATS:
+                kind = Kind.STATS;
+                break;
+            case TRACKER_REPLY:
+            case TRACKER_ERROR:
+                kind = Kind.TRACKER;
+                break;
+            default:
+                return;
+        }
+        if (kind != Kind.RESUME_DATA_FAILED && kind != Kind.TRACKER)
+            mUpdatesWanted = true;
+        mEvents.offer(new Event(kind, id, null));
+    }
+
+    /**
+     * An alert reduced to what the engine needs. Progress values are only set for {@link Kind#STATUS}, resume data only for {@link Kind#RESUME_DATA}
+     * and the piece only for {@link Kind#PIECE_FINISHED}.
+     */
+    static final class Event
+    {
+        final Kind kind;
+        final String id;
+        final byte[] resumeData;
+        int piece;
+        long downloaded;
+        long uploaded;
+        long completedBytes;
+        long size;
+        int activePeersNumber;
+        int seedersNumber;
+        int downloadRate;
+        int uploadRate;
+        boolean finished;
+        TorrentObject.Status status;
+
+        Event(Kind kind, String id, byte[] resumeData)
+        {
+            this.kind = kind;
+            this.id = id;
+            this.resumeData = resumeData;
+        }
+
+        static Event status(TorrentStatus torrentStatus)
+        {
+            final Event event = new Event(Kind.STATUS, torrentStatus.getInfoHash().toString(), null);
+            event.downloaded = torrentStatus.getTotalDownload();
+            event.uploaded = torrentStatus.getTotalUpload();
+            event.completedBytes = torrentStatus.getTotalDone();
+            event.size = torrentStatus.getTotalWanted();
+            event.activePeersNumber = torrentStatus.getNumPeers();
+            event.seedersNumber = torrentStatus.getNumSeeds();
+            event.downloadRate = torrentStatus.getDownloadPayloadRate();
+            event.uploadRate = torrentStatus.getUploadPayloadRate();
+            event.finished = torrentStatus.isFinished();
+            event.status = toStatus(torrentStatus);
+            return event;
+        }
+
+        private static TorrentObject.Status toStatus(TorrentStatus status)
+        {
+            if (status.isPaused())
+                return TorrentObject.Status.PAUSED;
+            if (status.isFinished())
+                return TorrentObject.Status.COMPLETED;
+            return TorrentObject.Status.DOWNLOADING;
+        }
+    }
+}
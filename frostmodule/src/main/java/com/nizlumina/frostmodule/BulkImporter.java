@@ -0,0 +1,311 @@
+package com.nizlumina.frostmodule;
+
+import com.nizlumina.frostmodule.bencode.MetafileInfo;
+import com.nizlumina.frostmodule.common.BulkImport;
+import com.nizlumina.frostmodule.common.EngineCommandQueue;
+import com.nizlumina.frostmodule.common.TorrentObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Two-stage import of many metafiles.
+ * <p/>
+ * Reading and validating runs in parallel on a pool sized to the cores. Valid torrents are then put on the engine {@link EngineCommandQueue},
+ * whose single worker is the only one adding to the session; because the queue is bounded, parsing blocks whenever the session falls behind
+ * instead of piling up parsed metafiles in memory.
+ * <p/>
+ * Parsed metadata goes straight into the {@link MetafileIndex}, so the session worker doesn't parse the same metafile again.
+ */
+final class BulkImporter
+{
+    private static final long PARSERS_STOP_WAIT_SECONDS = 5;
+
+    private final MetafileIndex mMetafileIndex;
+    private final EngineCommandQueue mCommandQueue;
+    private final Map<TorrentObject, Job> mInFlight = new ConcurrentHashMap<>();
+    private final AtomicInteger mOutstanding = new AtomicInteger(); //Metafiles submitted but not reported yet
+    private ExecutorService mParsers;
+
+    BulkImporter(MetafileIndex metafileIndex, EngineCommandQueue commandQueue)
+    {
+        mMetafileIndex = metafileIndex;
+        mCommandQueue = commandQueue;
+        mCommandQueue.setDropListener(new EngineCommandQueue.DropListener()
+        {
+            @Override
+            public void onAddDropped(TorrentObject torrentObject)
+            {
+                final Job job = mInFlight.remove(torrentObject);
+                if (job != null)
+                    job.report(torrentObject.getMetafile(), torrentObject.getId(), BulkImport.Status.FAILED, "Removed before it was added");
+            }
+        });
+    }
+
+    synchronized void start()
+    {
+        if (mParsers != null) return;
+
+        //A fork-join pool would be the natural fit but needs API 21; a fixed pool behaves the same for independent files.
+        final int parallelism = Math.max(1, Runtime.getRuntime().availableProcessors());
+        mParsers = Executors.newFixedThreadPool(parallelism, new ThreadFactory()
+        {
+            private final AtomicInteger mCount = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable)
+            {
+                final Thread thread = new Thread(runnable, "BulkImporter-" + mCount.incrementAndGet());
+                thread.setPriority(Thread.MIN_PRIORITY); //Never compete with the UI
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Stops parsing. Items not handed to the session yet are reported as failed so every listener still gets its summary.
+     * Waits a little for parsers already running, so call it off the main thread. Adds the command queue drops when it stops afterwards are
+     * only reported by {@link #onQueueStopped()}.
+     */
+    void stop()
+    {
+        final ExecutorService parsers;
+        synchronized (this)
+        {
+            parsers = mParsers;
+            mParsers = null;
+        }
+        if (parsers != null)
+        {
+            for (Runnable never : parsers.shutdownNow())
+            {
+                final Parse parse = (Parse) never;
+                parse.job.report(parse.metafile, null, BulkImport.Status.FAILED, "Engine stopped");
+            }
+            try
+            {
+                //Running parsers may still hand torrents to the queue; whatever they add after this is caught by onQueueStopped
+                parsers.awaitTermination(PARSERS_STOP_WAIT_SECONDS, TimeUnit.SECONDS);
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+        failInFlight();
+    }
+
+    /**
+     * Reports the adds the stopped command queue discarded. Call once the queue stopped.
+     */
+    void onQueueStopped()
+    {
+        failInFlight();
+    }
+
+    private void failInFlight()
+    {
+        for (Map.Entry<TorrentObject, Job> entry : mInFlight.entrySet())
+        {
+            if (mInFlight.remove(entry.getKey()) != null)
+                entry.getValue().report(entry.getKey().getMetafile(), entry.getKey().getId(), BulkImport.Status.FAILED, "Engine stopped");
+        }
+    }
+
+    /**
+     * @return True once every submitted metafile was reported.
+     */
+    boolean isIdle()
+    {
+        return mOutstanding.get() == 0;
+    }
+
+    void submit(List<File> metafiles, BulkImport.Listener listener)
+    {
+        final Job job = new Job(metafiles.size(), listener, mOutstanding);
+        if (metafiles.isEmpty())
+        {
+            job.complete();
+            return;
+        }
+
+        final ExecutorService parsers;
+        synchronized (this)
+        {
+            parsers = mParsers;
+        }
+
+        for (final File metafile : metafiles)
+        {
+            try
+            {
+                if (parsers == null)
+                    throw new RejectedExecutionException();
+
+                parsers.execute(new Parse(job, metafile));
+            }
+            catch (RejectedExecutionException e)
+            {
+                job.report(metafile, null, BulkImport.Status.FAILED, "Engine not running");
+            }
+        }
+    }
+
+    /**
+     * Called by the session worker once it dealt with a torrent. Adds that didn't come from an import are ignored.
+     */
+    void onAddExecuted(TorrentObject torrentObject, BulkImport.Status status, String message)
+    {
+        final Job job = mInFlight.remove(torrentObject);
+        if (job != null)
+            job.report(torrentObject.getMetafile(), torrentObject.getId(), status, message);
+    }
+
+    private void parse(Job job, File metafile)
+    {
+        final MetafileInfo metafileInfo;
+        try
+        {
+            metafileInfo = MetafileInfo.read(metafile);
+            job.mBytesRead.addAndGet(metafile.length());
+        }
+        catch (IOException e)
+        {
+            job.report(metafile, null, BulkImport.Status.INVALID, e.getMessage());
+            return;
+        }
+
+        final String problem = validate(metafileInfo);
+        if (problem != null)
+        {
+            job.report(metafile, metafileInfo.getInfoHash(), BulkImport.Status.INVALID, problem);
+            return;
+        }
+
+        try
+        {
+            mMetafileIndex.put(metafileInfo, metafile);
+        }
+        catch (IOException e)
+        {
+            //Not fatal, the session worker simply parses it again
+        }
+
+        final TorrentObject torrentObject = new TorrentObject()
+                .setMetafilePath(metafile.getAbsolutePath())
+                .setId(metafileInfo.getInfoHash());
+        mInFlight.put(torrentObject, job);
+        try
+        {
+            mCommandQueue.putAdd(torrentObject); //Blocks while the session worker catches up
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            if (mInFlight.remove(torrentObject) != null)
+                job.report(metafile, metafileInfo.getInfoHash(), BulkImport.Status.FAILED, "Import interrupted");
+        }
+    }
+
+    /**
+     * Named so {@link #stop()} can report the parses that never ran.
+     */
+    private final class Parse implements Runnable
+    {
+        final Job job;
+        final File metafile;
+
+        Parse(Job job, File metafile)
+        {
+            this.job = job;
+            this.metafile = metafile;
+        }
+
+        @Override
+        public void run()
+        {
+            parse(job, metafile);
+        }
+    }
+
+    private static String validate(MetafileInfo metafileInfo)
+    {
+        if (metafileInfo.getName() == null || metafileInfo.getName().length() == 0)
+            return "Missing name";
+        if (metafileInfo.getFileCount() == 0 || metafileInfo.getTotalSize() <= 0)
+            return "No files";
+        if (metafileInfo.getPieceLength() <= 0)
+            return "Missing piece length";
+
+        final long expectedPieces = (metafileInfo.getTotalSize() + metafileInfo.getPieceLength() - 1) / metafileInfo.getPieceLength();
+        if (metafileInfo.getPieceCount() != expectedPieces)
+            return "Expected " + expectedPieces + " piece hashes but found " + metafileInfo.getPieceCount();
+        return null;
+    }
+
+    private static final class Job
+    {
+        private final int mTotal;
+        private final BulkImport.Listener mListener;
+        private final long mStartMillis = System.currentTimeMillis();
+        private final AtomicInteger mRemaining;
+        private final AtomicInteger mImported = new AtomicInteger();
+        private final AtomicInteger mDuplicates = new AtomicInteger();
+        private final AtomicInteger mInvalid = new AtomicInteger();
+        private final AtomicInteger mFailed = new AtomicInteger();
+        private final AtomicLong mBytesRead = new AtomicLong();
+        private final AtomicInteger mOutstanding;
+
+        Job(int total, BulkImport.Listener listener, AtomicInteger outstanding)
+        {
+            mTotal = total;
+            mListener = listener;
+            mRemaining = new AtomicInteger(total);
+            mOutstanding = outstanding;
+            mOutstanding.addAndGet(total);
+        }
+
+        void report(File metafile, String id, BulkImport.Status status, String message)
+        {
+            switch (status)
+            {
+                case IMPORTED:
+                    mImported.incrementAndGet();
+                    break;
+                case DUPLICATE:
+                    mDuplicates.incrementAndGet();
+                    break;
+                case INVALID:
+                    mInvalid.incrementAndGet();
+                    break;
+                case FAILED:
+                    mFailed.incrementAndGet();
+                    break;
+            }
+
+            if (mListener != null)
+                mListener.onResult(new BulkImport.Result(metafile, id, status, message));
+            mOutstanding.decrementAndGet();
+            if (mRemaining.decrementAndGet() == 0)
+                complete();
+        }
+
+        void complete()
+        {
+            if (mListener != null)
+                mListener.onComplete(new BulkImport.Summary(mTotal, mImported.get(), mDuplicates.get(), mInvalid.get(), mFailed.get(),
+                        mBytesRead.get(), System.currentTimeMillis() - mStartMillis));
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package com.nizlumina.frostmodule;
+
+import com.nizlumina.frostmodule.common.BulkImport;
+import com.nizlumina.frostmodule.common.EngineCommandQueue;
+import com.nizlumina.frostmodule.metrics.Counter;
+import com.nizlumina.frostmodule.metrics.Histogram;
+import com.nizlumina.frostmodule.metrics.MetricsRegistry;
+
+import java.util.Locale;
+
+/**
+ * The metrics {@link FrostwireEngine} records, created once so the hot paths only touch fields.
+ * <p/>
+ * JNI calls are timed individually since every one of them crosses into libtorrent and may wait on its session lock.
+ */
+final class EngineMetrics
+{
+    final Counter[] commandsSubmitted = new Counter[EngineCommandQueue.Type.values().length];
+    final Counter[] commandsDropped = new Counter[EngineCommandQueue.Type.values().length];
+    final Counter addsSubmitted;
+    final Counter addsDropped;
+    final Counter[] addResults = new Counter[BulkImport.Status.values().length];
+    final Histogram commandBatchSize;
+    final Histogram commandBatchLatency;
+
+    final Histogram jniAddTorrent;
+    final Histogram jniRemoveTorrent;
+    final Histogram jniPause;
+    final Histogram jniResume;
+    final Histogram jniPostTorrentUpdates;
+    final Histogram jniSaveResumeData;
+
+    final Histogram metafileParse;
+    final Histogram alertBatch;
+    final Histogram alertBatchSize;
+    final Histogram listenerBatch;
+    final Histogram listenerCallback;
+    final Counter listenerUpdates;
+    final Histogram resumeDataWrite;
+    final Counter resumeDataFailures;
+    final Histogram timeToFirstPeer;
+    final Histogram sessionStateSave;
+    final Histogram storageMove;
+    final Counter storageMovedBytes;
+
+    EngineMetrics(MetricsRegistry registry)
+    {
+        for (EngineCommandQueue.Type type : EngineCommandQueue.Type.values())
+        {
+            final String name = type.name().toLowerCase(Locale.US);
+            commandsSubmitted[type.ordinal()] = registry.counter("frostmodule_commands_submitted_total", "Commands handed to the engine", "type", name);
+            commandsDropped[type.ordinal()] = registry.counter("frostmodule_commands_dropped_total", "Commands refused because the command queue was full", "type", name);
+        }
+        addsSubmitted = registry.counter("frostmodule_commands_submitted_total", "Commands handed to the engine", "type", "add");
+        addsDropped = registry.counter("frostmodule_commands_dropped_total", "Commands refused because the command queue was full", "type", "add");
+        for (BulkImport.Status status : BulkImport.Status.values())
+        {
+            addResults[status.ordinal()] = registry.counter("frostmodule_torrent_adds_total", "Torrent additions by outcome", "status", status.name().toLowerCase(Locale.US));
+        }
+        commandBatchSize = registry.histogram("frostmodule_command_batch_size", "Commands executed per session worker batch");
+        commandBatchLatency = registry.latency("frostmodule_command_batch_seconds", "Time the session worker spent on a batch");
+
+        jniAddTorrent = jni(registry, "add_torrent");
+        jniRemoveTorrent = jni(registry, "remove_torrent");
+        jniPause = jni(registry, "pause");
+        jniResume = jni(registry, "resume");
+        jniPostTorrentUpdates = jni(registry, "post_torrent_updates");
+        jniSaveResumeData = jni(registry, "save_resume_data");
+
+        metafileParse = registry.latency("frostmodule_metafile_parse_seconds", "Time to read and hash a metafile");
+        alertBatch = registry.latency("frostmodule_alert_batch_seconds", "Time the engine spent on one batch of alert events");
+        alertBatchSize = registry.histogram("frostmodule_alert_batch_size", "Alert events handled per batch");
+        listenerBatch = registry.latency("frostmodule_listener_batch_seconds", "Time to dispatch one bus batch to the per-torrent listeners");
+        listenerCallback = registry.latency("frostmodule_listener_callback_seconds", "Time spent in a single per-torrent listener");
+        listenerUpdates = registry.counter("frostmodule_listener_updates_total", "Updates delivered to per-torrent listeners");
+        resumeDataWrite = registry.latency("frostmodule_resume_data_write_seconds", "Time to persist the resume data of a torrent");
+        resumeDataFailures = registry.counter("frostmodule_resume_data_failures_total", "Resume data that libtorrent or the store failed to save");
+        timeToFirstPeer = registry.latency("frostmodule_time_to_first_peer_seconds", "Time from a torrent starting to run to its first connected peer");
+        storageMove = registry.latency("frostmodule_storage_move_seconds", "Time to relocate the data of a torrent, renames and copies alike");
+        storageMovedBytes = registry.counter("frostmodule_storage_moved_bytes_total", "Bytes relocated to another save directory");
+        sessionStateSave = registry.latency("frostmodule_session_state_save_seconds", "Time to save the session state, DHT routing table included");
+    }
+
+    private static Histogram jni(MetricsRegistry registry, String call)
+    {
+        return registry.latency("frostmodule_jni_call_seconds", "Duration of calls into libtorrent", "call", call);
+    }
+}
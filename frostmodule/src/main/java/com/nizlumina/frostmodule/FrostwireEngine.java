@@ -1,21 +1,69 @@
 package com.nizlumina.frostmodule;
 
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
 import com.frostwire.bittorrent.BTContext;
 import com.frostwire.bittorrent.BTEngine;
 import com.frostwire.jlibtorrent.DHT;
+import com.frostwire.jlibtorrent.AnnounceEntry;
+import com.frostwire.jlibtorrent.Bitfield;
 import com.frostwire.jlibtorrent.Fingerprint;
 import com.frostwire.jlibtorrent.Pair;
+import com.frostwire.jlibtorrent.PeerInfo;
 import com.frostwire.jlibtorrent.Session;
+import com.frostwire.jlibtorrent.SettingsPack;
 import com.frostwire.jlibtorrent.TorrentHandle;
+import com.frostwire.jlibtorrent.TorrentStatus;
+import com.frostwire.jlibtorrent.swig.settings_pack;
+import com.nizlumina.frostmodule.bandwidth.BandwidthScheduler;
+import com.nizlumina.frostmodule.bandwidth.TrafficClass;
+import com.nizlumina.frostmodule.bencode.MetafileInfo;
+import com.nizlumina.frostmodule.bencode.MetafileLayout;
+import com.nizlumina.frostmodule.common.BulkImport;
+import com.nizlumina.frostmodule.common.EngineCommandQueue;
 import com.nizlumina.frostmodule.common.EngineConfig;
+import com.nizlumina.frostmodule.common.EngineEventBus;
+import com.nizlumina.frostmodule.common.QueueManager;
+import com.nizlumina.frostmodule.common.SessionSettings;
+import com.nizlumina.frostmodule.common.StartupReport;
+import com.nizlumina.frostmodule.common.TorrentDetails;
 import com.nizlumina.frostmodule.common.TorrentEngine;
 import com.nizlumina.frostmodule.common.TorrentObject;
+import com.nizlumina.frostmodule.common.TorrentRegistry;
+import com.nizlumina.frostmodule.common.TorrentSnapshot;
+import com.nizlumina.frostmodule.common.TorrentStatusTable;
+import com.nizlumina.frostmodule.common.TorrentUpdate;
+import com.nizlumina.frostmodule.metrics.Gauge;
+import com.nizlumina.frostmodule.metrics.MetricsRegistry;
+import com.nizlumina.frostmodule.metrics.MetricsServer;
+import com.nizlumina.frostmodule.storage.PieceVerifier;
+import com.nizlumina.frostmodule.storage.StorageMover;
+import com.nizlumina.frostmodule.streaming.PieceSource;
+import com.nizlumina.frostmodule.streaming.StreamServer;
+import com.nizlumina.frostmodule.streaming.TorrentStream;
+
+import org.apache.commons.io.FileUtils;
 
 import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.ReentrantLock;
 
 /**
@@ -30,40 +78,115 @@ import java.util.concurrent.locks.ReentrantLock;
  */
 public class FrostwireEngine implements TorrentEngine
 {
+    private static final String TAG = FrostwireEngine.class.getSimpleName();
+    private static final long RESUME_DATA_INTERVAL_SECONDS = 60;
+    private static final long RESUME_DATA_SHUTDOWN_WAIT_MILLIS = 3000;
+    private static final long RESUME_DATA_MOVE_WAIT_MILLIS = 2000; //Asked for when the move started, so normally long written
+    private static final int METAFILE_INDEX_CACHE_SIZE = 512;
+    private static final int COMMAND_QUEUE_CAPACITY = 1024;
+    private static final long BANDWIDTH_REBALANCE_MILLIS = 2000;
+    private static final long QUEUE_REBALANCE_MILLIS = 5000;
+    private static final long STALL_TIMEOUT_MILLIS = 2 * 60 * 1000;
+    private static final int STREAMING_PRIORITY = Integer.MAX_VALUE;
+    private static final int MAX_CONCURRENT_MOVES = 2;
+    private static final int MOVE_COPY_PARALLELISM = 4; //Bound by storage rather than cores
+    private static final long SESSION_STATE_INTERVAL_SECONDS = 10 * 60;
+    private static final String SESSION_STATE_FILE = "session.state";
+    private static final String PHASE_SESSION = "session";
+    private static final String PHASE_STATE = "state";
+    private static final String PHASE_SETTINGS = "settings";
+    private static final String PHASE_TORRENTS = "torrents";
+    private static final String PHASE_DHT = "dht";
 
     private EngineConfig mEngineConfig;
-    //private ArrayList<String> mTorrentIds;
-    private DHT mDht;
-    private ConcurrentHashMap<String, TorrentHandle> mTorrentMap;
+    private SessionSettings mSessionSettings;
+    private volatile DHT mDht; //Also read by the metrics endpoint
+    private final TorrentRegistry<TorrentHandle> mTorrents = new TorrentRegistry<>(); //id = infohash, in display order
 
-    private ExecutorService mSessionUpdateExecutor;
+    private EngineCommandQueue mCommandQueue;
+    private BulkImporter mBulkImporter;
     private Listener mEngineListener;
 
+    private EngineEventBus mEventBus;
+    private EngineEventBus.Subscription mListenerSubscription;
+    private final ConcurrentHashMap<String, TorrentObject.TorrentListener> mTorrentListeners = new ConcurrentHashMap<>();
+    private ScheduledExecutorService mScheduler;
+    private AlertPump mAlertPump;
+    private final TorrentStatusTable mStatusTable = new TorrentStatusTable();
+    private final AtomicLong mSnapshotVersion = new AtomicLong();
+
+    private final SessionManager mSessionManager = new SessionManager();
+    private ResumeDataStore mResumeDataStore;
+    private MetafileIndex mMetafileIndex;
+    private ExecutorService mResumeDataWriter;
+    private final Object mResumeDataLock = new Object();
+    private int mPendingResumeData; //guarded by mResumeDataLock
+    private final Object mResumeFilesLock = new Object(); //Orders resume data writes against removals
+    private PieceVerifier mPieceVerifier;
+    private StorageMover mStorageMover;
+    private final Set<String> mMovingIds = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private BandwidthScheduler mBandwidthScheduler;
+    private QueueManager mQueueManager;
+    private StreamServer mStreamServer; //guarded by this, started on the first stream
+    private final ConcurrentHashMap<String, ActiveStream> mStreams = new ConcurrentHashMap<>();
+    private final Map<String, SequentialHold> mSequentialHolds = new HashMap<>(); //guarded by itself
+    private final ConcurrentHashMap<String, TorrentDetails> mDetails = new ConcurrentHashMap<>();
+    private final DetailsSource mDetailsSource = new DetailsSource();
+
+    //The last engine shutting down in this process; the next one to start waits for it, as they share the session and the kept state
+    private static volatile Thread sShutdown;
+
+    private volatile Thread mStartup;
+    private volatile Thread mShutdown;
+    private volatile StartupReport mStartupReport; //Null until ready
+    private volatile Runnable mOnEngineStartedListener;
+    private final Object mReadyLock = new Object();
+    private boolean mReady; //guarded by mReadyLock
+    private final List<Runnable> mDeferred = new ArrayList<>(); //guarded by mReadyLock, run once ready
+    private final ConcurrentHashMap<String, Long> mAwaitingPeers = new ConcurrentHashMap<>(); //Running torrents without a peer yet, to when they started
+    private volatile long mDhtStartNanos;
+    private volatile long mFirstPeerMillis = -1;
+
+    private final MetricsRegistry mMetrics = new MetricsRegistry();
+    private final EngineMetrics mEngineMetrics = new EngineMetrics(mMetrics);
+    private MetricsServer mMetricsServer;
+
     /**
      * {@inheritDoc}
      * <p/>
      * This implentation process the torrents addition asynchronously. Any id used by the passed {@link TorrentObject} will be overwritten by the internal engine.
      * <p/>
-     * You can retrieve the ids via
+     * The id is the infohash of the metafile and is set on the {@link TorrentObject} before it reaches the session.
+     * You can retrieve the ids via {@link #getTorrentIds()}.
      *
      * @param torrentObjects TorrentObject(s) created from any valid source (metafile/magnet/etc).
      */
     @Override
     public void addTorrent(final TorrentObject... torrentObjects)
     {
-        mSessionUpdateExecutor.submit(new Runnable()
+        mEngineMetrics.addsSubmitted.add(torrentObjects.length);
+        if (!mCommandQueue.offerAdd(torrentObjects))
+        {
+            mEngineMetrics.addsDropped.add(torrentObjects.length);
+            Log.w(TAG, "Command queue full, dropped " + torrentObjects.length + " add(s)");
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * Imported torrents reach the session through the same command queue as {@link #addTorrent}, so the queue depth bounds how far parsing runs ahead.
+     * Imports given while the engine is still starting begin once it's ready.
+     */
+    @Override
+    public void importTorrents(final List<File> metafiles, final BulkImport.Listener listener)
+    {
+        runWhenReady(new Runnable()
         {
             @Override
             public void run()
             {
-                for (TorrentObject torrentObject : torrentObjects)
-                {
-                    if (torrentObject != null)
-                    {
-                        final TorrentHandle torrentHandle = BTEngine.getInstance().getSession().addTorrent(torrentObject.getMetafile(), mEngineConfig.getDownloadDirectory());
-                        mTorrentMap.put(torrentHandle.getInfoHash().toString(), torrentHandle); //id = infohash
-                    }
-                }
+                mBulkImporter.submit(metafiles, listener);
             }
         });
     }
@@ -71,209 +194,1823 @@ public class FrostwireEngine implements TorrentEngine
     @Override
     public void resumeTorrent(final String... ids)
     {
-        mSessionUpdateExecutor.submit(new Runnable()
+        enqueue(EngineCommandQueue.Type.RESUME, ids);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * Paused torrents also get their fast resume data saved so a later start doesn't need to recheck them.
+     */
+    @Override
+    public void pauseTorrent(final String... ids)
+    {
+        enqueue(EngineCommandQueue.Type.PAUSE, ids);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * Downloaded data is left on disk; everything the engine kept about the torrents (resume data, metafile copy, index entry) is dropped.
+     */
+    @Override
+    public void removeTorrent(final String... ids)
+    {
+        enqueue(EngineCommandQueue.Type.REMOVE, ids);
+    }
+
+    private void enqueue(EngineCommandQueue.Type type, String... ids)
+    {
+        mEngineMetrics.commandsSubmitted[type.ordinal()].add(ids.length);
+        if (!mCommandQueue.offer(type, ids))
+        {
+            mEngineMetrics.commandsDropped[type.ordinal()].increment();
+            Log.w(TAG, "Command queue full, dropped some " + type + " command(s)");
+        }
+    }
+
+    /**
+     * Hashes the downloaded data of the torrent against its metafile, in parallel and outside the session so it doesn't hold up other torrents.
+     * <p/>
+     * The session is left alone; what to do with the resulting bitfield (e.g. a libtorrent recheck only when pieces are missing) is up to the caller.
+     * The metafile is read on the session worker, so a torrent that turns out to be gone or unreadable there is reported to the listener as an error.
+     *
+     * @return The verification, or null if the torrent or its kept metafile is unknown.
+     */
+    public PieceVerifier.Task verifyTorrent(final String id, PieceVerifier.Listener listener)
+    {
+        final File metafile = mResumeDataStore.getMetafile(id);
+        if (!mTorrents.contains(id) || metafile == null) return null;
+
+        final PieceVerifier.Task task = mPieceVerifier.prepare(listener);
+        mCommandQueue.post(new Runnable()
         {
             @Override
             public void run()
             {
-                for (String id : ids)
+                final TorrentHandle torrentHandle = mTorrents.get(id);
+                if (torrentHandle == null || !torrentHandle.isValid())
                 {
-                    if (id != null)
-                    {
-
-                    }
+                    mPieceVerifier.fail(task, new IOException("Torrent " + id + " was removed"));
+                    return;
+                }
+                try
+                {
+                    mPieceVerifier.start(task, mMetafileIndex.getLayout(id, metafile), getSaveDirectory(torrentHandle));
+                }
+                catch (IOException e)
+                {
+                    Log.w(TAG, "Could not read the layout of " + id, e);
+                    mPieceVerifier.fail(task, e);
                 }
             }
         });
+        return task;
     }
 
-    @Override
-    public void pauseTorrent(final String... ids)
+    /**
+     * Relocates the data of a finished torrent, e.g. from the private download directory to shared or removable storage, see {@link StorageMover}.
+     * The session worker holds the torrent out of the {@link QueueManager} and pauses it for the duration. Once the data is in place the torrent is
+     * re-added at the new directory together with its resume data, which libtorrent trusts instead of checking every piece again, and goes back
+     * in the queue; the new location is kept so the next start finds it there too.
+     * <p/>
+     * Only torrents with every file downloaded can be moved. That and the metafile are checked on the session worker, a torrent failing either is
+     * reported to the listener as a failed move.
+     *
+     * @param listener Optional, called from the mover's threads.
+     * @return The move, or null if the torrent is unknown, already moving or its kept metafile is missing.
+     */
+    public StorageMover.Task moveStorage(final String id, final File targetDirectory, final StorageMover.Listener listener)
     {
-        mSessionUpdateExecutor.submit(new Runnable()
+        final File metafile = mResumeDataStore.getMetafile(id);
+        if (!mTorrents.contains(id) || metafile == null || !mMovingIds.add(id)) return null;
+
+        final StorageMover.Task task = mStorageMover.prepare(targetDirectory, new StorageMover.Listener()
         {
             @Override
-            public void run()
+            public void onProgress(StorageMover.Task task)
+            {
+                if (listener != null)
+                    listener.onProgress(task);
+            }
+
+            @Override
+            public void onComplete(final StorageMover.Result result)
             {
-                for (String id : ids)
+                mCommandQueue.post(new Runnable()
                 {
-                    if (id != null)
+                    @Override
+                    public void run()
                     {
-
+                        finishMove(id, metafile, targetDirectory, result);
                     }
+                });
+                if (listener != null)
+                    listener.onComplete(result);
+            }
+        });
+        mCommandQueue.post(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                final TorrentHandle torrentHandle = mTorrents.get(id);
+                if (torrentHandle == null || !torrentHandle.isValid())
+                {
+                    mStorageMover.fail(task, "Torrent was removed");
+                    return;
+                }
+                if (!torrentHandle.getStatus().isSeeding())
+                {
+                    //Finished alone also covers torrents with skipped files, which the mover would find missing and fail to verify
+                    mStorageMover.fail(task, "Only torrents with every file downloaded can be moved");
+                    return;
+                }
+                final MetafileLayout layout;
+                try
+                {
+                    layout = mMetafileIndex.getLayout(id, metafile);
+                }
+                catch (IOException e)
+                {
+                    Log.w(TAG, "Could not read the layout of " + id, e);
+                    mStorageMover.fail(task, "Could not read the metafile: " + e.getMessage());
+                    return;
                 }
+
+                mQueueManager.setHeld(id, true, System.currentTimeMillis());
+                stopStreaming(id); //It reads from the old location
+                torrentHandle.pause(); //Closes its files, so nothing reads them halfway through the move
+                requestResumeData(torrentHandle);
+                mStorageMover.start(task, layout, getSaveDirectory(torrentHandle));
             }
         });
+        return task;
     }
 
-    @Override
-    public void removeTorrent(final String... ids)
+    private File getSaveDirectory(TorrentHandle torrentHandle)
     {
-
+        final String savePath = torrentHandle.getSavePath();
+        return savePath != null ? new File(savePath) : mEngineConfig.getDownloadDirectory();
     }
 
     /**
-     * This use libtorrent own fast resume method for torrents that was paused.
+     * Runs on the session worker once the mover is done, successful or not, and lets the torrent back in the queue.
      */
-    private void libtorrentFastResume()
+    private void finishMove(String id, File metafile, File targetDirectory, StorageMover.Result result)
     {
+        mMovingIds.remove(id);
+        mEngineMetrics.storageMove.record(TimeUnit.MILLISECONDS.toNanos(result.getElapsedMillis()));
+        mEngineMetrics.storageMovedBytes.add(result.getBytesMoved());
+        final TorrentHandle torrentHandle = mTorrents.get(id);
+        if (torrentHandle == null || !torrentHandle.isValid()) return; //Removed in the meantime
 
+        if (result.isSucceeded())
+        {
+            //A plain move_storage would have libtorrent 1.1 check the whole torrent again, re-adding it with its resume data doesn't
+            awaitResumeData(RESUME_DATA_MOVE_WAIT_MILLIS);
+            final File fromDirectory = getSaveDirectory(torrentHandle);
+            mSessionManager.getLibtorrentSession().removeTorrent(torrentHandle);
+            TorrentHandle movedHandle = readd(id, metafile, targetDirectory);
+            if (movedHandle != null)
+            {
+                try
+                {
+                    mResumeDataStore.setSaveDirectory(id, targetDirectory);
+                }
+                catch (IOException e)
+                {
+                    Log.w(TAG, "New location of " + id + " could not be kept, it will be looked for in the download directory on the next start", e);
+                }
+            }
+            else
+            {
+                Log.w(TAG, "Session refused " + id + " at " + targetDirectory + ", adding it back at " + fromDirectory);
+                movedHandle = readd(id, metafile, fromDirectory);
+            }
+            if (movedHandle == null)
+            {
+                Log.w(TAG, "Session refused " + id + " at " + fromDirectory + " too, it is back on the next start");
+                mTorrents.remove(id);
+                untrack(id);
+                return;
+            }
+            requestResumeData(movedHandle);
+        }
+        else
+        {
+            Log.w(TAG, "Could not move " + id + " to " + targetDirectory + ": " + result.getError());
+        }
+        mQueueManager.setHeld(id, false, System.currentTimeMillis()); //The rebalance after this batch starts it again if it has a slot
     }
 
-    @Override
-    public List<String> getTorrentIds()
+    /**
+     * Swaps in a new handle for the torrent, paused until the queue manager says otherwise. Everything else tracked for it is kept.
+     *
+     * @return The handle or null if the session refused it.
+     */
+    private TorrentHandle readd(String id, File metafile, File saveDirectory)
     {
-        return null;
+        final long addStart = System.nanoTime();
+        final TorrentHandle torrentHandle = mSessionManager.getLibtorrentSession().addTorrent(metafile, saveDirectory, mResumeDataStore.getResumeFile(id));
+        mEngineMetrics.jniAddTorrent.recordSince(addStart);
+        if (torrentHandle == null || !torrentHandle.isValid()) return null;
+
+        torrentHandle.setAutoManaged(false);
+        torrentHandle.pause();
+        mTorrents.put(id, torrentHandle);
+        return torrentHandle;
     }
 
-    @Override
-    public boolean isAnyTorrentDownloading()
+    /**
+     * Moves a torrent to another bandwidth class. New torrents start as {@link TrafficClass#FOREGROUND}. Takes effect on the next rebalance.
+     */
+    public void setTrafficClass(String id, TrafficClass trafficClass)
     {
-        return false;
+        if (id != null && trafficClass != null && mTorrents.contains(id))
+            mBandwidthScheduler.register(id, trafficClass);
     }
 
-    @Override
-    public String getTorrentName(String id)
+    /**
+     * Torrents with a higher priority get a running slot first and give it up last, see {@link QueueManager}. The default is {@link QueueManager#DEFAULT_PRIORITY}.
+     */
+    public void setQueuePriority(String id, int priority)
     {
-        return null;
+        mQueueManager.setPriority(id, priority);
+        mCommandQueue.requestBatch(); //The session worker rebalances after every batch
     }
 
-    @Override
-    public String getTorrentDetails(String id)
+    /**
+     * Caps a single torrent in bytes per second, within whatever its class gets from the global limits. {@link BandwidthScheduler#UNLIMITED} lifts the cap.
+     */
+    public void setTorrentBandwidthLimits(String id, int downloadLimit, int uploadLimit)
     {
-        return null;
+        mBandwidthScheduler.setTorrentLimits(id, downloadLimit, uploadLimit);
     }
 
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * While streaming, the torrent is in the {@link TrafficClass#STREAMING} bandwidth class and at the top of the queue, and paused torrents are
+     * resumed. Stopping the stream puts the previous class and priority back.
+     */
     @Override
-    public void setTorrentListener(String id, TorrentObject.TorrentListener listener)
+    public String startStreaming(String id, int fileIndex)
     {
+        final TorrentHandle torrentHandle = mTorrents.get(id);
+        final File metafile = mResumeDataStore.getMetafile(id);
+        if (torrentHandle == null || metafile == null) return null;
+
+        final MetafileLayout layout;
+        try
+        {
+            layout = mMetafileIndex.getLayout(id, metafile); //Usually cached by the file list the index was picked from
+        }
+        catch (IOException e)
+        {
+            Log.w(TAG, "Could not read the layout of " + id, e);
+            return null;
+        }
+        if (fileIndex < 0 || fileIndex >= layout.getFileCount()) return null;
+
+        final StreamServer streamServer;
+        synchronized (this)
+        {
+            if (mStreamServer == null)
+            {
+                final StreamServer created = new StreamServer(mMetrics);
+                try
+                {
+                    created.start();
+                }
+                catch (IOException e)
+                {
+                    Log.w(TAG, "Stream server unavailable", e);
+                    return null;
+                }
+                mStreamServer = created;
+            }
+            streamServer = mStreamServer;
+        }
+
+        stopStreaming(id);
+        final TorrentStream stream = new TorrentStream(id, layout, getSaveDirectory(torrentHandle), fileIndex,
+                new HandlePieceSource(id, torrentHandle));
+        final ActiveStream activeStream = new ActiveStream(stream, mBandwidthScheduler.getTrafficClass(id), mQueueManager.getPriority(id));
+        mStreams.put(id, activeStream);
+        mCommandQueue.post(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                stream.open(); //A JNI call per piece, kept off the caller and in line with the session commands
+            }
+        });
 
+        mBandwidthScheduler.register(id, TrafficClass.STREAMING);
+        mQueueManager.setPriority(id, STREAMING_PRIORITY);
+        enqueue(EngineCommandQueue.Type.RESUME, id); //Also rebalances the queue
+        return streamServer.publish(stream);
     }
 
     @Override
-    public void removeTorrentListener(String id)
+    public void stopStreaming(String id)
     {
+        final ActiveStream activeStream = mStreams.remove(id);
+        if (activeStream == null) return;
 
+        final StreamServer streamServer;
+        synchronized (this)
+        {
+            streamServer = mStreamServer;
+        }
+        if (streamServer != null)
+            streamServer.unpublish(activeStream.stream);
+        activeStream.stream.close();
+        if (mTorrents.contains(id))
+        {
+            mBandwidthScheduler.register(id, activeStream.previousClass != null ? activeStream.previousClass : TrafficClass.FOREGROUND);
+            mQueueManager.setPriority(id, activeStream.previousPriority);
+            mCommandQueue.requestBatch();
+        }
     }
 
-    @Override
-    public void setOnNoMoreRunningTaskListener(Runnable listener)
+    /**
+     * @return The stream of the torrent, for its time to first byte and stall count, or null if it isn't streaming.
+     */
+    public TorrentStream getStream(String id)
     {
-
+        final ActiveStream activeStream = mStreams.get(id);
+        return activeStream != null ? activeStream.stream : null;
     }
 
-    @Override
-    public void setOnEngineStartedListener(Runnable listener)
+    /**
+     * @return How many commands are waiting for the session worker. Never above {@link #getCommandQueueCapacity()}.
+     */
+    public int getCommandQueueDepth()
     {
+        return mCommandQueue.getDepth();
+    }
 
+    public int getCommandQueueCapacity()
+    {
+        return mCommandQueue.getCapacity();
     }
 
-    @Override
-    public void startEngine()
+    /**
+     * The engine metrics, see {@link EngineConfig#getMetricsPort()} to have them served for scraping.
+     */
+    public MetricsRegistry getMetrics()
     {
-        BTEngine btEngine = BTEngine.getInstance();
-        btEngine.start();
+        return mMetrics;
+    }
 
-        mTorrentMap = new ConcurrentHashMap<>(32, 0.9f, 2); //Using 2 for concurrency level for add and remove
-        mSessionUpdateExecutor = Executors.newFixedThreadPool(2);
-        final List<TorrentHandle> torrentHandles = btEngine.getSession().getTorrents();
-        mSessionUpdateExecutor.submit(new Runnable()
+    /**
+     * Runs on the single session worker. Commands are applied in the order they were given, then the queue is rebalanced once for all of them.
+     * This is the only place the queue is rebalanced; everyone else {@link EngineCommandQueue#requestBatch() requests} a batch.
+     */
+    private void executeBatch(EngineCommandQueue.Batch batch)
+    {
+        final long start = System.nanoTime();
+        if (batch.size() > 0)
+            mEngineMetrics.commandBatchSize.record(batch.size());
+        for (EngineCommandQueue.Command command : batch.getCommands())
         {
-            @Override
-            public void run()
+            try
             {
-                for (TorrentHandle torrentHandle : torrentHandles)
-                {
-                    torrentHandle.getInfoHash().toString();
-                }
+                execute(command);
             }
-        });
+            catch (RuntimeException e)
+            {
+                Log.e(TAG, "Command failed, carrying on with the rest of the batch", e); //One bad torrent must not hold up the others
+            }
+        }
+        try
+        {
+            mQueueManager.rebalance(System.currentTimeMillis());
+        }
+        catch (RuntimeException e)
+        {
+            Log.e(TAG, "Queue rebalance failed", e);
+        }
+        mEngineMetrics.commandBatchLatency.recordSince(start);
+    }
 
-        //Turn on DHT by default.
-        mDht = new DHT(btEngine.getSession());
-        mDht.start();
+    private void execute(EngineCommandQueue.Command command)
+    {
+        if (command.getTask() != null)
+        {
+            command.getTask().run();
+            return;
+        }
+        if (command.isAdd())
+        {
+            executeAdd(command.getTorrentObject());
+            return;
+        }
+
+        switch (command.getType())
+        {
+            case REMOVE:
+                executeRemove(command.getId());
+                break;
+            case PAUSE:
+                executePause(command.getId());
+                break;
+            case RESUME:
+                executeResume(command.getId());
+                break;
+        }
     }
 
-    @Override
-    public void stopEngine()
+    private void executeAdd(TorrentObject torrentObject)
     {
-        mTorrentMap.clear();
-        mDht.stop();
-        BTEngine.getInstance().stop();
+        BulkImport.Status status;
+        String message = null;
+        try
+        {
+            status = addToSession(torrentObject);
+        }
+        catch (RuntimeException e)
+        {
+            Log.w(TAG, "Session refused " + torrentObject.getMetafilePath(), e);
+            status = BulkImport.Status.FAILED;
+            message = e.getMessage();
+        }
+        mEngineMetrics.addResults[status.ordinal()].increment();
+        mBulkImporter.onAddExecuted(torrentObject, status, message);
     }
 
-    @Override
-    public void initializeEngine(EngineConfig engineConfig)
+    private void executePause(String id)
     {
-        mEngineConfig = engineConfig;
-        //This whole block is almost a carbon copy of Frostwire Android implementation
-        BTEngine.ctx = new BTContext();
-        BTEngine btEngine = BTEngine.getInstance();
-        btEngine.reloadBTContext(
-                engineConfig.getMetafileDirectory(),
-                engineConfig.getDownloadDirectory(),
-                new File(engineConfig.getPrivateDirectory(), "libtorrent"),
-                engineConfig.getPort(), //Currently, even Frostwire actual JNI wrapper (jlibtorrent) doesn't even use it but we just provide it just in case. Yeah, total wtf there.
-                engineConfig.getPort(), //Yeap, same as above.
-                "0.0.0.0", //...and same as above. And it still works for downloading actual torrent. What is this sorcery!?
-                false,
-                false);
+        final TorrentHandle torrentHandle = mTorrents.get(id);
+        if (torrentHandle == null) return;
 
-        BTEngine.ctx.optimizeMemory = true;
+        mQueueManager.setPaused(id, true, System.currentTimeMillis());
+        markPaused(id, true);
+        final long pauseStart = System.nanoTime();
+        torrentHandle.pause();
+        mEngineMetrics.jniPause.recordSince(pauseStart);
+        requestResumeData(torrentHandle);
+    }
 
-        //Our own implementation
+    /**
+     * Resumed torrents go back in the queue and start once they get a slot.
+     */
+    private void executeResume(String id)
+    {
+        if (!mTorrents.contains(id)) return;
 
+        markPaused(id, false);
+        mQueueManager.setPaused(id, false, System.currentTimeMillis());
     }
 
-    @Override
-    public void setEngineListener(Listener engineListener)
+    private void markPaused(String id, boolean paused)
     {
-        mEngineListener = engineListener;
+        try
+        {
+            mResumeDataStore.setPaused(id, paused);
+        }
+        catch (IOException e)
+        {
+            Log.w(TAG, "Paused state of " + id + " won't survive a restart", e);
+        }
     }
 
-    // Even though Session itself is the "engine" (especially if you read libtorrent docs), encapsulating Session from the
-    // TorrentEngine implementation help us to be insulated from any breaking changes in the official jlibtorrent lib.
-    private static class SessionManager
+    private BulkImport.Status addToSession(TorrentObject torrentObject)
     {
-        public Session getLibtorrentSession()
+        final File metafile = torrentObject.getMetafile();
+        final String id;
+        final MetafileIndex.Entry indexed = torrentObject.getId() == null ? null : mMetafileIndex.get(torrentObject.getId());
+        if (indexed != null && indexed.isCurrent(metafile))
         {
-            return mLibtorrentSession;
+            id = indexed.infoHash; //Already parsed, e.g. by the bulk importer
         }
-
-        private Session mLibtorrentSession;
-        private final ReentrantLock sessionStartLocker = new ReentrantLock();
-        private File mSavedState;
-
-        private void start(EngineConfig engineConfig)
+        else
         {
-            //Albeit almost a direct copy for Frostwire BTEngine, we assume future Session class may have throwable errors via JNI/inside jlibtorrent hence the same try-finally block
-            sessionStartLocker.lock();
+            final MetafileInfo metafileInfo;
+            final long parseStart = System.nanoTime();
             try
             {
-                mLibtorrentSession = new Session(
-                        new Fingerprint(),
-                        new Pair<>(engineConfig.getPort(), engineConfig.getPort()),
-                        "0.0.0.0");
+                //Knowing the infohash up front lets us hand over any resume data we still have for it
+                metafileInfo = MetafileInfo.read(metafile);
+                mEngineMetrics.metafileParse.recordSince(parseStart);
             }
-            finally
+            catch (IOException e)
             {
-                sessionStartLocker.unlock();
+                Log.w(TAG, "Skipping unreadable metafile " + metafile, e);
+                return BulkImport.Status.INVALID;
             }
+            id = metafileInfo.getInfoHash(); //id = infohash
+            indexMetafile(metafileInfo, metafile);
         }
+        torrentObject.setId(id);
+        if (mTorrents.contains(id)) return BulkImport.Status.DUPLICATE;
 
-        private void resumeSession()
+        final long addStart = System.nanoTime();
+        final TorrentHandle torrentHandle = mSessionManager.getLibtorrentSession().addTorrent(metafile, mEngineConfig.getDownloadDirectory(), mResumeDataStore.getResumeFile(id));
+        mEngineMetrics.jniAddTorrent.recordSince(addStart);
+        if (torrentHandle == null || !torrentHandle.isValid()) return BulkImport.Status.FAILED;
+        registerHandle(torrentHandle, mResumeDataStore.isPaused(id));
+        try
         {
-
+            mResumeDataStore.saveMetafile(id, metafile);
         }
-
-        private void loadSavedState()
+        catch (IOException e)
         {
-            getLibtorrentSession().loadState();
+            Log.w(TAG, "Metafile of " + id + " could not be kept, it won't be restored on the next start", e);
         }
+        return BulkImport.Status.IMPORTED;
+    }
 
-        private void loadSettings(Session session)
+    private void executeRemove(String id)
+    {
+        final TorrentHandle torrentHandle = mTorrents.remove(id);
+        if (torrentHandle == null) return;
+
+        final long removeStart = System.nanoTime();
+        mSessionManager.getLibtorrentSession().removeTorrent(torrentHandle);
+        mEngineMetrics.jniRemoveTorrent.recordSince(removeStart);
+        untrack(id);
+        mTorrentListeners.remove(id);
+        synchronized (mResumeFilesLock)
+        {
+            mResumeDataStore.delete(id); //A write still in flight for it finds the torrent gone and drops the data
+        }
+        try
         {
+            mMetafileIndex.remove(id);
+        }
+        catch (IOException e)
+        {
+            Log.w(TAG, "Could not drop index entry of " + id, e);
+        }
+    }
 
+    /**
+     * Forgets everything the engine tracks for a torrent already out of the session, except what is kept for the next start.
+     */
+    private void untrack(String id)
+    {
+        stopStreaming(id);
+        mDetails.remove(id);
+        mAwaitingPeers.remove(id);
+        mStatusTable.releaseSlot(id);
+        mBandwidthScheduler.unregister(id);
+        mQueueManager.remove(id);
+    }
+
+    /**
+     * This use libtorrent own fast resume method for torrents that was paused.
+     * Every torrent with a kept metafile is re-added together with its last resume data, so libtorrent trusts the pieces on disk instead of hashing them again.
+     */
+    private void libtorrentFastResume(List<ResumeDataStore.Stored> kept)
+    {
+        for (ResumeDataStore.Stored stored : kept)
+        {
+            final TorrentHandle torrentHandle = mSessionManager.resumeTorrent(stored, stored.saveDirectory != null ? stored.saveDirectory : mEngineConfig.getDownloadDirectory());
+            if (torrentHandle == null) continue;
+
+            final String id = registerHandle(torrentHandle, stored.paused);
+            if (!mMetafileIndex.contains(id))
+            {
+                try
+                {
+                    mMetafileIndex.index(id, stored.metafile);
+                }
+                catch (IOException e)
+                {
+                    Log.w(TAG, "Could not index metafile of " + id, e);
+                }
+            }
+        }
+    }
+
+    private void indexMetafile(MetafileInfo metafileInfo, File metafile)
+    {
+        try
+        {
+            mMetafileIndex.put(metafileInfo, metafile);
+        }
+        catch (IOException e)
+        {
+            Log.w(TAG, "Could not index " + metafile, e);
+        }
+    }
+
+    /**
+     * @return The indexed metadata of the torrent, indexing its kept metafile first if needed. Null if neither exists.
+     */
+    private MetafileIndex.Entry getMetafileEntry(String id)
+    {
+        final MetafileIndex.Entry entry = mMetafileIndex.get(id);
+        if (entry != null) return entry;
+
+        final File metafile = mResumeDataStore.getMetafile(id);
+        if (metafile == null) return null;
+        try
+        {
+            return mMetafileIndex.index(id, metafile);
+        }
+        catch (IOException e)
+        {
+            Log.w(TAG, "Could not index metafile of " + id, e);
+            return null;
+        }
+    }
+
+    /**
+     * Starts tracking the torrent. Running torrents keep running until the next queue rebalance decides otherwise.
+     */
+    private String registerHandle(TorrentHandle torrentHandle, boolean paused)
+    {
+        final String id = torrentHandle.getInfoHash().toString(); //id = infohash
+        torrentHandle.setAutoManaged(false); //Otherwise libtorrent queueing is free to start and stop it behind the queue manager
+        mTorrents.put(id, torrentHandle);
+        mStatusTable.acquireSlot(id);
+        mBandwidthScheduler.register(id, TrafficClass.FOREGROUND);
+
+        final boolean running = !torrentHandle.isPaused();
+        if (paused && running)
+            torrentHandle.pause();
+        mQueueManager.add(id, torrentHandle.getStatus().isFinished(), paused, running && !paused, System.currentTimeMillis());
+        if (running && !paused)
+            awaitPeers(id);
+        return id;
+    }
+
+    /**
+     * Asks libtorrent for the resume data of the torrent. The answer comes back as an alert, see {@link AlertPump}.
+     */
+    private void requestResumeData(TorrentHandle torrentHandle)
+    {
+        synchronized (mResumeDataLock)
+        {
+            mPendingResumeData++;
+        }
+        final long start = System.nanoTime();
+        torrentHandle.saveResumeData();
+        mEngineMetrics.jniSaveResumeData.recordSince(start);
+    }
+
+    private void onResumeDataSettled()
+    {
+        synchronized (mResumeDataLock)
+        {
+            if (mPendingResumeData > 0) //Alerts for saves requested by someone else are not counted
+                mPendingResumeData--;
+            mResumeDataLock.notifyAll();
+        }
+    }
+
+    /**
+     * Only torrents that changed since their last save are asked, so idle libraries cost nothing here.
+     */
+    private void saveDirtyResumeData()
+    {
+        final TorrentRegistry.Snapshot<TorrentHandle> torrents = mTorrents.snapshot();
+        for (int i = 0; i < torrents.size(); i++)
+        {
+            final TorrentHandle torrentHandle = torrents.getHandle(i);
+            if (torrentHandle.isValid() && torrentHandle.needSaveResumeData())
+                requestResumeData(torrentHandle);
+        }
+    }
+
+    private void awaitResumeData(long timeoutMillis)
+    {
+        final long deadline = System.currentTimeMillis() + timeoutMillis;
+        synchronized (mResumeDataLock)
+        {
+            long remaining = timeoutMillis;
+            while (mPendingResumeData > 0 && remaining > 0)
+            {
+                try
+                {
+                    mResumeDataLock.wait(remaining);
+                }
+                catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                remaining = deadline - System.currentTimeMillis();
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * The returned list is an immutable snapshot. The same instance is returned until a torrent is added, removed or moved, so polling is free.
+     */
+    @Override
+    public List<String> getTorrentIds()
+    {
+        return mTorrents.snapshot();
+    }
+
+    @Override
+    public void moveTorrent(String id, int position)
+    {
+        mTorrents.moveTo(id, position);
+    }
+
+    @Override
+    public boolean isAnyTorrentDownloading()
+    {
+        return mStatusTable.anyInStatus(TorrentObject.Status.DOWNLOADING);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * Answered from the command queue, the importer, storage moves and the {@link QueueManager}, which learns about restored torrents before
+     * the engine is ready.
+     */
+    @Override
+    public boolean hasPendingWork()
+    {
+        synchronized (mReadyLock)
+        {
+            if (!mReady) return mStartup != null;
+        }
+        return mCommandQueue.getDepth() > 0 || !mBulkImporter.isIdle() || !mMovingIds.isEmpty() || mQueueManager.hasUnfinishedDownloads();
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * Answered from the metafile index, falling back to the session for torrents we hold no metafile for.
+     */
+    @Override
+    public String getTorrentName(String id)
+    {
+        final MetafileIndex.Entry entry = getMetafileEntry(id);
+        if (entry != null)
+            return entry.name;
+
+        final TorrentHandle torrentHandle = mTorrents.get(id);
+        return torrentHandle != null ? torrentHandle.getName() : null;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * Sections are marked dirty from the alert pump: progress touches the rates and peers, finished pieces the pieces and tracker replies the
+     * trackers. Files come from the kept metafile and never change.
+     */
+    @Override
+    public TorrentDetails getTorrentDetails(String id)
+    {
+        TorrentDetails details = mDetails.get(id);
+        if (details != null || !mTorrents.contains(id)) return details;
+
+        final TorrentDetails created = new TorrentDetails(id, getTorrentName(id), mDetailsSource);
+        details = mDetails.putIfAbsent(id, created);
+        return details != null ? details : created;
+    }
+
+    private void markDetailsDirty(String id, TorrentDetails.Section section)
+    {
+        final TorrentDetails details = mDetails.get(id);
+        if (details != null)
+            details.markDirty(section);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * Listeners are called on the main thread, at most once per progress tick (see {@link EngineConfig#getProgressTickMillis()}).
+     */
+    @Override
+    public void setTorrentListener(String id, TorrentObject.TorrentListener listener)
+    {
+        if (id != null && listener != null)
+            mTorrentListeners.put(id, listener);
+    }
+
+    @Override
+    public void removeTorrentListener(String id)
+    {
+        if (id != null)
+            mTorrentListeners.remove(id);
+    }
+
+    @Override
+    public EngineEventBus getEventBus()
+    {
+        return mEventBus;
+    }
+
+    /**
+     * The latest status of every torrent, refreshed from libtorrent state updates at most once per progress tick. Reading it never allocates, see {@link TorrentStatusTable#read}.
+     */
+    public TorrentStatusTable getStatusTable()
+    {
+        return mStatusTable;
+    }
+
+    @Override
+    public TorrentSnapshot takeSnapshot()
+    {
+        return new TorrentSnapshot.Builder(mSnapshotVersion.incrementAndGet()).addAll(mTorrents.snapshot(), mStatusTable).build();
+    }
+
+    /**
+     * Runs on the alert pump. State updates only carry torrents that changed, so the table and the bus only see what moved.
+     */
+    private void handleEvents(List<AlertPump.Event> events)
+    {
+        final boolean publish = mEventBus.hasSubscribers();
+        for (int i = 0; i < events.size(); i++)
+        {
+            final AlertPump.Event event = events.get(i);
+            try
+            {
+                handleEvent(event, publish);
+            }
+            catch (RuntimeException e)
+            {
+                Log.e(TAG, event.kind + " event of " + event.id + " failed, carrying on with the rest", e);
+            }
+        }
+    }
+
+    private void handleEvent(AlertPump.Event event, boolean publish)
+    {
+        switch (event.kind)
+        {
+            case STATUS:
+                final int slot = mStatusTable.getSlot(event.id);
+                if (slot == TorrentStatusTable.NO_SLOT) break; //Removed in the meantime
+
+                mStatusTable.update(slot, event.downloaded, event.uploaded, event.completedBytes, event.size, event.activePeersNumber, event.seedersNumber, event.status);
+                mBandwidthScheduler.onRates(event.id, event.downloadRate, event.uploadRate, event.status == TorrentObject.Status.PAUSED);
+                mQueueManager.onProgress(event.id, event.completedBytes, event.uploaded, event.finished, System.currentTimeMillis());
+                markDetailsDirty(event.id, TorrentDetails.Section.RATES);
+                markDetailsDirty(event.id, TorrentDetails.Section.PEERS);
+                if (event.activePeersNumber > 0)
+                    onPeerConnected(event.id);
+                if (publish)
+                    mEventBus.post(event.id, event.downloaded, event.uploaded, event.completedBytes, event.size, event.activePeersNumber, event.seedersNumber);
+                break;
+            case FINISHED:
+                //Keeps the completed pieces from being rechecked on the next start
+                final TorrentHandle torrentHandle = mTorrents.get(event.id);
+                if (torrentHandle != null && torrentHandle.isValid())
+                    requestResumeData(torrentHandle);
+                break;
+            case RESUME_DATA:
+                writeResumeData(event.id, event.resumeData);
+                break;
+            case PIECE_FINISHED:
+                final ActiveStream activeStream = mStreams.get(event.id);
+                if (activeStream != null)
+                    activeStream.stream.onPieceFinished(event.piece);
+                markDetailsDirty(event.id, TorrentDetails.Section.PIECES);
+                break;
+            case TRACKER:
+                markDetailsDirty(event.id, TorrentDetails.Section.TRACKERS);
+                break;
+            case RESUME_DATA_FAILED:
+                mEngineMetrics.resumeDataFailures.increment();
+                onResumeDataSettled();
+                break;
+            case RESUMED:
+                awaitPeers(event.id);
+                break;
+            case PAUSED:
+                mAwaitingPeers.remove(event.id);
+                break;
+            default:
+                break; //Only wake the pump up, the state update that follows carries the new values
+        }
+    }
+
+    /**
+     * Writes resume data off the pump. Every outcome settles one pending request so {@link #stopEngine()} knows when it's safe to go.
+     * Data of torrents removed in the meantime is dropped, otherwise it would leave a resume file nothing ever cleans up.
+     */
+    private void writeResumeData(final String id, final byte[] resumeData)
+    {
+        mResumeDataWriter.submit(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                final long start = System.nanoTime();
+                try
+                {
+                    synchronized (mResumeFilesLock)
+                    {
+                        if (!mTorrents.contains(id)) return;
+                        mResumeDataStore.saveResumeData(id, resumeData);
+                    }
+                    mEngineMetrics.resumeDataWrite.recordSince(start);
+                }
+                catch (IOException e)
+                {
+                    mEngineMetrics.resumeDataFailures.increment();
+                    Log.w(TAG, "Resume data of " + id + " could not be saved", e);
+                }
+                finally
+                {
+                    onResumeDataSettled();
+                }
+            }
+        });
+    }
+
+    private void awaitPeers(String id)
+    {
+        mAwaitingPeers.putIfAbsent(id, System.nanoTime());
+    }
+
+    private void onPeerConnected(String id)
+    {
+        final Long start = mAwaitingPeers.remove(id);
+        if (start == null) return;
+
+        mEngineMetrics.timeToFirstPeer.recordSince(start);
+        if (mFirstPeerMillis < 0)
+            mFirstPeerMillis = (System.nanoTime() - mDhtStartNanos) / 1000000;
+    }
+
+    /**
+     * @return The settings applied to the session, resolved from the {@link EngineConfig#getSessionProfile() profile} of the config.
+     */
+    public SessionSettings getSessionSettings()
+    {
+        return mSessionSettings;
+    }
+
+    /**
+     * @return Milliseconds from DHT starting to the first peer of any torrent in this run, or -1 until there's one. With a warm routing table this
+     * mostly depends on how fast the swarms answer rather than on bootstrapping. Per-torrent values are in the frostmodule_time_to_first_peer_seconds metric.
+     */
+    public long getTimeToFirstPeerMillis()
+    {
+        return mFirstPeerMillis;
+    }
+
+    /**
+     * Keeps the DHT routing table (and the rest of the session state) so the next start doesn't bootstrap from scratch.
+     */
+    private void saveSessionState()
+    {
+        final long start = System.nanoTime();
+        try
+        {
+            mSessionManager.saveState();
+            mEngineMetrics.sessionStateSave.recordSince(start);
+        }
+        catch (IOException e)
+        {
+            Log.w(TAG, "Session state could not be saved", e);
+        }
+    }
+
+    @Override
+    public void setOnNoMoreRunningTaskListener(Runnable listener)
+    {
+
+    }
+
+    @Override
+    public void setOnEngineStartedListener(Runnable listener)
+    {
+        mOnEngineStartedListener = listener;
+    }
+
+    @Override
+    public StartupReport getStartupReport()
+    {
+        return mStartupReport;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * Only spins up the cheap parts before returning; building the BTEngine context and session, re-adding kept torrents and starting DHT all run on a
+     * startup thread, with persisted state loading alongside the session. Adds, pauses, resumes and removals wait in the command queue and imports
+     * are held back until the session is ready. Torrent lookups simply don't know any torrent until then.
+     */
+    @Override
+    public void startEngine()
+    {
+        join(mShutdown); //Only when this very instance is restarted, which the service never does: it gets a new engine
+        final StartupReport.Builder report = new StartupReport.Builder();
+        mResumeDataWriter = Executors.newSingleThreadExecutor();
+        mPieceVerifier = new PieceVerifier(Runtime.getRuntime().availableProcessors(), mEngineConfig.getVerifyRateLimit());
+        mStorageMover = new StorageMover(MAX_CONCURRENT_MOVES, MOVE_COPY_PARALLELISM, mPieceVerifier);
+        mScheduler = Executors.newSingleThreadScheduledExecutor();
+
+        //Per-torrent listeners are fed from the bus, one batch per tick.
+        mListenerSubscription = mEventBus.subscribe(new ListenerDispatcher(), new MainThreadExecutor(), EngineEventBus.DEFAULT_MAX_BACKLOG);
+        mEventBus.start();
+
+        if (mEngineConfig.getMetricsPort() > 0)
+        {
+            mMetricsServer = new MetricsServer(mMetrics, mEngineConfig.getMetricsPort());
+            try
+            {
+                mMetricsServer.start();
+            }
+            catch (IOException e)
+            {
+                Log.w(TAG, "Metrics endpoint unavailable on port " + mEngineConfig.getMetricsPort(), e);
+                mMetricsServer = null;
+            }
+        }
+
+        mStartup = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                startUp(report);
+            }
+        }, TAG + "-startup");
+        mStartup.start();
+    }
+
+    private void startUp(final StartupReport.Builder report)
+    {
+        join(sShutdown); //Its session state and resume data are what gets loaded below
+
+        //Persisted state is only files, so it loads while libtorrent builds the session
+        final FutureTask<PersistedState> state = new FutureTask<>(new Callable<PersistedState>()
+        {
+            @Override
+            public PersistedState call()
+            {
+                final long start = System.nanoTime();
+                try
+                {
+                    mMetafileIndex.open();
+                }
+                catch (IOException e)
+                {
+                    Log.w(TAG, "Metafile index unavailable", e);
+                }
+                byte[] sessionState = null;
+                try
+                {
+                    sessionState = mSessionManager.readSavedState();
+                }
+                catch (IOException e)
+                {
+                    Log.w(TAG, "Saved session state unreadable, DHT bootstraps from scratch", e);
+                }
+                final PersistedState persisted = new PersistedState(mResumeDataStore.scan(), sessionState);
+                report.phase(PHASE_STATE, start);
+                return persisted;
+            }
+        });
+        new Thread(state, TAG + "-state").start();
+
+        long start = System.nanoTime();
+        final BTEngine btEngine = startBTEngine();
+        report.phase(PHASE_SESSION, start);
+
+        final PersistedState persisted = awaitState(state);
+        start = System.nanoTime();
+        mSessionManager.attach(btEngine.getSession());
+        //The saved state holds the settings of the previous run as well, so the profile's pack has to come after it
+        mSessionManager.loadSavedState(persisted.sessionState);
+        mSessionManager.loadSettings(btEngine.getSession(), mSessionSettings);
+        Log.i(TAG, "Session settings " + mSessionSettings);
+        report.phase(PHASE_SETTINGS, start);
+
+        start = System.nanoTime();
+        mAlertPump = new AlertPump(mSessionManager.getLibtorrentSession(), mEventBus.getTickMillis(), mEngineMetrics, new AlertPump.Handler()
+        {
+            @Override
+            public void onEvents(List<AlertPump.Event> events)
+            {
+                handleEvents(events);
+            }
+
+            @Override
+            public boolean hasActiveTorrents()
+            {
+                return mStatusTable.anyOutsideStatus(TorrentObject.Status.PAUSED);
+            }
+        });
+        mAlertPump.start();
+        libtorrentFastResume(persisted.kept);
+
+        //Anything else the session already knows about
+        for (TorrentHandle torrentHandle : btEngine.getSession().getTorrents())
+        {
+            final String id = torrentHandle.getInfoHash().toString(); //id = infohash
+            if (!mTorrents.contains(id))
+                registerHandle(torrentHandle, mResumeDataStore.isPaused(id));
+        }
+        report.phase(PHASE_TORRENTS, start);
+
+        //Turn on DHT by default.
+        start = System.nanoTime();
+        mDhtStartNanos = System.nanoTime();
+        mDht = new DHT(btEngine.getSession());
+        mDht.start();
+        report.phase(PHASE_DHT, start);
+
+        mCommandQueue.start(TAG + "-session");
+        mBulkImporter.start();
+        mScheduler.scheduleWithFixedDelay(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                saveDirtyResumeData();
+            }
+        }, RESUME_DATA_INTERVAL_SECONDS, RESUME_DATA_INTERVAL_SECONDS, TimeUnit.SECONDS);
+        mScheduler.scheduleWithFixedDelay(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                saveSessionState();
+            }
+        }, SESSION_STATE_INTERVAL_SECONDS, SESSION_STATE_INTERVAL_SECONDS, TimeUnit.SECONDS);
+        mScheduler.scheduleWithFixedDelay(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                mBandwidthScheduler.rebalance();
+            }
+        }, BANDWIDTH_REBALANCE_MILLIS, BANDWIDTH_REBALANCE_MILLIS, TimeUnit.MILLISECONDS);
+        mScheduler.scheduleWithFixedDelay(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                mCommandQueue.requestBatch(); //Rebalances on the session worker, like every other queue decision
+            }
+        }, 0, QUEUE_REBALANCE_MILLIS, TimeUnit.MILLISECONDS);
+
+        mStartupReport = report.build();
+        Log.i(TAG, mStartupReport.toString());
+        onReady();
+    }
+
+    /**
+     * This whole block is almost a carbon copy of Frostwire Android implementation.
+     */
+    private BTEngine startBTEngine()
+    {
+        BTEngine.ctx = new BTContext();
+        BTEngine btEngine = BTEngine.getInstance();
+        btEngine.reloadBTContext(
+                mEngineConfig.getMetafileDirectory(),
+                mEngineConfig.getDownloadDirectory(),
+                new File(mEngineConfig.getPrivateDirectory(), "libtorrent"),
+                mEngineConfig.getPort(), //Currently, even Frostwire actual JNI wrapper (jlibtorrent) doesn't even use it but we just provide it just in case. Yeah, total wtf there.
+                mEngineConfig.getPort(), //Yeap, same as above.
+                "0.0.0.0", //...and same as above. And it still works for downloading actual torrent. What is this sorcery!?
+                false,
+                false);
+
+        BTEngine.ctx.optimizeMemory = mSessionSettings.isOptimizeMemory();
+        btEngine.start();
+        return btEngine;
+    }
+
+    private PersistedState awaitState(FutureTask<PersistedState> state)
+    {
+        try
+        {
+            return state.get();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+        catch (ExecutionException e)
+        {
+            Log.w(TAG, "Could not load the kept torrents", e.getCause());
+        }
+        return new PersistedState(new ArrayList<ResumeDataStore.Stored>(), null);
+    }
+
+    private void onReady()
+    {
+        final List<Runnable> deferred;
+        synchronized (mReadyLock)
+        {
+            mReady = true;
+            deferred = new ArrayList<>(mDeferred);
+            mDeferred.clear();
+        }
+        for (Runnable command : deferred)
+        {
+            command.run();
+        }
+
+        new MainThreadExecutor().execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                final Runnable listener = mOnEngineStartedListener;
+                if (listener != null)
+                    listener.run();
+                if (mEngineListener != null)
+                    mEngineListener.onEngineStarted();
+            }
+        });
+    }
+
+    /**
+     * Runs the command right away once the engine is ready, or as soon as it is.
+     */
+    private void runWhenReady(Runnable command)
+    {
+        synchronized (mReadyLock)
+        {
+            if (!mReady)
+            {
+                mDeferred.add(command);
+                return;
+            }
+        }
+        command.run();
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * Returns right away, so it's safe from {@code Service.onDestroy}: waiting for a startup still in progress, the last resume data and
+     * libtorrent itself all happen on a shutdown thread. The next engine started in this process waits for it before loading anything.
+     */
+    @Override
+    public void stopEngine()
+    {
+        final Thread startup = mStartup;
+        mStartup = null;
+        final Thread shutdown = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                shutDown(startup);
+            }
+        }, TAG + "-shutdown");
+        mShutdown = shutdown;
+        sShutdown = shutdown;
+        shutdown.start();
+    }
+
+    private void shutDown(Thread startup)
+    {
+        join(startup);
+        synchronized (mReadyLock)
+        {
+            mReady = false;
+        }
+        mStartupReport = null;
+        mFirstPeerMillis = -1;
+        mAwaitingPeers.clear();
+
+        if (mMetricsServer != null)
+        {
+            mMetricsServer.stop();
+            mMetricsServer = null;
+        }
+        for (String id : mStreams.keySet())
+        {
+            stopStreaming(id);
+        }
+        synchronized (this)
+        {
+            if (mStreamServer != null)
+            {
+                mStreamServer.stop();
+                mStreamServer = null;
+            }
+        }
+        mBulkImporter.stop();
+        mCommandQueue.stop();
+        mBulkImporter.onQueueStopped();
+        mStorageMover.shutdown();
+        mPieceVerifier.shutdown();
+        mScheduler.shutdownNow();
+        mEventBus.unsubscribe(mListenerSubscription);
+        mEventBus.stop();
+
+        //Last chance to keep progress made since the previous periodic save
+        saveDirtyResumeData();
+        awaitResumeData(RESUME_DATA_SHUTDOWN_WAIT_MILLIS);
+        if (mSessionManager.getLibtorrentSession() != null)
+            saveSessionState(); //While DHT still runs, so the routing table is in it
+        if (mAlertPump != null)
+            mAlertPump.stop();
+        mResumeDataWriter.shutdown();
+        mMetafileIndex.close();
+
+        for (String id : mTorrents.snapshot())
+        {
+            mStatusTable.releaseSlot(id);
+        }
+        mTorrents.clear();
+        mDetails.clear();
+        if (mDht != null)
+            mDht.stop();
+        BTEngine.getInstance().stop();
+        if (sShutdown == Thread.currentThread())
+            sShutdown = null; //Nothing left to wait for, and the engine can be collected
+    }
+
+    private static void join(Thread thread)
+    {
+        if (thread == null || thread == Thread.currentThread()) return;
+        try
+        {
+            thread.join();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * Cheap enough for the main thread: nothing here touches libtorrent or the disk, see {@link #startEngine()}.
+     */
+    @Override
+    public void initializeEngine(EngineConfig engineConfig)
+    {
+        mEngineConfig = engineConfig;
+
+        //Our own implementation
+        mEventBus = new EngineEventBus(engineConfig.getProgressTickMillis());
+        mResumeDataStore = new ResumeDataStore(engineConfig.getPrivateDirectory());
+        mSessionManager.setSavedState(new File(engineConfig.getPrivateDirectory(), SESSION_STATE_FILE));
+        mSessionSettings = SessionSettings.resolve(engineConfig);
+        mMetafileIndex = new MetafileIndex(engineConfig.getMetafileDirectory(), METAFILE_INDEX_CACHE_SIZE);
+        mCommandQueue = new EngineCommandQueue(COMMAND_QUEUE_CAPACITY, new EngineCommandQueue.BatchHandler()
+        {
+            @Override
+            public void onBatch(EngineCommandQueue.Batch batch)
+            {
+                executeBatch(batch);
+            }
+        });
+        mBulkImporter = new BulkImporter(mMetafileIndex, mCommandQueue);
+        mBandwidthScheduler = new BandwidthScheduler(engineConfig.getDownloadBandwithLimit(), engineConfig.getUploadBandwithLimit(), new BandwidthScheduler.Actuator()
+        {
+            @Override
+            public void applyLimits(String id, int downloadLimit, int uploadLimit)
+            {
+                final TorrentHandle torrentHandle = mTorrents.get(id);
+                if (torrentHandle != null && torrentHandle.isValid())
+                {
+                    torrentHandle.setDownloadLimit(downloadLimit);
+                    torrentHandle.setUploadLimit(uploadLimit);
+                }
+            }
+        });
+        mQueueManager = new QueueManager(engineConfig.getMaxRunningDownloads(), engineConfig.getMaxRunningUploads(), engineConfig.getMaxRunningTorrent(),
+                STALL_TIMEOUT_MILLIS, new QueueManager.Actuator()
+        {
+            @Override
+            public void activate(String id)
+            {
+                final TorrentHandle torrentHandle = mTorrents.get(id);
+                if (torrentHandle == null || !torrentHandle.isValid()) return;
+
+                final long start = System.nanoTime();
+                torrentHandle.resume();
+                mEngineMetrics.jniResume.recordSince(start);
+            }
+
+            @Override
+            public void park(String id)
+            {
+                final TorrentHandle torrentHandle = mTorrents.get(id);
+                if (torrentHandle == null || !torrentHandle.isValid()) return;
+
+                final long start = System.nanoTime();
+                torrentHandle.pause();
+                mEngineMetrics.jniPause.recordSince(start);
+            }
+        });
+        registerGauges();
+    }
+
+    private void registerGauges()
+    {
+        mMetrics.gauge("frostmodule_command_queue_depth", "Commands waiting for the session worker", new Gauge()
+        {
+            @Override
+            public long getValue()
+            {
+                return mCommandQueue.getDepth();
+            }
+        });
+        mMetrics.gauge("frostmodule_command_queue_capacity", "Most commands the queue holds before refusing new ones", new Gauge()
+        {
+            @Override
+            public long getValue()
+            {
+                return mCommandQueue.getCapacity();
+            }
+        });
+        mMetrics.gauge("frostmodule_command_queue_coalesced", "State changes folded into an already pending one since the queue was created", new Gauge()
+        {
+            @Override
+            public long getValue()
+            {
+                return mCommandQueue.getCoalescedCount();
+            }
+        });
+        mMetrics.gauge("frostmodule_command_queue_batches", "Batches run by the session worker since the queue was created", new Gauge()
+        {
+            @Override
+            public long getValue()
+            {
+                return mCommandQueue.getBatchCount();
+            }
+        });
+        mMetrics.gauge("frostmodule_dht_nodes", "Nodes in the DHT routing table", new Gauge()
+        {
+            @Override
+            public long getValue()
+            {
+                final DHT dht = mDht;
+                return dht != null ? dht.nodes() : 0;
+            }
+        });
+        mMetrics.gauge("frostmodule_torrents", "Torrents known to the engine", new Gauge()
+        {
+            @Override
+            public long getValue()
+            {
+                return mTorrents.size();
+            }
+        });
+        mMetrics.gauge("frostmodule_resume_data_pending", "Resume data requested from libtorrent and not written yet", new Gauge()
+        {
+            @Override
+            public long getValue()
+            {
+                synchronized (mResumeDataLock)
+                {
+                    return mPendingResumeData;
+                }
+            }
+        });
+        mMetrics.gauge("frostmodule_listener_dropped_updates", "Updates the per-torrent listeners lost to a full backlog", new Gauge()
+        {
+            @Override
+            public long getValue()
+            {
+                final EngineEventBus.Subscription subscription = mListenerSubscription;
+                return subscription != null ? subscription.getDroppedCount() : 0;
+            }
+        });
+    }
+
+    @Override
+    public void setEngineListener(Listener engineListener)
+    {
+        mEngineListener = engineListener;
+    }
+
+    /**
+     * Fans a batch out to the per-torrent listeners, one map lookup per torrent per tick.
+     */
+    private class ListenerDispatcher implements EngineEventBus.Subscriber
+    {
+        @Override
+        public void onUpdates(List<TorrentUpdate> updates)
+        {
+            final long start = System.nanoTime();
+            for (TorrentUpdate update : updates)
+            {
+                final TorrentObject.TorrentListener listener = mTorrentListeners.get(update.getId());
+                if (listener != null)
+                {
+                    final long callbackStart = System.nanoTime();
+                    update.dispatchTo(listener);
+                    mEngineMetrics.listenerCallback.recordSince(callbackStart);
+                    mEngineMetrics.listenerUpdates.increment();
+                }
+            }
+            mEngineMetrics.listenerBatch.recordSince(start);
+        }
+    }
+
+    /**
+     * Rebuilds detail sections from the session. Each load is a single JNI call on the handle, except files which come from the kept metafile.
+     */
+    private class DetailsSource implements TorrentDetails.Source
+    {
+        @Override
+        public List<TorrentDetails.FileEntry> loadFiles(String id)
+        {
+            final File metafile = mResumeDataStore.getMetafile(id);
+            if (metafile == null) return null;
+            try
+            {
+                final MetafileLayout layout = mMetafileIndex.getLayout(id, metafile);
+                final List<TorrentDetails.FileEntry> files = new ArrayList<>(layout.getFileCount());
+                for (int i = 0; i < layout.getFileCount(); i++)
+                {
+                    files.add(new TorrentDetails.FileEntry(layout.getFilePath(i), layout.getFileLength(i), layout.getFileOffset(i)));
+                }
+                return files;
+            }
+            catch (IOException e)
+            {
+                Log.w(TAG, "Could not read the files of " + id, e);
+                return null;
+            }
+        }
+
+        @Override
+        public List<TorrentDetails.Tracker> loadTrackers(String id)
+        {
+            final TorrentHandle torrentHandle = mTorrents.get(id);
+            if (torrentHandle == null || !torrentHandle.isValid()) return null;
+
+            final List<AnnounceEntry> entries = torrentHandle.getTrackers();
+            final List<TorrentDetails.Tracker> trackers = new ArrayList<>(entries.size());
+            for (AnnounceEntry entry : entries)
+            {
+                trackers.add(new TorrentDetails.Tracker(entry.getUrl(), entry.getTier(), entry.getMessage()));
+            }
+            return trackers;
+        }
+
+        @Override
+        public List<TorrentDetails.Peer> loadPeers(String id)
+        {
+            final TorrentHandle torrentHandle = mTorrents.get(id);
+            if (torrentHandle == null || !torrentHandle.isValid()) return null;
+
+            final List<PeerInfo> infos = torrentHandle.peerInfo();
+            final List<TorrentDetails.Peer> peers = new ArrayList<>(infos.size());
+            for (PeerInfo info : infos)
+            {
+                peers.add(new TorrentDetails.Peer(info.getIp(), info.getClient(), info.getDownSpeed(), info.getUpSpeed(), info.getProgress()));
+            }
+            return peers;
+        }
+
+        @Override
+        public TorrentDetails.Pieces loadPieces(String id)
+        {
+            final TorrentHandle torrentHandle = mTorrents.get(id);
+            if (torrentHandle == null || !torrentHandle.isValid()) return null;
+
+            final MetafileIndex.Entry entry = getMetafileEntry(id);
+            final Bitfield have = torrentHandle.getStatus().getPieces();
+            final int count = have.size();
+            final byte[] bitfield = new byte[(count + 7) >>> 3];
+            for (int piece = 0; piece < count; piece++)
+            {
+                if (have.getBit(piece))
+                    bitfield[piece >>> 3] |= 0x80 >>> (piece & 7);
+            }
+            return new TorrentDetails.Pieces(entry != null ? entry.pieceLength : 0, count, bitfield);
+        }
+
+        @Override
+        public TorrentDetails.Rates loadRates(String id)
+        {
+            final TorrentHandle torrentHandle = mTorrents.get(id);
+            if (torrentHandle == null || !torrentHandle.isValid()) return null;
+
+            final TorrentStatus status = torrentHandle.getStatus();
+            return new TorrentDetails.Rates(status.getDownloadPayloadRate(), status.getUploadPayloadRate(), status.getTotalDownload(), status.getTotalUpload(),
+                    status.getTotalDone(), status.getTotalWanted(), status.getNumPeers(), status.getNumSeeds());
+        }
+    }
+
+    private static final class PersistedState
+    {
+        final List<ResumeDataStore.Stored> kept;
+        final byte[] sessionState; //Null if the previous run didn't save one
+
+        PersistedState(List<ResumeDataStore.Stored> kept, byte[] sessionState)
+        {
+            this.kept = kept;
+            this.sessionState = sessionState;
+        }
+    }
+
+    private static final class ActiveStream
+    {
+        final TorrentStream stream;
+        final TrafficClass previousClass;
+        final int previousPriority;
+
+        ActiveStream(TorrentStream stream, TrafficClass previousClass, int previousPriority)
+        {
+            this.stream = stream;
+            this.previousClass = previousClass;
+            this.previousPriority = previousPriority;
+        }
+    }
+
+    /**
+     * The download order a torrent had before its first stream asked for sequential, and how many streams still want sequential.
+     */
+    private static final class SequentialHold
+    {
+        final boolean previous;
+        int streams;
+
+        SequentialHold(boolean previous)
+        {
+            this.previous = previous;
+        }
+    }
+
+    private class HandlePieceSource implements PieceSource
+    {
+        private final String mId;
+        private final TorrentHandle mTorrentHandle;
+
+        HandlePieceSource(String id, TorrentHandle torrentHandle)
+        {
+            mId = id;
+            mTorrentHandle = torrentHandle;
+        }
+
+        @Override
+        public boolean havePiece(int piece)
+        {
+            return mTorrentHandle.isValid() && mTorrentHandle.havePiece(piece);
+        }
+
+        @Override
+        public void setPieceDeadline(int piece, int deadlineMillis)
+        {
+            if (mTorrentHandle.isValid())
+                mTorrentHandle.setPieceDeadline(piece, deadlineMillis);
+        }
+
+        @Override
+        public void resetPieceDeadline(int piece)
+        {
+            if (mTorrentHandle.isValid())
+                mTorrentHandle.resetPieceDeadline(piece);
+        }
+
+        @Override
+        public void beginSequentialDownload()
+        {
+            synchronized (mSequentialHolds)
+            {
+                SequentialHold hold = mSequentialHolds.get(mId);
+                if (hold == null)
+                {
+                    if (!mTorrentHandle.isValid()) return;
+                    hold = new SequentialHold(mTorrentHandle.getStatus().isSequentialDownload());
+                    mSequentialHolds.put(mId, hold);
+                    mTorrentHandle.setSequentialDownload(true);
+                }
+                hold.streams++;
+            }
+        }
+
+        @Override
+        public void endSequentialDownload()
+        {
+            synchronized (mSequentialHolds)
+            {
+                final SequentialHold hold = mSequentialHolds.get(mId);
+                if (hold == null || --hold.streams > 0) return;
+
+                mSequentialHolds.remove(mId);
+                if (mTorrentHandle.isValid())
+                    mTorrentHandle.setSequentialDownload(hold.previous);
+            }
+        }
+    }
+
+    private static class MainThreadExecutor implements Executor
+    {
+        private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+        @Override
+        public void execute(Runnable command)
+        {
+            mHandler.post(command);
+        }
+    }
+
+    // Even though Session itself is the "engine" (especially if you read libtorrent docs), encapsulating Session from the
+    // TorrentEngine implementation help us to be insulated from any breaking changes in the official jlibtorrent lib.
+    private static class SessionManager
+    {
+        private static final int CACHE_BLOCK_BYTES = 16 * 1024;
+
+        public Session getLibtorrentSession()
+        {
+            return mLibtorrentSession;
+        }
+
+        private Session mLibtorrentSession;
+        private final ReentrantLock sessionStartLocker = new ReentrantLock();
+        private File mSavedState;
+
+        /**
+         * Wraps a session that was started elsewhere (currently by Frostwire BTEngine).
+         */
+        private void attach(Session session)
+        {
+            mLibtorrentSession = session;
+        }
+
+        private void start(EngineConfig engineConfig)
+        {
+            //Albeit almost a direct copy for Frostwire BTEngine, we assume future Session class may have throwable errors via JNI/inside jlibtorrent hence the same try-finally block
+            sessionStartLocker.lock();
+            try
+            {
+                mLibtorrentSession = new Session(
+                        new Fingerprint(),
+                        new Pair<>(engineConfig.getPort(), engineConfig.getPort()),
+                        "0.0.0.0");
+            }
+            finally
+            {
+                sessionStartLocker.unlock();
+            }
+        }
+
+        /**
+         * Re-adds a torrent kept by the store, handing libtorrent its last saved resume data.
+         * Torrents without resume data (never paused or saved) are still added and simply go through a normal check.
+         *
+         * @return The handle or null if the session refused it.
+         */
+        private TorrentHandle resumeTorrent(ResumeDataStore.Stored stored, File saveDirectory)
+        {
+            final TorrentHandle torrentHandle = getLibtorrentSession().addTorrent(stored.metafile, saveDirectory, stored.resumeFile);
+            return torrentHandle != null && torrentHandle.isValid() ? torrentHandle : null;
+        }
+
+        private void setSavedState(File savedState)
+        {
+            mSavedState = savedState;
+        }
+
+        /**
+         * Only reads the file, so it can run before the session exists.
+         *
+         * @return The state saved by the previous run or null if there's none.
+         */
+        private byte[] readSavedState() throws IOException
+        {
+            if (mSavedState != null && mSavedState.isFile())
+                return FileUtils.readFileToByteArray(mSavedState);
+            return null;
+        }
+
+        /**
+         * Restores the DHT routing table, which has to happen before DHT starts for it to bootstrap from the known nodes. Also restores the
+         * settings of the previous run, so call it before {@link #loadSettings}.
+         */
+        private void loadSavedState(byte[] state)
+        {
+            if (state != null)
+                getLibtorrentSession().loadState(state);
+        }
+
+        private void saveState() throws IOException
+        {
+            final byte[] state = getLibtorrentSession().saveState();
+            if (mSavedState != null && state != null)
+                ResumeDataStore.writeAtomically(mSavedState, state);
+        }
+
+        /**
+         * Maps the settings onto a libtorrent settings pack and applies it on top of whatever the session started with.
+         */
+        private void loadSettings(Session session, SessionSettings settings)
+        {
+            final SettingsPack pack = new SettingsPack();
+            pack.setInteger(settings_pack.int_types.cache_size.swigValue(), settings.getCacheBytes() / CACHE_BLOCK_BYTES);
+            pack.setInteger(settings_pack.int_types.connections_limit.swigValue(), settings.getConnectionsLimit());
+            pack.setInteger(settings_pack.int_types.send_buffer_low_watermark.swigValue(), settings.getSendBufferLowWatermark());
+            pack.setInteger(settings_pack.int_types.send_buffer_watermark.swigValue(), settings.getSendBufferWatermark());
+            pack.setInteger(settings_pack.int_types.send_buffer_watermark_factor.swigValue(), settings.getSendBufferWatermarkFactor());
+            pack.setInteger(settings_pack.int_types.aio_threads.swigValue(), settings.getAioThreads());
+            pack.setInteger(settings_pack.int_types.choking_algorithm.swigValue(), settings.getChoker() == SessionSettings.Choker.RATE_BASED
+                    ? settings_pack.choking_algorithm_t.rate_based_choker.swigValue()
+                    : settings_pack.choking_algorithm_t.fixed_slots_choker.swigValue());
+            pack.setInteger(settings_pack.int_types.unchoke_slots_limit.swigValue(), settings.getUnchokeSlots());
+            pack.setInteger(settings_pack.int_types.max_peerlist_size.swigValue(), settings.getMaxPeerlistSize());
+            session.applySettings(pack);
         }
 
     }
@@ -0,0 +1,435 @@
+package com.nizlumina.frostmodule;
+
+import com.nizlumina.frostmodule.bencode.MetafileInfo;
+import com.nizlumina.frostmodule.bencode.MetafileLayout;
+import com.nizlumina.frostmodule.common.InfoHash;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.PooledByteArrayOutputStream;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * An on-disk index of metafile metadata keyed by infohash, kept in the metafile directory.
+ * <p/>
+ * The file is an append-only log of length-prefixed records; later records for the same infohash win and removals are recorded as tombstones.
+ * Opening it only scans record headers to learn where each infohash lives. Decoded entries are kept in a bounded LRU and anything else is read
+ * back from its offset on demand, so neither the metafiles nor the whole index are ever loaded to answer a lookup.
+ * The log is compacted once dead records outnumber live ones.
+ * <p/>
+ * Disk access (appends, misses, compaction) holds the index monitor. The LRU has a lock of its own, so lookups of cached entries, e.g. names
+ * for the UI, never wait behind disk I/O. Lock order is the index monitor, then the cache lock.
+ * <p/>
+ * The full {@link MetafileLayout} of the few torrents last worked with (streamed, verified, moved, files listed) is kept as well, since reading
+ * it decodes every path and is far too slow to repeat on the main thread.
+ */
+final class MetafileIndex
+{
+    static final String FILE_NAME = "metafiles.idx";
+
+    private static final int MAGIC = 0x464d4958; //"FMIX"
+    private static final int VERSION = 1;
+    private static final int HEADER_LENGTH = 8;
+    private static final byte OP_PUT = 1;
+    private static final byte OP_REMOVE = 2;
+    private static final int INFOHASH_LENGTH = InfoHash.LENGTH;
+    private static final int MAX_NAME_CHARS = 4096;
+    private static final int MIN_COMPACTION_RECORDS = 256;
+    private static final int LAYOUT_CACHE_SIZE = 8;
+
+    private final File mFile;
+    private final Map<String, Long> mOffsets = new HashMap<>();
+    private final LinkedHashMap<String, Entry> mCache; //guarded by mCacheLock
+    private final LinkedHashMap<String, MetafileLayout> mLayouts = new LinkedHashMap<String, MetafileLayout>(16, 0.75f, true)
+    {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, MetafileLayout> eldest)
+        {
+            return size() > LAYOUT_CACHE_SIZE;
+        }
+    }; //guarded by mCacheLock
+    private final Object mCacheLock = new Object();
+    private RandomAccessFile mLog;
+    private int mDeadRecords;
+
+    //Lets records be streamed into whichever log is open without copying them into one array first
+    private final OutputStream mLogOut = new OutputStream()
+    {
+        @Override
+        public void write(int b) throws IOException
+        {
+            mLog.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException
+        {
+            mLog.write(b, off, len);
+        }
+    };
+
+    MetafileIndex(File metafileDirectory, final int cacheSize)
+    {
+        mFile = new File(metafileDirectory, FILE_NAME);
+        mCache = new LinkedHashMap<String, Entry>(16, 0.75f, true)
+        {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, MetafileIndex.Entry> eldest)
+            {
+                return size() > cacheSize;
+            }
+        };
+    }
+
+    /**
+     * Opens (or creates) the index and learns the offset of every live record. A torn record at the tail, e.g. from a crash mid-append, is cut off.
+     */
+    synchronized void open() throws IOException
+    {
+        if (mLog != null) return;
+
+        final File parent = mFile.getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs())
+            throw new IOException("Directory '" + parent + "' could not be created");
+
+        mLog = new RandomAccessFile(mFile, "rw");
+        if (mLog.length() < HEADER_LENGTH)
+        {
+            mLog.setLength(0);
+            mLog.writeInt(MAGIC);
+            mLog.writeInt(VERSION);
+            return;
+        }
+
+        mLog.seek(0);
+        if (mLog.readInt() != MAGIC || mLog.readInt() != VERSION)
+        {
+            //Unknown format, it's only a cache of the metafiles so start over
+            mLog.setLength(HEADER_LENGTH);
+            mLog.seek(0);
+            mLog.writeInt(MAGIC);
+            mLog.writeInt(VERSION);
+            return;
+        }
+
+        final long validLength = scan();
+        if (validLength < mLog.length())
+            mLog.setLength(validLength);
+    }
+
+    private long scan() throws IOException
+    {
+        DataInputStream in = null;
+        long offset = HEADER_LENGTH;
+        try
+        {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(mFile)));
+            in.skipBytes(HEADER_LENGTH);
+            final byte[] infoHash = new byte[INFOHASH_LENGTH];
+            while (true)
+            {
+                final int length;
+                final byte op;
+                try
+                {
+                    length = in.readInt();
+                    if (length < 1 + INFOHASH_LENGTH) break;
+                    op = in.readByte();
+                    in.readFully(infoHash);
+                    if (in.skipBytes(length - 1 - INFOHASH_LENGTH) != length - 1 - INFOHASH_LENGTH) break;
+                }
+                catch (EOFException e)
+                {
+                    break;
+                }
+
+                final String id = InfoHash.toHex(infoHash);
+                final Long previous = op == OP_PUT ? mOffsets.put(id, offset) : mOffsets.remove(id);
+                //Counted like put() and remove() do, so compaction kicks in at the same point before and after a restart
+                if (previous != null)
+                    mDeadRecords++; //The record it replaces or buries
+                if (op == OP_REMOVE)
+                    mDeadRecords++; //The tombstone itself
+                offset += 4 + length;
+            }
+        }
+        finally
+        {
+            IOUtils.closeQuietly(in);
+        }
+        return offset;
+    }
+
+    synchronized void close()
+    {
+        IOUtils.closeQuietly(mLog);
+        mLog = null;
+        mOffsets.clear();
+        synchronized (mCacheLock)
+        {
+            mCache.clear();
+            mLayouts.clear();
+        }
+        mDeadRecords = 0;
+    }
+
+    /**
+     * @return The indexed metadata of the torrent or null if it was never indexed. Never touches the metafile itself, and only touches the index
+     * file when the entry isn't cached.
+     */
+    Entry get(String infoHash)
+    {
+        synchronized (mCacheLock)
+        {
+            final Entry cached = mCache.get(infoHash);
+            if (cached != null) return cached;
+        }
+        return load(infoHash);
+    }
+
+    /**
+     * @return The layout of the metafile, parsed on the calling thread unless it is one of the few cached. Parsing doesn't hold the index monitor.
+     */
+    MetafileLayout getLayout(String infoHash, File metafile) throws IOException
+    {
+        synchronized (mCacheLock)
+        {
+            final MetafileLayout cached = mLayouts.get(infoHash);
+            if (cached != null) return cached;
+        }
+        final MetafileLayout layout = MetafileLayout.read(metafile);
+        synchronized (mCacheLock)
+        {
+            mLayouts.put(infoHash, layout);
+        }
+        return layout;
+    }
+
+    private synchronized Entry load(String infoHash)
+    {
+        final Long offset = mOffsets.get(infoHash);
+        if (offset == null || mLog == null) return null;
+
+        final Entry entry;
+        try
+        {
+            entry = readEntry(offset);
+        }
+        catch (IOException e)
+        {
+            return null;
+        }
+        cache(entry); //Still under the monitor, so a concurrent removal can't be undone by this
+        return entry;
+    }
+
+    private void cache(Entry entry)
+    {
+        synchronized (mCacheLock)
+        {
+            mCache.put(entry.infoHash, entry);
+        }
+    }
+
+    synchronized boolean contains(String infoHash)
+    {
+        return mOffsets.containsKey(infoHash);
+    }
+
+    synchronized int size()
+    {
+        return mOffsets.size();
+    }
+
+    /**
+     * Indexes the metafile of a known torrent, parsing it only if it isn't indexed yet or changed on disk since. Parsing happens outside the monitor.
+     */
+    Entry index(String infoHash, File metafile) throws IOException
+    {
+        final Entry known = get(infoHash);
+        if (known != null && known.isCurrent(metafile))
+            return known;
+
+        return put(MetafileInfo.read(metafile), metafile);
+    }
+
+    /**
+     * Records already parsed metadata, e.g. when the caller needed the {@link MetafileInfo} anyway.
+     */
+    synchronized Entry put(MetafileInfo info, File metafile) throws IOException
+    {
+        final Entry known = get(info.getInfoHash());
+        if (known != null && known.isCurrent(metafile))
+            return known;
+
+        final Entry entry = new Entry(info.getInfoHash(), truncate(info.getName()), info.getTotalSize(), info.getFileCount(),
+                info.getPieceLength(), metafile.lastModified(), metafile.getAbsolutePath());
+
+        final PooledByteArrayOutputStream payload = new PooledByteArrayOutputStream(); //Bulk imports put thousands of these
+        final long offset;
+        try
+        {
+            final DataOutputStream out = new DataOutputStream(payload);
+            out.writeByte(OP_PUT);
+            out.write(InfoHash.toBytes(entry.infoHash));
+            out.writeUTF(entry.name == null ? "" : entry.name);
+            out.writeLong(entry.totalSize);
+            out.writeInt(entry.fileCount);
+            out.writeInt(entry.pieceLength);
+            out.writeLong(entry.metafileModified);
+            out.writeUTF(entry.metafilePath);
+            out.flush();
+            offset = append(payload);
+        }
+        finally
+        {
+            payload.close();
+        }
+        if (mOffsets.put(entry.infoHash, offset) != null)
+            mDeadRecords++;
+        cache(entry);
+        compactIfNeeded();
+        return entry;
+    }
+
+    synchronized void remove(String infoHash) throws IOException
+    {
+        synchronized (mCacheLock)
+        {
+            mCache.remove(infoHash);
+            mLayouts.remove(infoHash);
+        }
+        if (mOffsets.remove(infoHash) == null) return;
+
+        final PooledByteArrayOutputStream payload = new PooledByteArrayOutputStream();
+        try
+        {
+            payload.write(OP_REMOVE);
+            payload.write(InfoHash.toBytes(infoHash));
+            append(payload);
+        }
+        finally
+        {
+            payload.close();
+        }
+        mDeadRecords += 2; //The tombstone and the record it buries
+        compactIfNeeded();
+    }
+
+    private long append(PooledByteArrayOutputStream payload) throws IOException
+    {
+        if (mLog == null)
+            throw new IOException("Index is not open");
+
+        final long offset = mLog.length();
+        mLog.seek(offset);
+        mLog.writeInt(payload.size());
+        payload.writeTo(mLogOut);
+        return offset;
+    }
+
+    private Entry readEntry(long offset) throws IOException
+    {
+        mLog.seek(offset);
+        final int length = mLog.readInt();
+        final byte[] payload = new byte[length];
+        mLog.readFully(payload);
+
+        final DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        if (in.readByte() != OP_PUT)
+            throw new IOException("Not an index entry at " + offset);
+        final byte[] infoHash = new byte[INFOHASH_LENGTH];
+        in.readFully(infoHash);
+        return new Entry(InfoHash.toHex(infoHash), in.readUTF(), in.readLong(), in.readInt(), in.readInt(), in.readLong(), in.readUTF());
+    }
+
+    /**
+     * Rewrites the log with live records only, through a temporary file renamed over the index.
+     */
+    private void compactIfNeeded() throws IOException
+    {
+        if (mDeadRecords < MIN_COMPACTION_RECORDS || mDeadRecords < mOffsets.size()) return;
+
+        final File temp = new File(mFile.getPath() + ".tmp");
+        final RandomAccessFile compacted = new RandomAccessFile(temp, "rw");
+        final Map<String, Long> offsets = new HashMap<>(mOffsets.size() * 2);
+        try
+        {
+            compacted.setLength(0);
+            compacted.writeInt(MAGIC);
+            compacted.writeInt(VERSION);
+            for (Map.Entry<String, Long> live : mOffsets.entrySet())
+            {
+                mLog.seek(live.getValue());
+                final byte[] payload = new byte[mLog.readInt()];
+                mLog.readFully(payload);
+
+                offsets.put(live.getKey(), compacted.getFilePointer());
+                compacted.writeInt(payload.length);
+                compacted.write(payload);
+            }
+            compacted.getFD().sync();
+        }
+        finally
+        {
+            compacted.close();
+        }
+
+        mLog.close();
+        if (!temp.renameTo(mFile))
+        {
+            temp.delete();
+            mLog = new RandomAccessFile(mFile, "rw");
+            throw new IOException("Could not replace " + mFile);
+        }
+        mLog = new RandomAccessFile(mFile, "rw");
+        mOffsets.clear();
+        mOffsets.putAll(offsets);
+        mDeadRecords = 0;
+    }
+
+    private static String truncate(String name)
+    {
+        //writeUTF is limited to 64KB of modified UTF-8, which a sane name never gets close to
+        return name != null && name.length() > MAX_NAME_CHARS ? name.substring(0, MAX_NAME_CHARS) : name;
+    }
+
+    static final class Entry
+    {
+        final String infoHash;
+        final String name;
+        final long totalSize;
+        final int fileCount;
+        final int pieceLength;
+        final long metafileModified;
+        final String metafilePath;
+
+        Entry(String infoHash, String name, long totalSize, int fileCount, int pieceLength, long metafileModified, String metafilePath)
+        {
+            this.infoHash = infoHash;
+            this.name = name;
+            this.totalSize = totalSize;
+            this.fileCount = fileCount;
+            this.pieceLength = pieceLength;
+            this.metafileModified = metafileModified;
+            this.metafilePath = metafilePath;
+        }
+
+        boolean isCurrent(File metafile)
+        {
+            return metafileModified == metafile.lastModified() && metafilePath.equals(metafile.getAbsolutePath());
+        }
+    }
+}
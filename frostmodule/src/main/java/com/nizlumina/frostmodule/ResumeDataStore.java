@@ -0,0 +1,231 @@
+package com.nizlumina.frostmodule;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Keeps what libtorrent needs to bring a torrent back without rechecking its data: the bencoded fast resume data and a private copy of its metafile.
+ * <p/>
+ * Both live under {@code <private directory>/resume} and are named after the torrent id (infohash), e.g. {@code <id>.resume} and {@code <id>.torrent}.
+ * The metafile is copied because the metafile directory is usually the app cache, which Android may clear at any time.
+ * Torrents paused by the user also get an empty {@code <id>.paused} marker, since libtorrent's own paused flag can't tell them from queued ones.
+ * Torrents whose data was moved out of the download directory get a {@code <id>.location} file holding the directory they live in now.
+ * <p/>
+ * Every write goes to a temporary file which is synced and then renamed over the target, so a crash mid-write leaves the previous copy intact.
+ */
+final class ResumeDataStore
+{
+    private static final String EXT_RESUME = ".resume";
+    private static final String EXT_METAFILE = ".torrent";
+    private static final String EXT_TEMP = ".tmp";
+    private static final String EXT_PAUSED = ".paused";
+    private static final String EXT_LOCATION = ".location";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final File mDirectory;
+
+    ResumeDataStore(File privateDirectory)
+    {
+        mDirectory = new File(privateDirectory, "resume");
+    }
+
+    File getDirectory()
+    {
+        return mDirectory;
+    }
+
+    void saveResumeData(String id, byte[] resumeData) throws IOException
+    {
+        writeAtomically(new File(mDirectory, id + EXT_RESUME), resumeData);
+    }
+
+    /**
+     * @return The resume data file of the torrent or null if none was saved yet.
+     */
+    File getResumeFile(String id)
+    {
+        final File file = new File(mDirectory, id + EXT_RESUME);
+        return file.isFile() ? file : null;
+    }
+
+    /**
+     * Keeps a private copy of the metafile. Does nothing if the copy already exists.
+     */
+    void saveMetafile(String id, File metafile) throws IOException
+    {
+        final File target = new File(mDirectory, id + EXT_METAFILE);
+        if (target.isFile() || target.equals(metafile)) return;
+
+        copyAtomically(target, metafile);
+    }
+
+    /**
+     * @return The private copy of the metafile or null if none was saved.
+     */
+    File getMetafile(String id)
+    {
+        final File file = new File(mDirectory, id + EXT_METAFILE);
+        return file.isFile() ? file : null;
+    }
+
+    /**
+     * Everything kept for every torrent with a stored metafile, which is every torrent the engine can re-add on start.
+     * Gathered from a single listing of the directory instead of a few file checks per torrent.
+     */
+    List<Stored> scan()
+    {
+        final List<Stored> stored = new ArrayList<>();
+        final String[] names = mDirectory.list();
+        if (names == null) return stored;
+
+        final Set<String> present = new HashSet<>(Arrays.asList(names));
+        for (String name : names)
+        {
+            if (!name.endsWith(EXT_METAFILE)) continue;
+
+            final String id = name.substring(0, name.length() - EXT_METAFILE.length());
+            stored.add(new Stored(id, new File(mDirectory, name), present.contains(id + EXT_RESUME) ? new File(mDirectory, id + EXT_RESUME) : null,
+                    present.contains(id + EXT_PAUSED), present.contains(id + EXT_LOCATION) ? getSaveDirectory(id) : null));
+        }
+        return stored;
+    }
+
+    void setPaused(String id, boolean paused) throws IOException
+    {
+        final File marker = new File(mDirectory, id + EXT_PAUSED);
+        if (!paused)
+            marker.delete();
+        else if (!marker.isFile())
+            writeAtomically(marker, new byte[0]);
+    }
+
+    boolean isPaused(String id)
+    {
+        return new File(mDirectory, id + EXT_PAUSED).isFile();
+    }
+
+    /**
+     * Remembers where the data of the torrent lives when it's not the engine's download directory.
+     */
+    void setSaveDirectory(String id, File saveDirectory) throws IOException
+    {
+        writeAtomically(new File(mDirectory, id + EXT_LOCATION), saveDirectory.getAbsolutePath().getBytes(UTF_8));
+    }
+
+    /**
+     * @return The directory set with {@link #setSaveDirectory} or null if the torrent is in the download directory (or its location is unreadable).
+     */
+    File getSaveDirectory(String id)
+    {
+        final File location = new File(mDirectory, id + EXT_LOCATION);
+        if (!location.isFile()) return null;
+        try
+        {
+            return new File(new String(FileUtils.readFileToByteArray(location), UTF_8));
+        }
+        catch (IOException e)
+        {
+            return null;
+        }
+    }
+
+    void delete(String id)
+    {
+        new File(mDirectory, id + EXT_RESUME).delete();
+        new File(mDirectory, id + EXT_METAFILE).delete();
+        new File(mDirectory, id + EXT_PAUSED).delete();
+        new File(mDirectory, id + EXT_LOCATION).delete();
+    }
+
+    static final class Stored
+    {
+        final String id;
+        final File metafile;
+        final File resumeFile; //Null if no resume data was saved yet
+        final boolean paused;
+        final File saveDirectory; //Null for the download directory
+
+        Stored(String id, File metafile, File resumeFile, boolean paused, File saveDirectory)
+        {
+            this.id = id;
+            this.metafile = metafile;
+            this.resumeFile = resumeFile;
+            this.paused = paused;
+            this.saveDirectory = saveDirectory;
+        }
+    }
+
+    /**
+     * Also used for other engine state that must survive a crash mid-write, e.g. the session state.
+     */
+    static void writeAtomically(File target, byte[] data) throws IOException
+    {
+        final File temp = new File(target.getPath() + EXT_TEMP);
+        FileOutputStream out = null;
+        boolean written = false;
+        try
+        {
+            out = FileUtils.openOutputStream(temp, false);
+            out.write(data);
+            out.getFD().sync();
+            out.close();
+            written = true;
+        }
+        finally
+        {
+            IOUtils.closeQuietly(out);
+            if (!written)
+                temp.delete();
+        }
+        moveIntoPlace(temp, target);
+    }
+
+    /**
+     * Same as {@link #writeAtomically} but the content is transferred from the source file without going through the heap.
+     */
+    private static void copyAtomically(File target, File source) throws IOException
+    {
+        final File temp = new File(target.getPath() + EXT_TEMP);
+        FileInputStream in = null;
+        FileOutputStream out = null;
+        boolean written = false;
+        try
+        {
+            in = FileUtils.openInputStream(source);
+            out = FileUtils.openOutputStream(temp, false);
+            IOUtils.copyLarge(in, out);
+            out.getFD().sync();
+            out.close();
+            written = true;
+        }
+        finally
+        {
+            IOUtils.closeQuietly(out);
+            IOUtils.closeQuietly(in);
+            if (!written)
+                temp.delete();
+        }
+        moveIntoPlace(temp, target);
+    }
+
+    private static void moveIntoPlace(File temp, File target) throws IOException
+    {
+        if (!temp.renameTo(target))
+        {
+            temp.delete();
+            throw new IOException("Could not move '" + temp + "' to '" + target + "'");
+        }
+    }
+}
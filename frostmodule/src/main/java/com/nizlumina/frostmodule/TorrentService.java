@@ -80,7 +80,7 @@ public class TorrentService extends Service
     public boolean onUnbind(Intent intent)
     {
         log("UB");
-        if (!mTorrentEngine.isAnyTorrentDownloading())
+        if (!mTorrentEngine.hasPendingWork())
             stopSelf();
         return super.onUnbind(intent);
     }
@@ -103,6 +103,7 @@ public class TorrentService extends Service
         final EngineConfig engineConfig = new EngineConfig.Builder()
                 .setMetafileDirectory(getCacheDir())
                 .setSaveDirectory(getFilesDir())
+                .setPrivateDirectory(getDir("frostmodule", Context.MODE_PRIVATE))
                 .setPort(6868)
                 .build();
 
@@ -122,7 +123,8 @@ public class TorrentService extends Service
             @Override
             public void run()
             {
-                if (!mTorrentEngine.isAnyTorrentDownloading())
+                //Status updates of restored torrents may not have arrived yet, so ask about the torrents themselves
+                if (!mTorrentEngine.hasPendingWork())
                     stopSelf();
             }
         });
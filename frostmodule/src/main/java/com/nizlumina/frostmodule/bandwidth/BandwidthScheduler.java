@@ -0,0 +1,376 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Nizlumina Studio (Malaysia)
+ *
+ * Unless specified, permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package com.nizlumina.frostmodule.bandwidth;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Splits the global upload and download limits between torrents, by {@link TrafficClass} first and then evenly within each class.
+ * <p/>
+ * libtorrent already meters every torrent with its own token bucket; what this class decides is the refill rate of each bucket. On every
+ * {@link #rebalance()} the demand of each torrent is estimated from its observed rate (a torrent using most of its limit is assumed to want more),
+ * the classes get their weighted share of the global limit, and any share a class can't use is lent to the classes that can. The same
+ * max-min split happens between the torrents of a class. Whatever is left when everyone is satisfied is spread over the busy torrents so
+ * they have room to grow until the next rebalance.
+ * <p/>
+ * Idle torrents keep a small floor so they can pick up again, and paused torrents are skipped entirely. Per-torrent caps always win.
+ * Limits are in bytes per second, {@link #UNLIMITED} meaning no limit, and are only handed to the {@link Actuator} when they change noticeably.
+ */
+public final class BandwidthScheduler
+{
+    public static final int UNLIMITED = 0;
+
+    public interface Actuator
+    {
+        /**
+         * Applies new limits to a torrent. Called from {@link #rebalance()}, for the torrents whose limits changed only.
+         */
+        void applyLimits(String id, int downloadLimit, int uploadLimit);
+    }
+
+    //Below this a torrent counts as idle
+    private static final int IDLE_RATE = 1024;
+    //What an idle torrent keeps to be able to wake up
+    private static final int FLOOR_RATE = 4 * 1024;
+    //Using this much of its limit means a torrent is held back by it
+    private static final double SATURATION = 0.85;
+    private static final double GROWTH = 2.0;
+    private static final double HEADROOM = 1.25;
+    //Changes smaller than this aren't worth a round-trip to libtorrent
+    private static final double CHANGE_THRESHOLD = 0.05;
+
+    private static final TrafficClass[] CLASSES = TrafficClass.values();
+
+    private final Actuator mActuator;
+    private final Map<String, Torrent> mTorrents = new HashMap<>();
+    private int mDownloadLimit;
+    private int mUploadLimit;
+
+    public BandwidthScheduler(int downloadLimit, int uploadLimit, Actuator actuator)
+    {
+        mActuator = actuator;
+        setGlobalLimits(downloadLimit, uploadLimit);
+    }
+
+    public synchronized void setGlobalLimits(int downloadLimit, int uploadLimit)
+    {
+        mDownloadLimit = Math.max(UNLIMITED, downloadLimit);
+        mUploadLimit = Math.max(UNLIMITED, uploadLimit);
+    }
+
+    /**
+     * Starts scheduling a torrent, or changes its class if it's already known.
+     */
+    public synchronized void register(String id, TrafficClass trafficClass)
+    {
+        final Torrent torrent = mTorrents.get(id);
+        if (torrent != null)
+            torrent.trafficClass = trafficClass;
+        else
+            mTorrents.put(id, new Torrent(id, trafficClass));
+    }
+
+    public synchronized void unregister(String id)
+    {
+        mTorrents.remove(id);
+    }
+
+    /**
+     * @return The class of the torrent or null if it isn't scheduled.
+     */
+    public synchronized TrafficClass getTrafficClass(String id)
+    {
+        final Torrent torrent = mTorrents.get(id);
+        return torrent != null ? torrent.trafficClass : null;
+    }
+
+    /**
+     * Caps a single torrent, on top of whatever its class gets. {@link #UNLIMITED} removes the cap.
+     */
+    public synchronized void setTorrentLimits(String id, int downloadLimit, int uploadLimit)
+    {
+        final Torrent torrent = mTorrents.get(id);
+        if (torrent == null) return;
+
+        torrent.download.cap = Math.max(UNLIMITED, downloadLimit);
+        torrent.upload.cap = Math.max(UNLIMITED, uploadLimit);
+    }
+
+    /**
+     * Records the latest observed rates of a torrent, in bytes per second. Paused torrents are left out of the next rebalance.
+     */
+    public synchronized void onRates(String id, int downloadRate, int uploadRate, boolean paused)
+    {
+        final Torrent torrent = mTorrents.get(id);
+        if (torrent == null) return;
+
+        torrent.download.rate = downloadRate;
+        torrent.upload.rate = uploadRate;
+        torrent.paused = paused;
+    }
+
+    /**
+     * Recomputes every limit and applies the ones that changed. Meant to be called every few seconds.
+     */
+    public void rebalance()
+    {
+        final List<Torrent> changed = new ArrayList<>();
+        synchronized (this)
+        {
+            final List<Torrent> active = new ArrayList<>(mTorrents.size());
+            for (Torrent torrent : mTorrents.values())
+            {
+                if (!torrent.paused)
+                    active.add(torrent);
+            }
+
+            final List<Lane> lanes = new ArrayList<>(active.size());
+            for (Torrent torrent : active)
+            {
+                lanes.add(torrent.download);
+            }
+            allocate(lanes, mDownloadLimit);
+            lanes.clear();
+            for (Torrent torrent : active)
+            {
+                lanes.add(torrent.upload);
+            }
+            allocate(lanes, mUploadLimit);
+
+            for (Torrent torrent : active)
+            {
+                final boolean downloadChanged = torrent.download.commit();
+                final boolean uploadChanged = torrent.upload.commit();
+                if (downloadChanged || uploadChanged)
+                    changed.add(torrent);
+            }
+        }
+
+        //Outside the lock, the actuator is likely a JNI call per torrent
+        for (Torrent torrent : changed)
+        {
+            mActuator.applyLimits(torrent.id, torrent.download.applied, torrent.upload.applied);
+        }
+    }
+
+    /**
+     * Fills in {@link Lane#next} for every lane so that together they stay within the limit.
+     */
+    private static void allocate(List<Lane> lanes, int limit)
+    {
+        if (lanes.isEmpty()) return;
+
+        if (limit == UNLIMITED)
+        {
+            for (Lane lane : lanes)
+            {
+                lane.next = lane.cap;
+            }
+            return;
+        }
+
+        //Every lane is owed the floor, even if that means less than the floor each
+        final long floor = Math.max(1, Math.min(FLOOR_RATE, limit / lanes.size()));
+        final long[] classDemand = new long[CLASSES.length];
+        final List<List<Lane>> byClass = new ArrayList<>(CLASSES.length);
+        for (int i = 0; i < CLASSES.length; i++)
+        {
+            byClass.add(new ArrayList<Lane>());
+        }
+        for (Lane lane : lanes)
+        {
+            lane.demand = Math.max(floor, lane.estimateDemand());
+            classDemand[lane.owner.trafficClass.ordinal()] += lane.demand;
+            byClass.get(lane.owner.trafficClass.ordinal()).add(lane);
+        }
+
+        //Weighted max-min between classes, unused shares flow to the classes still wanting more
+        final long[] classShare = new long[CLASSES.length];
+        final boolean[] settled = new boolean[CLASSES.length];
+        long remaining = limit;
+        boolean progress = true;
+        while (progress && remaining > 0)
+        {
+            progress = false;
+            long weights = 0;
+            for (int i = 0; i < CLASSES.length; i++)
+            {
+                if (!settled[i] && classDemand[i] > 0)
+                    weights += CLASSES[i].getWeight();
+            }
+            if (weights == 0) break;
+
+            final long round = remaining;
+            for (int i = 0; i < CLASSES.length; i++)
+            {
+                if (settled[i] || classDemand[i] == 0) continue;
+                final long fairShare = round * CLASSES[i].getWeight() / weights;
+                if (classDemand[i] <= fairShare)
+                {
+                    classShare[i] = classDemand[i];
+                    remaining -= classDemand[i];
+                    settled[i] = true;
+                    progress = true;
+                }
+            }
+            if (!progress)
+            {
+                for (int i = 0; i < CLASSES.length; i++)
+                {
+                    if (!settled[i] && classDemand[i] > 0)
+                        classShare[i] = round * CLASSES[i].getWeight() / weights;
+                }
+                remaining = 0;
+            }
+        }
+
+        for (int i = 0; i < CLASSES.length; i++)
+        {
+            share(byClass.get(i), classShare[i]);
+        }
+
+        //Everyone got what they asked for, lend the rest to the busy lanes so they can show how much more they'd take
+        if (remaining > 0)
+        {
+            final List<Lane> busy = new ArrayList<>();
+            long weights = 0;
+            for (Lane lane : lanes)
+            {
+                if (lane.rate >= IDLE_RATE && (lane.cap == UNLIMITED || lane.next < lane.cap))
+                {
+                    busy.add(lane);
+                    weights += lane.owner.trafficClass.getWeight();
+                }
+            }
+            for (Lane lane : busy)
+            {
+                final long extra = remaining * lane.owner.trafficClass.getWeight() / weights;
+                lane.next = clampToCap(lane.next + extra, lane.cap);
+            }
+        }
+
+        for (Lane lane : lanes)
+        {
+            lane.next = Math.max(1, lane.next); //Zero would lift the limit
+        }
+    }
+
+    /**
+     * Plain max-min between the lanes of one class: lanes wanting less than an even split get their demand, the rest split what's left.
+     */
+    private static void share(List<Lane> lanes, long amount)
+    {
+        int unsettled = lanes.size();
+        for (Lane lane : lanes)
+        {
+            lane.next = -1;
+        }
+
+        long remaining = amount;
+        boolean progress = true;
+        while (unsettled > 0 && progress)
+        {
+            progress = false;
+            final long evenSplit = remaining / unsettled;
+            for (Lane lane : lanes)
+            {
+                if (lane.next < 0 && lane.demand <= evenSplit)
+                {
+                    lane.next = lane.demand;
+                    remaining -= lane.demand;
+                    unsettled--;
+                    progress = true;
+                }
+            }
+        }
+        if (unsettled > 0)
+        {
+            final long evenSplit = remaining / unsettled;
+            for (Lane lane : lanes)
+            {
+                if (lane.next < 0)
+                    lane.next = evenSplit;
+            }
+        }
+    }
+
+    private static long clampToCap(long value, int cap)
+    {
+        return cap == UNLIMITED ? value : Math.min(value, cap);
+    }
+
+    private static final class Torrent
+    {
+        final String id;
+        final Lane download = new Lane(this);
+        final Lane upload = new Lane(this);
+        TrafficClass trafficClass;
+        boolean paused;
+
+        Torrent(String id, TrafficClass trafficClass)
+        {
+            this.id = id;
+            this.trafficClass = trafficClass;
+        }
+    }
+
+    /**
+     * One direction of one torrent.
+     */
+    private static final class Lane
+    {
+        final Torrent owner;
+        int cap = UNLIMITED;
+        int rate;
+        int applied = -1; //Nothing applied yet
+        long demand;
+        long next;
+
+        Lane(Torrent owner)
+        {
+            this.owner = owner;
+        }
+
+        long estimateDemand()
+        {
+            final long demand;
+            if (rate < IDLE_RATE)
+                demand = 0;
+            else if (applied > 0 && rate >= applied * SATURATION)
+                demand = (long) (Math.max(rate, applied) * GROWTH); //Held back by its limit, let it find out how much more it can do
+            else
+                demand = (long) (rate * HEADROOM);
+            return clampToCap(demand, cap);
+        }
+
+        /**
+         * @return True if the new limit differs enough from the applied one to be worth applying.
+         */
+        boolean commit()
+        {
+            final int target = (int) Math.min(Integer.MAX_VALUE, Math.max(UNLIMITED, next));
+            final boolean changed;
+            if (applied < 0 || (target == UNLIMITED) != (applied == UNLIMITED))
+                changed = true;
+            else
+                changed = Math.abs(target - applied) > applied * CHANGE_THRESHOLD;
+            if (changed)
+                applied = target;
+            return changed;
+        }
+    }
+}
@@ -0,0 +1,46 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Nizlumina Studio (Malaysia)
+ *
+ * Unless specified, permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package com.nizlumina.frostmodule.bandwidth;
+
+/**
+ * How a torrent competes for bandwidth in the {@link BandwidthScheduler}. Each class is guaranteed a share of the global limit in proportion
+ * to its weight; whatever a class leaves unused is lent to the others.
+ */
+public enum TrafficClass
+{
+    /**
+     * Torrents being played while they download. Gets the largest share so playback doesn't stall.
+     */
+    STREAMING(6),
+    /**
+     * Torrents the user is looking at or just started. The default.
+     */
+    FOREGROUND(3),
+    /**
+     * Everything else, e.g. seeding or bulk downloads. Still guaranteed a small share so it never starves.
+     */
+    BACKGROUND(1);
+
+    private final int mWeight;
+
+    TrafficClass(int weight)
+    {
+        mWeight = weight;
+    }
+
+    public int getWeight()
+    {
+        return mWeight;
+    }
+}
@@ -0,0 +1,304 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Nizlumina Studio (Malaysia)
+ *
+ * Unless specified, permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package com.nizlumina.frostmodule.bencode;
+
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+
+/**
+ * A pull parser for bencode that walks a {@link ByteBuffer} token by token.
+ * <p/>
+ * Nothing is decoded until asked for: strings are only located (see {@link #nextString()}) and can then be compared, sliced or decoded,
+ * and whole values can be skipped without building anything. This keeps reading a few fields of a large metafile (including a memory-mapped one)
+ * at a constant number of allocations no matter how many files or pieces it describes.
+ * <p/>
+ * The reader uses absolute reads only, so the position and limit of the given buffer are never touched. Not thread safe.
+ * <p/>
+ * Typical use:
+ * <pre>
+ * reader.beginDictionary();
+ * while (reader.hasNext())
+ * {
+ *     reader.nextString(); //key
+ *     if (reader.stringEquals(KEY_NAME))
+ *         name = reader.nextUtf8String();
+ *     else
+ *         reader.skipValue();
+ * }
+ * reader.endContainer();
+ * </pre>
+ */
+public final class BencodeReader
+{
+    public enum Token
+    {
+        DICTIONARY, LIST, INTEGER, STRING, END, EOF
+    }
+
+    private static final int MAX_LENGTH_DIGITS = 10;
+
+    private final ByteBuffer mBuffer;
+    private final int mLimit;
+    private int mPosition;
+    private int mStringStart = -1;
+    private int mStringLength;
+
+    /**
+     * @param buffer Read from its current position up to its limit.
+     */
+    public BencodeReader(ByteBuffer buffer)
+    {
+        mBuffer = buffer;
+        mPosition = buffer.position();
+        mLimit = buffer.limit();
+    }
+
+    /**
+     * @return The absolute buffer index of the next token. Together with {@link #skipValue()} this gives the exact byte range of any value.
+     */
+    public int position()
+    {
+        return mPosition;
+    }
+
+    public ByteBuffer buffer()
+    {
+        return mBuffer;
+    }
+
+    public Token peek() throws BencodeException
+    {
+        if (mPosition >= mLimit) return Token.EOF;
+
+        final byte b = mBuffer.get(mPosition);
+        switch (b)
+        {
+            case 'd':
+                return Token.DICTIONARY;
+            case 'l':
+                return Token.LIST;
+            case 'i':
+                return Token.INTEGER;
+            case 'e':
+                return Token.END;
+            default:
+                if (b >= '0' && b <= '9')
+                    return Token.STRING;
+                throw new BencodeException("Unexpected '" + (char) b + "'", mPosition);
+        }
+    }
+
+    /**
+     * @return True while the current list or dictionary has more values.
+     */
+    public boolean hasNext() throws BencodeException
+    {
+        final Token token = peek();
+        if (token == Token.EOF)
+            throw new BencodeException("Unterminated list or dictionary", mPosition);
+        return token != Token.END;
+    }
+
+    public void beginDictionary() throws BencodeException
+    {
+        expect(Token.DICTIONARY);
+        mPosition++;
+    }
+
+    public void beginList() throws BencodeException
+    {
+        expect(Token.LIST);
+        mPosition++;
+    }
+
+    /**
+     * Consumes the 'e' closing the current list or dictionary.
+     */
+    public void endContainer() throws BencodeException
+    {
+        expect(Token.END);
+        mPosition++;
+    }
+
+    public long nextLong() throws BencodeException
+    {
+        expect(Token.INTEGER);
+        int position = mPosition + 1;
+        boolean negative = false;
+        if (position < mLimit && mBuffer.get(position) == '-')
+        {
+            negative = true;
+            position++;
+        }
+
+        final int digitsStart = position;
+        long value = 0;
+        while (position < mLimit)
+        {
+            final byte b = mBuffer.get(position);
+            if (b == 'e') break;
+            if (b < '0' || b > '9')
+                throw new BencodeException("Invalid integer digit '" + (char) b + "'", position);
+            if (value > (Long.MAX_VALUE - (b - '0')) / 10)
+                throw new BencodeException("Integer overflow", position);
+            value = value * 10 + (b - '0');
+            position++;
+        }
+
+        if (position >= mLimit)
+            throw new BencodeException("Unterminated integer", mPosition);
+        if (position == digitsStart)
+            throw new BencodeException("Empty integer", mPosition);
+
+        mPosition = position + 1;
+        return negative ? -value : value;
+    }
+
+    /**
+     * Locates the next string without copying it. The string can then be inspected with
+     * {@link #stringEquals(byte[])}, {@link #stringSlice()} or {@link #stringAsUtf8()} until the next string is read.
+     *
+     * @return The length of the string in bytes.
+     */
+    public int nextString() throws BencodeException
+    {
+        expect(Token.STRING);
+        int position = mPosition;
+        long length = 0;
+        int digits = 0;
+        while (position < mLimit)
+        {
+            final byte b = mBuffer.get(position);
+            if (b == ':') break;
+            if (b < '0' || b > '9' || ++digits > MAX_LENGTH_DIGITS)
+                throw new BencodeException("Invalid string length", position);
+            length = length * 10 + (b - '0');
+            position++;
+        }
+
+        if (position >= mLimit)
+            throw new BencodeException("Unterminated string length", mPosition);
+
+        final int start = position + 1;
+        if (start > mLimit - length)
+            throw new BencodeException("String of " + length + " bytes runs past the end", mPosition);
+
+        mStringStart = start;
+        mStringLength = (int) length;
+        mPosition = start + mStringLength;
+        return mStringLength;
+    }
+
+    public String nextUtf8String() throws BencodeException
+    {
+        nextString();
+        return stringAsUtf8();
+    }
+
+    /**
+     * Compares the last string read against the given bytes without allocating. Intended for dictionary keys.
+     */
+    public boolean stringEquals(byte[] expected)
+    {
+        if (mStringStart < 0 || expected.length != mStringLength) return false;
+
+        for (int i = 0; i < mStringLength; i++)
+        {
+            if (mBuffer.get(mStringStart + i) != expected[i]) return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return A view of the last string read, sharing the underlying buffer (no copy).
+     */
+    public ByteBuffer stringSlice()
+    {
+        final ByteBuffer duplicate = mBuffer.duplicate();
+        duplicate.limit(mStringStart + mStringLength);
+        duplicate.position(mStringStart);
+        return duplicate.slice();
+    }
+
+    /**
+     * @return The absolute buffer index of the first byte of the last string read.
+     */
+    public int stringOffset()
+    {
+        return mStringStart;
+    }
+
+    public int stringLength()
+    {
+        return mStringLength;
+    }
+
+    public String stringAsUtf8()
+    {
+        final byte[] bytes = new byte[mStringLength];
+        for (int i = 0; i < mStringLength; i++)
+        {
+            bytes[i] = mBuffer.get(mStringStart + i);
+        }
+        try
+        {
+            return new String(bytes, "UTF-8");
+        }
+        catch (UnsupportedEncodingException e)
+        {
+            throw new AssertionError(e); //UTF-8 is always supported
+        }
+    }
+
+    /**
+     * Skips the next value whatever it is, including nested lists and dictionaries. Nothing is allocated.
+     */
+    public void skipValue() throws BencodeException
+    {
+        int depth = 0;
+        do
+        {
+            switch (peek())
+            {
+                case DICTIONARY:
+                case LIST:
+                    mPosition++;
+                    depth++;
+                    break;
+                case END:
+                    if (depth == 0)
+                        throw new BencodeException("Unexpected end of container", mPosition);
+                    mPosition++;
+                    depth--;
+                    break;
+                case INTEGER:
+                    nextLong();
+                    break;
+                case STRING:
+                    nextString();
+                    break;
+                case EOF:
+                    throw new BencodeException("Unexpected end of data", mPosition);
+            }
+        }
+        while (depth > 0);
+    }
+
+    private void expect(Token expected) throws BencodeException
+    {
+        final Token token = peek();
+        if (token != expected)
+            throw new BencodeException("Expected " + expected + " but found " + token, mPosition);
+    }
+}
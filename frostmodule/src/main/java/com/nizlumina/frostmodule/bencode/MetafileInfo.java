@@ -0,0 +1,305 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Nizlumina Studio (Malaysia)
+ *
+ * Unless specified, permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package com.nizlumina.frostmodule.bencode;
+
+import com.nizlumina.frostmodule.common.InfoHash;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * The handful of metafile fields the engine and the UI list need, pulled out of a metafile with a {@link BencodeReader}.
+ * <p/>
+ * Only the name is decoded; file lengths are summed on the fly and everything else (paths, piece hashes, trackers) is skipped,
+ * so a metafile listing 100k files still costs a few objects. The byte range of the info dictionary is kept and hashed in place to get the infohash.
+ */
+public final class MetafileInfo
+{
+    //Below this size reading into the heap is cheaper than setting up a mapping
+    private static final int MAP_THRESHOLD = 64 * 1024;
+
+    //Shared with MetafileLayout
+    static final byte[] KEY_INFO = ascii("info");
+    static final byte[] KEY_LENGTH = ascii("length");
+    static final byte[] KEY_FILES = ascii("files");
+    static final byte[] KEY_PIECE_LENGTH = ascii("piece length");
+    static final byte[] KEY_PIECES = ascii("pieces");
+    private static final byte[] KEY_NAME = ascii("name");
+    private static final byte[] KEY_NAME_UTF8 = ascii("name.utf-8");
+
+    private static final int SHA1_LENGTH = InfoHash.LENGTH;
+
+    private String name;
+    private long totalSize;
+    private int fileCount;
+    private int pieceLength;
+    private int pieceCount;
+    private int infoStart = -1;
+    private int infoEnd = -1;
+    private String infoHash;
+
+    private MetafileInfo() {}
+
+    /**
+     * Reads the metafile, memory-mapping it when it's large enough for that to pay off.
+     */
+    public static MetafileInfo read(File metafile) throws IOException
+    {
+        return parse(open(metafile));
+    }
+
+    /**
+     * @return The content of the metafile as a read-only mapping, or a heap buffer for small files.
+     */
+    public static ByteBuffer open(File metafile) throws IOException
+    {
+        FileInputStream in = null;
+        try
+        {
+            in = FileUtils.openInputStream(metafile);
+            final FileChannel channel = in.getChannel();
+            final long size = channel.size();
+            if (size > Integer.MAX_VALUE)
+                throw new IOException("Metafile '" + metafile + "' is too large: " + size);
+
+            if (size >= MAP_THRESHOLD)
+                return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+
+            final ByteBuffer buffer = ByteBuffer.allocate((int) size);
+            while (buffer.hasRemaining() && channel.read(buffer) != -1) ;
+            buffer.flip();
+            return buffer;
+        }
+        finally
+        {
+            IOUtils.closeQuietly(in); //A mapping stays valid after its channel is closed
+        }
+    }
+
+    public static MetafileInfo parse(ByteBuffer buffer) throws IOException
+    {
+        final MetafileInfo info = new MetafileInfo();
+        final BencodeReader reader = new BencodeReader(buffer);
+
+        reader.beginDictionary();
+        while (reader.hasNext())
+        {
+            reader.nextString();
+            if (reader.stringEquals(KEY_INFO))
+            {
+                info.infoStart = reader.position();
+                info.readInfo(reader);
+                info.infoEnd = reader.position();
+            }
+            else
+            {
+                reader.skipValue();
+            }
+        }
+        reader.endContainer();
+
+        if (info.infoStart < 0)
+            throw new BencodeException("Metafile has no info dictionary", reader.position());
+
+        info.infoHash = sha1Hex(buffer, info.infoStart, info.infoEnd);
+        return info;
+    }
+
+    private void readInfo(BencodeReader reader) throws IOException
+    {
+        boolean singleFile = false;
+        final NameReader nameReader = new NameReader();
+
+        reader.beginDictionary();
+        while (reader.hasNext())
+        {
+            reader.nextString();
+            if (nameReader.read(reader))
+                continue;
+
+            if (reader.stringEquals(KEY_LENGTH))
+            {
+                totalSize = reader.nextLong();
+                singleFile = true;
+            }
+            else if (reader.stringEquals(KEY_FILES))
+            {
+                readFiles(reader);
+            }
+            else if (reader.stringEquals(KEY_PIECE_LENGTH))
+            {
+                final long length = reader.nextLong();
+                if (length <= 0 || length > Integer.MAX_VALUE)
+                    throw new BencodeException("Invalid piece length " + length, reader.position());
+                pieceLength = (int) length;
+            }
+            else if (reader.stringEquals(KEY_PIECES))
+            {
+                final int length = reader.nextString();
+                if (length % SHA1_LENGTH != 0)
+                    throw new BencodeException("Piece hashes are not a multiple of " + SHA1_LENGTH, reader.position());
+                pieceCount = length / SHA1_LENGTH;
+            }
+            else
+            {
+                reader.skipValue();
+            }
+        }
+        reader.endContainer();
+
+        if (singleFile)
+            fileCount = 1;
+        name = nameReader.getName();
+    }
+
+    private void readFiles(BencodeReader reader) throws IOException
+    {
+        reader.beginList();
+        while (reader.hasNext())
+        {
+            reader.beginDictionary();
+            while (reader.hasNext())
+            {
+                reader.nextString();
+                if (reader.stringEquals(KEY_LENGTH))
+                    totalSize += reader.nextLong();
+                else
+                    reader.skipValue();
+            }
+            reader.endContainer();
+            fileCount++;
+        }
+        reader.endContainer();
+    }
+
+    private static String sha1Hex(ByteBuffer buffer, int start, int end)
+    {
+        final MessageDigest digest;
+        try
+        {
+            digest = MessageDigest.getInstance("SHA-1");
+        }
+        catch (NoSuchAlgorithmException e)
+        {
+            throw new AssertionError(e); //Every platform ships SHA-1
+        }
+
+        final ByteBuffer info = buffer.duplicate();
+        info.limit(end);
+        info.position(start);
+        digest.update(info);
+        return InfoHash.toHex(digest.digest());
+    }
+
+    static byte[] ascii(String s)
+    {
+        final byte[] bytes = new byte[s.length()];
+        for (int i = 0; i < bytes.length; i++)
+        {
+            bytes[i] = (byte) s.charAt(i);
+        }
+        return bytes;
+    }
+
+    /**
+     * Picks up the name of an info dictionary, preferring the name.utf-8 key some clients add next to a name in another charset.
+     */
+    static final class NameReader
+    {
+        private String mPlainName;
+        private String mUtf8Name;
+
+        /**
+         * @return True if the key the reader is at is a name, in which case its value was read.
+         */
+        boolean read(BencodeReader reader) throws IOException
+        {
+            if (reader.stringEquals(KEY_NAME))
+                mPlainName = reader.nextUtf8String();
+            else if (reader.stringEquals(KEY_NAME_UTF8))
+                mUtf8Name = reader.nextUtf8String();
+            else
+                return false;
+            return true;
+        }
+
+        /**
+         * @return The name or null if the dictionary had none.
+         */
+        String getName()
+        {
+            return mUtf8Name != null ? mUtf8Name : mPlainName;
+        }
+    }
+
+    public String getName()
+    {
+        return name;
+    }
+
+    /**
+     * @return The sum of every file length in bytes.
+     */
+    public long getTotalSize()
+    {
+        return totalSize;
+    }
+
+    public int getFileCount()
+    {
+        return fileCount;
+    }
+
+    public int getPieceLength()
+    {
+        return pieceLength;
+    }
+
+    public int getPieceCount()
+    {
+        return pieceCount;
+    }
+
+    /**
+     * @return The absolute index of the info dictionary in the parsed buffer (its 'd').
+     */
+    public int getInfoStart()
+    {
+        return infoStart;
+    }
+
+    /**
+     * @return One past the last byte of the info dictionary (its closing 'e').
+     */
+    public int getInfoEnd()
+    {
+        return infoEnd;
+    }
+
+    /**
+     * @return The lowercase hex SHA-1 of the info dictionary, which is also the id the engine uses for the torrent.
+     */
+    public String getInfoHash()
+    {
+        return infoHash;
+    }
+}
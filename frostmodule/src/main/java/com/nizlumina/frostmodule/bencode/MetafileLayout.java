@@ -0,0 +1,317 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Nizlumina Studio (Malaysia)
+ *
+ * Unless specified, permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package com.nizlumina.frostmodule.bencode;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The storage layout described by a metafile: every file with its length and offset in the torrent, plus the piece hashes.
+ * <p/>
+ * Unlike {@link MetafileInfo} this decodes every file path, so only use it when the files are actually needed (verification, relocation).
+ * The piece hashes are not copied: {@link #getPieceHash} reads them from the buffer the metafile was parsed from.
+ */
+public final class MetafileLayout
+{
+    private static final byte[] KEY_PATH = MetafileInfo.ascii("path");
+    private static final byte[] KEY_PATH_UTF8 = MetafileInfo.ascii("path.utf-8");
+    private static final int HASH_LENGTH = 20;
+
+    private final ByteBuffer mBuffer;
+    private String mName;
+    private boolean mSingleFile;
+    private int mPieceLength;
+    private int mPiecesOffset = -1;
+    private int mPieceCount;
+    private String[] mPaths;
+    private long[] mLengths;
+    private long[] mOffsets;
+    private long mTotalSize;
+
+    private MetafileLayout(ByteBuffer buffer)
+    {
+        mBuffer = buffer;
+    }
+
+    public static MetafileLayout read(File metafile) throws IOException
+    {
+        return parse(MetafileInfo.open(metafile));
+    }
+
+    public static MetafileLayout parse(ByteBuffer buffer) throws IOException
+    {
+        final MetafileLayout layout = new MetafileLayout(buffer);
+        final BencodeReader reader = new BencodeReader(buffer);
+
+        reader.beginDictionary();
+        boolean foundInfo = false;
+        while (reader.hasNext())
+        {
+            reader.nextString();
+            if (reader.stringEquals(MetafileInfo.KEY_INFO))
+            {
+                layout.readInfo(reader);
+                foundInfo = true;
+            }
+            else
+            {
+                reader.skipValue();
+            }
+        }
+        reader.endContainer();
+
+        if (!foundInfo || layout.mPiecesOffset < 0 || layout.mPieceLength <= 0 || layout.mPaths == null)
+            throw new BencodeException("Metafile lacks files, piece length or piece hashes", reader.position());
+
+        final long expectedPieces = (layout.mTotalSize + layout.mPieceLength - 1) / layout.mPieceLength;
+        if (expectedPieces != layout.mPieceCount)
+            throw new BencodeException("Expected " + expectedPieces + " piece hashes but found " + layout.mPieceCount, reader.position());
+        return layout;
+    }
+
+    private void readInfo(BencodeReader reader) throws IOException
+    {
+        final MetafileInfo.NameReader nameReader = new MetafileInfo.NameReader();
+        long singleLength = -1;
+
+        reader.beginDictionary();
+        while (reader.hasNext())
+        {
+            reader.nextString();
+            if (nameReader.read(reader))
+                continue;
+            if (reader.stringEquals(MetafileInfo.KEY_LENGTH))
+                singleLength = reader.nextLong();
+            else if (reader.stringEquals(MetafileInfo.KEY_FILES))
+                readFiles(reader);
+            else if (reader.stringEquals(MetafileInfo.KEY_PIECE_LENGTH))
+                mPieceLength = (int) Math.min(Integer.MAX_VALUE, reader.nextLong());
+            else if (reader.stringEquals(MetafileInfo.KEY_PIECES))
+            {
+                final int length = reader.nextString();
+                if (length % HASH_LENGTH != 0)
+                    throw new BencodeException("Piece hashes are not a multiple of " + HASH_LENGTH, reader.position());
+                mPiecesOffset = reader.stringOffset();
+                mPieceCount = length / HASH_LENGTH;
+            }
+            else
+                reader.skipValue();
+        }
+        reader.endContainer();
+
+        mName = nameReader.getName();
+        if (mName == null)
+            throw new BencodeException("Metafile has no name", reader.position());
+        if (!isSafePathElement(mName)) //It is the root directory (or the file) of the torrent, so it must not lead anywhere else either
+            throw new BencodeException("Unsafe name '" + mName + "'", reader.position());
+
+        if (singleLength >= 0)
+        {
+            mSingleFile = true;
+            mPaths = new String[]{mName};
+            mLengths = new long[]{singleLength};
+        }
+        computeOffsets();
+    }
+
+    private void readFiles(BencodeReader reader) throws IOException
+    {
+        final List<String> paths = new ArrayList<>();
+        final List<Long> lengths = new ArrayList<>();
+
+        reader.beginList();
+        while (reader.hasNext())
+        {
+            String plainPath = null;
+            String utf8Path = null;
+            long length = -1;
+
+            reader.beginDictionary();
+            while (reader.hasNext())
+            {
+                reader.nextString();
+                if (reader.stringEquals(MetafileInfo.KEY_LENGTH))
+                    length = reader.nextLong();
+                else if (reader.stringEquals(KEY_PATH))
+                    plainPath = readPath(reader);
+                else if (reader.stringEquals(KEY_PATH_UTF8))
+                    utf8Path = readPath(reader);
+                else
+                    reader.skipValue();
+            }
+            reader.endContainer();
+
+            final String path = utf8Path != null ? utf8Path : plainPath;
+            if (path == null || length < 0)
+                throw new BencodeException("File entry without path or length", reader.position());
+            paths.add(path);
+            lengths.add(length);
+        }
+        reader.endContainer();
+
+        mPaths = paths.toArray(new String[paths.size()]);
+        mLengths = new long[lengths.size()];
+        for (int i = 0; i < mLengths.length; i++)
+        {
+            mLengths[i] = lengths.get(i);
+        }
+    }
+
+    private static String readPath(BencodeReader reader) throws IOException
+    {
+        final StringBuilder path = new StringBuilder();
+        reader.beginList();
+        while (reader.hasNext())
+        {
+            final String element = reader.nextUtf8String();
+            if (!isSafePathElement(element))
+                throw new BencodeException("Unsafe path element '" + element + "'", reader.position());
+            if (path.length() > 0)
+                path.append(File.separatorChar);
+            path.append(element);
+        }
+        reader.endContainer();
+        return path.toString();
+    }
+
+    /**
+     * @return False for anything that would step out of, or not into, the directory it is resolved against.
+     */
+    private static boolean isSafePathElement(String element)
+    {
+        return element.length() > 0 && !element.equals(".") && !element.equals("..") && element.indexOf('/') < 0 && element.indexOf(File.separatorChar) < 0;
+    }
+
+    private void computeOffsets()
+    {
+        if (mLengths == null) return;
+
+        mOffsets = new long[mLengths.length];
+        long offset = 0;
+        for (int i = 0; i < mLengths.length; i++)
+        {
+            mOffsets[i] = offset;
+            offset += mLengths[i];
+        }
+        mTotalSize = offset;
+    }
+
+    public String getName()
+    {
+        return mName;
+    }
+
+    public int getPieceLength()
+    {
+        return mPieceLength;
+    }
+
+    public int getPieceCount()
+    {
+        return mPieceCount;
+    }
+
+    /**
+     * @return The size of the given piece, which is only smaller than the piece length for the last piece.
+     */
+    public int getPieceSize(int piece)
+    {
+        if (piece < mPieceCount - 1) return mPieceLength;
+        return (int) (mTotalSize - (long) mPieceLength * (mPieceCount - 1));
+    }
+
+    /**
+     * Compares the expected hash of the piece against the given digest without copying it out of the metafile.
+     */
+    public boolean pieceHashEquals(int piece, byte[] digest)
+    {
+        final int offset = mPiecesOffset + piece * HASH_LENGTH;
+        for (int i = 0; i < HASH_LENGTH; i++)
+        {
+            if (mBuffer.get(offset + i) != digest[i]) return false;
+        }
+        return true;
+    }
+
+    public byte[] getPieceHash(int piece)
+    {
+        final byte[] hash = new byte[HASH_LENGTH];
+        final int offset = mPiecesOffset + piece * HASH_LENGTH;
+        for (int i = 0; i < HASH_LENGTH; i++)
+        {
+            hash[i] = mBuffer.get(offset + i);
+        }
+        return hash;
+    }
+
+    public int getFileCount()
+    {
+        return mPaths.length;
+    }
+
+    /**
+     * @return The path of the file relative to the torrent root ({@link #getName()} for multi-file torrents), using the platform separator.
+     */
+    public String getFilePath(int file)
+    {
+        return mPaths[file];
+    }
+
+    public long getFileLength(int file)
+    {
+        return mLengths[file];
+    }
+
+    /**
+     * @return Where the file starts in the torrent's contiguous byte stream.
+     */
+    public long getFileOffset(int file)
+    {
+        return mOffsets[file];
+    }
+
+    public long getTotalSize()
+    {
+        return mTotalSize;
+    }
+
+    /**
+     * @return Where the file lives on disk once the torrent is saved in the given directory.
+     */
+    public File getFile(File saveDirectory, int file)
+    {
+        return mSingleFile ? new File(saveDirectory, mPaths[file]) : new File(new File(saveDirectory, mName), mPaths[file]);
+    }
+
+    /**
+     * @return The index of the file holding the given byte of the torrent. O(log files).
+     */
+    public int fileAt(long torrentOffset)
+    {
+        int low = 0;
+        int high = mOffsets.length - 1;
+        while (low < high)
+        {
+            final int middle = (low + high + 1) >>> 1;
+            if (mOffsets[middle] <= torrentOffset)
+                low = middle;
+            else
+                high = middle - 1;
+        }
+        return low;
+    }
+}
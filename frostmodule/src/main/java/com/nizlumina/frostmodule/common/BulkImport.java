@@ -0,0 +1,166 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Nizlumina Studio (Malaysia)
+ *
+ * Unless specified, permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package com.nizlumina.frostmodule.common;
+
+import java.io.File;
+
+/**
+ * Types used to report a bulk import started with {@link TorrentEngine#importTorrents}.
+ */
+public final class BulkImport
+{
+    private BulkImport() {}
+
+    public enum Status
+    {
+        /**
+         * Handed to the session.
+         */
+        IMPORTED,
+        /**
+         * The engine already had a torrent with the same infohash.
+         */
+        DUPLICATE,
+        /**
+         * The metafile could not be read or is not a valid metafile.
+         */
+        INVALID,
+        /**
+         * The session refused the torrent, or the engine stopped before it got to it.
+         */
+        FAILED
+    }
+
+    /**
+     * Progress of an import. Both methods are called from engine threads, never from the main thread.
+     */
+    public interface Listener
+    {
+        void onResult(Result result);
+
+        void onComplete(Summary summary);
+    }
+
+    public static final class Result
+    {
+        private final File metafile;
+        private final String id;
+        private final Status status;
+        private final String message;
+
+        public Result(File metafile, String id, Status status, String message)
+        {
+            this.metafile = metafile;
+            this.id = id;
+            this.status = status;
+            this.message = message;
+        }
+
+        public File getMetafile()
+        {
+            return metafile;
+        }
+
+        /**
+         * @return The infohash, or null if the metafile couldn't be parsed.
+         */
+        public String getId()
+        {
+            return id;
+        }
+
+        public Status getStatus()
+        {
+            return status;
+        }
+
+        /**
+         * @return Why the item wasn't imported, null otherwise.
+         */
+        public String getMessage()
+        {
+            return message;
+        }
+    }
+
+    public static final class Summary
+    {
+        private final int total;
+        private final int imported;
+        private final int duplicates;
+        private final int invalid;
+        private final int failed;
+        private final long bytesRead;
+        private final long elapsedMillis;
+
+        public Summary(int total, int imported, int duplicates, int invalid, int failed, long bytesRead, long elapsedMillis)
+        {
+            this.total = total;
+            this.imported = imported;
+            this.duplicates = duplicates;
+            this.invalid = invalid;
+            this.failed = failed;
+            this.bytesRead = bytesRead;
+            this.elapsedMillis = elapsedMillis;
+        }
+
+        public int getTotal()
+        {
+            return total;
+        }
+
+        public int getImported()
+        {
+            return imported;
+        }
+
+        public int getDuplicates()
+        {
+            return duplicates;
+        }
+
+        public int getInvalid()
+        {
+            return invalid;
+        }
+
+        public int getFailed()
+        {
+            return failed;
+        }
+
+        /**
+         * @return Total size of the metafiles parsed.
+         */
+        public long getBytesRead()
+        {
+            return bytesRead;
+        }
+
+        public long getElapsedMillis()
+        {
+            return elapsedMillis;
+        }
+
+        public double getItemsPerSecond()
+        {
+            return elapsedMillis == 0 ? total : total * 1000d / elapsedMillis;
+        }
+
+        public double getBytesPerSecond()
+        {
+            return elapsedMillis == 0 ? bytesRead : bytesRead * 1000d / elapsedMillis;
+        }
+    }
+}
@@ -0,0 +1,461 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Nizlumina Studio (Malaysia)
+ *
+ * Unless specified, permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package com.nizlumina.frostmodule.common;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * A bounded, single-consumer queue of engine commands.
+ * <p/>
+ * Callers on any thread enqueue commands; one worker thread drains everything pending as a {@link Batch} and hands it to the {@link BatchHandler},
+ * so commands can never run concurrently. A batch holds its commands in arrival order, adds included, so "add X, then remove X" ends with X
+ * removed even when the add doesn't know its id yet.
+ * <p/>
+ * Pending state changes for the same id collapse into one, which takes the place of the latest: the last pause/resume wins, and a remove
+ * supersedes both (and any earlier pending add already carrying that id). A burst of taps on the same torrent therefore reaches the session once.
+ * <p/>
+ * The depth counts pending adds plus the ids with a pending state change, and can't exceed the capacity: {@link #offer} refuses and {@link #putAdd} waits.
+ * <p/>
+ * {@link #requestBatch()} has the worker call the handler even with nothing pending, so whatever the handler does once per batch (e.g. rebalancing)
+ * can be asked for from any thread and still only ever run on the worker. {@link #post} goes one step further and has the handler run a task,
+ * in arrival order with the commands; tasks are the engine's own bookkeeping, so they are never refused and don't count toward the depth.
+ */
+public final class EngineCommandQueue
+{
+    private static final String TAG = EngineCommandQueue.class.getSimpleName();
+
+    public enum Type
+    {
+        RESUME, PAUSE, REMOVE
+    }
+
+    private final int mCapacity;
+    private final BatchHandler mHandler;
+    private volatile DropListener mDropListener;
+    private final Object mLock = new Object();
+    private LinkedHashMap<Object, Command> mPending = new LinkedHashMap<>(); //In arrival order; adds are keyed by their command, state changes by id
+    private int mPendingTasks;
+    private long mCoalescedCount;
+    private long mBatchCount;
+    private boolean mBatchRequested;
+    private Thread mWorker;
+    private boolean mRunning;
+
+    public EngineCommandQueue(int capacity, BatchHandler handler)
+    {
+        if (capacity <= 0)
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        mCapacity = capacity;
+        mHandler = handler;
+    }
+
+    /**
+     * @param dropListener Told about adds a removal dropped before they ran. Called on the thread enqueuing the removal, outside the queue lock.
+     */
+    public void setDropListener(DropListener dropListener)
+    {
+        mDropListener = dropListener;
+    }
+
+    public void start(String workerName)
+    {
+        synchronized (mLock)
+        {
+            if (mRunning) return;
+            mRunning = true;
+            mWorker = new Thread(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    drainLoop();
+                }
+            }, workerName);
+        }
+        mWorker.start();
+    }
+
+    /**
+     * Stops the worker after the batch it is running, if any. Commands still pending are discarded.
+     */
+    public void stop()
+    {
+        final Thread worker;
+        synchronized (mLock)
+        {
+            if (!mRunning) return;
+            mRunning = false;
+            mPending = new LinkedHashMap<>();
+            mPendingTasks = 0;
+            mBatchRequested = false;
+            mLock.notifyAll();
+            worker = mWorker;
+            mWorker = null;
+        }
+
+        if (worker != Thread.currentThread())
+        {
+            try
+            {
+                worker.join();
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Enqueues the adds if they all fit.
+     *
+     * @return false if the queue doesn't have room for all of them, in which case none is enqueued.
+     */
+    public boolean offerAdd(TorrentObject... torrentObjects)
+    {
+        synchronized (mLock)
+        {
+            if (depth() + torrentObjects.length > mCapacity) return false;
+            enqueueAdds(torrentObjects);
+            return true;
+        }
+    }
+
+    /**
+     * Enqueues the add, waiting for room if the queue is full. Meant for bulk producers that should be slowed down by the worker.
+     */
+    public void putAdd(TorrentObject torrentObject) throws InterruptedException
+    {
+        synchronized (mLock)
+        {
+            while (mRunning && depth() >= mCapacity)
+            {
+                mLock.wait();
+            }
+            enqueueAdds(torrentObject);
+        }
+    }
+
+    /**
+     * Enqueues a state change for every id. Ids that already have a pending command are merged and never count twice.
+     *
+     * @return false if the queue was full before every id could be enqueued. Ids enqueued until then stay enqueued.
+     */
+    public boolean offer(Type type, String... ids)
+    {
+        final List<TorrentObject> dropped = new ArrayList<>(0);
+        try
+        {
+            return enqueueStates(type, ids, dropped);
+        }
+        finally
+        {
+            final DropListener dropListener = mDropListener;
+            if (dropListener != null)
+            {
+                for (TorrentObject torrentObject : dropped)
+                {
+                    dropListener.onAddDropped(torrentObject);
+                }
+            }
+        }
+    }
+
+    private boolean enqueueStates(Type type, String[] ids, List<TorrentObject> dropped)
+    {
+        synchronized (mLock)
+        {
+            for (String id : ids)
+            {
+                if (id == null) continue;
+
+                final Command pending = mPending.get(id);
+                if (pending == null)
+                {
+                    if (depth() >= mCapacity) return false;
+                    mPending.put(id, new Command(id, type));
+                }
+                else
+                {
+                    mCoalescedCount++;
+                    if (pending.getType() != Type.REMOVE) //Nothing overrides a removal
+                    {
+                        mPending.remove(id); //Put back last, where the newer command arrived
+                        mPending.put(id, new Command(id, type));
+                    }
+                }
+
+                if (type == Type.REMOVE)
+                    dropPendingAdds(id, dropped);
+            }
+            mLock.notifyAll();
+            return true;
+        }
+    }
+
+    /**
+     * Has the worker run a batch soon even if no command is pending. Merged into the next batch, and never counts toward the depth.
+     */
+    public void requestBatch()
+    {
+        synchronized (mLock)
+        {
+            mBatchRequested = true;
+            mLock.notifyAll();
+        }
+    }
+
+    /**
+     * Has the worker run the task, after the commands already pending. Only the handler decides how; it is expected to run it as it comes.
+     */
+    public void post(Runnable task)
+    {
+        synchronized (mLock)
+        {
+            final Command command = new Command(task);
+            mPending.put(command, command);
+            mPendingTasks++;
+            mLock.notifyAll();
+        }
+    }
+
+    /**
+     * @return How many commands are waiting for the worker.
+     */
+    public int getDepth()
+    {
+        synchronized (mLock)
+        {
+            return depth();
+        }
+    }
+
+    public int getCapacity()
+    {
+        return mCapacity;
+    }
+
+    /**
+     * @return How many commands were merged into one already pending for the same torrent.
+     */
+    public long getCoalescedCount()
+    {
+        synchronized (mLock)
+        {
+            return mCoalescedCount;
+        }
+    }
+
+    public long getBatchCount()
+    {
+        synchronized (mLock)
+        {
+            return mBatchCount;
+        }
+    }
+
+    //Must hold the lock
+    private int depth()
+    {
+        return mPending.size() - mPendingTasks;
+    }
+
+    //Must hold the lock
+    private void enqueueAdds(TorrentObject... torrentObjects)
+    {
+        for (TorrentObject torrentObject : torrentObjects)
+        {
+            if (torrentObject != null)
+            {
+                final Command add = new Command(torrentObject);
+                mPending.put(add, add);
+            }
+        }
+        mLock.notifyAll();
+    }
+
+    //Must hold the lock. Adds that don't know their id yet are left alone; they run before the removal anyway.
+    private void dropPendingAdds(String id, List<TorrentObject> dropped)
+    {
+        final Iterator<Command> iterator = mPending.values().iterator();
+        while (iterator.hasNext())
+        {
+            final Command command = iterator.next();
+            if (command.isAdd() && id.equals(command.getTorrentObject().getId()))
+            {
+                iterator.remove();
+                dropped.add(command.getTorrentObject());
+                mCoalescedCount++;
+            }
+        }
+    }
+
+    private void drainLoop()
+    {
+        while (true)
+        {
+            final Batch batch;
+            synchronized (mLock)
+            {
+                while (mRunning && mPending.isEmpty() && !mBatchRequested)
+                {
+                    try
+                    {
+                        mLock.wait();
+                    }
+                    catch (InterruptedException e)
+                    {
+                        return;
+                    }
+                }
+                if (!mRunning) return;
+
+                batch = new Batch(new ArrayList<>(mPending.values()));
+                mPending = new LinkedHashMap<>();
+                mPendingTasks = 0;
+                mBatchRequested = false;
+                mBatchCount++;
+                mLock.notifyAll(); //Room for blocked producers
+            }
+
+            try
+            {
+                mHandler.onBatch(batch);
+            }
+            catch (RuntimeException e)
+            {
+                //This is the only worker, losing it would leave every later command (and blocked producer) waiting forever
+                Log.e(TAG, "Batch of " + batch.size() + " failed", e);
+            }
+        }
+    }
+
+    public interface BatchHandler
+    {
+        /**
+         * Called on the worker thread for everything that was pending. Apply the commands in the order they are listed.
+         * Empty if the batch was only {@link #requestBatch() requested}.
+         */
+        void onBatch(Batch batch);
+    }
+
+    public interface DropListener
+    {
+        /**
+         * The add was dropped in favour of a later removal of the same torrent and will never reach the handler.
+         */
+        void onAddDropped(TorrentObject torrentObject);
+    }
+
+    /**
+     * Either an add, a state change of a torrent or a {@link #post posted} task.
+     */
+    public static final class Command
+    {
+        private final TorrentObject mTorrentObject;
+        private final String mId;
+        private final Type mType;
+        private final Runnable mTask;
+
+        private Command(TorrentObject torrentObject)
+        {
+            mTorrentObject = torrentObject;
+            mId = null;
+            mType = null;
+            mTask = null;
+        }
+
+        private Command(String id, Type type)
+        {
+            mTorrentObject = null;
+            mId = id;
+            mType = type;
+            mTask = null;
+        }
+
+        private Command(Runnable task)
+        {
+            mTorrentObject = null;
+            mId = null;
+            mType = null;
+            mTask = task;
+        }
+
+        public boolean isAdd()
+        {
+            return mTorrentObject != null;
+        }
+
+        /**
+         * @return The posted task, null for adds and state changes.
+         */
+        public Runnable getTask()
+        {
+            return mTask;
+        }
+
+        /**
+         * @return The torrent to add, null for state changes.
+         */
+        public TorrentObject getTorrentObject()
+        {
+            return mTorrentObject;
+        }
+
+        /**
+         * @return The id of the torrent changing state, null for adds and tasks.
+         */
+        public String getId()
+        {
+            return mId;
+        }
+
+        /**
+         * @return The state change, null for adds and tasks.
+         */
+        public Type getType()
+        {
+            return mType;
+        }
+    }
+
+    /**
+     * Everything drained in one go, in arrival order.
+     */
+    public static final class Batch
+    {
+        private final List<Command> mCommands;
+
+        private Batch(List<Command> commands)
+        {
+            mCommands = Collections.unmodifiableList(commands);
+        }
+
+        public List<Command> getCommands()
+        {
+            return mCommands;
+        }
+
+        public int size()
+        {
+            return mCommands.size();
+        }
+    }
+}
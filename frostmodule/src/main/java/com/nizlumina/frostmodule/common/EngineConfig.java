@@ -32,6 +32,10 @@ public final class EngineConfig
     private File metafileDirectory;
     private File privateDirectory;
     private int port;
+    private long progressTickMillis;
+    private int metricsPort;
+    private SessionProfile sessionProfile;
+    private long verifyRateLimit;
 
     public EngineConfig(int connectionCountLimit, int uploadBandwithLimit, int downloadBandwithLimit, int maxRunningUploads, int maxRunningDownloads, int maxRunningTorrent, File downloadDirectory, File metafileDirectory, File privateDirectory, int port)
     {
@@ -59,31 +63,49 @@ public final class EngineConfig
         return metafileDirectory;
     }
 
+    /**
+     * The most peer connections of the whole session. Zero keeps the limit of the {@link #getSessionProfile() profile}.
+     */
     public int getConnectionCountLimit()
     {
         return connectionCountLimit;
     }
 
+    /**
+     * In bytes per second, shared by every torrent. Zero means no limit.
+     */
     public int getUploadBandwithLimit()
     {
         return uploadBandwithLimit;
     }
 
+    /**
+     * In bytes per second, shared by every torrent. Zero means no limit.
+     */
     public int getDownloadBandwithLimit()
     {
         return downloadBandwithLimit;
     }
 
+    /**
+     * How many seeding torrents may run at once, see {@link QueueManager}. Zero means no limit.
+     */
     public int getMaxRunningUploads()
     {
         return maxRunningUploads;
     }
 
+    /**
+     * How many downloading torrents may run at once. Zero means no limit.
+     */
     public int getMaxRunningDownloads()
     {
         return maxRunningDownloads;
     }
 
+    /**
+     * How many torrents may run at once, downloading and seeding together. Zero means no limit.
+     */
     public int getMaxRunningTorrent()
     {
         return maxRunningTorrent;
@@ -99,6 +121,38 @@ public final class EngineConfig
         return port;
     }
 
+    /**
+     * How often coalesced progress is delivered to listeners. Zero means the engine default.
+     */
+    public long getProgressTickMillis()
+    {
+        return progressTickMillis;
+    }
+
+    /**
+     * The loopback port serving engine metrics in the Prometheus format. Zero (the default) keeps the endpoint off.
+     */
+    public int getMetricsPort()
+    {
+        return metricsPort;
+    }
+
+    /**
+     * The tuning defaults of the session, see {@link SessionSettings#resolve}. Null means {@link SessionProfile#BALANCED}.
+     */
+    public SessionProfile getSessionProfile()
+    {
+        return sessionProfile;
+    }
+
+    /**
+     * In bytes per second, shared by every recheck and storage move verification. Zero means no limit.
+     */
+    public long getVerifyRateLimit()
+    {
+        return verifyRateLimit;
+    }
+
     public static class Builder
     {
         private int connectionCountLimit;
@@ -111,6 +165,10 @@ public final class EngineConfig
         private int port;
         private File metafileDirectory;
         private File privateDirectory;
+        private long progressTickMillis;
+        private int metricsPort;
+        private SessionProfile sessionProfile;
+        private long verifyRateLimit;
 
         public Builder setPrivateDirectory(File privateDirectory)
         {
@@ -172,9 +230,38 @@ public final class EngineConfig
             return this;
         }
 
+        public Builder setProgressTickMillis(long progressTickMillis)
+        {
+            this.progressTickMillis = progressTickMillis;
+            return this;
+        }
+
+        public Builder setMetricsPort(int metricsPort)
+        {
+            this.metricsPort = metricsPort;
+            return this;
+        }
+
+        public Builder setSessionProfile(SessionProfile sessionProfile)
+        {
+            this.sessionProfile = sessionProfile;
+            return this;
+        }
+
+        public Builder setVerifyRateLimit(long verifyRateLimit)
+        {
+            this.verifyRateLimit = verifyRateLimit;
+            return this;
+        }
+
         public EngineConfig build()
         {
-            return new EngineConfig(connectionCountLimit, uploadBandwithLimit, downloadBandwithLimit, maxRunningUploads, maxRunningDownloads, maxRunningTorrent, saveDirectory, metafileDirectory, privateDirectory, port);
+            final EngineConfig engineConfig = new EngineConfig(connectionCountLimit, uploadBandwithLimit, downloadBandwithLimit, maxRunningUploads, maxRunningDownloads, maxRunningTorrent, saveDirectory, metafileDirectory, privateDirectory, port);
+            engineConfig.progressTickMillis = progressTickMillis;
+            engineConfig.metricsPort = metricsPort;
+            engineConfig.sessionProfile = sessionProfile;
+            engineConfig.verifyRateLimit = verifyRateLimit;
+            return engineConfig;
         }
     }
 }
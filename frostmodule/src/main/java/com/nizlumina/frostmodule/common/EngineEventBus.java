@@ -0,0 +1,302 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Nizlumina Studio (Malaysia)
+ *
+ * Unless specified, permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.nizlumina.frostmodule.common;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An engine-level bus that coalesces torrent progress into one batch per tick.
+ * <p/>
+ * The engine worker {@link #post}s as often as it likes; repeated posts for the same torrent within a tick overwrite each other in place.
+ * Every tick the pending updates are handed to each {@link Subscriber} as a single list, on the subscriber's own {@link Executor}.
+ * <p/>
+ * Posting and ticking never wait on a subscriber. If a subscriber is still busy with a previous batch, newer updates are merged into its backlog
+ * (latest value per torrent wins) and once the backlog goes past its limit the oldest updates are dropped first.
+ */
+public final class EngineEventBus
+{
+    public static final long DEFAULT_TICK_MILLIS = 250;
+    public static final int DEFAULT_MAX_BACKLOG = 4096;
+
+    private final long mTickMillis;
+    private final Object mPendingLock = new Object();
+    private LinkedHashMap<String, TorrentUpdate> mPending = new LinkedHashMap<>();
+    private final CopyOnWriteArrayList<Subscription> mSubscriptions = new CopyOnWriteArrayList<>();
+    private final ExecutorService mDefaultDeliveryExecutor;
+    private ScheduledExecutorService mTicker;
+
+    public EngineEventBus()
+    {
+        this(DEFAULT_TICK_MILLIS);
+    }
+
+    /**
+     * @param tickMillis How long updates are gathered before being delivered as one batch. Non-positive values fall back to {@link #DEFAULT_TICK_MILLIS}.
+     */
+    public EngineEventBus(long tickMillis)
+    {
+        mTickMillis = tickMillis > 0 ? tickMillis : DEFAULT_TICK_MILLIS;
+        mDefaultDeliveryExecutor = Executors.newCachedThreadPool();
+    }
+
+    public long getTickMillis()
+    {
+        return mTickMillis;
+    }
+
+    public synchronized void start()
+    {
+        if (mTicker != null) return;
+
+        mTicker = Executors.newSingleThreadScheduledExecutor();
+        mTicker.scheduleAtFixedRate(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                tick();
+            }
+        }, mTickMillis, mTickMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops ticking. Anything still pending is discarded. The bus can be started again.
+     */
+    public synchronized void stop()
+    {
+        if (mTicker == null) return;
+
+        mTicker.shutdownNow();
+        mTicker = null;
+        synchronized (mPendingLock)
+        {
+            mPending = new LinkedHashMap<>();
+        }
+    }
+
+    /**
+     * Releases the delivery threads. The bus cannot be used afterwards.
+     */
+    public void shutdown()
+    {
+        stop();
+        mSubscriptions.clear();
+        mDefaultDeliveryExecutor.shutdown();
+    }
+
+    public boolean hasSubscribers()
+    {
+        return !mSubscriptions.isEmpty();
+    }
+
+    /**
+     * Records the latest values of a torrent for the current tick. Cheap enough to be called from the engine worker for every torrent on every poll.
+     */
+    public void post(String id, long downloaded, long uploaded, long completedBytes, long size, int activePeersNumber, int seedersNumber)
+    {
+        synchronized (mPendingLock)
+        {
+            TorrentUpdate update = mPending.get(id);
+            if (update == null)
+            {
+                update = new TorrentUpdate(id);
+                mPending.put(id, update);
+            }
+            update.set(downloaded, uploaded, completedBytes, size, activePeersNumber, seedersNumber);
+        }
+    }
+
+    /**
+     * Subscribe with delivery on a bus-owned thread and the default backlog limit.
+     */
+    public Subscription subscribe(Subscriber subscriber)
+    {
+        return subscribe(subscriber, mDefaultDeliveryExecutor, DEFAULT_MAX_BACKLOG);
+    }
+
+    /**
+     * @param subscriber The subscriber receiving one list of updates per tick.
+     * @param executor   Where the subscriber is called. At most one delivery per subscriber is in flight at any time.
+     * @param maxBacklog Maximum number of torrents kept for the subscriber while it is busy. Oldest updates are dropped beyond that.
+     */
+    public Subscription subscribe(Subscriber subscriber, Executor executor, int maxBacklog)
+    {
+        if (subscriber == null || executor == null)
+            throw new IllegalArgumentException("Subscriber and executor must not be null");
+        if (maxBacklog <= 0)
+            throw new IllegalArgumentException("Backlog limit must be positive: " + maxBacklog);
+
+        final Subscription subscription = new Subscription(subscriber, executor, maxBacklog);
+        mSubscriptions.add(subscription);
+        return subscription;
+    }
+
+    public void unsubscribe(Subscription subscription)
+    {
+        if (subscription != null)
+        {
+            subscription.mCancelled = true;
+            mSubscriptions.remove(subscription);
+        }
+    }
+
+    private void tick()
+    {
+        final LinkedHashMap<String, TorrentUpdate> batch;
+        synchronized (mPendingLock)
+        {
+            if (mPending.isEmpty()) return;
+            batch = mPending;
+            mPending = new LinkedHashMap<>(batch.size() * 2);
+        }
+
+        //From here on the updates are never modified again, so they can be shared between subscribers.
+        for (Subscription subscription : mSubscriptions)
+        {
+            subscription.enqueue(batch);
+        }
+    }
+
+    public interface Subscriber
+    {
+        /**
+         * @param updates The updates gathered since the last delivery, at most one per torrent, oldest first.
+         */
+        void onUpdates(List<TorrentUpdate> updates);
+    }
+
+    public static final class Subscription
+    {
+        private final Subscriber mSubscriber;
+        private final Executor mExecutor;
+        private final int mMaxBacklog;
+        private LinkedHashMap<String, TorrentUpdate> mBacklog = new LinkedHashMap<>();
+        private boolean mDeliveryScheduled;
+        private long mDroppedCount;
+        private long mDeliveredBatches;
+        private volatile boolean mCancelled;
+
+        private final Runnable mDelivery = new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                deliver();
+            }
+        };
+
+        private Subscription(Subscriber subscriber, Executor executor, int maxBacklog)
+        {
+            mSubscriber = subscriber;
+            mExecutor = executor;
+            mMaxBacklog = maxBacklog;
+        }
+
+        private synchronized void enqueue(LinkedHashMap<String, TorrentUpdate> batch)
+        {
+            if (mCancelled) return;
+
+            for (TorrentUpdate update : batch.values())
+            {
+                //Remove first so a refreshed torrent moves behind the ones that have been waiting longer.
+                mBacklog.remove(update.getId());
+                mBacklog.put(update.getId(), update);
+            }
+
+            final Iterator<TorrentUpdate> oldestFirst = mBacklog.values().iterator();
+            while (mBacklog.size() > mMaxBacklog && oldestFirst.hasNext())
+            {
+                oldestFirst.next();
+                oldestFirst.remove();
+                mDroppedCount++;
+            }
+
+            if (!mDeliveryScheduled)
+                scheduleDelivery();
+        }
+
+        //Must hold the lock
+        private void scheduleDelivery()
+        {
+            mDeliveryScheduled = true;
+            try
+            {
+                mExecutor.execute(mDelivery);
+            }
+            catch (RejectedExecutionException e)
+            {
+                mDeliveryScheduled = false;
+            }
+        }
+
+        private void deliver()
+        {
+            final List<TorrentUpdate> updates;
+            synchronized (this)
+            {
+                if (mCancelled || mBacklog.isEmpty())
+                {
+                    mDeliveryScheduled = false;
+                    return;
+                }
+                updates = Collections.unmodifiableList(new ArrayList<>(mBacklog.values()));
+                mBacklog = new LinkedHashMap<>();
+                mDeliveredBatches++;
+            }
+
+            try
+            {
+                mSubscriber.onUpdates(updates);
+            }
+            finally
+            {
+                synchronized (this)
+                {
+                    if (!mCancelled && !mBacklog.isEmpty())
+                        scheduleDelivery();
+                    else
+                        mDeliveryScheduled = false;
+                }
+            }
+        }
+
+        /**
+         * @return How many torrent updates were dropped because this subscriber fell behind.
+         */
+        public synchronized long getDroppedCount()
+        {
+            return mDroppedCount;
+        }
+
+        public synchronized long getDeliveredBatches()
+        {
+            return mDeliveredBatches;
+        }
+
+        public synchronized int getBacklogSize()
+        {
+            return mBacklog.size();
+        }
+    }
+}
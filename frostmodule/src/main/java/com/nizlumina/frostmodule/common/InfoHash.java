@@ -0,0 +1,75 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Nizlumina Studio (Malaysia)
+ *
+ * Unless specified, permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package com.nizlumina.frostmodule.common;
+
+/**
+ * Conversions between the raw 20 byte infohash and the lowercase hex form used as torrent id throughout the engine.
+ */
+public final class InfoHash
+{
+    public static final int LENGTH = 20;
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private InfoHash() {}
+
+    public static String toHex(byte[] infoHash)
+    {
+        return toHex(infoHash, 0, infoHash.length);
+    }
+
+    public static String toHex(byte[] bytes, int offset, int length)
+    {
+        final char[] chars = new char[length * 2];
+        for (int i = 0; i < length; i++)
+        {
+            final byte b = bytes[offset + i];
+            chars[i * 2] = HEX[(b >> 4) & 0xf];
+            chars[i * 2 + 1] = HEX[b & 0xf];
+        }
+        return new String(chars);
+    }
+
+    /**
+     * @throws IllegalArgumentException if the id is not 40 hex characters.
+     */
+    public static byte[] toBytes(String hex)
+    {
+        final byte[] bytes = new byte[LENGTH];
+        toBytes(hex, bytes, 0);
+        return bytes;
+    }
+
+    /**
+     * Writes the 20 raw bytes of the id into the given array, avoiding an allocation per id when encoding in bulk.
+     */
+    public static void toBytes(String hex, byte[] into, int offset)
+    {
+        if (hex == null || hex.length() != LENGTH * 2)
+            throw new IllegalArgumentException("Not an infohash: " + hex);
+
+        for (int i = 0; i < LENGTH; i++)
+        {
+            into[offset + i] = (byte) ((digit(hex, i * 2) << 4) | digit(hex, i * 2 + 1));
+        }
+    }
+
+    private static int digit(String hex, int index)
+    {
+        final int digit = Character.digit(hex.charAt(index), 16);
+        if (digit < 0)
+            throw new IllegalArgumentException("Not an infohash: " + hex);
+        return digit;
+    }
+}
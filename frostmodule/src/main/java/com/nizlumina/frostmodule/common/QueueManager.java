@@ -0,0 +1,426 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Nizlumina Studio (Malaysia)
+ *
+ * Unless specified, permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package com.nizlumina.frostmodule.common;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Keeps at most {@code maxRunningDownloads} downloading, {@code maxRunningUploads} seeding and {@code maxRunningTorrent} torrents in total active,
+ * and parks the rest until a slot frees up.
+ * <p/>
+ * Parked torrents wait in a queue ordered by priority, then by how long they've been waiting. Active torrents sit in an ordered set of their own
+ * whose head is the next one to give up its slot: stalled torrents first (no progress for the stall timeout), then the lowest priority, then the
+ * most recently started. Promoting, demoting and swapping are therefore a few tree operations each, no matter how long the queue gets.
+ * <p/>
+ * A stalled torrent is swapped for the head of the queue so a torrent without peers doesn't sit on a slot forever; since it keeps its stall mark
+ * until it makes progress again, stalled torrents end up taking turns on whatever slots the healthy ones leave.
+ * <p/>
+ * Paused torrents are out of the queue altogether, and so are torrents {@link #setHeld held} by the engine. Decisions are handed to the {@link Actuator} outside the lock, so {@link #rebalance} must only ever
+ * be called from one thread: two concurrent rebalances could actuate in a different order than they decided in. Limits of zero or less mean no limit.
+ */
+public final class QueueManager
+{
+    public static final int DEFAULT_PRIORITY = 0;
+
+    public interface Actuator
+    {
+        /**
+         * Let the torrent run.
+         */
+        void activate(String id);
+
+        /**
+         * Stop the torrent until it's activated again.
+         */
+        void park(String id);
+    }
+
+    private static final Comparator<Entry> QUEUE_ORDER = new Comparator<Entry>()
+    {
+        @Override
+        public int compare(Entry lhs, Entry rhs)
+        {
+            if (lhs.priority != rhs.priority) return lhs.priority > rhs.priority ? -1 : 1;
+            if (lhs.stalled != rhs.stalled) return lhs.stalled ? 1 : -1;
+            if (lhs.since != rhs.since) return lhs.since < rhs.since ? -1 : 1;
+            return lhs.order < rhs.order ? -1 : (lhs.order == rhs.order ? 0 : 1);
+        }
+    };
+
+    //Head = first to be demoted
+    private static final Comparator<Entry> ACTIVE_ORDER = new Comparator<Entry>()
+    {
+        @Override
+        public int compare(Entry lhs, Entry rhs)
+        {
+            if (lhs.stalled != rhs.stalled) return lhs.stalled ? -1 : 1;
+            if (lhs.priority != rhs.priority) return lhs.priority < rhs.priority ? -1 : 1;
+            //Stalled ones give up their slot in the order they got it, healthy ones the other way round
+            if (lhs.since != rhs.since) return (lhs.since < rhs.since) == lhs.stalled ? -1 : 1;
+            return lhs.order > rhs.order ? -1 : (lhs.order == rhs.order ? 0 : 1);
+        }
+    };
+
+    private final Map<String, Entry> mEntries = new HashMap<>();
+    private final Lane mDownloads = new Lane();
+    private final Lane mSeeds = new Lane();
+    private final Actuator mActuator;
+    private int mMaxDownloads;
+    private int mMaxSeeds;
+    private int mMaxTotal;
+    private final long mStallTimeoutMillis;
+    private long mNextOrder;
+
+    /**
+     * @param stallTimeoutMillis How long an active torrent may go without progress before it counts as stalled.
+     */
+    public QueueManager(int maxDownloads, int maxSeeds, int maxTotal, long stallTimeoutMillis, Actuator actuator)
+    {
+        mActuator = actuator;
+        mStallTimeoutMillis = stallTimeoutMillis;
+        setLimits(maxDownloads, maxSeeds, maxTotal);
+    }
+
+    public synchronized void setLimits(int maxDownloads, int maxSeeds, int maxTotal)
+    {
+        mMaxDownloads = maxDownloads > 0 ? maxDownloads : Integer.MAX_VALUE;
+        mMaxSeeds = maxSeeds > 0 ? maxSeeds : Integer.MAX_VALUE;
+        mMaxTotal = maxTotal > 0 ? maxTotal : Integer.MAX_VALUE;
+    }
+
+    /**
+     * Starts managing a torrent. It's queued, or left out if paused, until the next {@link #rebalance}. Known ids are ignored.
+     *
+     * @param active Whether the torrent is currently running, so it can keep its slot without a round-trip through the actuator.
+     */
+    public synchronized void add(String id, boolean complete, boolean paused, boolean active, long nowMillis)
+    {
+        if (mEntries.containsKey(id)) return;
+
+        final Entry entry = new Entry(id, mNextOrder++);
+        entry.complete = complete;
+        entry.paused = paused;
+        entry.since = nowMillis;
+        entry.lastProgressMillis = nowMillis;
+        mEntries.put(id, entry);
+        if (paused) return;
+
+        if (active)
+        {
+            entry.active = true;
+            lane(entry).active.add(entry);
+        }
+        else
+        {
+            lane(entry).queued.add(entry);
+        }
+    }
+
+    public synchronized void remove(String id)
+    {
+        final Entry entry = mEntries.remove(id);
+        if (entry != null)
+            detach(entry);
+    }
+
+    /**
+     * Takes a torrent out of the queue while paused by the user, or puts it back at the end of its priority.
+     */
+    public synchronized void setPaused(String id, boolean paused, long nowMillis)
+    {
+        final Entry entry = mEntries.get(id);
+        if (entry == null || entry.paused == paused) return;
+
+        if (paused)
+        {
+            detach(entry);
+            entry.paused = true;
+        }
+        else
+        {
+            entry.paused = false;
+            requeue(entry, nowMillis);
+        }
+    }
+
+    /**
+     * Takes a torrent out of the queue while the engine works on it, e.g. moves its data, or lets it back in. Independent from pausing: a torrent
+     * paused by the user stays out when released, and one resumed while held only joins the queue once released. Releasing a torrent puts it at
+     * the end of its priority, like resuming does.
+     */
+    public synchronized void setHeld(String id, boolean held, long nowMillis)
+    {
+        final Entry entry = mEntries.get(id);
+        if (entry == null || entry.held == held) return;
+
+        if (held)
+        {
+            detach(entry);
+            entry.held = true;
+        }
+        else
+        {
+            entry.held = false;
+            requeue(entry, nowMillis);
+        }
+    }
+
+    /**
+     * Higher priorities are started first and parked last.
+     */
+    public synchronized void setPriority(String id, int priority)
+    {
+        final Entry entry = mEntries.get(id);
+        if (entry == null || entry.priority == priority) return;
+
+        final TreeSet<Entry> set = setOf(entry);
+        if (set != null) set.remove(entry);
+        entry.priority = priority;
+        if (set != null) set.add(entry);
+    }
+
+    /**
+     * @return The priority of the torrent, {@link #DEFAULT_PRIORITY} if it isn't managed.
+     */
+    public synchronized int getPriority(String id)
+    {
+        final Entry entry = mEntries.get(id);
+        return entry != null ? entry.priority : DEFAULT_PRIORITY;
+    }
+
+    /**
+     * Feeds the latest counters of a torrent. Any increase counts as progress; a download that completes moves over to the seeding limits.
+     */
+    public synchronized void onProgress(String id, long completedBytes, long uploadedBytes, boolean complete, long nowMillis)
+    {
+        final Entry entry = mEntries.get(id);
+        if (entry == null) return;
+
+        final boolean progressed = complete ? uploadedBytes > entry.uploadedBytes : completedBytes > entry.completedBytes;
+        entry.completedBytes = completedBytes;
+        entry.uploadedBytes = uploadedBytes;
+        if (progressed)
+            entry.lastProgressMillis = nowMillis;
+
+        final boolean stalled = entry.stalled && !progressed;
+        if (complete == entry.complete && stalled == entry.stalled) return;
+
+        final TreeSet<Entry> set = setOf(entry);
+        if (set != null) set.remove(entry);
+        entry.complete = complete;
+        entry.stalled = stalled;
+        if (set != null)
+        {
+            //Completing may move the torrent to the other lane
+            if (entry.active)
+                lane(entry).active.add(entry);
+            else
+                lane(entry).queued.add(entry);
+        }
+    }
+
+    /**
+     * Marks stalled torrents and fills, swaps and frees slots until the limits are met. Cost is in the number of active torrents, plus a tree
+     * operation per change. Always call from the same thread, see the class comment.
+     */
+    public void rebalance(long nowMillis)
+    {
+        final List<String> activated = new ArrayList<>();
+        final List<String> parked = new ArrayList<>();
+        synchronized (this)
+        {
+            markStalled(mDownloads, nowMillis);
+            markStalled(mSeeds, nowMillis);
+
+            //Over the limits (e.g. just lowered, or a download completing into a full seeding lane)
+            while (mDownloads.active.size() > mMaxDownloads)
+                demote(mDownloads, nowMillis, parked);
+            while (mSeeds.active.size() > mMaxSeeds)
+                demote(mSeeds, nowMillis, parked);
+            while (mDownloads.active.size() + mSeeds.active.size() > mMaxTotal)
+                demote(mSeeds.active.isEmpty() ? mDownloads : mSeeds, nowMillis, parked);
+
+            //Downloads get free total slots before seeds
+            fill(mDownloads, mMaxDownloads, nowMillis, activated);
+            fill(mSeeds, mMaxSeeds, nowMillis, activated);
+            swap(mDownloads, nowMillis, activated, parked);
+            swap(mSeeds, nowMillis, activated, parked);
+        }
+
+        for (String id : parked)
+        {
+            mActuator.park(id);
+        }
+        for (String id : activated)
+        {
+            mActuator.activate(id);
+        }
+    }
+
+    /**
+     * @return True if a torrent that isn't paused still has data to download, whether it holds a slot or waits for one.
+     */
+    public synchronized boolean hasUnfinishedDownloads()
+    {
+        return !mDownloads.active.isEmpty() || !mDownloads.queued.isEmpty();
+    }
+
+    public synchronized int getActiveCount()
+    {
+        return mDownloads.active.size() + mSeeds.active.size();
+    }
+
+    public synchronized int getQueuedCount()
+    {
+        return mDownloads.queued.size() + mSeeds.queued.size();
+    }
+
+    /**
+     * @return True if the torrent currently holds a slot.
+     */
+    public synchronized boolean isActive(String id)
+    {
+        final Entry entry = mEntries.get(id);
+        return entry != null && entry.active;
+    }
+
+    private void markStalled(Lane lane, long nowMillis)
+    {
+        List<Entry> stalled = null;
+        for (Entry entry : lane.active)
+        {
+            if (!entry.stalled && nowMillis - entry.lastProgressMillis >= mStallTimeoutMillis)
+            {
+                if (stalled == null) stalled = new ArrayList<>();
+                stalled.add(entry);
+            }
+        }
+        if (stalled == null) return;
+
+        for (Entry entry : stalled)
+        {
+            lane.active.remove(entry);
+            entry.stalled = true;
+            lane.active.add(entry);
+        }
+    }
+
+    private void fill(Lane lane, int max, long nowMillis, List<String> activated)
+    {
+        while (!lane.queued.isEmpty() && lane.active.size() < max && mDownloads.active.size() + mSeeds.active.size() < mMaxTotal)
+            promote(lane, nowMillis, activated);
+    }
+
+    /**
+     * Trades the head of the active set for the head of the queue while the queued one deserves the slot more:
+     * a higher priority, or the same priority when the active one stalled.
+     */
+    private void swap(Lane lane, long nowMillis, List<String> activated, List<String> parked)
+    {
+        while (!lane.queued.isEmpty() && !lane.active.isEmpty())
+        {
+            final Entry candidate = lane.queued.first();
+            final Entry victim = lane.active.first();
+            final boolean preempt = candidate.priority > victim.priority;
+            final boolean replaceStalled = victim.stalled && candidate.priority >= victim.priority && !candidate.stalled;
+            //Stalled ones take turns, each getting a full stall timeout before giving the slot away
+            final boolean rotateStalled = victim.stalled && candidate.stalled && candidate.priority == victim.priority
+                    && nowMillis - victim.since >= mStallTimeoutMillis;
+            if (!preempt && !replaceStalled && !rotateStalled) return;
+
+            demote(lane, nowMillis, parked);
+            promote(lane, nowMillis, activated);
+        }
+    }
+
+    private void promote(Lane lane, long nowMillis, List<String> activated)
+    {
+        final Entry entry = lane.queued.pollFirst();
+        entry.active = true;
+        entry.since = nowMillis;
+        entry.lastProgressMillis = nowMillis; //The stall clock starts now, the stall mark stays until it makes progress
+        lane.active.add(entry);
+        activated.add(entry.id);
+    }
+
+    private void demote(Lane lane, long nowMillis, List<String> parked)
+    {
+        final Entry entry = lane.active.pollFirst();
+        entry.active = false;
+        entry.since = nowMillis;
+        lane.queued.add(entry);
+        parked.add(entry.id);
+    }
+
+    private void requeue(Entry entry, long nowMillis)
+    {
+        if (entry.paused || entry.held) return;
+
+        entry.stalled = false;
+        entry.since = nowMillis;
+        entry.lastProgressMillis = nowMillis;
+        lane(entry).queued.add(entry);
+    }
+
+    private void detach(Entry entry)
+    {
+        final TreeSet<Entry> set = setOf(entry);
+        if (set != null) set.remove(entry);
+        entry.active = false;
+    }
+
+    private Lane lane(Entry entry)
+    {
+        return entry.complete ? mSeeds : mDownloads;
+    }
+
+    private TreeSet<Entry> setOf(Entry entry)
+    {
+        if (entry.paused || entry.held) return null;
+        return entry.active ? lane(entry).active : lane(entry).queued;
+    }
+
+    private static final class Lane
+    {
+        final TreeSet<Entry> queued = new TreeSet<>(QUEUE_ORDER);
+        final TreeSet<Entry> active = new TreeSet<>(ACTIVE_ORDER);
+    }
+
+    private static final class Entry
+    {
+        final String id;
+        final long order; //Ties are broken by the order torrents were added in
+        int priority = DEFAULT_PRIORITY;
+        boolean complete;
+        boolean paused;
+        boolean held;
+        boolean active;
+        boolean stalled;
+        long since; //When it got or lost its slot
+        long lastProgressMillis;
+        long completedBytes;
+        long uploadedBytes;
+
+        Entry(String id, long order)
+        {
+            this.id = id;
+            this.order = order;
+        }
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Nizlumina Studio (Malaysia)
+ *
+ * Unless specified, permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package com.nizlumina.frostmodule.common;
+
+/**
+ * Named sets of session tuning defaults, picked with {@link EngineConfig.Builder#setSessionProfile}. {@link SessionSettings#resolve} turns a profile
+ * plus the config into the values the engine hands to libtorrent.
+ */
+public enum SessionProfile
+{
+    /**
+     * Older or low-RAM devices: a small disk cache, few connections and shallow send buffers.
+     */
+    LOW_MEMORY(2 * 1024 * 1024, 50, 8 * 1024, 64 * 1024, 50, 1, SessionSettings.Choker.FIXED_SLOTS, 4, 500, true),
+    /**
+     * The default, close to what libtorrent ships with but with a phone-sized cache.
+     */
+    BALANCED(8 * 1024 * 1024, 200, 10 * 1024, 512 * 1024, 50, 2, SessionSettings.Choker.FIXED_SLOTS, 8, 2000, true),
+    /**
+     * Plugged-in devices acting as a seedbox: a large cache, deep send buffers and rate based unchoking, loosely after libtorrent's high performance
+     * seed preset scaled down to mobile memory.
+     */
+    HIGH_THROUGHPUT(64 * 1024 * 1024, 800, 1024 * 1024, 3 * 1024 * 1024, 150, 4, SessionSettings.Choker.RATE_BASED, 16, 4000, false);
+
+    final int cacheBytes;
+    final int connectionsLimit;
+    final int sendBufferLowWatermark;
+    final int sendBufferWatermark;
+    final int sendBufferWatermarkFactor;
+    final int aioThreads;
+    final SessionSettings.Choker choker;
+    final int unchokeSlots;
+    final int maxPeerlistSize;
+    final boolean optimizeMemory;
+
+    SessionProfile(int cacheBytes, int connectionsLimit, int sendBufferLowWatermark, int sendBufferWatermark, int sendBufferWatermarkFactor, int aioThreads,
+                   SessionSettings.Choker choker, int unchokeSlots, int maxPeerlistSize, boolean optimizeMemory)
+    {
+        this.cacheBytes = cacheBytes;
+        this.connectionsLimit = connectionsLimit;
+        this.sendBufferLowWatermark = sendBufferLowWatermark;
+        this.sendBufferWatermark = sendBufferWatermark;
+        this.sendBufferWatermarkFactor = sendBufferWatermarkFactor;
+        this.aioThreads = aioThreads;
+        this.choker = choker;
+        this.unchokeSlots = unchokeSlots;
+        this.maxPeerlistSize = maxPeerlistSize;
+        this.optimizeMemory = optimizeMemory;
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Nizlumina Studio (Malaysia)
+ *
+ * Unless specified, permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package com.nizlumina.frostmodule.common;
+
+import java.util.Locale;
+
+/**
+ * The session settings an engine applies, resolved from the {@link SessionProfile} of an {@link EngineConfig} with the config's own values taking
+ * precedence. Engines keep the instance they applied so it can be reported, see {@link #toString()}.
+ * <p/>
+ * Bandwidth limits are deliberately not part of it: they're enforced per torrent by the engine's scheduler, and a session-wide limit on top would
+ * only fight it.
+ */
+public final class SessionSettings
+{
+    public enum Choker
+    {
+        /**
+         * A fixed number of unchoke slots, see {@link #getUnchokeSlots()}.
+         */
+        FIXED_SLOTS,
+        /**
+         * Opens slots as long as upload capacity grows, better for seeding on fast links.
+         */
+        RATE_BASED
+    }
+
+    private final SessionProfile mProfile;
+    private final int mCacheBytes;
+    private final int mConnectionsLimit;
+    private final int mSendBufferLowWatermark;
+    private final int mSendBufferWatermark;
+    private final int mSendBufferWatermarkFactor;
+    private final int mAioThreads;
+    private final Choker mChoker;
+    private final int mUnchokeSlots;
+    private final int mMaxPeerlistSize;
+    private final boolean mOptimizeMemory;
+
+    private SessionSettings(SessionProfile profile, int connectionsLimit)
+    {
+        mProfile = profile;
+        mCacheBytes = profile.cacheBytes;
+        mConnectionsLimit = connectionsLimit;
+        mSendBufferLowWatermark = profile.sendBufferLowWatermark;
+        mSendBufferWatermark = profile.sendBufferWatermark;
+        mSendBufferWatermarkFactor = profile.sendBufferWatermarkFactor;
+        mAioThreads = profile.aioThreads;
+        mChoker = profile.choker;
+        mUnchokeSlots = profile.unchokeSlots;
+        mMaxPeerlistSize = profile.maxPeerlistSize;
+        mOptimizeMemory = profile.optimizeMemory;
+    }
+
+    /**
+     * A config without a profile gets {@link SessionProfile#BALANCED}. A positive {@link EngineConfig#getConnectionCountLimit()} replaces the
+     * profile's connection limit.
+     */
+    public static SessionSettings resolve(EngineConfig engineConfig)
+    {
+        final SessionProfile profile = engineConfig.getSessionProfile() != null ? engineConfig.getSessionProfile() : SessionProfile.BALANCED;
+        final int connectionsLimit = engineConfig.getConnectionCountLimit() > 0 ? engineConfig.getConnectionCountLimit() : profile.connectionsLimit;
+        return new SessionSettings(profile, connectionsLimit);
+    }
+
+    public SessionProfile getProfile()
+    {
+        return mProfile;
+    }
+
+    /**
+     * The disk cache in bytes. libtorrent counts it in 16KiB blocks.
+     */
+    public int getCacheBytes()
+    {
+        return mCacheBytes;
+    }
+
+    public int getConnectionsLimit()
+    {
+        return mConnectionsLimit;
+    }
+
+    /**
+     * Below this many bytes queued for a peer, more is read from disk for it.
+     */
+    public int getSendBufferLowWatermark()
+    {
+        return mSendBufferLowWatermark;
+    }
+
+    /**
+     * The most bytes queued for a single peer.
+     */
+    public int getSendBufferWatermark()
+    {
+        return mSendBufferWatermark;
+    }
+
+    /**
+     * Percentage of a peer's upload rate kept queued, so fast peers get deeper buffers.
+     */
+    public int getSendBufferWatermarkFactor()
+    {
+        return mSendBufferWatermarkFactor;
+    }
+
+    public int getAioThreads()
+    {
+        return mAioThreads;
+    }
+
+    public Choker getChoker()
+    {
+        return mChoker;
+    }
+
+    public int getUnchokeSlots()
+    {
+        return mUnchokeSlots;
+    }
+
+    public int getMaxPeerlistSize()
+    {
+        return mMaxPeerlistSize;
+    }
+
+    /**
+     * Whether Frostwire's BTEngine should use its memory saving defaults.
+     */
+    public boolean isOptimizeMemory()
+    {
+        return mOptimizeMemory;
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format(Locale.US, "%s: cache %dKiB, %d connections, send buffer %d-%dKiB (%d%%), %d aio thread(s), %s choker with %d slots, peer list %d%s",
+                mProfile, mCacheBytes / 1024, mConnectionsLimit, mSendBufferLowWatermark / 1024, mSendBufferWatermark / 1024, mSendBufferWatermarkFactor,
+                mAioThreads, mChoker.name().toLowerCase(Locale.US), mUnchokeSlots, mMaxPeerlistSize, mOptimizeMemory ? ", memory optimized" : "");
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Nizlumina Studio (Malaysia)
+ *
+ * Unless specified, permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package com.nizlumina.frostmodule.common;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * How long each phase of an engine startup took, handed out once the engine is ready (see {@link TorrentEngine#getStartupReport()}).
+ * <p/>
+ * Phases may overlap, e.g. loading persisted state runs alongside session construction, so the total is the wall time from
+ * {@link TorrentEngine#startEngine()} to ready rather than the sum of the phases.
+ */
+public final class StartupReport
+{
+    private final Map<String, Long> mPhaseMillis;
+    private final long mTotalMillis;
+
+    StartupReport(Map<String, Long> phaseMillis, long totalMillis)
+    {
+        mPhaseMillis = Collections.unmodifiableMap(phaseMillis);
+        mTotalMillis = totalMillis;
+    }
+
+    /**
+     * @return Phase names mapped to their duration in milliseconds, in the order they finished.
+     */
+    public Map<String, Long> getPhaseMillis()
+    {
+        return mPhaseMillis;
+    }
+
+    /**
+     * @return The duration of the phase or -1 if the engine had no such phase.
+     */
+    public long getPhaseMillis(String phase)
+    {
+        final Long millis = mPhaseMillis.get(phase);
+        return millis == null ? -1 : millis;
+    }
+
+    public long getTotalMillis()
+    {
+        return mTotalMillis;
+    }
+
+    @Override
+    public String toString()
+    {
+        final StringBuilder builder = new StringBuilder("Started in ").append(mTotalMillis).append("ms (");
+        boolean first = true;
+        for (Map.Entry<String, Long> phase : mPhaseMillis.entrySet())
+        {
+            if (!first)
+                builder.append(", ");
+            builder.append(phase.getKey()).append(' ').append(phase.getValue()).append("ms");
+            first = false;
+        }
+        return builder.append(')').toString();
+    }
+
+    /**
+     * Collects phases as they end. Safe to use from the threads running the phases in parallel.
+     */
+    public static final class Builder
+    {
+        private final long mStartNanos = System.nanoTime();
+        private final LinkedHashMap<String, Long> mPhaseMillis = new LinkedHashMap<>();
+
+        /**
+         * Ends a phase now.
+         *
+         * @param startNanos When the phase began, as given by {@link System#nanoTime()}.
+         */
+        public synchronized Builder phase(String name, long startNanos)
+        {
+            mPhaseMillis.put(name, (System.nanoTime() - startNanos) / 1000000);
+            return this;
+        }
+
+        public synchronized StartupReport build()
+        {
+            return new StartupReport(new LinkedHashMap<>(mPhaseMillis), (System.nanoTime() - mStartNanos) / 1000000);
+        }
+    }
+}
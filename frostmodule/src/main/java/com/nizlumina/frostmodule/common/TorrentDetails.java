@@ -0,0 +1,400 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Nizlumina Studio (Malaysia)
+ *
+ * Unless specified, permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package com.nizlumina.frostmodule.common;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The details of one torrent, split in sections that are each rebuilt only after something in them changed.
+ * <p/>
+ * Engines keep one instance per torrent and mark sections dirty as events come in (a piece finished, a tracker replied, the status moved).
+ * A getter only goes back to the {@link Source} when its section is dirty; otherwise it returns the very same immutable object as last time,
+ * so fetching an unchanged section costs nothing and callers can tell whether anything changed by comparing references.
+ */
+public final class TorrentDetails
+{
+    public enum Section
+    {
+        FILES, TRACKERS, PEERS, PIECES, RATES;
+
+        final int mask = 1 << ordinal();
+    }
+
+    /**
+     * Where sections are rebuilt from. Called on whichever thread asked for a dirty section.
+     */
+    public interface Source
+    {
+        List<FileEntry> loadFiles(String id);
+
+        List<Tracker> loadTrackers(String id);
+
+        List<Peer> loadPeers(String id);
+
+        Pieces loadPieces(String id);
+
+        Rates loadRates(String id);
+    }
+
+    private static final int ALL_DIRTY = (1 << Section.values().length) - 1;
+
+    private final String mId;
+    private final String mName;
+    private final Source mSource;
+    private final AtomicInteger mDirty = new AtomicInteger(ALL_DIRTY);
+    private volatile List<FileEntry> mFiles = Collections.emptyList();
+    private volatile List<Tracker> mTrackers = Collections.emptyList();
+    private volatile List<Peer> mPeers = Collections.emptyList();
+    private volatile Pieces mPieces = Pieces.NONE;
+    private volatile Rates mRates = Rates.NONE;
+
+    public TorrentDetails(String id, String name, Source source)
+    {
+        mId = id;
+        mName = name;
+        mSource = source;
+    }
+
+    public String getId()
+    {
+        return mId;
+    }
+
+    public String getName()
+    {
+        return mName;
+    }
+
+    public void markDirty(Section section)
+    {
+        final int mask = section.mask;
+        int dirty;
+        do
+        {
+            dirty = mDirty.get();
+            if ((dirty & mask) != 0) return;
+        }
+        while (!mDirty.compareAndSet(dirty, dirty | mask));
+    }
+
+    public void markAllDirty()
+    {
+        mDirty.set(ALL_DIRTY);
+    }
+
+    public boolean isDirty(Section section)
+    {
+        return (mDirty.get() & section.mask) != 0;
+    }
+
+    public List<FileEntry> getFiles()
+    {
+        if (claim(Section.FILES))
+            mFiles = unmodifiable(mSource.loadFiles(mId));
+        return mFiles;
+    }
+
+    public List<Tracker> getTrackers()
+    {
+        if (claim(Section.TRACKERS))
+            mTrackers = unmodifiable(mSource.loadTrackers(mId));
+        return mTrackers;
+    }
+
+    public List<Peer> getPeers()
+    {
+        if (claim(Section.PEERS))
+            mPeers = unmodifiable(mSource.loadPeers(mId));
+        return mPeers;
+    }
+
+    public Pieces getPieces()
+    {
+        if (claim(Section.PIECES))
+        {
+            final Pieces pieces = mSource.loadPieces(mId);
+            mPieces = pieces != null ? pieces : Pieces.NONE;
+        }
+        return mPieces;
+    }
+
+    public Rates getRates()
+    {
+        if (claim(Section.RATES))
+        {
+            final Rates rates = mSource.loadRates(mId);
+            mRates = rates != null ? rates : Rates.NONE;
+        }
+        return mRates;
+    }
+
+    /**
+     * Clears the dirty flag before the rebuild, so a change landing during the rebuild marks it dirty again instead of being lost.
+     *
+     * @return True if the caller should rebuild the section.
+     */
+    private boolean claim(Section section)
+    {
+        final int mask = section.mask;
+        int dirty;
+        do
+        {
+            dirty = mDirty.get();
+            if ((dirty & mask) == 0) return false;
+        }
+        while (!mDirty.compareAndSet(dirty, dirty & ~mask));
+        return true;
+    }
+
+    private static <T> List<T> unmodifiable(List<T> list)
+    {
+        return list == null ? Collections.<T>emptyList() : Collections.unmodifiableList(list);
+    }
+
+    public static final class FileEntry
+    {
+        private final String mPath;
+        private final long mLength;
+        private final long mOffset;
+
+        public FileEntry(String path, long length, long offset)
+        {
+            mPath = path;
+            mLength = length;
+            mOffset = offset;
+        }
+
+        /**
+         * @return The path relative to the torrent root.
+         */
+        public String getPath()
+        {
+            return mPath;
+        }
+
+        public long getLength()
+        {
+            return mLength;
+        }
+
+        /**
+         * @return Where the file starts in the torrent, e.g. to find its pieces in {@link Pieces}.
+         */
+        public long getOffset()
+        {
+            return mOffset;
+        }
+    }
+
+    public static final class Tracker
+    {
+        private final String mUrl;
+        private final int mTier;
+        private final String mMessage;
+
+        public Tracker(String url, int tier, String message)
+        {
+            mUrl = url;
+            mTier = tier;
+            mMessage = message;
+        }
+
+        public String getUrl()
+        {
+            return mUrl;
+        }
+
+        public int getTier()
+        {
+            return mTier;
+        }
+
+        /**
+         * @return What the tracker said last, usually an error. May be empty.
+         */
+        public String getMessage()
+        {
+            return mMessage;
+        }
+    }
+
+    public static final class Peer
+    {
+        private final String mAddress;
+        private final String mClient;
+        private final int mDownloadRate;
+        private final int mUploadRate;
+        private final float mProgress;
+
+        public Peer(String address, String client, int downloadRate, int uploadRate, float progress)
+        {
+            mAddress = address;
+            mClient = client;
+            mDownloadRate = downloadRate;
+            mUploadRate = uploadRate;
+            mProgress = progress;
+        }
+
+        public String getAddress()
+        {
+            return mAddress;
+        }
+
+        public String getClient()
+        {
+            return mClient;
+        }
+
+        /**
+         * @return Bytes per second received from the peer.
+         */
+        public int getDownloadRate()
+        {
+            return mDownloadRate;
+        }
+
+        public int getUploadRate()
+        {
+            return mUploadRate;
+        }
+
+        /**
+         * @return How much of the torrent the peer has, from 0 to 1.
+         */
+        public float getProgress()
+        {
+            return mProgress;
+        }
+    }
+
+    /**
+     * Which pieces are on disk, as a bitfield with the first piece in the most significant bit of the first byte.
+     */
+    public static final class Pieces
+    {
+        static final Pieces NONE = new Pieces(0, 0, new byte[0]);
+
+        private final int mPieceLength;
+        private final int mCount;
+        private final byte[] mBitfield;
+        private final int mHaveCount;
+
+        /**
+         * @param bitfield Owned by the new instance from now on.
+         */
+        public Pieces(int pieceLength, int count, byte[] bitfield)
+        {
+            mPieceLength = pieceLength;
+            mCount = count;
+            mBitfield = bitfield;
+            int have = 0;
+            for (byte b : bitfield)
+            {
+                have += Integer.bitCount(b & 0xFF);
+            }
+            mHaveCount = have;
+        }
+
+        public int getPieceLength()
+        {
+            return mPieceLength;
+        }
+
+        public int getCount()
+        {
+            return mCount;
+        }
+
+        public int getHaveCount()
+        {
+            return mHaveCount;
+        }
+
+        public boolean have(int piece)
+        {
+            return piece >= 0 && piece < mCount && (mBitfield[piece >>> 3] & (0x80 >>> (piece & 7))) != 0;
+        }
+    }
+
+    public static final class Rates
+    {
+        static final Rates NONE = new Rates(0, 0, 0, 0, 0, 0, 0, 0);
+
+        private final int mDownloadRate;
+        private final int mUploadRate;
+        private final long mDownloaded;
+        private final long mUploaded;
+        private final long mCompletedBytes;
+        private final long mSize;
+        private final int mActivePeersNumber;
+        private final int mSeedersNumber;
+
+        public Rates(int downloadRate, int uploadRate, long downloaded, long uploaded, long completedBytes, long size, int activePeersNumber, int seedersNumber)
+        {
+            mDownloadRate = downloadRate;
+            mUploadRate = uploadRate;
+            mDownloaded = downloaded;
+            mUploaded = uploaded;
+            mCompletedBytes = completedBytes;
+            mSize = size;
+            mActivePeersNumber = activePeersNumber;
+            mSeedersNumber = seedersNumber;
+        }
+
+        /**
+         * @return Payload bytes per second.
+         */
+        public int getDownloadRate()
+        {
+            return mDownloadRate;
+        }
+
+        public int getUploadRate()
+        {
+            return mUploadRate;
+        }
+
+        public long getDownloaded()
+        {
+            return mDownloaded;
+        }
+
+        public long getUploaded()
+        {
+            return mUploaded;
+        }
+
+        public long getCompletedBytes()
+        {
+            return mCompletedBytes;
+        }
+
+        public long getSize()
+        {
+            return mSize;
+        }
+
+        public int getActivePeersNumber()
+        {
+            return mActivePeersNumber;
+        }
+
+        public int getSeedersNumber()
+        {
+            return mSeedersNumber;
+        }
+    }
+}
@@ -12,6 +12,7 @@
 
 package com.nizlumina.frostmodule.common;
 
+import java.io.File;
 import java.util.List;
 
 /**
@@ -33,6 +34,14 @@ public interface TorrentEngine
      */
     void addTorrent(TorrentObject... torrentObjects);
 
+    /**
+     * Adds many metafiles at once, e.g. when migrating a whole library. Metafiles are read and validated in parallel and then handed to the engine
+     * with back-pressure, so the call returns immediately and never floods the engine.
+     * @param metafiles Local metafiles to import.
+     * @param listener Receives a result per metafile and a summary once every metafile is accounted for. May be null.
+     */
+    void importTorrents(List<File> metafiles, BulkImport.Listener listener);
+
     /**
      * Resume torrents of the given ids.
      */
@@ -53,11 +62,35 @@ public interface TorrentEngine
      */
     List<String> getTorrentIds();
 
+    /**
+     * Moves a torrent to another position in the order returned by {@link #getTorrentIds()}. Positions past the end move it last.
+     */
+    void moveTorrent(String id, int position);
+
     boolean isAnyTorrentDownloading(); //reconsidering neccessity of this method
 
+    /**
+     * Whether stopping the engine now would drop something: commands or imports still waiting, a torrent not paused by the user that hasn't
+     * finished downloading, or an engine still starting. Unlike {@link #isAnyTorrentDownloading()} it doesn't wait for the first status updates,
+     * so it's already right when the started listener runs.
+     */
+    boolean hasPendingWork();
+
     String getTorrentName(String id);
 
-    String getTorrentDetails(String id);
+    /**
+     * The details of the torrent, split in sections that are only rebuilt once they changed. Implementations return the same instance for
+     * a torrent until it's removed, so callers may hold on to it.
+     *
+     * @return The details or null if the torrent is unknown.
+     */
+    TorrentDetails getTorrentDetails(String id);
+
+    /**
+     * Every torrent in display order with its latest progress. Each call gets a higher version, so consecutive snapshots can be shipped to
+     * another process as deltas, see {@link TorrentSnapshotCodec#encodeDelta}.
+     */
+    TorrentSnapshot takeSnapshot();
 
     /**
      * Set the listener for the torrent. This is intended for UI adapters where each torrent in a list will be given a corresponding listener.
@@ -72,15 +105,42 @@ public interface TorrentEngine
      */
     void removeTorrentListener(String id);
 
+    /**
+     * Starts playing a file of the torrent while it downloads: the pieces right ahead of what the player reads are fetched first.
+     * Starting another file of the same torrent replaces the previous stream.
+     *
+     * @param fileIndex The index of the file in the metafile.
+     * @return A loopback http URL serving the file with range support, or null if the file can't be streamed.
+     */
+    String startStreaming(String id, int fileIndex);
+
+    /**
+     * Ends the stream of the torrent, if any. Players still connected get an error and the torrent goes back to its normal download order.
+     */
+    void stopStreaming(String id);
+
+    /**
+     * The bus delivering coalesced progress of every torrent once per tick. Prefer subscribing here over setting hundreds of per-torrent listeners.
+     */
+    EngineEventBus getEventBus();
+
     void setOnNoMoreRunningTaskListener(Runnable listener);
 
+    /**
+     * @param listener Run on the main thread once the engine is ready, at which point {@link #getStartupReport()} holds the timing of every startup phase.
+     */
     void setOnEngineStartedListener(Runnable listener);
 
     /**
-     * Starts the engine.
+     * Starts the engine. Implementations may return before the engine is ready; commands given in the meantime are queued and run once it is.
      */
     void startEngine();
 
+    /**
+     * @return How long the last startup took, phase by phase, or null while the engine hasn't finished starting.
+     */
+    StartupReport getStartupReport();
+
     /**
      * Fully stops the engine. There's no actual pausing provided.
      * If all torrents are paused, the engine (and most likely the service) is still running.
@@ -0,0 +1,294 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Nizlumina Studio (Malaysia)
+ *
+ * Unless specified, permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package com.nizlumina.frostmodule.common;
+
+import java.util.AbstractList;
+import java.util.RandomAccess;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps the torrents of an engine in a user-visible order, together with whatever handle the engine needs for each.
+ * <p/>
+ * Ids are kept in a doubly linked list indexed by a hash map, so lookup, append, removal and moving next to another torrent are all O(1).
+ * Lookups don't lock. Every change bumps a version; {@link #snapshot()} hands out an immutable {@link Snapshot} that is built at most once per version,
+ * so polling the ids of an unchanged registry costs nothing no matter how many torrents it holds.
+ *
+ * @param <H> The engine-specific handle type.
+ */
+public final class TorrentRegistry<H>
+{
+    private final ConcurrentHashMap<String, Node<H>> mNodes = new ConcurrentHashMap<>();
+    private Node<H> mHead;
+    private Node<H> mTail;
+    private volatile long mVersion; //Only written under the lock
+    private volatile Snapshot<H> mSnapshot = new Snapshot<>(0, new String[0], new Object[0]);
+
+    /**
+     * @return The handle of the torrent or null if unknown.
+     */
+    public H get(String id)
+    {
+        final Node<H> node = mNodes.get(id);
+        return node == null ? null : node.handle;
+    }
+
+    public boolean contains(String id)
+    {
+        return mNodes.containsKey(id);
+    }
+
+    public int size()
+    {
+        return mNodes.size();
+    }
+
+    /**
+     * Appends the torrent, or replaces its handle in place if the id is already known.
+     */
+    public synchronized void put(String id, H handle)
+    {
+        final Node<H> existing = mNodes.get(id);
+        if (existing != null)
+        {
+            existing.handle = handle;
+            mVersion++;
+            return;
+        }
+
+        final Node<H> node = new Node<>(id, handle);
+        linkLast(node);
+        mNodes.put(id, node);
+        mVersion++;
+    }
+
+    /**
+     * @return The handle of the removed torrent, or null if it was unknown.
+     */
+    public synchronized H remove(String id)
+    {
+        final Node<H> node = mNodes.remove(id);
+        if (node == null) return null;
+
+        unlink(node);
+        mVersion++;
+        return node.handle;
+    }
+
+    /**
+     * Moves the torrent right before another one, or to the end when {@code beforeId} is null. O(1).
+     *
+     * @return false if either id is unknown.
+     */
+    public synchronized boolean moveBefore(String id, String beforeId)
+    {
+        final Node<H> node = mNodes.get(id);
+        final Node<H> before = beforeId == null ? null : mNodes.get(beforeId);
+        if (node == null || (beforeId != null && before == null)) return false;
+        if (node == before) return true;
+
+        unlink(node);
+        linkBefore(node, before);
+        mVersion++;
+        return true;
+    }
+
+    /**
+     * Moves the torrent to the given position, clamped to the list bounds. Finding the position walks the list from the closest end, so prefer
+     * {@link #moveBefore} when the neighbour is known.
+     *
+     * @return false if the id is unknown.
+     */
+    public synchronized boolean moveTo(String id, int position)
+    {
+        final Node<H> node = mNodes.get(id);
+        if (node == null) return false;
+
+        unlink(node);
+        final int size = mNodes.size() - 1; //Without the node being moved
+        final int target = Math.max(0, Math.min(position, size));
+        Node<H> before;
+        if (target == size)
+        {
+            before = null;
+        }
+        else if (target < size / 2)
+        {
+            before = mHead;
+            for (int i = 0; i < target; i++)
+            {
+                before = before.next;
+            }
+        }
+        else
+        {
+            before = mTail;
+            for (int i = size - 1; i > target; i--)
+            {
+                before = before.prev;
+            }
+        }
+
+        linkBefore(node, before);
+        mVersion++;
+        return true;
+    }
+
+    public synchronized void clear()
+    {
+        mNodes.clear();
+        mHead = null;
+        mTail = null;
+        mVersion++;
+    }
+
+    /**
+     * @return An immutable view of the current order. The same instance is returned until the registry changes.
+     */
+    public Snapshot<H> snapshot()
+    {
+        final Snapshot<H> snapshot = mSnapshot;
+        if (snapshot.version == mVersion) return snapshot;
+
+        synchronized (this)
+        {
+            if (mSnapshot.version == mVersion) return mSnapshot;
+
+            final int size = mNodes.size();
+            final String[] ids = new String[size];
+            final Object[] handles = new Object[size];
+            int i = 0;
+            for (Node<H> node = mHead; node != null; node = node.next)
+            {
+                ids[i] = node.id;
+                handles[i] = node.handle;
+                i++;
+            }
+            final Snapshot<H> rebuilt = new Snapshot<>(mVersion, ids, handles);
+            mSnapshot = rebuilt;
+            return rebuilt;
+        }
+    }
+
+    public long getVersion()
+    {
+        return mVersion;
+    }
+
+    //Must hold the lock
+    private void linkLast(Node<H> node)
+    {
+        node.prev = mTail;
+        node.next = null;
+        if (mTail == null)
+            mHead = node;
+        else
+            mTail.next = node;
+        mTail = node;
+    }
+
+    //Must hold the lock
+    private void linkBefore(Node<H> node, Node<H> before)
+    {
+        if (before == null)
+        {
+            linkLast(node);
+            return;
+        }
+
+        node.prev = before.prev;
+        node.next = before;
+        if (before.prev == null)
+            mHead = node;
+        else
+            before.prev.next = node;
+        before.prev = node;
+    }
+
+    //Must hold the lock
+    private void unlink(Node<H> node)
+    {
+        if (node.prev == null)
+            mHead = node.next;
+        else
+            node.prev.next = node.next;
+
+        if (node.next == null)
+            mTail = node.prev;
+        else
+            node.next.prev = node.prev;
+
+        node.prev = null;
+        node.next = null;
+    }
+
+    private static final class Node<H>
+    {
+        final String id;
+        volatile H handle;
+        Node<H> prev;
+        Node<H> next;
+
+        Node(String id, H handle)
+        {
+            this.id = id;
+            this.handle = handle;
+        }
+    }
+
+    /**
+     * The ids in order at a given version, plus the matching handles. Never changes after being handed out.
+     */
+    public static final class Snapshot<H> extends AbstractList<String> implements RandomAccess
+    {
+        private final long version;
+        private final String[] ids;
+        private final Object[] handles;
+
+        private Snapshot(long version, String[] ids, Object[] handles)
+        {
+            this.version = version;
+            this.ids = ids;
+            this.handles = handles;
+        }
+
+        @Override
+        public String get(int index)
+        {
+            return ids[index];
+        }
+
+        @Override
+        public int size()
+        {
+            return ids.length;
+        }
+
+        /**
+         * @return The handle of the torrent at the given index, as it was when the snapshot was taken.
+         */
+        @SuppressWarnings("unchecked")
+        public H getHandle(int index)
+        {
+            return (H) handles[index];
+        }
+
+        /**
+         * @return The registry version this snapshot reflects. Comparing versions is enough to know whether the order changed.
+         */
+        public long getVersion()
+        {
+            return version;
+        }
+    }
+}
@@ -0,0 +1,234 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Nizlumina Studio (Malaysia)
+ *
+ * Unless specified, permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package com.nizlumina.frostmodule.common;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * An immutable, versioned list of torrents as the UI sees them: what a {@link TorrentObject} carries plus the latest progress from a
+ * {@link TorrentStatusTable} row.
+ * <p/>
+ * Snapshots are meant to cross process boundaries in bulk through {@link TorrentSnapshotCodec}, either whole or as the difference to a snapshot
+ * the other side already holds. The version is picked by whoever takes the snapshot and only has to grow between snapshots of the same source.
+ */
+public final class TorrentSnapshot
+{
+    private final long mVersion;
+    private final List<Entry> mEntries;
+    private HashMap<String, Entry> mById; //Built on first lookup
+
+    TorrentSnapshot(long version, List<Entry> entries)
+    {
+        mVersion = version;
+        mEntries = Collections.unmodifiableList(entries);
+    }
+
+    public long getVersion()
+    {
+        return mVersion;
+    }
+
+    /**
+     * @return The entries in the order they were added.
+     */
+    public List<Entry> getEntries()
+    {
+        return mEntries;
+    }
+
+    public int size()
+    {
+        return mEntries.size();
+    }
+
+    /**
+     * @return The entry of the torrent or null if the snapshot doesn't hold it.
+     */
+    public Entry get(String id)
+    {
+        HashMap<String, Entry> byId;
+        synchronized (this)
+        {
+            byId = mById;
+            if (byId == null)
+            {
+                byId = new HashMap<>(mEntries.size() * 2);
+                for (int i = 0; i < mEntries.size(); i++)
+                {
+                    final Entry entry = mEntries.get(i);
+                    byId.put(entry.id, entry);
+                }
+                mById = byId;
+            }
+        }
+        return byId.get(id);
+    }
+
+    public static final class Builder
+    {
+        private final long mVersion;
+        private final ArrayList<Entry> mEntries = new ArrayList<>();
+        private final TorrentStatusTable.Row mRow = new TorrentStatusTable.Row();
+
+        public Builder(long version)
+        {
+            mVersion = version;
+        }
+
+        public Builder add(Entry entry)
+        {
+            mEntries.add(entry);
+            return this;
+        }
+
+        /**
+         * Adds the torrent with its current row of the table, or with zeroed progress if the table doesn't know it.
+         */
+        public Builder add(TorrentObject torrentObject, TorrentStatusTable table)
+        {
+            final String id = torrentObject.getId();
+            final int slot = table.getSlot(id);
+            if (slot != TorrentStatusTable.NO_SLOT && table.read(slot, mRow))
+                return add(new Entry(id, mRow.status != null ? mRow.status : torrentObject.getStatus(), torrentObject.getMetafilePath(), mRow.downloaded,
+                        mRow.uploaded, mRow.completedBytes, mRow.size, mRow.activePeersNumber, mRow.seedersNumber));
+            return add(new Entry(id, torrentObject.getStatus(), torrentObject.getMetafilePath(), 0, 0, 0, 0, 0, 0));
+        }
+
+        /**
+         * Adds every torrent of the table in slot order. The table doesn't know metafile paths, so those are left null.
+         */
+        public Builder addAll(TorrentStatusTable table)
+        {
+            final int limit = table.getSlotLimit();
+            for (int slot = 0; slot < limit; slot++)
+            {
+                if (table.read(slot, mRow))
+                    add(new Entry(mRow.id, mRow.status, null, mRow.downloaded, mRow.uploaded, mRow.completedBytes, mRow.size, mRow.activePeersNumber,
+                            mRow.seedersNumber));
+            }
+            return this;
+        }
+
+        /**
+         * Adds the torrents of the registry in its display order, each with its row of the table. Metafile paths are left null.
+         */
+        public Builder addAll(TorrentRegistry.Snapshot<?> torrents, TorrentStatusTable table)
+        {
+            for (int i = 0; i < torrents.size(); i++)
+            {
+                final String id = torrents.get(i);
+                final int slot = table.getSlot(id);
+                if (slot != TorrentStatusTable.NO_SLOT && table.read(slot, mRow))
+                    add(new Entry(id, mRow.status, null, mRow.downloaded, mRow.uploaded, mRow.completedBytes, mRow.size, mRow.activePeersNumber,
+                            mRow.seedersNumber));
+                else
+                    add(new Entry(id, null, null, 0, 0, 0, 0, 0, 0));
+            }
+            return this;
+        }
+
+        public TorrentSnapshot build()
+        {
+            return new TorrentSnapshot(mVersion, new ArrayList<>(mEntries));
+        }
+    }
+
+    public static final class Entry
+    {
+        final String id;
+        final TorrentObject.Status status;
+        final String metafilePath;
+        final long downloaded;
+        final long uploaded;
+        final long completedBytes;
+        final long size;
+        final int activePeersNumber;
+        final int seedersNumber;
+
+        /**
+         * @param id The infohash in hex, as used for ids throughout the engine.
+         */
+        public Entry(String id, TorrentObject.Status status, String metafilePath, long downloaded, long uploaded, long completedBytes, long size,
+                     int activePeersNumber, int seedersNumber)
+        {
+            this.id = id;
+            this.status = status;
+            this.metafilePath = metafilePath;
+            this.downloaded = downloaded;
+            this.uploaded = uploaded;
+            this.completedBytes = completedBytes;
+            this.size = size;
+            this.activePeersNumber = activePeersNumber;
+            this.seedersNumber = seedersNumber;
+        }
+
+        public String getId()
+        {
+            return id;
+        }
+
+        public TorrentObject.Status getStatus()
+        {
+            return status;
+        }
+
+        public String getMetafilePath()
+        {
+            return metafilePath;
+        }
+
+        public long getDownloaded()
+        {
+            return downloaded;
+        }
+
+        public long getUploaded()
+        {
+            return uploaded;
+        }
+
+        public long getCompletedBytes()
+        {
+            return completedBytes;
+        }
+
+        public long getSize()
+        {
+            return size;
+        }
+
+        public int getActivePeersNumber()
+        {
+            return activePeersNumber;
+        }
+
+        public int getSeedersNumber()
+        {
+            return seedersNumber;
+        }
+
+        public TorrentObject toTorrentObject()
+        {
+            return new TorrentObject().setId(id).setStatus(status).setMetafilePath(metafilePath);
+        }
+
+        public void dispatchTo(TorrentObject.TorrentListener listener)
+        {
+            listener.onUpdate(downloaded, uploaded, completedBytes, size, activePeersNumber, seedersNumber);
+        }
+    }
+}
@@ -0,0 +1,498 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Nizlumina Studio (Malaysia)
+ *
+ * Unless specified, permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package com.nizlumina.frostmodule.common;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * Packs {@link TorrentSnapshot}s into a single byte array, small enough to cross a Binder call in one {@code Parcel.writeByteArray} instead of one
+ * {@link TorrentObject} parcel per torrent.
+ * <p/>
+ * Numbers are written as varints, ids as their 20 raw infohash bytes and statuses as an index into a dictionary of status names written once at the
+ * head of the buffer, so both sides don't have to agree on enum ordinals. A delta ({@link #encodeDelta}) only carries the torrents that were removed,
+ * added or changed since a base snapshot, and for changed torrents only the fields that moved, the counters as the signed difference to their old value.
+ * <p/>
+ * Layout, all integers being unsigned LEB128 varints unless noted:
+ * <pre>
+ * magic(1) format(1) kind(1) version [baseVersion if delta]
+ * statusCount { name }
+ * full:  count { id(20) status path downloaded uploaded completedBytes size activePeers seeders }
+ * delta: removedCount { id(20) } changedCount { id(20) mask [fields in mask, counters zigzagged against the base] }
+ * </pre>
+ * Strings are a length plus one followed by UTF-8 bytes, a zero length meaning null. Statuses are the dictionary index plus one, zero meaning null.
+ */
+public final class TorrentSnapshotCodec
+{
+    private static final int MAGIC = 0x53; //'S'
+    private static final int FORMAT = 1;
+    private static final int KIND_FULL = 0;
+    private static final int KIND_DELTA = 1;
+
+    private static final int FIELD_NEW = 1;
+    private static final int FIELD_STATUS = 1 << 1;
+    private static final int FIELD_PATH = 1 << 2;
+    private static final int FIELD_DOWNLOADED = 1 << 3;
+    private static final int FIELD_UPLOADED = 1 << 4;
+    private static final int FIELD_COMPLETED = 1 << 5;
+    private static final int FIELD_SIZE = 1 << 6;
+    private static final int FIELD_PEERS = 1 << 7;
+    private static final int FIELD_SEEDS = 1 << 8;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final TorrentObject.Status[] STATUSES = TorrentObject.Status.values();
+    private static final TorrentSnapshot.Entry EMPTY = new TorrentSnapshot.Entry(null, null, null, 0, 0, 0, 0, 0, 0);
+
+    private TorrentSnapshotCodec() {}
+
+    /**
+     * @throws IllegalArgumentException if an id is not an infohash.
+     */
+    public static byte[] encode(TorrentSnapshot snapshot)
+    {
+        final List<TorrentSnapshot.Entry> entries = snapshot.getEntries();
+        final Writer writer = new Writer(16 + entries.size() * 40);
+        writeHeader(writer, KIND_FULL, snapshot.getVersion());
+        writer.writeVarInt(entries.size());
+        for (int i = 0; i < entries.size(); i++)
+        {
+            final TorrentSnapshot.Entry entry = entries.get(i);
+            writer.writeId(entry.id);
+            writer.writeVarInt(entry.status == null ? 0 : entry.status.ordinal() + 1);
+            writer.writeString(entry.metafilePath);
+            writer.writeVarLong(entry.downloaded);
+            writer.writeVarLong(entry.uploaded);
+            writer.writeVarLong(entry.completedBytes);
+            writer.writeVarLong(entry.size);
+            writer.writeVarInt(entry.activePeersNumber);
+            writer.writeVarInt(entry.seedersNumber);
+        }
+        return writer.toByteArray();
+    }
+
+    /**
+     * Encodes only what changed from base to snapshot. The receiver needs base to decode it, see {@link #decode(byte[], TorrentSnapshot)}.
+     * An unchanged list encodes to a handful of bytes.
+     *
+     * @throws IllegalArgumentException if an id is not an infohash.
+     */
+    public static byte[] encodeDelta(TorrentSnapshot base, TorrentSnapshot snapshot)
+    {
+        final List<TorrentSnapshot.Entry> entries = snapshot.getEntries();
+        final List<TorrentSnapshot.Entry> baseEntries = base.getEntries();
+        final Writer writer = new Writer(32);
+        writeHeader(writer, KIND_DELTA, snapshot.getVersion());
+        writer.writeVarLong(base.getVersion());
+        writeDictionary(writer);
+
+        int removed = 0;
+        for (int i = 0; i < baseEntries.size(); i++)
+        {
+            if (snapshot.get(baseEntries.get(i).id) == null)
+                removed++;
+        }
+        writer.writeVarInt(removed);
+        for (int i = 0; i < baseEntries.size() && removed > 0; i++)
+        {
+            final String id = baseEntries.get(i).id;
+            if (snapshot.get(id) == null)
+            {
+                writer.writeId(id);
+                removed--;
+            }
+        }
+
+        //Count first so the changed entries can go straight into the buffer afterwards
+        int changed = 0;
+        for (int i = 0; i < entries.size(); i++)
+        {
+            final TorrentSnapshot.Entry entry = entries.get(i);
+            if (diff(base.get(entry.id), entry) != 0)
+                changed++;
+        }
+        writer.writeVarInt(changed);
+        for (int i = 0; i < entries.size() && changed > 0; i++)
+        {
+            final TorrentSnapshot.Entry entry = entries.get(i);
+            final TorrentSnapshot.Entry previous = base.get(entry.id);
+            final int mask = diff(previous, entry);
+            if (mask == 0) continue;
+
+            final TorrentSnapshot.Entry from = previous == null ? EMPTY : previous;
+            writer.writeId(entry.id);
+            writer.writeVarInt(mask);
+            if ((mask & FIELD_STATUS) != 0)
+                writer.writeVarInt(entry.status == null ? 0 : entry.status.ordinal() + 1);
+            if ((mask & FIELD_PATH) != 0)
+                writer.writeString(entry.metafilePath);
+            if ((mask & FIELD_DOWNLOADED) != 0)
+                writer.writeVarLong(zigzag(entry.downloaded - from.downloaded));
+            if ((mask & FIELD_UPLOADED) != 0)
+                writer.writeVarLong(zigzag(entry.uploaded - from.uploaded));
+            if ((mask & FIELD_COMPLETED) != 0)
+                writer.writeVarLong(zigzag(entry.completedBytes - from.completedBytes));
+            if ((mask & FIELD_SIZE) != 0)
+                writer.writeVarLong(zigzag(entry.size - from.size));
+            if ((mask & FIELD_PEERS) != 0)
+                writer.writeVarLong(zigzag(entry.activePeersNumber - from.activePeersNumber));
+            if ((mask & FIELD_SEEDS) != 0)
+                writer.writeVarLong(zigzag(entry.seedersNumber - from.seedersNumber));
+            changed--;
+        }
+        return writer.toByteArray();
+    }
+
+    /**
+     * @return True if the buffer is a delta, in which case {@link #decode(byte[], TorrentSnapshot)} needs the snapshot of {@link #getBaseVersion}.
+     */
+    public static boolean isDelta(byte[] data)
+    {
+        return data.length > 2 && data[2] == KIND_DELTA;
+    }
+
+    /**
+     * @return The version a delta was taken against, or -1 for a full snapshot.
+     */
+    public static long getBaseVersion(byte[] data)
+    {
+        final Reader reader = new Reader(data);
+        if (readHeader(reader) != KIND_DELTA) return -1;
+        reader.readVarLong(); //Version
+        return reader.readVarLong();
+    }
+
+    /**
+     * Decodes a full snapshot. Removed entries of a delta keep the order of base, new entries are appended in the order they were encoded.
+     *
+     * @param base The snapshot a delta was taken against, ignored for full snapshots.
+     * @throws IllegalArgumentException if the buffer is malformed, or if it is a delta and base is missing or of another version.
+     */
+    public static TorrentSnapshot decode(byte[] data, TorrentSnapshot base)
+    {
+        final Reader reader = new Reader(data);
+        final int kind = readHeader(reader);
+        final long version = reader.readVarLong();
+
+        if (kind == KIND_FULL)
+        {
+            final TorrentObject.Status[] dictionary = readDictionary(reader);
+            final int count = reader.readCount(InfoHash.LENGTH);
+            final ArrayList<TorrentSnapshot.Entry> entries = new ArrayList<>(count);
+            for (int i = 0; i < count; i++)
+            {
+                entries.add(new TorrentSnapshot.Entry(reader.readId(), readStatus(reader, dictionary), reader.readString(), reader.readVarLong(),
+                        reader.readVarLong(), reader.readVarLong(), reader.readVarLong(), reader.readVarInt(), reader.readVarInt()));
+            }
+            reader.expectEnd();
+            return new TorrentSnapshot(version, entries);
+        }
+
+        final long baseVersion = reader.readVarLong();
+        if (base == null || base.getVersion() != baseVersion)
+            throw new IllegalArgumentException("Delta against version " + baseVersion + " but base is " + (base == null ? "missing" : base.getVersion()));
+        final TorrentObject.Status[] dictionary = readDictionary(reader);
+
+        final int removedCount = reader.readCount(InfoHash.LENGTH);
+        final HashSet<String> removed = new HashSet<>(removedCount * 2);
+        for (int i = 0; i < removedCount; i++)
+        {
+            removed.add(reader.readId());
+        }
+
+        final int changedCount = reader.readCount(InfoHash.LENGTH + 1);
+        final ArrayList<TorrentSnapshot.Entry> added = new ArrayList<>();
+        final HashMap<String, TorrentSnapshot.Entry> changed = new HashMap<>(changedCount * 2);
+        for (int i = 0; i < changedCount; i++)
+        {
+            final String id = reader.readId();
+            final int mask = reader.readVarInt();
+            final TorrentSnapshot.Entry previous = (mask & FIELD_NEW) != 0 ? null : base.get(id);
+            if ((mask & FIELD_NEW) == 0 && previous == null)
+                throw new IllegalArgumentException("Delta changes " + id + " which the base doesn't hold");
+
+            final TorrentSnapshot.Entry from = previous == null ? EMPTY : previous;
+            final TorrentSnapshot.Entry entry = new TorrentSnapshot.Entry(id,
+                    (mask & FIELD_STATUS) != 0 ? readStatus(reader, dictionary) : from.status,
+                    (mask & FIELD_PATH) != 0 ? reader.readString() : from.metafilePath,
+                    (mask & FIELD_DOWNLOADED) != 0 ? from.downloaded + unzigzag(reader.readVarLong()) : from.downloaded,
+                    (mask & FIELD_UPLOADED) != 0 ? from.uploaded + unzigzag(reader.readVarLong()) : from.uploaded,
+                    (mask & FIELD_COMPLETED) != 0 ? from.completedBytes + unzigzag(reader.readVarLong()) : from.completedBytes,
+                    (mask & FIELD_SIZE) != 0 ? from.size + unzigzag(reader.readVarLong()) : from.size,
+                    (mask & FIELD_PEERS) != 0 ? (int) (from.activePeersNumber + unzigzag(reader.readVarLong())) : from.activePeersNumber,
+                    (mask & FIELD_SEEDS) != 0 ? (int) (from.seedersNumber + unzigzag(reader.readVarLong())) : from.seedersNumber);
+            if (previous == null)
+                added.add(entry);
+            else
+                changed.put(id, entry);
+        }
+        reader.expectEnd();
+
+        final List<TorrentSnapshot.Entry> baseEntries = base.getEntries();
+        final ArrayList<TorrentSnapshot.Entry> entries = new ArrayList<>(Math.max(0, baseEntries.size() - removedCount) + added.size());
+        for (int i = 0; i < baseEntries.size(); i++)
+        {
+            final TorrentSnapshot.Entry entry = baseEntries.get(i);
+            if (removed.contains(entry.id)) continue;
+
+            final TorrentSnapshot.Entry update = changed.get(entry.id);
+            entries.add(update != null ? update : entry);
+        }
+        entries.addAll(added);
+        return new TorrentSnapshot(version, entries);
+    }
+
+    /**
+     * @return The fields of entry that differ from previous, with {@link #FIELD_NEW} set if there was no previous. Zero if nothing changed.
+     */
+    private static int diff(TorrentSnapshot.Entry previous, TorrentSnapshot.Entry entry)
+    {
+        final TorrentSnapshot.Entry from = previous == null ? EMPTY : previous;
+        int mask = previous == null ? FIELD_NEW : 0;
+        if (entry.status != from.status)
+            mask |= FIELD_STATUS;
+        if (entry.metafilePath == null ? from.metafilePath != null : !entry.metafilePath.equals(from.metafilePath))
+            mask |= FIELD_PATH;
+        if (entry.downloaded != from.downloaded)
+            mask |= FIELD_DOWNLOADED;
+        if (entry.uploaded != from.uploaded)
+            mask |= FIELD_UPLOADED;
+        if (entry.completedBytes != from.completedBytes)
+            mask |= FIELD_COMPLETED;
+        if (entry.size != from.size)
+            mask |= FIELD_SIZE;
+        if (entry.activePeersNumber != from.activePeersNumber)
+            mask |= FIELD_PEERS;
+        if (entry.seedersNumber != from.seedersNumber)
+            mask |= FIELD_SEEDS;
+        return mask;
+    }
+
+    private static void writeHeader(Writer writer, int kind, long version)
+    {
+        writer.writeByte(MAGIC);
+        writer.writeByte(FORMAT);
+        writer.writeByte(kind);
+        writer.writeVarLong(version);
+        if (kind == KIND_DELTA) return; //The dictionary follows the base version
+
+        writeDictionary(writer);
+    }
+
+    private static void writeDictionary(Writer writer)
+    {
+        writer.writeVarInt(STATUSES.length);
+        for (TorrentObject.Status status : STATUSES)
+        {
+            writer.writeString(status.name());
+        }
+    }
+
+    private static int readHeader(Reader reader)
+    {
+        if (reader.readByte() != MAGIC || reader.readByte() != FORMAT)
+            throw new IllegalArgumentException("Not a torrent snapshot");
+        final int kind = reader.readByte();
+        if (kind != KIND_FULL && kind != KIND_DELTA)
+            throw new IllegalArgumentException("Unknown snapshot kind " + kind);
+        return kind;
+    }
+
+    /**
+     * Names this side doesn't know decode to a null status rather than failing the whole snapshot.
+     */
+    private static TorrentObject.Status[] readDictionary(Reader reader)
+    {
+        final TorrentObject.Status[] dictionary = new TorrentObject.Status[reader.readCount(1)];
+        for (int i = 0; i < dictionary.length; i++)
+        {
+            final String name = reader.readString();
+            for (TorrentObject.Status status : STATUSES)
+            {
+                if (status.name().equals(name))
+                    dictionary[i] = status;
+            }
+        }
+        return dictionary;
+    }
+
+    private static TorrentObject.Status readStatus(Reader reader, TorrentObject.Status[] dictionary)
+    {
+        final int index = reader.readVarInt();
+        if (index == 0) return null;
+        if (index > dictionary.length)
+            throw new IllegalArgumentException("Status " + index + " outside the dictionary");
+        return dictionary[index - 1];
+    }
+
+    private static long zigzag(long value)
+    {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unzigzag(long value)
+    {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static final class Writer
+    {
+        private byte[] mBuffer;
+        private int mLength;
+
+        Writer(int capacity)
+        {
+            mBuffer = new byte[capacity];
+        }
+
+        private void ensure(int extra)
+        {
+            if (mLength + extra <= mBuffer.length) return;
+
+            final byte[] buffer = new byte[Math.max(mBuffer.length * 2, mLength + extra)];
+            System.arraycopy(mBuffer, 0, buffer, 0, mLength);
+            mBuffer = buffer;
+        }
+
+        void writeByte(int value)
+        {
+            ensure(1);
+            mBuffer[mLength++] = (byte) value;
+        }
+
+        void writeVarInt(int value)
+        {
+            writeVarLong(value & 0xffffffffL);
+        }
+
+        void writeVarLong(long value)
+        {
+            ensure(10);
+            while ((value & ~0x7fL) != 0)
+            {
+                mBuffer[mLength++] = (byte) ((value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+            mBuffer[mLength++] = (byte) value;
+        }
+
+        void writeId(String id)
+        {
+            ensure(InfoHash.LENGTH);
+            InfoHash.toBytes(id, mBuffer, mLength);
+            mLength += InfoHash.LENGTH;
+        }
+
+        void writeString(String value)
+        {
+            if (value == null)
+            {
+                writeVarInt(0);
+                return;
+            }
+            final byte[] bytes = value.getBytes(UTF_8);
+            writeVarInt(bytes.length + 1);
+            ensure(bytes.length);
+            System.arraycopy(bytes, 0, mBuffer, mLength, bytes.length);
+            mLength += bytes.length;
+        }
+
+        byte[] toByteArray()
+        {
+            final byte[] bytes = new byte[mLength];
+            System.arraycopy(mBuffer, 0, bytes, 0, mLength);
+            return bytes;
+        }
+    }
+
+    private static final class Reader
+    {
+        private final byte[] mData;
+        private int mPosition;
+
+        Reader(byte[] data)
+        {
+            mData = data;
+        }
+
+        private void require(int length)
+        {
+            if (length < 0 || mData.length - mPosition < length)
+                throw new IllegalArgumentException("Truncated snapshot at " + mPosition);
+        }
+
+        int readByte()
+        {
+            require(1);
+            return mData[mPosition++] & 0xff;
+        }
+
+        long readVarLong()
+        {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7)
+            {
+                final int b = readByte();
+                value |= (long) (b & 0x7f) << shift;
+                if ((b & 0x80) == 0) return value;
+            }
+            throw new IllegalArgumentException("Varint too long at " + mPosition);
+        }
+
+        int readVarInt()
+        {
+            final long value = readVarLong();
+            if ((value & ~0xffffffffL) != 0)
+                throw new IllegalArgumentException("Varint out of range at " + mPosition);
+            return (int) value;
+        }
+
+        /**
+         * Reads an element count and checks it against what's left, so a corrupt count can't make the caller allocate huge lists.
+         */
+        int readCount(int minElementLength)
+        {
+            final int count = readVarInt();
+            if (count < 0 || (long) count * minElementLength > mData.length - mPosition)
+                throw new IllegalArgumentException("Count " + count + " past the end of the snapshot");
+            return count;
+        }
+
+        String readId()
+        {
+            require(InfoHash.LENGTH);
+            final String id = InfoHash.toHex(mData, mPosition, InfoHash.LENGTH);
+            mPosition += InfoHash.LENGTH;
+            return id;
+        }
+
+        String readString()
+        {
+            final int length = readVarInt() - 1;
+            if (length == -1) return null;
+            require(length);
+            final String value = new String(mData, mPosition, length, UTF_8);
+            mPosition += length;
+            return value;
+        }
+
+        void expectEnd()
+        {
+            if (mPosition != mData.length)
+                throw new IllegalArgumentException("Trailing bytes after snapshot at " + mPosition);
+        }
+    }
+}
@@ -0,0 +1,355 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Nizlumina Studio (Malaysia)
+ *
+ * Unless specified, permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package com.nizlumina.frostmodule.common;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A struct-of-arrays table holding the latest status of every torrent known to an engine.
+ * <p/>
+ * Each torrent is given a dense slot number on {@link #acquireSlot(String)} and its values live at that index of a set of parallel primitive columns,
+ * so updating or reading a torrent never allocates. Released slots are recycled before the table grows.
+ * <p/>
+ * Writes are serialized on the table itself. Reads are lock-free: every slot carries a sequence number that is odd while a write is in progress,
+ * and {@link #read(int, Row)} retries until it observes the same even sequence before and after copying the values, which gives a consistent row
+ * without ever blocking the writer.
+ */
+public final class TorrentStatusTable
+{
+    public static final int NO_SLOT = -1;
+    private static final int DEFAULT_CAPACITY = 64;
+
+    private final ConcurrentHashMap<String, Integer> mSlots = new ConcurrentHashMap<>();
+    private volatile Columns mColumns;
+    private int[] mFreeSlots = new int[16];
+    private int mFreeCount;
+    private volatile int mHighWater;
+
+    public TorrentStatusTable()
+    {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public TorrentStatusTable(int initialCapacity)
+    {
+        mColumns = new Columns(Math.max(1, initialCapacity));
+    }
+
+    /**
+     * Gives the torrent a slot, or returns the one it already has.
+     */
+    public synchronized int acquireSlot(String id)
+    {
+        final Integer existing = mSlots.get(id);
+        if (existing != null) return existing;
+
+        final int slot;
+        if (mFreeCount > 0)
+        {
+            slot = mFreeSlots[--mFreeCount];
+        }
+        else
+        {
+            slot = mHighWater++;
+            if (slot == mColumns.capacity)
+                mColumns = mColumns.grow(slot * 2);
+        }
+
+        final Columns columns = mColumns;
+        beginWrite(columns, slot);
+        columns.ids.set(slot, id);
+        clearRow(columns, slot);
+        endWrite(columns, slot);
+        mSlots.put(id, slot);
+        return slot;
+    }
+
+    /**
+     * Frees the slot of the given torrent so it can be handed out again. Does nothing for unknown ids.
+     */
+    public synchronized void releaseSlot(String id)
+    {
+        final Integer slot = mSlots.remove(id);
+        if (slot == null) return;
+
+        final Columns columns = mColumns;
+        beginWrite(columns, slot);
+        columns.ids.set(slot, null);
+        clearRow(columns, slot);
+        endWrite(columns, slot);
+
+        if (mFreeCount == mFreeSlots.length)
+        {
+            final int[] freeSlots = new int[mFreeSlots.length * 2];
+            System.arraycopy(mFreeSlots, 0, freeSlots, 0, mFreeCount);
+            mFreeSlots = freeSlots;
+        }
+        mFreeSlots[mFreeCount++] = slot;
+    }
+
+    /**
+     * @return The slot of the torrent or {@link #NO_SLOT} if the table doesn't know it.
+     */
+    public int getSlot(String id)
+    {
+        final Integer slot = mSlots.get(id);
+        return slot == null ? NO_SLOT : slot;
+    }
+
+    public synchronized void update(int slot, long downloaded, long uploaded, long completedBytes, long size, int activePeersNumber, int seedersNumber, TorrentObject.Status status)
+    {
+        final Columns columns = mColumns;
+        if (slot < 0 || slot >= mHighWater || columns.ids.get(slot) == null) return;
+
+        beginWrite(columns, slot);
+        columns.downloaded.set(slot, downloaded);
+        columns.uploaded.set(slot, uploaded);
+        columns.completedBytes.set(slot, completedBytes);
+        columns.size.set(slot, size);
+        columns.activePeers.set(slot, activePeersNumber);
+        columns.seeders.set(slot, seedersNumber);
+        columns.status.set(slot, status == null ? -1 : status.ordinal());
+        endWrite(columns, slot);
+    }
+
+    /**
+     * Copies a consistent view of the slot into the given row. Callers are expected to keep reusing the same {@link Row}.
+     *
+     * @return false if the slot is not in use, in which case the row is left untouched.
+     */
+    public boolean read(int slot, Row into)
+    {
+        while (true)
+        {
+            final Columns columns = mColumns;
+            if (slot < 0 || slot >= columns.capacity) return false;
+
+            final int before = columns.sequence.get(slot);
+            if ((before & 1) != 0)
+            {
+                Thread.yield();
+                continue;
+            }
+
+            final String id = columns.ids.get(slot);
+            final long downloaded = columns.downloaded.get(slot);
+            final long uploaded = columns.uploaded.get(slot);
+            final long completedBytes = columns.completedBytes.get(slot);
+            final long size = columns.size.get(slot);
+            final int activePeers = columns.activePeers.get(slot);
+            final int seeders = columns.seeders.get(slot);
+            final int status = columns.status.get(slot);
+
+            //A grow in between means the values may come from a table the writer already left behind
+            if (columns.sequence.get(slot) != before || columns != mColumns) continue;
+            if (id == null) return false;
+
+            into.id = id;
+            into.slot = slot;
+            into.downloaded = downloaded;
+            into.uploaded = uploaded;
+            into.completedBytes = completedBytes;
+            into.size = size;
+            into.activePeersNumber = activePeers;
+            into.seedersNumber = seeders;
+            into.status = status < 0 ? null : STATUSES[status];
+            return true;
+        }
+    }
+
+    /**
+     * @return True if any slot is currently in the given status. Walks the status column only.
+     */
+    public boolean anyInStatus(TorrentObject.Status status)
+    {
+        final Columns columns = mColumns;
+        final int limit = Math.min(columns.capacity, mHighWater);
+        final int wanted = status.ordinal();
+        for (int slot = 0; slot < limit; slot++)
+        {
+            if (columns.status.get(slot) == wanted && columns.ids.get(slot) != null)
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return True if any slot in use is not in the given status, counting slots that were never updated.
+     */
+    public boolean anyOutsideStatus(TorrentObject.Status status)
+    {
+        final Columns columns = mColumns;
+        final int limit = Math.min(columns.capacity, mHighWater);
+        final int excluded = status.ordinal();
+        for (int slot = 0; slot < limit; slot++)
+        {
+            if (columns.status.get(slot) != excluded && columns.ids.get(slot) != null)
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return One past the highest slot ever handed out, useful as the loop bound when scanning the table.
+     */
+    public int getSlotLimit()
+    {
+        return mHighWater;
+    }
+
+    public int size()
+    {
+        return mSlots.size();
+    }
+
+    private static void beginWrite(Columns columns, int slot)
+    {
+        columns.sequence.incrementAndGet(slot);
+    }
+
+    private static void endWrite(Columns columns, int slot)
+    {
+        columns.sequence.incrementAndGet(slot);
+    }
+
+    private static void clearRow(Columns columns, int slot)
+    {
+        columns.downloaded.set(slot, 0);
+        columns.uploaded.set(slot, 0);
+        columns.completedBytes.set(slot, 0);
+        columns.size.set(slot, 0);
+        columns.activePeers.set(slot, 0);
+        columns.seeders.set(slot, 0);
+        columns.status.set(slot, -1);
+    }
+
+    private static final TorrentObject.Status[] STATUSES = TorrentObject.Status.values();
+
+    /**
+     * A reusable holder for one row of the table.
+     */
+    public static final class Row
+    {
+        String id;
+        int slot = NO_SLOT;
+        long downloaded;
+        long uploaded;
+        long completedBytes;
+        long size;
+        int activePeersNumber;
+        int seedersNumber;
+        TorrentObject.Status status;
+
+        public String getId()
+        {
+            return id;
+        }
+
+        public int getSlot()
+        {
+            return slot;
+        }
+
+        public long getDownloaded()
+        {
+            return downloaded;
+        }
+
+        public long getUploaded()
+        {
+            return uploaded;
+        }
+
+        public long getCompletedBytes()
+        {
+            return completedBytes;
+        }
+
+        public long getSize()
+        {
+            return size;
+        }
+
+        public int getActivePeersNumber()
+        {
+            return activePeersNumber;
+        }
+
+        public int getSeedersNumber()
+        {
+            return seedersNumber;
+        }
+
+        public TorrentObject.Status getStatus()
+        {
+            return status;
+        }
+
+        public void dispatchTo(TorrentObject.TorrentListener listener)
+        {
+            listener.onUpdate(downloaded, uploaded, completedBytes, size, activePeersNumber, seedersNumber);
+        }
+    }
+
+    //The atomic arrays are plain primitive arrays underneath; they are only used for their volatile element access.
+    private static final class Columns
+    {
+        final int capacity;
+        final AtomicIntegerArray sequence;
+        final AtomicReferenceArray<String> ids;
+        final AtomicLongArray downloaded;
+        final AtomicLongArray uploaded;
+        final AtomicLongArray completedBytes;
+        final AtomicLongArray size;
+        final AtomicIntegerArray activePeers;
+        final AtomicIntegerArray seeders;
+        final AtomicIntegerArray status;
+
+        Columns(int capacity)
+        {
+            this.capacity = capacity;
+            sequence = new AtomicIntegerArray(capacity);
+            ids = new AtomicReferenceArray<>(capacity);
+            downloaded = new AtomicLongArray(capacity);
+            uploaded = new AtomicLongArray(capacity);
+            completedBytes = new AtomicLongArray(capacity);
+            size = new AtomicLongArray(capacity);
+            activePeers = new AtomicIntegerArray(capacity);
+            seeders = new AtomicIntegerArray(capacity);
+            status = new AtomicIntegerArray(capacity);
+        }
+
+        //Only called by the writer, so nothing changes while copying
+        Columns grow(int newCapacity)
+        {
+            final Columns grown = new Columns(newCapacity);
+            for (int i = 0; i < capacity; i++)
+            {
+                grown.sequence.set(i, sequence.get(i));
+                grown.ids.set(i, ids.get(i));
+                grown.downloaded.set(i, downloaded.get(i));
+                grown.uploaded.set(i, uploaded.get(i));
+                grown.completedBytes.set(i, completedBytes.get(i));
+                grown.size.set(i, size.get(i));
+                grown.activePeers.set(i, activePeers.get(i));
+                grown.seeders.set(i, seeders.get(i));
+                grown.status.set(i, status.get(i));
+            }
+            return grown;
+        }
+    }
+}
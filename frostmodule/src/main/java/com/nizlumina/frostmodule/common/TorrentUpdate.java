@@ -0,0 +1,86 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Nizlumina Studio (Malaysia)
+ *
+ * Unless specified, permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.nizlumina.frostmodule.common;
+
+/**
+ * A single coalesced progress update of a torrent as delivered by {@link EngineEventBus}.
+ * It carries the same values as {@link TorrentObject.TorrentListener#onUpdate} and is never modified once delivered.
+ */
+public final class TorrentUpdate
+{
+    private final String id;
+    long downloaded;
+    long uploaded;
+    long completedBytes;
+    long size;
+    int activePeersNumber;
+    int seedersNumber;
+
+    TorrentUpdate(String id)
+    {
+        this.id = id;
+    }
+
+    void set(long downloaded, long uploaded, long completedBytes, long size, int activePeersNumber, int seedersNumber)
+    {
+        this.downloaded = downloaded;
+        this.uploaded = uploaded;
+        this.completedBytes = completedBytes;
+        this.size = size;
+        this.activePeersNumber = activePeersNumber;
+        this.seedersNumber = seedersNumber;
+    }
+
+    public String getId()
+    {
+        return id;
+    }
+
+    public long getDownloaded()
+    {
+        return downloaded;
+    }
+
+    public long getUploaded()
+    {
+        return uploaded;
+    }
+
+    public long getCompletedBytes()
+    {
+        return completedBytes;
+    }
+
+    public long getSize()
+    {
+        return size;
+    }
+
+    public int getActivePeersNumber()
+    {
+        return activePeersNumber;
+    }
+
+    public int getSeedersNumber()
+    {
+        return seedersNumber;
+    }
+
+    /**
+     * Convenience to hand this update to a per-torrent listener.
+     */
+    public void dispatchTo(TorrentObject.TorrentListener listener)
+    {
+        listener.onUpdate(downloaded, uploaded, completedBytes, size, activePeersNumber, seedersNumber);
+    }
+}
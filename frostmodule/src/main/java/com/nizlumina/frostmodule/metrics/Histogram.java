@@ -0,0 +1,143 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Nizlumina Studio (Malaysia)
+ *
+ * Unless specified, permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package com.nizlumina.frostmodule.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A fixed memory histogram of non-negative values with a bounded relative error, in the spirit of HdrHistogram.
+ * <p/>
+ * Values are bucketed log-linearly: every power of two is split in 2^precisionBits equal sub-buckets, so with the default 5 bits any recorded value
+ * is known within about 3% whatever its magnitude. Values under 2^precisionBits are exact. Recording is a few bit operations and one atomic
+ * increment, no locks and no allocation, so it can sit on hot paths.
+ * <p/>
+ * Latencies are recorded in nanoseconds; values above {@link #getHighestTrackableValue()} are clamped into the last bucket.
+ */
+public final class Histogram
+{
+    public static final int DEFAULT_PRECISION_BITS = 5;
+    //2^40 ns is about 18 minutes, more than anything the engine should ever wait for
+    public static final int DEFAULT_MAGNITUDE_BITS = 40;
+
+    private final int mPrecisionBits;
+    private final int mSubBucketCount;
+    private final long mHighestTrackableValue;
+    private final AtomicLongArray mCounts;
+    private final AtomicLong mCount = new AtomicLong();
+    private final AtomicLong mSum = new AtomicLong();
+    private final AtomicLong mMax = new AtomicLong();
+
+    Histogram()
+    {
+        this(DEFAULT_PRECISION_BITS, DEFAULT_MAGNITUDE_BITS);
+    }
+
+    Histogram(int precisionBits, int magnitudeBits)
+    {
+        if (precisionBits < 1 || magnitudeBits <= precisionBits || magnitudeBits > 62)
+            throw new IllegalArgumentException("Invalid histogram precision " + precisionBits + " for magnitude " + magnitudeBits);
+
+        mPrecisionBits = precisionBits;
+        mSubBucketCount = 1 << precisionBits;
+        mHighestTrackableValue = (1L << magnitudeBits) - 1;
+        mCounts = new AtomicLongArray(indexOf(mHighestTrackableValue) + 1);
+    }
+
+    public void record(long value)
+    {
+        if (value < 0) value = 0;
+        final long clamped = Math.min(value, mHighestTrackableValue);
+
+        mCounts.incrementAndGet(indexOf(clamped));
+        mCount.incrementAndGet();
+        mSum.addAndGet(value);
+        long max = mMax.get();
+        while (value > max && !mMax.compareAndSet(max, value))
+        {
+            max = mMax.get();
+        }
+    }
+
+    /**
+     * Records the time elapsed since the given {@link System#nanoTime()}.
+     */
+    public void recordSince(long startNanos)
+    {
+        record(System.nanoTime() - startNanos);
+    }
+
+    private int indexOf(long value)
+    {
+        if (value < mSubBucketCount) return (int) value;
+
+        final int exponent = 63 - Long.numberOfLeadingZeros(value);
+        final int bucket = exponent - mPrecisionBits + 1;
+        final int subBucket = (int) (value >>> (exponent - mPrecisionBits)) & (mSubBucketCount - 1);
+        return bucket * mSubBucketCount + subBucket;
+    }
+
+    /**
+     * @return The highest value that falls in the bucket at the given index.
+     */
+    private long highestValueAt(int index)
+    {
+        final int bucket = index / mSubBucketCount;
+        final int subBucket = index % mSubBucketCount;
+        if (bucket == 0) return subBucket;
+
+        final int shift = bucket - 1;
+        return (((long) (mSubBucketCount + subBucket)) << shift) + (1L << shift) - 1;
+    }
+
+    public long getCount()
+    {
+        return mCount.get();
+    }
+
+    public long getSum()
+    {
+        return mSum.get();
+    }
+
+    public long getMax()
+    {
+        return mMax.get();
+    }
+
+    public long getHighestTrackableValue()
+    {
+        return mHighestTrackableValue;
+    }
+
+    /**
+     * @param percentile Between 0 and 100.
+     * @return The value below which the given share of the recorded values fall, within the histogram precision. 0 if nothing was recorded.
+     */
+    public long getValueAtPercentile(double percentile)
+    {
+        final long count = mCount.get();
+        if (count == 0) return 0;
+
+        final long target = Math.max(1, (long) Math.ceil(Math.min(100, Math.max(0, percentile)) / 100 * count));
+        long seen = 0;
+        for (int i = 0; i < mCounts.length(); i++)
+        {
+            seen += mCounts.get(i);
+            if (seen >= target)
+                return Math.min(highestValueAt(i), mMax.get());
+        }
+        return mMax.get(); //Records raced with the walk
+    }
+}
@@ -0,0 +1,245 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Nizlumina Studio (Malaysia)
+ *
+ * Unless specified, permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package com.nizlumina.frostmodule.metrics;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Named counters, gauges and histograms of the engine, exportable in the Prometheus text format.
+ * <p/>
+ * Metrics are created once and kept in fields, so recording never goes through the registry; lookups only happen at registration and export.
+ * Asking twice for the same name and labels returns the same metric. Labels are given as name/value pairs, e.g.
+ * {@code counter("frostmodule_commands_total", "Commands executed", "type", "pause")}.
+ * <p/>
+ * Histograms are exported as summaries (quantiles, sum and count); latency histograms record nanoseconds and export seconds.
+ */
+public final class MetricsRegistry
+{
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+    private static final double NANOS_PER_SECOND = 1e9;
+
+    private enum Type
+    {
+        COUNTER("counter"), GAUGE("gauge"), SUMMARY("summary");
+
+        final String mExposition;
+
+        Type(String exposition)
+        {
+            mExposition = exposition;
+        }
+    }
+
+    private final ConcurrentHashMap<String, Family> mFamilies = new ConcurrentHashMap<>();
+
+    public Counter counter(String name, String help, String... labels)
+    {
+        return (Counter) family(name, help, Type.COUNTER, 1).getOrCreate(labels);
+    }
+
+    /**
+     * Registers a gauge, replacing any gauge with the same name and labels.
+     */
+    public void gauge(String name, String help, Gauge gauge, String... labels)
+    {
+        family(name, help, Type.GAUGE, 1).put(labels, gauge);
+    }
+
+    /**
+     * A histogram of durations recorded in nanoseconds, e.g. with {@link Histogram#recordSince}. The name should end in {@code _seconds}.
+     */
+    public Histogram latency(String name, String help, String... labels)
+    {
+        return (Histogram) family(name, help, Type.SUMMARY, NANOS_PER_SECOND).getOrCreate(labels);
+    }
+
+    /**
+     * A histogram of plain values, e.g. batch sizes.
+     */
+    public Histogram histogram(String name, String help, String... labels)
+    {
+        return (Histogram) family(name, help, Type.SUMMARY, 1).getOrCreate(labels);
+    }
+
+    private Family family(String name, String help, Type type, double divisor)
+    {
+        if (!isValidName(name))
+            throw new IllegalArgumentException("Invalid metric name: " + name);
+
+        Family family = mFamilies.get(name);
+        if (family == null)
+        {
+            final Family created = new Family(name, help, type, divisor);
+            family = mFamilies.putIfAbsent(name, created);
+            if (family == null) family = created;
+        }
+        if (family.mType != type || family.mDivisor != divisor)
+            throw new IllegalArgumentException("Metric " + name + " is already registered as another type");
+        return family;
+    }
+
+    /**
+     * Writes every metric in the Prometheus text exposition format (version 0.0.4), families sorted by name.
+     */
+    public void writeTo(Writer writer) throws IOException
+    {
+        final StringBuilder line = new StringBuilder(128);
+        for (Family family : new TreeMap<>(mFamilies).values())
+        {
+            line.setLength(0);
+            line.append("# HELP ").append(family.mName).append(' ');
+            escape(family.mHelp, false, line);
+            line.append("\n# TYPE ").append(family.mName).append(' ').append(family.mType.mExposition).append('\n');
+            writer.write(line.toString());
+
+            for (Map.Entry<String, Object> metric : family.snapshot().entrySet())
+            {
+                line.setLength(0);
+                family.write(metric.getKey(), metric.getValue(), line);
+                writer.write(line.toString());
+            }
+        }
+        writer.flush();
+    }
+
+    private static boolean isValidName(String name)
+    {
+        if (name == null || name.length() == 0) return false;
+        for (int i = 0; i < name.length(); i++)
+        {
+            final char c = name.charAt(i);
+            final boolean valid = (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_' || c == ':' || (i > 0 && c >= '0' && c <= '9');
+            if (!valid) return false;
+        }
+        return true;
+    }
+
+    private static void escape(String value, boolean quotes, StringBuilder into)
+    {
+        for (int i = 0; i < value.length(); i++)
+        {
+            final char c = value.charAt(i);
+            if (c == '\\')
+                into.append("\\\\");
+            else if (c == '\n')
+                into.append("\\n");
+            else if (c == '"' && quotes)
+                into.append("\\\"");
+            else
+                into.append(c);
+        }
+    }
+
+    /**
+     * @return The labels as they appear between the braces, e.g. {@code type="pause"}. Empty without labels.
+     */
+    private static String formatLabels(String... labels)
+    {
+        if (labels == null || labels.length == 0) return "";
+        if (labels.length % 2 != 0)
+            throw new IllegalArgumentException("Labels must be name/value pairs");
+
+        final StringBuilder formatted = new StringBuilder();
+        for (int i = 0; i < labels.length; i += 2)
+        {
+            if (!isValidName(labels[i]))
+                throw new IllegalArgumentException("Invalid label name: " + labels[i]);
+            if (i > 0)
+                formatted.append(',');
+            formatted.append(labels[i]).append("=\"");
+            escape(labels[i + 1], true, formatted);
+            formatted.append('"');
+        }
+        return formatted.toString();
+    }
+
+    private static final class Family
+    {
+        final String mName;
+        final String mHelp;
+        final Type mType;
+        final double mDivisor;
+        private final ConcurrentHashMap<String, Object> mMetrics = new ConcurrentHashMap<>();
+
+        Family(String name, String help, Type type, double divisor)
+        {
+            mName = name;
+            mHelp = help == null ? "" : help;
+            mType = type;
+            mDivisor = divisor;
+        }
+
+        Object getOrCreate(String[] labels)
+        {
+            final String key = formatLabels(labels);
+            Object metric = mMetrics.get(key);
+            if (metric == null)
+            {
+                final Object created = mType == Type.COUNTER ? new Counter() : new Histogram();
+                metric = mMetrics.putIfAbsent(key, created);
+                if (metric == null) metric = created;
+            }
+            return metric;
+        }
+
+        void put(String[] labels, Gauge gauge)
+        {
+            mMetrics.put(formatLabels(labels), gauge);
+        }
+
+        Map<String, Object> snapshot()
+        {
+            return new TreeMap<>(mMetrics);
+        }
+
+        void write(String labels, Object metric, StringBuilder into)
+        {
+            switch (mType)
+            {
+                case COUNTER:
+                    sample(mName, labels, null, ((Counter) metric).get(), into);
+                    break;
+                case GAUGE:
+                    sample(mName, labels, null, ((Gauge) metric).getValue(), into);
+                    break;
+                case SUMMARY:
+                    final Histogram histogram = (Histogram) metric;
+                    for (double quantile : QUANTILES)
+                    {
+                        sample(mName, labels, "quantile=\"" + quantile + "\"", histogram.getValueAtPercentile(quantile * 100) / mDivisor, into);
+                    }
+                    sample(mName + "_sum", labels, null, histogram.getSum() / mDivisor, into);
+                    sample(mName + "_count", labels, null, histogram.getCount(), into);
+                    break;
+            }
+        }
+
+        private static void sample(String name, String labels, String extraLabel, Object value, StringBuilder into)
+        {
+            into.append(name);
+            if (labels.length() > 0 || extraLabel != null)
+            {
+                into.append('{').append(labels);
+                if (extraLabel != null)
+                    into.append(labels.length() > 0 ? "," : "").append(extraLabel);
+                into.append('}');
+            }
+            into.append(' ').append(value).append('\n');
+        }
+    }
+}
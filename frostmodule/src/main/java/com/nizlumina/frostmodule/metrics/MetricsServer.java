@@ -0,0 +1,188 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Nizlumina Studio (Malaysia)
+ *
+ * Unless specified, permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package com.nizlumina.frostmodule.metrics;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+
+/**
+ * Serves a {@link MetricsRegistry} in the Prometheus text format on {@code http://127.0.0.1:<port>/metrics}.
+ * <p/>
+ * Only bound to the loopback interface, so nothing leaves the device: scrape it through {@code adb forward tcp:<port> tcp:<port>}.
+ * Scrapes are rare and tiny, so connections are handled one at a time on a single daemon thread.
+ */
+public final class MetricsServer
+{
+    private static final int BACKLOG = 4;
+    private static final int SOCKET_TIMEOUT_MILLIS = 2000;
+    private static final int MAX_HEADER_BYTES = 8192;
+
+    private final MetricsRegistry mRegistry;
+    private final int mPort;
+    private ServerSocket mServerSocket;
+
+    /**
+     * @param port The loopback port to listen on, 0 for any free port (see {@link #getLocalPort()}).
+     */
+    public MetricsServer(MetricsRegistry registry, int port)
+    {
+        mRegistry = registry;
+        mPort = port;
+    }
+
+    public synchronized void start() throws IOException
+    {
+        if (mServerSocket != null) return;
+
+        final ServerSocket serverSocket = new ServerSocket(mPort, BACKLOG, InetAddress.getByName("127.0.0.1"));
+        mServerSocket = serverSocket;
+        final Thread acceptor = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                serve(serverSocket);
+            }
+        }, "MetricsServer");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    public synchronized void stop()
+    {
+        if (mServerSocket == null) return;
+        try
+        {
+            mServerSocket.close(); //Unblocks the acceptor
+        }
+        catch (IOException ignored)
+        {
+        }
+        mServerSocket = null;
+    }
+
+    /**
+     * @return The port actually listened on, or -1 if not started.
+     */
+    public synchronized int getLocalPort()
+    {
+        return mServerSocket != null ? mServerSocket.getLocalPort() : -1;
+    }
+
+    private void serve(ServerSocket serverSocket)
+    {
+        while (!serverSocket.isClosed())
+        {
+            Socket socket = null;
+            try
+            {
+                socket = serverSocket.accept();
+                socket.setSoTimeout(SOCKET_TIMEOUT_MILLIS);
+                handle(socket);
+            }
+            catch (SocketException e)
+            {
+                if (serverSocket.isClosed()) return;
+            }
+            catch (IOException ignored)
+            {
+                //A broken scrape only affects that scrape
+            }
+            finally
+            {
+                if (socket != null)
+                {
+                    try
+                    {
+                        socket.close();
+                    }
+                    catch (IOException ignored)
+                    {
+                    }
+                }
+            }
+        }
+    }
+
+    private void handle(Socket socket) throws IOException
+    {
+        final String requestLine = readRequestHead(new BufferedInputStream(socket.getInputStream(), 1024));
+        final OutputStream out = socket.getOutputStream();
+        if (requestLine == null)
+            return;
+
+        final String[] parts = requestLine.split(" ");
+        if (parts.length < 2 || !parts[0].equals("GET"))
+        {
+            respond(out, "405 Method Not Allowed", "text/plain", "Only GET is supported\n");
+            return;
+        }
+        if (!parts[1].equals("/metrics") && !parts[1].equals("/"))
+        {
+            respond(out, "404 Not Found", "text/plain", "Metrics are at /metrics\n");
+            return;
+        }
+
+        final StringWriter body = new StringWriter(4096);
+        mRegistry.writeTo(body);
+        respond(out, "200 OK", "text/plain; version=0.0.4", body.toString());
+    }
+
+    /**
+     * Reads the request head up to the blank line, discarding the headers.
+     *
+     * @return The request line, or null if the client sent nothing usable.
+     */
+    private static String readRequestHead(InputStream in) throws IOException
+    {
+        final StringBuilder line = new StringBuilder(64);
+        String requestLine = null;
+        int total = 0;
+        int c;
+        while ((c = in.read()) != -1 && total++ < MAX_HEADER_BYTES)
+        {
+            if (c == '\r') continue;
+            if (c != '\n')
+            {
+                line.append((char) c);
+                continue;
+            }
+            if (line.length() == 0)
+                return requestLine; //End of the head
+            if (requestLine == null)
+                requestLine = line.toString();
+            line.setLength(0);
+        }
+        return null;
+    }
+
+    private static void respond(OutputStream out, String status, String contentType, String body) throws IOException
+    {
+        final byte[] content = body.getBytes("UTF-8");
+        final String head = "HTTP/1.1 " + status + "\r\n"
+                + "Content-Type: " + contentType + "; charset=utf-8\r\n"
+                + "Content-Length: " + content.length + "\r\n"
+                + "Connection: close\r\n\r\n";
+        out.write(head.getBytes("US-ASCII"));
+        out.write(content);
+        out.flush();
+    }
+}
@@ -0,0 +1,853 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Nizlumina Studio (Malaysia)
+ *
+ * Unless specified, permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package com.nizlumina.frostmodule.simulation;
+
+import com.nizlumina.frostmodule.bencode.MetafileInfo;
+import com.nizlumina.frostmodule.common.BulkImport;
+import com.nizlumina.frostmodule.common.EngineCommandQueue;
+import com.nizlumina.frostmodule.common.EngineConfig;
+import com.nizlumina.frostmodule.common.EngineEventBus;
+import com.nizlumina.frostmodule.common.InfoHash;
+import com.nizlumina.frostmodule.common.StartupReport;
+import com.nizlumina.frostmodule.common.TorrentDetails;
+import com.nizlumina.frostmodule.common.TorrentEngine;
+import com.nizlumina.frostmodule.common.TorrentObject;
+import com.nizlumina.frostmodule.common.TorrentRegistry;
+import com.nizlumina.frostmodule.common.TorrentSnapshot;
+import com.nizlumina.frostmodule.common.TorrentStatusTable;
+import com.nizlumina.frostmodule.common.TorrentUpdate;
+
+import java.io.File;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A {@link TorrentEngine} without libtorrent: torrents are a deterministic model of download and upload progress driven by a simulated clock.
+ * <p/>
+ * Commands go through the same {@link EngineCommandQueue}, and progress through the same {@link TorrentStatusTable} and {@link EngineEventBus}
+ * (and from there the per-torrent listeners) as in the real engine, so the service and UI code above it can be load tested off-device with
+ * as many torrents as wanted. Metafiles are parsed for real when they exist, anything else gets a synthetic torrent.
+ * <p/>
+ * With auto advance on, simulated time moves by one progress tick per tick. Turn it off to drive the clock from a harness with {@link #advance(long)};
+ * a given {@link SimulationConfig} and sequence of commands and advances then always produces the same progress.
+ */
+public class SimulatedTorrentEngine implements TorrentEngine
+{
+    private static final int COMMAND_QUEUE_CAPACITY = 1024;
+    private static final int PIECE_LENGTH = 256 * 1024;
+    private static final int MAX_PEERS = 50;
+
+    private final SimulationConfig mSimulationConfig;
+    private final TorrentRegistry<SimulatedTorrent> mTorrents = new TorrentRegistry<>();
+    private final TorrentStatusTable mStatusTable = new TorrentStatusTable();
+    private final AtomicLong mSnapshotVersion = new AtomicLong();
+    private final ConcurrentHashMap<String, TorrentObject.TorrentListener> mTorrentListeners = new ConcurrentHashMap<>();
+    private final SimulatedDetailsSource mDetailsSource = new SimulatedDetailsSource();
+    private final ConcurrentHashMap<TorrentObject, ImportJob> mImports = new ConcurrentHashMap<>();
+
+    //Guards the model: every SimulatedTorrent and the fields below
+    private final Object mModelLock = new Object();
+    private long mSimulatedMillis;
+    private long mTickCount;
+    private int mSyntheticCount;
+    private boolean mWasDownloading;
+
+    private EngineConfig mEngineConfig;
+    private EngineEventBus mEventBus;
+    private EngineEventBus.Subscription mListenerSubscription;
+    private EngineCommandQueue mCommandQueue;
+    private ScheduledExecutorService mClock;
+    private volatile long mLastAdvanceStartNanos;
+    private volatile long mLastAdvanceNanos;
+
+    private Listener mEngineListener;
+    private Runnable mOnNoMoreRunningTaskListener;
+    private Runnable mOnEngineStartedListener;
+    private volatile StartupReport mStartupReport;
+
+    public SimulatedTorrentEngine(SimulationConfig simulationConfig)
+    {
+        mSimulationConfig = simulationConfig;
+    }
+
+    @Override
+    public void initializeEngine(EngineConfig engineConfig)
+    {
+        mEngineConfig = engineConfig;
+        mEventBus = new EngineEventBus(engineConfig.getProgressTickMillis());
+        mCommandQueue = new EngineCommandQueue(COMMAND_QUEUE_CAPACITY, new EngineCommandQueue.BatchHandler()
+        {
+            @Override
+            public void onBatch(EngineCommandQueue.Batch batch)
+            {
+                executeBatch(batch);
+            }
+        });
+    }
+
+    @Override
+    public void startEngine()
+    {
+        final StartupReport.Builder report = new StartupReport.Builder();
+        final long start = System.nanoTime();
+        synchronized (mModelLock)
+        {
+            for (int i = 0; i < mSimulationConfig.getTorrentCount(); i++)
+            {
+                register(createSyntheticTorrent());
+            }
+        }
+        report.phase("torrents", start);
+        mCommandQueue.start("SimulatedTorrentEngine-session");
+
+        final Executor listenerExecutor = mSimulationConfig.getListenerExecutor();
+        mListenerSubscription = listenerExecutor == null
+                ? mEventBus.subscribe(new ListenerDispatcher())
+                : mEventBus.subscribe(new ListenerDispatcher(), listenerExecutor, EngineEventBus.DEFAULT_MAX_BACKLOG);
+        mEventBus.start();
+
+        if (mSimulationConfig.isAutoAdvance())
+        {
+            final long tickMillis = mEventBus.getTickMillis();
+            mClock = Executors.newSingleThreadScheduledExecutor();
+            mClock.scheduleAtFixedRate(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    advance(tickMillis); //Simulated time moves by whole ticks whatever the scheduling jitter
+                }
+            }, tickMillis, tickMillis, TimeUnit.MILLISECONDS);
+        }
+
+        mStartupReport = report.build();
+        if (mOnEngineStartedListener != null)
+            mOnEngineStartedListener.run();
+        if (mEngineListener != null)
+            mEngineListener.onEngineStarted();
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * The simulation starts synchronously, so this is only null before {@link #startEngine()} returns.
+     */
+    @Override
+    public StartupReport getStartupReport()
+    {
+        return mStartupReport;
+    }
+
+    @Override
+    public void stopEngine()
+    {
+        mStartupReport = null;
+        if (mClock != null)
+        {
+            mClock.shutdownNow();
+            mClock = null;
+        }
+        mCommandQueue.stop();
+        mEventBus.unsubscribe(mListenerSubscription);
+        mEventBus.stop();
+
+        for (TorrentObject pending : mImports.keySet())
+        {
+            onAddExecuted(pending, BulkImport.Status.FAILED, "Engine stopped");
+        }
+        for (String id : mTorrents.snapshot())
+        {
+            mStatusTable.releaseSlot(id);
+        }
+        mTorrents.clear();
+    }
+
+    /**
+     * Moves simulated time forward: every running torrent progresses, the status table is refreshed and, while anyone listens, the progress is posted to the bus.
+     */
+    public void advance(long millis)
+    {
+        final long start = System.nanoTime();
+        mLastAdvanceStartNanos = start;
+        final boolean publish = mEventBus.hasSubscribers();
+        final boolean noMoreRunning;
+
+        synchronized (mModelLock)
+        {
+            mSimulatedMillis += millis;
+            mTickCount++;
+
+            boolean downloading = false;
+            final TorrentRegistry.Snapshot<SimulatedTorrent> torrents = mTorrents.snapshot();
+            for (int i = 0; i < torrents.size(); i++)
+            {
+                final SimulatedTorrent torrent = torrents.getHandle(i);
+                torrent.step(millis);
+
+                final TorrentObject.Status status = torrent.getStatus();
+                downloading |= status == TorrentObject.Status.DOWNLOADING;
+                mStatusTable.update(torrent.mSlot, torrent.mDownloaded, torrent.mUploaded, torrent.mCompleted, torrent.mSize, torrent.mPeers, torrent.mSeeds, status);
+                if (torrent.mDetails != null)
+                {
+                    torrent.mDetails.markDirty(TorrentDetails.Section.RATES);
+                    torrent.mDetails.markDirty(TorrentDetails.Section.PIECES);
+                }
+                if (publish)
+                    mEventBus.post(torrent.mId, torrent.mDownloaded, torrent.mUploaded, torrent.mCompleted, torrent.mSize, torrent.mPeers, torrent.mSeeds);
+            }
+            noMoreRunning = mWasDownloading && !downloading;
+            mWasDownloading = downloading;
+        }
+
+        if (noMoreRunning)
+        {
+            if (mOnNoMoreRunningTaskListener != null)
+                mOnNoMoreRunningTaskListener.run();
+            if (mEngineListener != null)
+                mEngineListener.onNoMoreTaskRunning();
+        }
+        mLastAdvanceNanos = System.nanoTime() - start;
+    }
+
+    public long getSimulatedTimeMillis()
+    {
+        synchronized (mModelLock)
+        {
+            return mSimulatedMillis;
+        }
+    }
+
+    public long getTickCount()
+    {
+        synchronized (mModelLock)
+        {
+            return mTickCount;
+        }
+    }
+
+    /**
+     * @return When the latest {@link #advance} started, in {@link System#nanoTime()}. Lets a harness measure how long progress takes to reach listeners.
+     */
+    public long getLastAdvanceStartNanos()
+    {
+        return mLastAdvanceStartNanos;
+    }
+
+    /**
+     * @return How long the latest {@link #advance} took, model and publishing included.
+     */
+    public long getLastAdvanceNanos()
+    {
+        return mLastAdvanceNanos;
+    }
+
+    /**
+     * @return Updates the bus dropped before they reached the per-torrent listeners, see {@link EngineEventBus.Subscription#getDroppedCount()}.
+     */
+    public long getDroppedUpdateCount()
+    {
+        final EngineEventBus.Subscription subscription = mListenerSubscription;
+        return subscription != null ? subscription.getDroppedCount() : 0;
+    }
+
+    public TorrentStatusTable getStatusTable()
+    {
+        return mStatusTable;
+    }
+
+    @Override
+    public TorrentSnapshot takeSnapshot()
+    {
+        return new TorrentSnapshot.Builder(mSnapshotVersion.incrementAndGet()).addAll(mTorrents.snapshot(), mStatusTable).build();
+    }
+
+    public int getCommandQueueDepth()
+    {
+        return mCommandQueue.getDepth();
+    }
+
+    @Override
+    public void addTorrent(TorrentObject... torrentObjects)
+    {
+        mCommandQueue.offerAdd(torrentObjects);
+    }
+
+    @Override
+    public void importTorrents(final List<File> metafiles, final BulkImport.Listener listener)
+    {
+        final ImportJob job = new ImportJob(metafiles.size(), listener);
+        if (metafiles.isEmpty())
+        {
+            job.complete();
+            return;
+        }
+
+        //Blocking on the queue is the back-pressure, so feed it from a thread of its own
+        final Thread feeder = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                for (File metafile : metafiles)
+                {
+                    final TorrentObject torrentObject = new TorrentObject().setMetafilePath(metafile.getAbsolutePath());
+                    mImports.put(torrentObject, job);
+                    try
+                    {
+                        mCommandQueue.putAdd(torrentObject);
+                    }
+                    catch (InterruptedException e)
+                    {
+                        onAddExecuted(torrentObject, BulkImport.Status.FAILED, "Import interrupted");
+                    }
+                }
+            }
+        }, "SimulatedTorrentEngine-import");
+        feeder.start();
+    }
+
+    @Override
+    public void resumeTorrent(String... ids)
+    {
+        mCommandQueue.offer(EngineCommandQueue.Type.RESUME, ids);
+    }
+
+    @Override
+    public void pauseTorrent(String... ids)
+    {
+        mCommandQueue.offer(EngineCommandQueue.Type.PAUSE, ids);
+    }
+
+    @Override
+    public void removeTorrent(String... ids)
+    {
+        mCommandQueue.offer(EngineCommandQueue.Type.REMOVE, ids);
+    }
+
+    @Override
+    public List<String> getTorrentIds()
+    {
+        return mTorrents.snapshot();
+    }
+
+    @Override
+    public void moveTorrent(String id, int position)
+    {
+        mTorrents.moveTo(id, position);
+    }
+
+    @Override
+    public boolean isAnyTorrentDownloading()
+    {
+        return mStatusTable.anyInStatus(TorrentObject.Status.DOWNLOADING);
+    }
+
+    @Override
+    public boolean hasPendingWork()
+    {
+        if (mCommandQueue.getDepth() > 0 || !mImports.isEmpty()) return true;
+
+        synchronized (mModelLock)
+        {
+            final TorrentRegistry.Snapshot<SimulatedTorrent> torrents = mTorrents.snapshot();
+            for (int i = 0; i < torrents.size(); i++)
+            {
+                final SimulatedTorrent torrent = torrents.getHandle(i);
+                if (!torrent.mPaused && torrent.mCompleted < torrent.mSize)
+                    return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public String getTorrentName(String id)
+    {
+        final SimulatedTorrent torrent = mTorrents.get(id);
+        return torrent != null ? torrent.mName : null;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * Simulated torrents are a single file without trackers or individual peers; rates and pieces follow the model and go dirty on every advance.
+     */
+    @Override
+    public TorrentDetails getTorrentDetails(String id)
+    {
+        final SimulatedTorrent torrent = mTorrents.get(id);
+        if (torrent == null) return null;
+
+        synchronized (mModelLock)
+        {
+            if (torrent.mDetails == null)
+                torrent.mDetails = new TorrentDetails(id, torrent.mName, mDetailsSource);
+            return torrent.mDetails;
+        }
+    }
+
+    @Override
+    public void setTorrentListener(String id, TorrentObject.TorrentListener listener)
+    {
+        if (id != null && listener != null)
+            mTorrentListeners.put(id, listener);
+    }
+
+    @Override
+    public void removeTorrentListener(String id)
+    {
+        if (id != null)
+            mTorrentListeners.remove(id);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * Simulated torrents have no data to serve, so this always returns null.
+     */
+    @Override
+    public String startStreaming(String id, int fileIndex)
+    {
+        return null;
+    }
+
+    @Override
+    public void stopStreaming(String id)
+    {
+
+    }
+
+    @Override
+    public EngineEventBus getEventBus()
+    {
+        return mEventBus;
+    }
+
+    @Override
+    public void setOnNoMoreRunningTaskListener(Runnable listener)
+    {
+        mOnNoMoreRunningTaskListener = listener;
+    }
+
+    @Override
+    public void setOnEngineStartedListener(Runnable listener)
+    {
+        mOnEngineStartedListener = listener;
+    }
+
+    @Override
+    public void setEngineListener(Listener engineListener)
+    {
+        mEngineListener = engineListener;
+    }
+
+    /**
+     * Runs on the command queue worker, like the session worker of the real engine.
+     */
+    private void executeBatch(EngineCommandQueue.Batch batch)
+    {
+        synchronized (mModelLock)
+        {
+            for (EngineCommandQueue.Command command : batch.getCommands())
+            {
+                if (command.getTask() != null)
+                {
+                    command.getTask().run();
+                    continue;
+                }
+                if (command.isAdd())
+                {
+                    final TorrentObject torrentObject = command.getTorrentObject();
+                    final BulkImport.Status status = executeAdd(torrentObject);
+                    onAddExecuted(torrentObject, status, null);
+                    if (status == BulkImport.Status.IMPORTED && mEngineListener != null)
+                        mEngineListener.onTorrentAdded(torrentObject.getId());
+                    continue;
+                }
+
+                final String id = command.getId();
+                if (command.getType() == EngineCommandQueue.Type.REMOVE)
+                {
+                    if (mTorrents.remove(id) != null)
+                    {
+                        mStatusTable.releaseSlot(id);
+                        mTorrentListeners.remove(id);
+                    }
+                    continue;
+                }
+
+                final SimulatedTorrent torrent = mTorrents.get(id);
+                if (torrent != null)
+                    torrent.mPaused = command.getType() == EngineCommandQueue.Type.PAUSE;
+            }
+        }
+    }
+
+    private BulkImport.Status executeAdd(TorrentObject torrentObject)
+    {
+        final SimulatedTorrent torrent;
+        if (torrentObject.getMetafilePath() == null)
+        {
+            torrent = createSyntheticTorrent();
+        }
+        else
+        {
+            final File metafile = torrentObject.getMetafile();
+            if (metafile.isFile())
+            {
+                try
+                {
+                    final MetafileInfo metafileInfo = MetafileInfo.read(metafile);
+                    torrent = createTorrent(metafileInfo.getInfoHash(), metafileInfo.getName(), metafileInfo.getTotalSize(), false, false);
+                }
+                catch (IOException e)
+                {
+                    return BulkImport.Status.INVALID;
+                }
+            }
+            else
+            {
+                //Stands in for a metafile we don't have, e.g. one generated by a load test
+                final String id = InfoHash.toHex(sha1(torrentObject.getMetafilePath()));
+                torrent = createTorrent(id, metafile.getName(), randomSize(new Random64(mix(mSimulationConfig.getSeed() ^ id.hashCode()))), false, false);
+            }
+        }
+
+        torrentObject.setId(torrent.mId);
+        if (mTorrents.contains(torrent.mId)) return BulkImport.Status.DUPLICATE;
+        register(torrent);
+        return BulkImport.Status.IMPORTED;
+    }
+
+    private void onAddExecuted(TorrentObject torrentObject, BulkImport.Status status, String message)
+    {
+        final ImportJob job = mImports.remove(torrentObject);
+        if (job != null)
+            job.report(torrentObject.getMetafile(), torrentObject.getId(), status, message);
+    }
+
+    private void register(SimulatedTorrent torrent)
+    {
+        torrent.mSlot = mStatusTable.acquireSlot(torrent.mId);
+        mTorrents.put(torrent.mId, torrent);
+    }
+
+    /**
+     * The n-th synthetic torrent of a seed is always the same torrent.
+     */
+    private SimulatedTorrent createSyntheticTorrent()
+    {
+        final int index = mSyntheticCount++;
+        final String id = InfoHash.toHex(sha1("simulated:" + mSimulationConfig.getSeed() + ":" + index));
+        final Random64 random = new Random64(mix(mSimulationConfig.getSeed() + index));
+        final long size = randomSize(random);
+        final boolean completed = random.nextDouble() < mSimulationConfig.getCompletedRatio();
+        final boolean paused = random.nextDouble() < mSimulationConfig.getPausedRatio();
+        return createTorrent(id, "Simulated torrent " + index, size, completed, paused);
+    }
+
+    private SimulatedTorrent createTorrent(String id, String name, long size, boolean completed, boolean paused)
+    {
+        final Random64 random = new Random64(mix(mSimulationConfig.getSeed() ^ ((long) id.hashCode() << 32)));
+        final double spread = mSimulationConfig.getRateSpread();
+        final long downloadRate = (long) (mSimulationConfig.getMeanDownloadRate() * Math.exp(spread * random.nextGaussian()));
+        final long uploadRate = (long) (mSimulationConfig.getMeanUploadRate() * Math.exp(spread * random.nextGaussian()));
+        return new SimulatedTorrent(id, name, size, completed ? size : 0, downloadRate, uploadRate, paused, random);
+    }
+
+    /**
+     * Log-uniform between the configured bounds, so small and huge torrents are equally likely per order of magnitude.
+     */
+    private long randomSize(Random64 random)
+    {
+        final double min = Math.log(Math.max(1, mSimulationConfig.getMinSize()));
+        final double max = Math.log(Math.max(mSimulationConfig.getMinSize(), mSimulationConfig.getMaxSize()));
+        return (long) Math.exp(min + (max - min) * random.nextDouble());
+    }
+
+    private static byte[] sha1(String value)
+    {
+        try
+        {
+            return MessageDigest.getInstance("SHA-1").digest(value.getBytes("UTF-8"));
+        }
+        catch (NoSuchAlgorithmException | IOException e)
+        {
+            throw new IllegalStateException(e); //SHA-1 and UTF-8 are always there
+        }
+    }
+
+    /**
+     * SplitMix64 finalizer, spreads close seeds (0, 1, 2...) over the whole state space.
+     */
+    private static long mix(long z)
+    {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * A small xorshift64* generator. One per torrent keeps every torrent's randomness independent of the others and of the command order.
+     */
+    private static final class Random64
+    {
+        private long mState;
+
+        Random64(long seed)
+        {
+            mState = seed == 0 ? 0x9e3779b97f4a7c15L : seed;
+        }
+
+        long nextLong()
+        {
+            mState ^= mState >>> 12;
+            mState ^= mState << 25;
+            mState ^= mState >>> 27;
+            return mState * 0x2545f4914f6cdd1dL;
+        }
+
+        double nextDouble()
+        {
+            return (nextLong() >>> 11) * 0x1.0p-53;
+        }
+
+        double nextGaussian()
+        {
+            //Box-Muller, one value is enough here
+            return Math.sqrt(-2 * Math.log(1 - nextDouble())) * Math.cos(2 * Math.PI * nextDouble());
+        }
+    }
+
+    /**
+     * The model of one torrent. Guarded by the model lock.
+     */
+    private static final class SimulatedTorrent
+    {
+        final String mId;
+        final String mName;
+        final long mSize;
+        final long mDownloadRate;
+        final long mUploadRate;
+        final Random64 mRandom;
+        int mSlot;
+        long mCompleted;
+        long mDownloaded;
+        long mUploaded;
+        int mPeers;
+        int mSeeds;
+        boolean mPaused;
+        long mDownloadRateNow;
+        long mUploadRateNow;
+        TorrentDetails mDetails; //Created on first request
+
+        SimulatedTorrent(String id, String name, long size, long completed, long downloadRate, long uploadRate, boolean paused, Random64 random)
+        {
+            mId = id;
+            mName = name;
+            mSize = size;
+            mCompleted = completed;
+            mDownloaded = completed;
+            mDownloadRate = downloadRate;
+            mUploadRate = uploadRate;
+            mPaused = paused;
+            mRandom = random;
+            mPeers = (int) (random.nextDouble() * MAX_PEERS);
+        }
+
+        void step(long millis)
+        {
+            if (mPaused)
+            {
+                mPeers = 0;
+                mSeeds = 0;
+                mDownloadRateNow = 0;
+                mUploadRateNow = 0;
+                return;
+            }
+
+            //Peers drift by a few per tick, rates follow the swarm size around the torrent's own base rate
+            mPeers = Math.max(0, Math.min(MAX_PEERS, mPeers + (int) (mRandom.nextDouble() * 5) - 2));
+            final double swarm = 0.5 + (double) mPeers / MAX_PEERS;
+            final double jitter = 0.5 + mRandom.nextDouble();
+
+            if (mCompleted < mSize)
+            {
+                mSeeds = mPeers / 3;
+                final long received = Math.min(mSize - mCompleted, (long) (mDownloadRate * swarm * jitter * millis / 1000));
+                mCompleted += received;
+                mDownloaded += received;
+                mDownloadRateNow = millis > 0 ? received * 1000 / millis : 0;
+            }
+            else
+            {
+                mSeeds = 0;
+                mDownloadRateNow = 0;
+            }
+            final long sent = (long) (mUploadRate * swarm * jitter * millis / 1000);
+            mUploaded += sent;
+            mUploadRateNow = millis > 0 ? sent * 1000 / millis : 0;
+        }
+
+        TorrentObject.Status getStatus()
+        {
+            if (mPaused)
+                return TorrentObject.Status.PAUSED;
+            if (mCompleted >= mSize)
+                return TorrentObject.Status.COMPLETED;
+            return TorrentObject.Status.DOWNLOADING;
+        }
+    }
+
+    /**
+     * Reads the model under its lock. Pieces are assumed to complete in order.
+     */
+    private class SimulatedDetailsSource implements TorrentDetails.Source
+    {
+        @Override
+        public List<TorrentDetails.FileEntry> loadFiles(String id)
+        {
+            final SimulatedTorrent torrent = mTorrents.get(id);
+            if (torrent == null) return null;
+            return Collections.singletonList(new TorrentDetails.FileEntry(torrent.mName, torrent.mSize, 0));
+        }
+
+        @Override
+        public List<TorrentDetails.Tracker> loadTrackers(String id)
+        {
+            return null;
+        }
+
+        @Override
+        public List<TorrentDetails.Peer> loadPeers(String id)
+        {
+            return null;
+        }
+
+        @Override
+        public TorrentDetails.Pieces loadPieces(String id)
+        {
+            final SimulatedTorrent torrent = mTorrents.get(id);
+            if (torrent == null) return null;
+
+            final long completed;
+            synchronized (mModelLock)
+            {
+                completed = torrent.mCompleted;
+            }
+            final int count = (int) ((torrent.mSize + PIECE_LENGTH - 1) / PIECE_LENGTH);
+            final int have = completed >= torrent.mSize ? count : (int) (completed / PIECE_LENGTH);
+            final byte[] bitfield = new byte[(count + 7) >>> 3];
+            for (int piece = 0; piece < have; piece++)
+            {
+                bitfield[piece >>> 3] |= 0x80 >>> (piece & 7);
+            }
+            return new TorrentDetails.Pieces(PIECE_LENGTH, count, bitfield);
+        }
+
+        @Override
+        public TorrentDetails.Rates loadRates(String id)
+        {
+            final SimulatedTorrent torrent = mTorrents.get(id);
+            if (torrent == null) return null;
+
+            synchronized (mModelLock)
+            {
+                return new TorrentDetails.Rates((int) torrent.mDownloadRateNow, (int) torrent.mUploadRateNow, torrent.mDownloaded, torrent.mUploaded,
+                        torrent.mCompleted, torrent.mSize, torrent.mPeers, torrent.mSeeds);
+            }
+        }
+    }
+
+    /**
+     * Same fan out as the real engine: one map lookup per torrent per batch.
+     */
+    private class ListenerDispatcher implements EngineEventBus.Subscriber
+    {
+        @Override
+        public void onUpdates(List<TorrentUpdate> updates)
+        {
+            for (int i = 0; i < updates.size(); i++)
+            {
+                final TorrentUpdate update = updates.get(i);
+                final TorrentObject.TorrentListener listener = mTorrentListeners.get(update.getId());
+                if (listener != null)
+                    update.dispatchTo(listener);
+            }
+        }
+    }
+
+    private static final class ImportJob
+    {
+        private final int mTotal;
+        private final BulkImport.Listener mListener;
+        private final long mStartMillis = System.currentTimeMillis();
+        private final AtomicInteger mRemaining;
+        private final AtomicInteger mImported = new AtomicInteger();
+        private final AtomicInteger mDuplicates = new AtomicInteger();
+        private final AtomicInteger mInvalid = new AtomicInteger();
+        private final AtomicInteger mFailed = new AtomicInteger();
+        private final AtomicLong mBytesRead = new AtomicLong();
+
+        ImportJob(int total, BulkImport.Listener listener)
+        {
+            mTotal = total;
+            mListener = listener;
+            mRemaining = new AtomicInteger(total);
+        }
+
+        void report(File metafile, String id, BulkImport.Status status, String message)
+        {
+            switch (status)
+            {
+                case IMPORTED:
+                    mImported.incrementAndGet();
+                    break;
+                case DUPLICATE:
+                    mDuplicates.incrementAndGet();
+                    break;
+                case INVALID:
+                    mInvalid.incrementAndGet();
+                    break;
+                case FAILED:
+                    mFailed.incrementAndGet();
+                    break;
+            }
+            if (metafile.isFile())
+                mBytesRead.addAndGet(metafile.length());
+
+            if (mListener != null)
+                mListener.onResult(new BulkImport.Result(metafile, id, status, message));
+            if (mRemaining.decrementAndGet() == 0)
+                complete();
+        }
+
+        void complete()
+        {
+            if (mListener != null)
+                mListener.onComplete(new BulkImport.Summary(mTotal, mImported.get(), mDuplicates.get(), mInvalid.get(), mFailed.get(), mBytesRead.get(),
+                        System.currentTimeMillis() - mStartMillis));
+        }
+    }
+}
@@ -0,0 +1,203 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Nizlumina Studio (Malaysia)
+ *
+ * Unless specified, permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package com.nizlumina.frostmodule.simulation;
+
+import java.util.concurrent.Executor;
+
+/**
+ * How a {@link SimulatedTorrentEngine} behaves. Everything random is derived from {@link #getSeed()}, so the same config gives the same run.
+ */
+public final class SimulationConfig
+{
+    private int torrentCount;
+    private long seed;
+    private long meanDownloadRate;
+    private long meanUploadRate;
+    private double rateSpread;
+    private long minSize;
+    private long maxSize;
+    private double completedRatio;
+    private double pausedRatio;
+    private boolean autoAdvance;
+    private Executor listenerExecutor;
+
+    public SimulationConfig(int torrentCount, long seed, long meanDownloadRate, long meanUploadRate, double rateSpread, long minSize, long maxSize, double completedRatio, double pausedRatio, boolean autoAdvance, Executor listenerExecutor)
+    {
+        this.torrentCount = torrentCount;
+        this.seed = seed;
+        this.meanDownloadRate = meanDownloadRate;
+        this.meanUploadRate = meanUploadRate;
+        this.rateSpread = rateSpread;
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+        this.completedRatio = completedRatio;
+        this.pausedRatio = pausedRatio;
+        this.autoAdvance = autoAdvance;
+        this.listenerExecutor = listenerExecutor;
+    }
+
+    /**
+     * @return How many synthetic torrents the engine starts with.
+     */
+    public int getTorrentCount()
+    {
+        return torrentCount;
+    }
+
+    public long getSeed()
+    {
+        return seed;
+    }
+
+    /**
+     * @return The median download rate of a torrent in bytes per second. Actual rates are log-normally spread around it.
+     */
+    public long getMeanDownloadRate()
+    {
+        return meanDownloadRate;
+    }
+
+    public long getMeanUploadRate()
+    {
+        return meanUploadRate;
+    }
+
+    /**
+     * @return The sigma of the log-normal rate distribution. 0 gives every torrent the same rate, 1 already spans two orders of magnitude.
+     */
+    public double getRateSpread()
+    {
+        return rateSpread;
+    }
+
+    public long getMinSize()
+    {
+        return minSize;
+    }
+
+    public long getMaxSize()
+    {
+        return maxSize;
+    }
+
+    /**
+     * @return The share of synthetic torrents that start out completed (seeding).
+     */
+    public double getCompletedRatio()
+    {
+        return completedRatio;
+    }
+
+    public double getPausedRatio()
+    {
+        return pausedRatio;
+    }
+
+    /**
+     * @return Whether simulated time advances by itself once per progress tick. If not, the caller drives it with {@link SimulatedTorrentEngine#advance}.
+     */
+    public boolean isAutoAdvance()
+    {
+        return autoAdvance;
+    }
+
+    /**
+     * @return Where per-torrent listeners are called. Null calls them on the bus thread.
+     */
+    public Executor getListenerExecutor()
+    {
+        return listenerExecutor;
+    }
+
+    public static class Builder
+    {
+        private int torrentCount;
+        private long seed = 42;
+        private long meanDownloadRate = 512 * 1024;
+        private long meanUploadRate = 64 * 1024;
+        private double rateSpread = 1.0;
+        private long minSize = 1024 * 1024;
+        private long maxSize = 4L * 1024 * 1024 * 1024;
+        private double completedRatio = 0.2;
+        private double pausedRatio = 0.1;
+        private boolean autoAdvance = true;
+        private Executor listenerExecutor;
+
+        public Builder setTorrentCount(int torrentCount)
+        {
+            this.torrentCount = torrentCount;
+            return this;
+        }
+
+        public Builder setSeed(long seed)
+        {
+            this.seed = seed;
+            return this;
+        }
+
+        public Builder setMeanDownloadRate(long meanDownloadRate)
+        {
+            this.meanDownloadRate = meanDownloadRate;
+            return this;
+        }
+
+        public Builder setMeanUploadRate(long meanUploadRate)
+        {
+            this.meanUploadRate = meanUploadRate;
+            return this;
+        }
+
+        public Builder setRateSpread(double rateSpread)
+        {
+            this.rateSpread = rateSpread;
+            return this;
+        }
+
+        public Builder setSizeRange(long minSize, long maxSize)
+        {
+            this.minSize = minSize;
+            this.maxSize = maxSize;
+            return this;
+        }
+
+        public Builder setCompletedRatio(double completedRatio)
+        {
+            this.completedRatio = completedRatio;
+            return this;
+        }
+
+        public Builder setPausedRatio(double pausedRatio)
+        {
+            this.pausedRatio = pausedRatio;
+            return this;
+        }
+
+        public Builder setAutoAdvance(boolean autoAdvance)
+        {
+            this.autoAdvance = autoAdvance;
+            return this;
+        }
+
+        public Builder setListenerExecutor(Executor listenerExecutor)
+        {
+            this.listenerExecutor = listenerExecutor;
+            return this;
+        }
+
+        public SimulationConfig build()
+        {
+            return new SimulationConfig(torrentCount, seed, meanDownloadRate, meanUploadRate, rateSpread, minSize, maxSize, completedRatio, pausedRatio, autoAdvance, listenerExecutor);
+        }
+    }
+}
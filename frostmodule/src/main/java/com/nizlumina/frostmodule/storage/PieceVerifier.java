@@ -0,0 +1,534 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Nizlumina Studio (Malaysia)
+ *
+ * Unless specified, permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package com.nizlumina.frostmodule.storage;
+
+import com.nizlumina.frostmodule.bencode.MetafileLayout;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Checks the data on disk against the piece hashes of a metafile, the equivalent of a libtorrent force recheck but without going through the session.
+ * <p/>
+ * The pieces are split in contiguous ranges which are hashed in parallel, each worker reading its files through memory mapped windows so the data is hashed
+ * straight out of the page cache without being copied to the heap first. Pieces spanning several files are hashed across the file boundaries.
+ * <p/>
+ * Every range starts on a multiple of 8 pieces, so each worker owns whole bytes of the resulting bitfield and no locking is needed to fill it.
+ * <p/>
+ * Missing or short files mean missing pieces. A read that fails for any other reason says nothing about the data, so it stops the verification
+ * and is reported as {@link Result#getError()} instead of marking pieces bad.
+ */
+public final class PieceVerifier
+{
+    public interface Listener
+    {
+        /**
+         * Called once per verification, on the worker that finished last. Also called for cancelled or failed verifications, with what was checked until then.
+         */
+        void onComplete(Result result);
+    }
+
+    //Large enough to cover many pieces per mapping, small enough for several workers to fit a 32-bit address space
+    private static final long WINDOW_SIZE = 32 * 1024 * 1024;
+    private static final int RANGES_PER_WORKER = 4;
+    private static final long THROTTLE_SLICE_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final ExecutorService mWorkers;
+    private final int mParallelism;
+    private final Throttle mThrottle;
+    private final Set<Task> mRunning = new HashSet<>(); //guarded by itself
+
+    /**
+     * @param parallelism       How many pieces get hashed at once, usually the number of cores.
+     * @param maxBytesPerSecond Shared hashing budget of all verifications, to keep rechecks from starving the rest of the device of IO. 0 for unlimited.
+     */
+    public PieceVerifier(int parallelism, long maxBytesPerSecond)
+    {
+        mParallelism = Math.max(1, parallelism);
+        mThrottle = maxBytesPerSecond > 0 ? new Throttle(maxBytesPerSecond) : null;
+        mWorkers = Executors.newFixedThreadPool(mParallelism, new ThreadFactory()
+        {
+            private final AtomicInteger mCount = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable)
+            {
+                final Thread thread = new Thread(runnable, "PieceVerifier-" + mCount.incrementAndGet());
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Starts verifying the torrent saved in the given directory. Missing or short files simply leave their pieces unset in the bitfield.
+     *
+     * @param listener Optional, see {@link Task#await} for waiting instead.
+     */
+    public Task verify(MetafileLayout layout, File saveDirectory, Listener listener)
+    {
+        final Task task = prepare(listener);
+        start(task, layout, saveDirectory);
+        return task;
+    }
+
+    /**
+     * A verification that doesn't know what to check yet, so the caller can hand it out right away and read the metafile on another thread.
+     * Follow up with either {@link #start} or {@link #fail}. Cancelling it meanwhile is fine, it then completes as soon as it is started.
+     */
+    public Task prepare(Listener listener)
+    {
+        return new Task(listener);
+    }
+
+    public void start(Task task, MetafileLayout layout, File saveDirectory)
+    {
+        final int pieceCount = layout.getPieceCount();
+        //Round to whole bitfield bytes so ranges never share one
+        final int perRange = Math.max(8, ((pieceCount / (mParallelism * RANGES_PER_WORKER)) + 7) & ~7);
+        final int rangeCount = Math.max(1, (pieceCount + perRange - 1) / perRange);
+        task.begin(layout, saveDirectory, rangeCount);
+
+        for (int start = 0; start < pieceCount || start == 0; start += perRange)
+        {
+            final RangeWorker worker = new RangeWorker(task, start, Math.min(pieceCount, start + perRange));
+            try
+            {
+                mWorkers.execute(worker);
+            }
+            catch (RejectedExecutionException e)
+            {
+                task.cancel();
+                worker.run(); //Nothing gets hashed, but the task still completes
+            }
+        }
+    }
+
+    /**
+     * Completes a {@link #prepare prepared} verification that couldn't be started, with nothing checked.
+     */
+    public void fail(Task task, IOException error)
+    {
+        task.fail(error);
+        task.onRangeDone();
+    }
+
+    /**
+     * Cancels whatever is running. Their listeners still get called once the workers notice.
+     */
+    public void shutdown()
+    {
+        mWorkers.shutdown();
+        synchronized (mRunning)
+        {
+            for (Task task : mRunning)
+            {
+                task.cancel();
+            }
+        }
+    }
+
+    public final class Task
+    {
+        private final Listener mListener;
+        //Set once by begin(), before any worker runs
+        private volatile MetafileLayout mLayout;
+        private File mSaveDirectory;
+        private byte[] mBitfield = new byte[0];
+        private final AtomicInteger mRemainingRanges = new AtomicInteger(1); //Until it begins, only a failure completes it
+        private final AtomicInteger mPiecesChecked = new AtomicInteger();
+        private final AtomicInteger mValidPieces = new AtomicInteger();
+        private final AtomicLong mBytesHashed = new AtomicLong();
+        private final CountDownLatch mDone = new CountDownLatch(1);
+        private final long mStartNanos = System.nanoTime();
+        private volatile boolean mCancelled;
+        private volatile IOException mError; //The first one, stops every range
+        private volatile Result mResult;
+
+        private Task(Listener listener)
+        {
+            mListener = listener;
+            synchronized (mRunning)
+            {
+                mRunning.add(this);
+            }
+        }
+
+        private void begin(MetafileLayout layout, File saveDirectory, int rangeCount)
+        {
+            mSaveDirectory = saveDirectory;
+            mBitfield = new byte[(layout.getPieceCount() + 7) / 8];
+            mRemainingRanges.set(rangeCount);
+            mLayout = layout;
+        }
+
+        public void cancel()
+        {
+            mCancelled = true;
+        }
+
+        public boolean isCancelled()
+        {
+            return mCancelled;
+        }
+
+        private boolean isStopped()
+        {
+            return mCancelled || mError != null;
+        }
+
+        private synchronized void fail(IOException error)
+        {
+            if (mError == null)
+                mError = error;
+        }
+
+        public boolean isDone()
+        {
+            return mResult != null;
+        }
+
+        /**
+         * @return 0 until the verification started.
+         */
+        public int getPieceCount()
+        {
+            final MetafileLayout layout = mLayout;
+            return layout != null ? layout.getPieceCount() : 0;
+        }
+
+        public int getPiecesChecked()
+        {
+            return mPiecesChecked.get();
+        }
+
+        public long getBytesHashed()
+        {
+            return mBytesHashed.get();
+        }
+
+        /**
+         * @return The result, or null if the verification didn't finish in time.
+         */
+        public Result await(long timeout, TimeUnit unit) throws InterruptedException
+        {
+            mDone.await(timeout, unit);
+            return mResult;
+        }
+
+        private void onRangeDone()
+        {
+            if (mRemainingRanges.decrementAndGet() != 0) return;
+
+            //Every worker's bitfield writes happen before its decrement, so the last one sees them all
+            synchronized (mRunning)
+            {
+                mRunning.remove(this);
+            }
+            mResult = new Result(mBitfield, getPieceCount(), mPiecesChecked.get(), mValidPieces.get(), mBytesHashed.get(),
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - mStartNanos), mCancelled, mError);
+            mDone.countDown();
+            if (mListener != null)
+                mListener.onComplete(mResult);
+        }
+    }
+
+    public static final class Result
+    {
+        private final byte[] mBitfield;
+        private final int mPieceCount;
+        private final int mPiecesChecked;
+        private final int mValidPieces;
+        private final long mBytesHashed;
+        private final long mElapsedMillis;
+        private final boolean mCancelled;
+        private final IOException mError;
+
+        private Result(byte[] bitfield, int pieceCount, int piecesChecked, int validPieces, long bytesHashed, long elapsedMillis, boolean cancelled,
+                       IOException error)
+        {
+            mBitfield = bitfield;
+            mPieceCount = pieceCount;
+            mPiecesChecked = piecesChecked;
+            mValidPieces = validPieces;
+            mBytesHashed = bytesHashed;
+            mElapsedMillis = elapsedMillis;
+            mCancelled = cancelled;
+            mError = error;
+        }
+
+        public boolean hasPiece(int piece)
+        {
+            return (mBitfield[piece >> 3] & (0x80 >>> (piece & 7))) != 0;
+        }
+
+        /**
+         * @return The pieces that matched, highest bit first like the BitTorrent bitfield message. Shared, don't modify.
+         */
+        public byte[] getBitfield()
+        {
+            return mBitfield;
+        }
+
+        public int getPieceCount()
+        {
+            return mPieceCount;
+        }
+
+        public int getPiecesChecked()
+        {
+            return mPiecesChecked;
+        }
+
+        public int getValidPieces()
+        {
+            return mValidPieces;
+        }
+
+        public boolean isComplete()
+        {
+            return mPieceCount > 0 && mValidPieces == mPieceCount; //One that failed before starting knows no pieces
+        }
+
+        public boolean isCancelled()
+        {
+            return mCancelled;
+        }
+
+        /**
+         * @return What stopped the verification early, or null. Pieces not {@link #getPiecesChecked() checked} by then are unset in the bitfield
+         * without being known bad, so the bitfield of a failed verification must not decide what gets downloaded again.
+         */
+        public IOException getError()
+        {
+            return mError;
+        }
+
+        public long getBytesHashed()
+        {
+            return mBytesHashed;
+        }
+
+        public long getElapsedMillis()
+        {
+            return mElapsedMillis;
+        }
+
+        public long getBytesPerSecond()
+        {
+            return mElapsedMillis == 0 ? mBytesHashed * 1000 : mBytesHashed * 1000 / mElapsedMillis;
+        }
+    }
+
+    private final class RangeWorker implements Runnable
+    {
+        private final Task mTask;
+        private final int mStart;
+        private final int mEnd;
+
+        private RangeWorker(Task task, int start, int end)
+        {
+            mTask = task;
+            mStart = start;
+            mEnd = end;
+        }
+
+        @Override
+        public void run()
+        {
+            final FileWindow window = new FileWindow();
+            try
+            {
+                final MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+                for (int piece = mStart; piece < mEnd && !mTask.isStopped(); piece++)
+                {
+                    if (verifyPiece(piece, sha1, window))
+                    {
+                        mTask.mBitfield[piece >> 3] |= (byte) (0x80 >>> (piece & 7));
+                        mTask.mValidPieces.incrementAndGet();
+                    }
+                    mTask.mPiecesChecked.incrementAndGet();
+                }
+            }
+            catch (NoSuchAlgorithmException e)
+            {
+                throw new IllegalStateException(e); //Every Java platform has SHA-1
+            }
+            catch (IOException e)
+            {
+                mTask.fail(e);
+            }
+            catch (InterruptedException e)
+            {
+                mTask.cancel();
+            }
+            finally
+            {
+                window.close();
+                mTask.onRangeDone();
+            }
+        }
+
+        private boolean verifyPiece(int piece, MessageDigest sha1, FileWindow window) throws IOException, InterruptedException
+        {
+            final MetafileLayout layout = mTask.mLayout;
+            long offset = (long) piece * layout.getPieceLength();
+            long remaining = layout.getPieceSize(piece);
+            int file = layout.fileAt(offset);
+
+            sha1.reset();
+            if (mThrottle != null)
+                mThrottle.acquire(remaining, mTask);
+
+            while (remaining > 0)
+            {
+                if (file >= layout.getFileCount()) return false;
+
+                final long inFile = offset - layout.getFileOffset(file);
+                final long available = layout.getFileLength(file) - inFile;
+                if (available <= 0) //Empty files
+                {
+                    file++;
+                    continue;
+                }
+
+                final long length = Math.min(remaining, available);
+                final ByteBuffer data = window.map(layout.getFile(mTask.mSaveDirectory, file), file, inFile, length);
+                if (data == null) return false;
+
+                sha1.update(data);
+                mTask.mBytesHashed.addAndGet(length);
+                offset += length;
+                remaining -= length;
+                file++;
+            }
+            return layout.pieceHashEquals(piece, sha1.digest());
+        }
+    }
+
+    /**
+     * The mapped region of the file a worker is currently reading. Consecutive pieces of the same file are served from one mapping.
+     * <p/>
+     * Mappings can't be released explicitly before Java 9, they are unmapped once collected; the window size bounds what's mapped per worker meanwhile.
+     */
+    private static final class FileWindow
+    {
+        private int mFile = -1;
+        private RandomAccessFile mRandomAccessFile;
+        private FileChannel mChannel;
+        private long mFileSize;
+        private MappedByteBuffer mMapping;
+        private long mMappingStart;
+
+        /**
+         * @return The requested bytes of the file, or null if the file is missing or too short.
+         * @throws IOException If the file is there but couldn't be read, which says nothing about its content.
+         */
+        ByteBuffer map(File path, int file, long position, long length) throws IOException
+        {
+            if (file != mFile)
+            {
+                close();
+                mFile = file;
+                if (!path.isFile())
+                    return null; //Remembered as missing until the worker moves to another file
+
+                mRandomAccessFile = new RandomAccessFile(path, "r");
+                mChannel = mRandomAccessFile.getChannel();
+                mFileSize = mChannel.size();
+            }
+            if (mChannel == null || position + length > mFileSize) return null;
+
+            if (mMapping == null || position < mMappingStart || position + length > mMappingStart + mMapping.capacity())
+            {
+                final long size = Math.max(length, Math.min(WINDOW_SIZE, mFileSize - position));
+                mMapping = mChannel.map(FileChannel.MapMode.READ_ONLY, position, size);
+                mMappingStart = position;
+            }
+
+            final ByteBuffer view = mMapping.duplicate();
+            final int start = (int) (position - mMappingStart);
+            view.limit(start + (int) length);
+            view.position(start);
+            return view;
+        }
+
+        void close()
+        {
+            mMapping = null;
+            mChannel = null;
+            if (mRandomAccessFile != null)
+            {
+                try
+                {
+                    mRandomAccessFile.close();
+                }
+                catch (IOException ignored)
+                {
+                }
+                mRandomAccessFile = null;
+            }
+            mFile = -1;
+        }
+    }
+
+    /**
+     * Hands out hashing budget at a fixed rate. Callers reserve their bytes up front and sleep off the debt, in slices so cancelling stays responsive.
+     */
+    private static final class Throttle
+    {
+        private final long mBytesPerSecond;
+        private long mNextFreeNanos; //guarded by this
+
+        Throttle(long bytesPerSecond)
+        {
+            mBytesPerSecond = bytesPerSecond;
+        }
+
+        void acquire(long bytes, Task task) throws InterruptedException
+        {
+            final long wakeUp;
+            synchronized (this)
+            {
+                final long now = System.nanoTime();
+                if (mNextFreeNanos - now < 0)
+                    mNextFreeNanos = now;
+                wakeUp = mNextFreeNanos;
+                mNextFreeNanos += bytes * TimeUnit.SECONDS.toNanos(1) / mBytesPerSecond;
+            }
+
+            long wait;
+            while ((wait = wakeUp - System.nanoTime()) > 0 && !task.isCancelled())
+            {
+                TimeUnit.NANOSECONDS.sleep(Math.min(wait, THROTTLE_SLICE_NANOS));
+            }
+        }
+    }
+}
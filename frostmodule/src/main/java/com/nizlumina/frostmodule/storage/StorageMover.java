@@ -0,0 +1,534 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Nizlumina Studio (Malaysia)
+ *
+ * Unless specified, permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package com.nizlumina.frostmodule.storage;
+
+import com.nizlumina.frostmodule.bencode.MetafileLayout;
+
+import org.apache.commons.io.IOUtils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Relocates the data of a torrent from one save directory to another.
+ * <p/>
+ * The torrent root (its single file, or the directory named after it) is first renamed in one go, which is atomic and instant when both directories
+ * are on the same filesystem. Otherwise, e.g. from internal storage to an SD card, every file is copied in parallel with {@link FileChannel#transferTo}
+ * so the data goes from page cache to page cache without passing through the heap. Each copy is written next to its target, synced and only then
+ * renamed into place. Once everything is copied the new data is checked against the piece hashes (when a {@link PieceVerifier} is given) and only
+ * then are the originals deleted. A failed or cancelled move removes whatever it copied and leaves the originals alone.
+ * <p/>
+ * At most a fixed number of moves run at once, later ones wait for a slot.
+ */
+public final class StorageMover
+{
+    public interface Listener
+    {
+        /**
+         * Called from the copying threads as data lands, at most once per {@link #CHUNK_SIZE} per file. Not called for renames.
+         */
+        void onProgress(Task task);
+
+        /**
+         * Called once per move, after the originals are gone on success.
+         */
+        void onComplete(Result result);
+    }
+
+    static final long CHUNK_SIZE = 8 * 1024 * 1024;
+    private static final String EXT_PART = ".part";
+
+    private final ExecutorService mMoves;
+    private final ExecutorService mCopiers;
+    private final PieceVerifier mVerifier;
+
+    /**
+     * @param maxConcurrentMoves How many torrents get relocated at once.
+     * @param copyParallelism    How many files get copied at once, shared by all moves.
+     * @param verifier           Checks copied data against the piece hashes. Null to only compare file sizes.
+     */
+    public StorageMover(int maxConcurrentMoves, int copyParallelism, PieceVerifier verifier)
+    {
+        mMoves = Executors.newFixedThreadPool(Math.max(1, maxConcurrentMoves), new NamedThreadFactory("StorageMover-"));
+        mCopiers = Executors.newFixedThreadPool(Math.max(1, copyParallelism), new NamedThreadFactory("StorageMover-copy-"));
+        mVerifier = verifier;
+    }
+
+    /**
+     * Queues the move of the torrent saved in fromDirectory to toDirectory. The target must not already hold the torrent root.
+     *
+     * @param listener Optional, see {@link Task#await} for waiting instead.
+     */
+    public Task move(MetafileLayout layout, File fromDirectory, File toDirectory, Listener listener)
+    {
+        final Task task = prepare(toDirectory, listener);
+        start(task, layout, fromDirectory);
+        return task;
+    }
+
+    /**
+     * A move that doesn't know what to move yet, so the caller can hand it out right away and read the metafile and get the torrent ready on
+     * another thread. Follow up with either {@link #start} or {@link #fail}. A task cancelled before it starts completes without touching anything.
+     */
+    public Task prepare(File toDirectory, Listener listener)
+    {
+        return new Task(toDirectory, listener);
+    }
+
+    public void start(final Task task, MetafileLayout layout, File fromDirectory)
+    {
+        task.mFrom = fromDirectory;
+        task.mLayout = layout;
+        try
+        {
+            mMoves.execute(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    runMove(task);
+                }
+            });
+        }
+        catch (RejectedExecutionException e)
+        {
+            task.complete(false, false, false, "Mover shut down");
+        }
+    }
+
+    /**
+     * Completes a {@link #prepare prepared} move that couldn't be started, with nothing moved.
+     */
+    public void fail(Task task, String error)
+    {
+        task.complete(false, false, false, error);
+    }
+
+    /**
+     * Cancels running moves, which roll back, and refuses new ones. Listeners still get called once the workers notice.
+     */
+    public void shutdown()
+    {
+        mMoves.shutdownNow();
+        mCopiers.shutdown();
+    }
+
+    private void runMove(Task task)
+    {
+        final MetafileLayout layout = task.mLayout;
+        final File sourceRoot = new File(task.mFrom, layout.getName());
+        final File targetRoot = new File(task.mTo, layout.getName());
+        try
+        {
+            if (task.mCancelled)
+                throw new InterruptedIOException("Cancelled");
+            if (sourceRoot.getCanonicalFile().equals(targetRoot.getCanonicalFile()))
+            {
+                task.complete(true, true, false, null);
+                return;
+            }
+            if (targetRoot.exists())
+                throw new IOException("'" + targetRoot + "' already exists");
+            if (!task.mTo.isDirectory() && !task.mTo.mkdirs())
+                throw new IOException("Directory '" + task.mTo + "' could not be created");
+
+            if (sourceRoot.renameTo(targetRoot))
+            {
+                task.mBytesMoved.set(layout.getTotalSize());
+                task.complete(true, true, false, null);
+                return;
+            }
+
+            task.mCopying = true;
+            copyAll(task);
+            final boolean verified = verify(task);
+            deleteSources(task);
+            task.complete(true, false, verified, null);
+        }
+        catch (IOException | InterruptedException e)
+        {
+            rollBack(task);
+            task.complete(false, false, false, e.getMessage());
+        }
+    }
+
+    private void copyAll(final Task task) throws IOException, InterruptedException
+    {
+        final MetafileLayout layout = task.mLayout;
+        final int fileCount = layout.getFileCount();
+        final CountDownLatch done = new CountDownLatch(fileCount);
+        final AtomicReference<IOException> failure = new AtomicReference<>();
+        for (int i = 0; i < fileCount; i++)
+        {
+            final int file = i;
+            final Runnable copy = new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        if (failure.get() == null && !task.mCancelled)
+                            copyFile(task, file);
+                    }
+                    catch (IOException e)
+                    {
+                        failure.compareAndSet(null, e);
+                    }
+                    finally
+                    {
+                        done.countDown();
+                    }
+                }
+            };
+            try
+            {
+                mCopiers.execute(copy);
+            }
+            catch (RejectedExecutionException e)
+            {
+                task.cancel();
+                copy.run(); //Copies nothing, but still counts down
+            }
+        }
+
+        try
+        {
+            done.await();
+        }
+        catch (InterruptedException e)
+        {
+            task.cancel();
+            done.await(); //Let the copies in flight stop before rolling them back
+            throw e;
+        }
+        if (failure.get() != null)
+            throw failure.get();
+        if (task.mCancelled)
+            throw new InterruptedIOException("Cancelled");
+    }
+
+    private void copyFile(Task task, int file) throws IOException
+    {
+        final MetafileLayout layout = task.mLayout;
+        final File source = layout.getFile(task.mFrom, file);
+        final File target = layout.getFile(task.mTo, file);
+        final File parent = target.getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs())
+            throw new IOException("Directory '" + parent + "' could not be created");
+
+        final File part = new File(target.getPath() + EXT_PART);
+        FileInputStream in = null;
+        FileOutputStream out = null;
+        boolean copied = false;
+        try
+        {
+            in = new FileInputStream(source);
+            out = new FileOutputStream(part);
+            final FileChannel from = in.getChannel();
+            final FileChannel to = out.getChannel();
+            final long size = from.size();
+            if (size != layout.getFileLength(file))
+                throw new IOException("'" + source + "' is " + size + " bytes, expected " + layout.getFileLength(file));
+
+            long position = 0;
+            while (position < size)
+            {
+                if (task.mCancelled)
+                    throw new InterruptedIOException("Cancelled");
+
+                //transferTo may move less than asked, e.g. when it falls back to a bounded buffer
+                final long transferred = from.transferTo(position, Math.min(CHUNK_SIZE, size - position), to);
+                if (transferred <= 0)
+                    throw new IOException("Copy of '" + source + "' stopped at " + position);
+                position += transferred;
+                task.mBytesMoved.addAndGet(transferred);
+                if (task.mListener != null)
+                    task.mListener.onProgress(task);
+            }
+            to.force(true);
+            out.close();
+            part.setLastModified(source.lastModified()); //Fast resume data remembers timestamps, a copy that looks newer gets rechecked
+            if (part.length() != size)
+                throw new IOException("'" + part + "' ended up " + part.length() + " bytes, expected " + size);
+            if (!part.renameTo(target))
+                throw new IOException("Could not move '" + part + "' to '" + target + "'");
+            copied = true;
+            task.mFilesDone.incrementAndGet();
+        }
+        finally
+        {
+            IOUtils.closeQuietly(out);
+            IOUtils.closeQuietly(in);
+            if (!copied)
+                part.delete();
+        }
+    }
+
+    /**
+     * @return True if the copy was hashed, false if only sizes were compared.
+     */
+    private boolean verify(Task task) throws IOException, InterruptedException
+    {
+        if (mVerifier == null) return false;
+
+        final PieceVerifier.Task verification = mVerifier.verify(task.mLayout, task.mTo, null);
+        final PieceVerifier.Result result;
+        try
+        {
+            result = verification.await(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        }
+        catch (InterruptedException e)
+        {
+            verification.cancel();
+            throw e;
+        }
+        if (result.getError() != null)
+            throw new IOException("Copy could not be verified: " + result.getError().getMessage(), result.getError());
+        if (result.isCancelled())
+            throw new InterruptedIOException("Verification cancelled");
+        if (!result.isComplete())
+            throw new IOException((result.getPieceCount() - result.getValidPieces()) + " piece(s) don't match after copying");
+        return true;
+    }
+
+    private static void deleteSources(Task task)
+    {
+        final MetafileLayout layout = task.mLayout;
+        for (int file = 0; file < layout.getFileCount(); file++)
+        {
+            layout.getFile(task.mFrom, file).delete();
+        }
+        deleteEmptyDirectories(new File(task.mFrom, layout.getName()));
+    }
+
+    /**
+     * Removes the copies made so far. The originals are untouched until a move fully succeeds, so nothing else needs restoring.
+     */
+    private static void rollBack(Task task)
+    {
+        final MetafileLayout layout = task.mLayout;
+        if (!task.mCopying) return; //Failed before copying, the target may not be ours
+
+        final File targetRoot = new File(task.mTo, layout.getName());
+
+        for (int file = 0; file < layout.getFileCount(); file++)
+        {
+            final File target = layout.getFile(task.mTo, file);
+            target.delete();
+            new File(target.getPath() + EXT_PART).delete();
+        }
+        deleteEmptyDirectories(targetRoot);
+    }
+
+    private static void deleteEmptyDirectories(File directory)
+    {
+        final File[] children = directory.listFiles();
+        if (children == null) return; //Not a directory
+
+        for (File child : children)
+        {
+            if (child.isDirectory())
+                deleteEmptyDirectories(child);
+        }
+        directory.delete(); //Fails on its own if something is left
+    }
+
+    public static final class Task
+    {
+        private final File mTo;
+        //Set once when it starts, before the move runs
+        private volatile MetafileLayout mLayout;
+        private File mFrom;
+        private final Listener mListener;
+        private final AtomicLong mBytesMoved = new AtomicLong();
+        private final AtomicInteger mFilesDone = new AtomicInteger();
+        private final CountDownLatch mDone = new CountDownLatch(1);
+        private final long mStartNanos = System.nanoTime();
+        private volatile boolean mCancelled;
+        private volatile boolean mCopying; //Set once the target root is known to be ours
+        private volatile Result mResult;
+
+        private Task(File to, Listener listener)
+        {
+            mTo = to;
+            mListener = listener;
+        }
+
+        /**
+         * Stops copying and rolls back. Does nothing once the data is in place.
+         */
+        public void cancel()
+        {
+            mCancelled = true;
+        }
+
+        public boolean isDone()
+        {
+            return mResult != null;
+        }
+
+        public File getTargetDirectory()
+        {
+            return mTo;
+        }
+
+        /**
+         * @return 0 until the move started, like {@link #getFileCount()}.
+         */
+        public long getTotalBytes()
+        {
+            final MetafileLayout layout = mLayout;
+            return layout != null ? layout.getTotalSize() : 0;
+        }
+
+        public long getBytesMoved()
+        {
+            return mBytesMoved.get();
+        }
+
+        public int getFileCount()
+        {
+            final MetafileLayout layout = mLayout;
+            return layout != null ? layout.getFileCount() : 0;
+        }
+
+        public int getFilesDone()
+        {
+            return mFilesDone.get();
+        }
+
+        /**
+         * @return The throughput so far, in bytes per second.
+         */
+        public long getBytesPerSecond()
+        {
+            final long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - mStartNanos);
+            return elapsedMillis == 0 ? 0 : mBytesMoved.get() * 1000 / elapsedMillis;
+        }
+
+        /**
+         * @return The result, or null if the move didn't finish in time.
+         */
+        public Result await(long timeout, TimeUnit unit) throws InterruptedException
+        {
+            mDone.await(timeout, unit);
+            return mResult;
+        }
+
+        private void complete(boolean succeeded, boolean renamed, boolean verified, String error)
+        {
+            mResult = new Result(succeeded, renamed, verified, mBytesMoved.get(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - mStartNanos), error);
+            mDone.countDown();
+            if (mListener != null)
+                mListener.onComplete(mResult);
+        }
+    }
+
+    public static final class Result
+    {
+        private final boolean mSucceeded;
+        private final boolean mRenamed;
+        private final boolean mVerified;
+        private final long mBytesMoved;
+        private final long mElapsedMillis;
+        private final String mError;
+
+        private Result(boolean succeeded, boolean renamed, boolean verified, long bytesMoved, long elapsedMillis, String error)
+        {
+            mSucceeded = succeeded;
+            mRenamed = renamed;
+            mVerified = verified;
+            mBytesMoved = bytesMoved;
+            mElapsedMillis = elapsedMillis;
+            mError = error;
+        }
+
+        public boolean isSucceeded()
+        {
+            return mSucceeded;
+        }
+
+        /**
+         * @return True if the data was moved with a single rename rather than copied.
+         */
+        public boolean isRenamed()
+        {
+            return mRenamed;
+        }
+
+        /**
+         * @return True if the copied data was checked against the piece hashes.
+         */
+        public boolean isVerified()
+        {
+            return mVerified;
+        }
+
+        public long getBytesMoved()
+        {
+            return mBytesMoved;
+        }
+
+        public long getElapsedMillis()
+        {
+            return mElapsedMillis;
+        }
+
+        public long getBytesPerSecond()
+        {
+            return mElapsedMillis == 0 ? mBytesMoved * 1000 : mBytesMoved * 1000 / mElapsedMillis;
+        }
+
+        /**
+         * @return Why the move failed, or null.
+         */
+        public String getError()
+        {
+            return mError;
+        }
+    }
+
+    private static final class NamedThreadFactory implements ThreadFactory
+    {
+        private final String mPrefix;
+        private final AtomicInteger mCount = new AtomicInteger();
+
+        NamedThreadFactory(String prefix)
+        {
+            mPrefix = prefix;
+        }
+
+        @Override
+        public Thread newThread(Runnable runnable)
+        {
+            final Thread thread = new Thread(runnable, mPrefix + mCount.incrementAndGet());
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        }
+    }
+}
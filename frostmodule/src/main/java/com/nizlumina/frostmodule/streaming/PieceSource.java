@@ -0,0 +1,40 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Nizlumina Studio (Malaysia)
+ *
+ * Unless specified, permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package com.nizlumina.frostmodule.streaming;
+
+/**
+ * What a {@link TorrentStream} needs from the engine holding the torrent. Called from the reading threads of the {@link StreamServer}.
+ */
+public interface PieceSource
+{
+    boolean havePiece(int piece);
+
+    /**
+     * Asks for the piece to be downloaded within the given time, ahead of everything else.
+     */
+    void setPieceDeadline(int piece, int deadlineMillis);
+
+    void resetPieceDeadline(int piece);
+
+    /**
+     * Has the rest of the torrent downloaded in order, so the window mostly finds its pieces already there. Every call is paired with an
+     * {@link #endSequentialDownload()}.
+     */
+    void beginSequentialDownload();
+
+    /**
+     * Undoes a {@link #beginSequentialDownload()}. The torrent gets its own download order back once no stream on it asks for sequential anymore.
+     */
+    void endSequentialDownload();
+}
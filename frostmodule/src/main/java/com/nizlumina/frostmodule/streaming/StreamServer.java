@@ -0,0 +1,444 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Nizlumina Studio (Malaysia)
+ *
+ * Unless specified, permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package com.nizlumina.frostmodule.streaming;
+
+import com.nizlumina.frostmodule.metrics.Counter;
+import com.nizlumina.frostmodule.metrics.Histogram;
+import com.nizlumina.frostmodule.metrics.MetricsRegistry;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.SecureRandom;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Serves {@link TorrentStream}s over HTTP on the loopback interface, so any player that takes a URL can play a torrent while it downloads.
+ * <p/>
+ * Each published stream gets an unguessable path. GET and HEAD are supported, with single byte ranges ({@code Range: bytes=a-b}, {@code a-}
+ * and {@code -n}) answered as 206 so players can seek. The body is written as the pieces arrive: every chunk waits in
+ * {@link TorrentStream#awaitRange} first, which is also what moves the stream's deadline window along.
+ * <p/>
+ * Players tend to open a few connections at once (one for the data, one for the index at the end of the file), so each connection gets its own
+ * daemon thread.
+ */
+public final class StreamServer
+{
+    private static final int BACKLOG = 8;
+    private static final int HEAD_TIMEOUT_MILLIS = 5000;
+    private static final int MAX_HEADER_BYTES = 16 * 1024;
+    private static final int CHUNK_SIZE = 64 * 1024;
+    //A Range header that must be ignored, the whole file is served
+    static final long[] NO_RANGE = new long[0];
+
+    private final ConcurrentHashMap<String, TorrentStream> mStreams = new ConcurrentHashMap<>();
+    private final SecureRandom mRandom = new SecureRandom();
+    private final Histogram mTimeToFirstByte;
+    private final Counter mStalls;
+    private final Histogram mStallDuration;
+    private final Counter mBytesServed;
+    private ServerSocket mServerSocket;
+    private ExecutorService mConnections;
+
+    public StreamServer(MetricsRegistry registry)
+    {
+        mTimeToFirstByte = registry.latency("frostmodule_stream_ttfb_seconds", "Time from a stream request to its first body byte");
+        mStalls = registry.counter("frostmodule_stream_stalls_total", "Waits for missing pieces after a stream response started");
+        mStallDuration = registry.latency("frostmodule_stream_stall_seconds", "How long a started stream response waited for missing pieces");
+        mBytesServed = registry.counter("frostmodule_stream_bytes_total", "Bytes served to players");
+    }
+
+    public synchronized void start() throws IOException
+    {
+        if (mServerSocket != null) return;
+
+        final ServerSocket serverSocket = new ServerSocket(0, BACKLOG, InetAddress.getByName("127.0.0.1"));
+        mServerSocket = serverSocket;
+        mConnections = Executors.newCachedThreadPool(new ThreadFactory()
+        {
+            @Override
+            public Thread newThread(Runnable runnable)
+            {
+                final Thread thread = new Thread(runnable, "StreamServer");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        final ExecutorService connections = mConnections;
+        connections.execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                accept(serverSocket, connections);
+            }
+        });
+    }
+
+    /**
+     * Stops accepting and drops every connection. Published streams are forgotten but not closed.
+     */
+    public synchronized void stop()
+    {
+        if (mServerSocket == null) return;
+        try
+        {
+            mServerSocket.close();
+        }
+        catch (IOException ignored)
+        {
+        }
+        mConnections.shutdownNow();
+        mServerSocket = null;
+        mConnections = null;
+        mStreams.clear();
+    }
+
+    /**
+     * @return The URL the stream is served at, or null if the server isn't running.
+     */
+    public synchronized String publish(TorrentStream stream)
+    {
+        if (mServerSocket == null) return null;
+
+        final byte[] token = new byte[12];
+        mRandom.nextBytes(token);
+        final StringBuilder path = new StringBuilder(token.length * 2);
+        for (byte b : token)
+        {
+            path.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        mStreams.put(path.toString(), stream);
+
+        final String name = stream.getFile().getName();
+        return "http://127.0.0.1:" + mServerSocket.getLocalPort() + "/" + path + "/" + encode(name);
+    }
+
+    public void unpublish(TorrentStream stream)
+    {
+        mStreams.values().remove(stream);
+    }
+
+    private void accept(ServerSocket serverSocket, ExecutorService connections)
+    {
+        while (!serverSocket.isClosed())
+        {
+            try
+            {
+                final Socket socket = serverSocket.accept();
+                connections.execute(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        serve(socket);
+                    }
+                });
+            }
+            catch (RejectedExecutionException | SocketException e)
+            {
+                if (serverSocket.isClosed()) return;
+            }
+            catch (IOException ignored)
+            {
+            }
+        }
+    }
+
+    private void serve(Socket socket)
+    {
+        try
+        {
+            socket.setSoTimeout(HEAD_TIMEOUT_MILLIS);
+            handle(socket);
+        }
+        catch (IOException ignored)
+        {
+            //Players hang up all the time, e.g. on every seek
+        }
+        finally
+        {
+            try
+            {
+                socket.close();
+            }
+            catch (IOException ignored)
+            {
+            }
+        }
+    }
+
+    private void handle(Socket socket) throws IOException
+    {
+        final long requestNanos = System.nanoTime();
+        final Request request = Request.read(new BufferedInputStream(socket.getInputStream(), 1024));
+        final OutputStream out = socket.getOutputStream();
+        if (request == null) return;
+
+        final boolean head = request.method.equals("HEAD");
+        if (!head && !request.method.equals("GET"))
+        {
+            respond(out, "405 Method Not Allowed", "Allow: GET, HEAD\r\n");
+            return;
+        }
+        final TorrentStream stream = mStreams.get(tokenOf(request.path));
+        if (stream == null)
+        {
+            respond(out, "404 Not Found", "");
+            return;
+        }
+
+        final long length = stream.getLength();
+        long start = 0;
+        long end = length - 1;
+        final long[] range = request.range != null ? parseRange(request.range, length) : NO_RANGE;
+        if (range == null)
+        {
+            respond(out, "416 Range Not Satisfiable", "Content-Range: bytes */" + length + "\r\n");
+            return;
+        }
+        final boolean partial = range != NO_RANGE;
+        if (partial)
+        {
+            start = range[0];
+            end = range[1];
+        }
+
+        final StringBuilder headers = new StringBuilder(256);
+        headers.append("HTTP/1.1 ").append(partial ? "206 Partial Content" : "200 OK").append("\r\n")
+                .append("Content-Type: ").append(contentType(stream.getFile().getName())).append("\r\n")
+                .append("Content-Length: ").append(end - start + 1).append("\r\n")
+                .append("Accept-Ranges: bytes\r\n");
+        if (partial)
+            headers.append("Content-Range: bytes ").append(start).append('-').append(end).append('/').append(length).append("\r\n");
+        headers.append("Connection: close\r\n\r\n");
+        out.write(headers.toString().getBytes("US-ASCII"));
+        if (head || length == 0)
+        {
+            out.flush();
+            return;
+        }
+
+        socket.setSoTimeout(0); //From here on it's the player setting the pace
+        writeBody(stream, start, end, out, requestNanos);
+    }
+
+    private void writeBody(TorrentStream stream, long start, long end, OutputStream out, long requestNanos) throws IOException
+    {
+        final byte[] chunk = new byte[CHUNK_SIZE];
+        final ByteBuffer buffer = ByteBuffer.wrap(chunk);
+        RandomAccessFile file = null;
+        try
+        {
+            long position = start;
+            while (position <= end)
+            {
+                final int count = (int) Math.min(chunk.length, end - position + 1);
+                final long waited = stream.awaitRange(position, count);
+                if (waited > 0 && position > start)
+                {
+                    mStalls.increment();
+                    mStallDuration.record(waited);
+                    stream.onStall();
+                }
+
+                if (file == null)
+                    file = new RandomAccessFile(stream.getFile(), "r"); //Only sure to exist once its first piece is there
+                final FileChannel channel = file.getChannel();
+                buffer.clear().limit(count);
+                while (buffer.hasRemaining())
+                {
+                    if (channel.read(buffer, position + buffer.position()) < 0)
+                        throw new IOException("Unexpected end of " + stream.getFile());
+                }
+
+                out.write(chunk, 0, count);
+                if (position == start)
+                {
+                    out.flush();
+                    mTimeToFirstByte.recordSince(requestNanos);
+                    stream.onBytesServed();
+                }
+                mBytesServed.add(count);
+                position += count;
+            }
+            out.flush();
+        }
+        finally
+        {
+            if (file != null)
+                file.close();
+        }
+    }
+
+    /**
+     * @return The first range as inclusive {start, end} clamped to the length, null if it can't be satisfied, or {@link #NO_RANGE} if the header
+     * is malformed or in another unit, which RFC 7233 says to ignore.
+     */
+    static long[] parseRange(String range, long length)
+    {
+        final String value = range.trim();
+        if (!value.regionMatches(true, 0, "bytes=", 0, 6)) return NO_RANGE;
+
+        String spec = value.substring(6);
+        final int comma = spec.indexOf(',');
+        if (comma >= 0)
+            spec = spec.substring(0, comma); //Multiple ranges aren't worth multipart for a player, the first one is what it waits on
+        final int dash = spec.indexOf('-');
+        if (dash < 0) return NO_RANGE;
+
+        try
+        {
+            final String first = spec.substring(0, dash).trim();
+            final String last = spec.substring(dash + 1).trim();
+            final long start;
+            final long end;
+            if (first.length() == 0)
+            {
+                final long suffix = Long.parseLong(last);
+                if (suffix < 0) return NO_RANGE;
+                if (suffix == 0) return null; //The last zero bytes
+                start = Math.max(0, length - suffix);
+                end = length - 1;
+            }
+            else
+            {
+                start = Long.parseLong(first);
+                final long requestedEnd = last.length() == 0 ? Long.MAX_VALUE : Long.parseLong(last);
+                if (start < 0 || requestedEnd < start) return NO_RANGE; //Backwards, e.g. 5-2
+                end = Math.min(length - 1, requestedEnd);
+            }
+            if (start >= length) return null; //Starts past the end
+            return new long[]{start, end};
+        }
+        catch (NumberFormatException e)
+        {
+            return NO_RANGE;
+        }
+    }
+
+    private static String tokenOf(String path)
+    {
+        final int start = path.startsWith("/") ? 1 : 0;
+        final int slash = path.indexOf('/', start);
+        return path.substring(start, slash < 0 ? path.length() : slash);
+    }
+
+    private static String contentType(String name)
+    {
+        final int dot = name.lastIndexOf('.');
+        final String extension = dot < 0 ? "" : name.substring(dot + 1).toLowerCase(Locale.US);
+        switch (extension)
+        {
+            case "mp4":
+            case "m4v":
+                return "video/mp4";
+            case "mkv":
+                return "video/x-matroska";
+            case "webm":
+                return "video/webm";
+            case "avi":
+                return "video/x-msvideo";
+            case "mp3":
+                return "audio/mpeg";
+            case "m4a":
+                return "audio/mp4";
+            case "flac":
+                return "audio/flac";
+            case "ogg":
+                return "audio/ogg";
+            default:
+                return "application/octet-stream";
+        }
+    }
+
+    //The name is only there for players that guess the format from the URL
+    private static String encode(String name)
+    {
+        final StringBuilder encoded = new StringBuilder(name.length());
+        for (int i = 0; i < name.length(); i++)
+        {
+            final char c = name.charAt(i);
+            if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '.' || c == '-' || c == '_')
+                encoded.append(c);
+            else
+                encoded.append('_');
+        }
+        return encoded.toString();
+    }
+
+    private static void respond(OutputStream out, String status, String headers) throws IOException
+    {
+        final String response = "HTTP/1.1 " + status + "\r\n" + headers + "Content-Length: 0\r\nConnection: close\r\n\r\n";
+        out.write(response.getBytes("US-ASCII"));
+        out.flush();
+    }
+
+    private static final class Request
+    {
+        String method;
+        String path;
+        String range;
+
+        /**
+         * @return The request, or null if the client sent nothing usable.
+         */
+        static Request read(InputStream in) throws IOException
+        {
+            final StringBuilder line = new StringBuilder(128);
+            Request request = null;
+            int total = 0;
+            int c;
+            while ((c = in.read()) != -1 && total++ < MAX_HEADER_BYTES)
+            {
+                if (c == '\r') continue;
+                if (c != '\n')
+                {
+                    line.append((char) c);
+                    continue;
+                }
+                if (line.length() == 0)
+                    return request; //End of the head
+
+                if (request == null)
+                {
+                    final String[] parts = line.toString().split(" ");
+                    if (parts.length < 2) return null;
+                    request = new Request();
+                    request.method = parts[0];
+                    request.path = parts[1];
+                }
+                else if (line.length() > 6 && line.toString().regionMatches(true, 0, "range:", 0, 6))
+                {
+                    request.range = line.substring(6);
+                }
+                line.setLength(0);
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,297 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Nizlumina Studio (Malaysia)
+ *
+ * Unless specified, permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package com.nizlumina.frostmodule.streaming;
+
+import com.nizlumina.frostmodule.bencode.MetafileLayout;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.BitSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A single file of a torrent being played while it downloads.
+ * <p/>
+ * Readers ask for bytes with {@link #awaitRange}, which blocks until the pieces holding them are on disk. The pieces right ahead of the latest
+ * read get deadlines, nearest first, so libtorrent fetches them before anything else; as pieces land the window slides forward, and a seek
+ * simply moves it. The first and last pieces of the file get deadlines up front since most players read the container index first.
+ * <p/>
+ * {@link #open()} goes through every piece of the file and is meant for the engine worker, so the stream can be handed out before it ran:
+ * readers just wait, and a seek they make in the meantime is where the first window starts.
+ * <p/>
+ * The {@link StreamServer} reports a stall whenever a response that already delivered data has to wait: that's the moment playback freezes.
+ */
+public final class TorrentStream
+{
+    //How far ahead of the read position pieces get deadlines
+    private static final long WINDOW_BYTES = 16 * 1024 * 1024;
+    private static final int MIN_WINDOW_PIECES = 4;
+    //Deadlines grow by this much per piece into the window, so the nearest piece is always the most urgent
+    private static final int DEADLINE_STEP_MILLIS = 250;
+    private static final int HEAD_DEADLINE_MILLIS = 0;
+    private static final long WAIT_SLICE_MILLIS = 500;
+
+    private final String mTorrentId;
+    private final int mFileIndex;
+    private final File mFile;
+    private final long mFileOffset;
+    private final long mFileLength;
+    private final int mPieceLength;
+    private final int mFirstPiece;
+    private final int mLastPiece;
+    private final int mWindowPieces;
+    private final PieceSource mSource;
+    private final long mCreatedNanos = System.nanoTime();
+
+    private final Object mLock = new Object();
+    private final BitSet mHave = new BitSet(); //guarded by mLock, relative to mFirstPiece
+    private int mWindowStart = -1; //guarded by mLock
+    private int mWindowEnd = -1; //guarded by mLock, exclusive
+    private int mPendingSeek = -1; //guarded by mLock, where a reader started before open()
+    private boolean mOpened; //guarded by mLock
+    private boolean mClosed; //guarded by mLock
+
+    private volatile long mFirstByteNanos = -1;
+    private final AtomicInteger mStalls = new AtomicInteger();
+
+    public TorrentStream(String torrentId, MetafileLayout layout, File saveDirectory, int fileIndex, PieceSource source)
+    {
+        mTorrentId = torrentId;
+        mFileIndex = fileIndex;
+        mFile = layout.getFile(saveDirectory, fileIndex);
+        mFileOffset = layout.getFileOffset(fileIndex);
+        mFileLength = layout.getFileLength(fileIndex);
+        mPieceLength = layout.getPieceLength();
+        mFirstPiece = (int) (mFileOffset / mPieceLength);
+        mLastPiece = (int) ((mFileOffset + Math.max(0, mFileLength - 1)) / mPieceLength);
+        mWindowPieces = (int) Math.max(MIN_WINDOW_PIECES, (WINDOW_BYTES + mPieceLength - 1) / mPieceLength);
+        mSource = source;
+    }
+
+    /**
+     * Loads which pieces are already there and puts the first window and the file tail in front of the queue. Does nothing once closed.
+     */
+    public void open()
+    {
+        if (mFileLength == 0) return; //Nothing to wait for
+        synchronized (mLock)
+        {
+            if (mClosed) return;
+        }
+
+        for (int piece = mFirstPiece; piece <= mLastPiece; piece++)
+        {
+            if (mSource.havePiece(piece))
+                markHave(piece);
+        }
+        synchronized (mLock)
+        {
+            if (mClosed || mOpened) return;
+            mOpened = true;
+            mSource.beginSequentialDownload();
+            moveWindow(mPendingSeek >= 0 && !has(mPendingSeek) ? mPendingSeek : mFirstPiece);
+            if (!has(mLastPiece))
+                mSource.setPieceDeadline(mLastPiece, HEAD_DEADLINE_MILLIS);
+            mLock.notifyAll(); //Readers may be waiting for pieces that turned out to be there
+        }
+    }
+
+    /**
+     * Wakes every waiting reader with an error and drops the deadlines. The stream can't be used afterwards.
+     */
+    public void close()
+    {
+        final boolean opened;
+        synchronized (mLock)
+        {
+            if (mClosed) return;
+            mClosed = true;
+            opened = mOpened;
+            for (int piece = mWindowStart; piece >= 0 && piece < mWindowEnd; piece++)
+            {
+                if (!has(piece))
+                    mSource.resetPieceDeadline(piece);
+            }
+            if (mFileLength > 0 && !has(mLastPiece))
+                mSource.resetPieceDeadline(mLastPiece);
+            mLock.notifyAll();
+        }
+        if (opened)
+            mSource.endSequentialDownload();
+    }
+
+    /**
+     * Called by the engine whenever a piece of the torrent passed its hash check.
+     */
+    public void onPieceFinished(int piece)
+    {
+        if (piece < mFirstPiece || piece > mLastPiece) return;
+
+        synchronized (mLock)
+        {
+            markHave(piece);
+            //Keep the window full as its head lands
+            if (piece >= mWindowStart && piece < mWindowEnd && !mClosed)
+                extendWindow();
+            mLock.notifyAll();
+        }
+    }
+
+    /**
+     * Blocks until the given bytes of the file are on disk.
+     *
+     * @param offset Offset in the file.
+     * @param length How many bytes, at least 1. The range is clamped to the file.
+     * @return How long this call waited, in nanoseconds.
+     */
+    public long awaitRange(long offset, long length) throws IOException
+    {
+        final int first = pieceOf(offset);
+        final int last = pieceOf(Math.min(mFileLength, offset + Math.max(1, length)) - 1);
+        final long start = System.nanoTime();
+        boolean waited = false;
+        synchronized (mLock)
+        {
+            if (!has(first) && (first < mWindowStart || first > mWindowEnd))
+            {
+                if (mOpened)
+                    moveWindow(first); //A seek
+                else
+                    mPendingSeek = first;
+            }
+            for (int piece = first; piece <= last; piece++)
+            {
+                while (!has(piece))
+                {
+                    if (mClosed)
+                        throw new IOException("Stream of " + mTorrentId + " was closed");
+                    waited = true;
+                    try
+                    {
+                        mLock.wait(WAIT_SLICE_MILLIS);
+                    }
+                    catch (InterruptedException e)
+                    {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException("Interrupted while waiting for piece " + piece);
+                    }
+                }
+            }
+        }
+        return waited ? System.nanoTime() - start : 0;
+    }
+
+    /**
+     * Marks the moment the first byte reached a player. Only the first call counts.
+     */
+    void onBytesServed()
+    {
+        if (mFirstByteNanos < 0)
+            mFirstByteNanos = System.nanoTime();
+    }
+
+    void onStall()
+    {
+        mStalls.incrementAndGet();
+    }
+
+    public String getTorrentId()
+    {
+        return mTorrentId;
+    }
+
+    public int getFileIndex()
+    {
+        return mFileIndex;
+    }
+
+    public File getFile()
+    {
+        return mFile;
+    }
+
+    public long getLength()
+    {
+        return mFileLength;
+    }
+
+    /**
+     * @return Milliseconds from the stream being opened to its first byte being served, or -1 if nothing was served yet.
+     */
+    public long getTimeToFirstByteMillis()
+    {
+        final long firstByte = mFirstByteNanos;
+        return firstByte < 0 ? -1 : TimeUnit.NANOSECONDS.toMillis(firstByte - mCreatedNanos);
+    }
+
+    /**
+     * @return How many times a reader had to wait for a piece after playback started.
+     */
+    public int getStallCount()
+    {
+        return mStalls.get();
+    }
+
+    private int pieceOf(long fileOffset)
+    {
+        return (int) ((mFileOffset + Math.max(0, fileOffset)) / mPieceLength);
+    }
+
+    //Must hold the lock
+    private boolean has(int piece)
+    {
+        return mHave.get(piece - mFirstPiece);
+    }
+
+    private void markHave(int piece)
+    {
+        synchronized (mLock)
+        {
+            mHave.set(piece - mFirstPiece);
+        }
+    }
+
+    //Must hold the lock
+    private void moveWindow(int start)
+    {
+        final int end = Math.min(mLastPiece + 1, start + mWindowPieces);
+        for (int piece = mWindowStart; piece >= 0 && piece < mWindowEnd; piece++)
+        {
+            if ((piece < start || piece >= end) && !has(piece))
+                mSource.resetPieceDeadline(piece);
+        }
+        mWindowStart = start;
+        mWindowEnd = start;
+        extendWindow();
+    }
+
+    /**
+     * Skips the leading pieces already there and tops the window up to its size, giving every missing piece a deadline by its distance.
+     */
+    //Must hold the lock
+    private void extendWindow()
+    {
+        while (mWindowStart <= mLastPiece && has(mWindowStart))
+            mWindowStart++;
+        final int end = Math.min(mLastPiece + 1, mWindowStart + mWindowPieces);
+        for (int piece = Math.max(mWindowStart, mWindowEnd); piece < end; piece++)
+        {
+            if (!has(piece))
+                mSource.setPieceDeadline(piece, (piece - mWindowStart) * DEADLINE_STEP_MILLIS);
+        }
+        mWindowEnd = Math.max(mWindowEnd, end);
+    }
+}
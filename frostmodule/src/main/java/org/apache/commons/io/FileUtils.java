@@ -7,6 +7,11 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 
 /**
  * Origin of code: Excalibur, Alexandria, Commons-Utils
@@ -128,6 +133,173 @@ public class FileUtils
         }
     }
 
+    /**
+     * Reads the contents of a file into a new <code>ByteBuffer</code>,
+     * optionally outside of the Java heap.
+     * The file is always closed.
+     *
+     * @param file   the file to read, must not be {@code null}
+     * @param direct whether to allocate a direct buffer
+     * @return the file contents, flipped for reading
+     * @throws IOException in case of an I/O error or if the file is over 2GB
+     */
+    public static ByteBuffer readFileToByteBuffer(File file, boolean direct) throws IOException
+    {
+        FileInputStream in = null;
+        try
+        {
+            in = openInputStream(file);
+            final long size = in.getChannel().size();
+            if (size > Integer.MAX_VALUE)
+            {
+                throw new IOException("File '" + file + "' is too large for a buffer: " + size);
+            }
+            return IOUtils.toByteBuffer(in.getChannel(), (int) size, direct);
+        }
+        finally
+        {
+            IOUtils.closeQuietly(in);
+        }
+    }
+
+    /**
+     * Maps the whole file read-only into memory. Nothing is read up front,
+     * pages are loaded on access and can be dropped by the OS at any time,
+     * so the mapping costs no heap at all. The file is closed, the mapping
+     * stays valid until it's garbage collected.
+     *
+     * @param file the file to map, must not be {@code null}
+     * @return the mapping of the file
+     * @throws IOException in case of an I/O error or if the file is over 2GB
+     */
+    public static MappedByteBuffer mapFile(File file) throws IOException
+    {
+        FileInputStream in = null;
+        try
+        {
+            in = openInputStream(file);
+            final FileChannel channel = in.getChannel();
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        finally
+        {
+            IOUtils.closeQuietly(in);
+        }
+    }
+
+    //-----------------------------------------------------------------------
+
+    /**
+     * Copies a file to a new location, preserving the file date.
+     *
+     * @param srcFile  an existing file to copy, must not be {@code null}
+     * @param destFile the new file, must not be {@code null}
+     * @throws IOException if source or destination is invalid
+     * @throws IOException if an IO error occurs during copying
+     * @see #copyFile(File, File, boolean)
+     */
+    public static void copyFile(File srcFile, File destFile) throws IOException
+    {
+        copyFile(srcFile, destFile, true);
+    }
+
+    /**
+     * Copies a file to a new location. The parent directories of the
+     * destination are created if needed and an existing destination is
+     * overwritten.
+     * <p/>
+     * The bytes are moved with {@link FileChannel#transferFrom} so the kernel
+     * does the copying, which keeps multi GB copies out of the Java heap.
+     *
+     * @param srcFile          an existing file to copy, must not be {@code null}
+     * @param destFile         the new file, must not be {@code null}
+     * @param preserveFileDate true if the file date of the copy
+     *                         should be the same as the original
+     * @throws IOException if source or destination is invalid
+     * @throws IOException if an IO error occurs during copying
+     * @throws IOException if the output file length is not the same as the input file length after the copy completes
+     */
+    public static void copyFile(File srcFile, File destFile, boolean preserveFileDate) throws IOException
+    {
+        if (srcFile.getCanonicalPath().equals(destFile.getCanonicalPath()))
+        {
+            throw new IOException("Source '" + srcFile + "' and destination '" + destFile + "' are the same");
+        }
+
+        FileInputStream in = null;
+        FileOutputStream out = null;
+        try
+        {
+            in = openInputStream(srcFile);
+            out = openOutputStream(destFile, false);
+            final FileChannel input = in.getChannel();
+            IOUtils.copyLarge(input, out.getChannel(), 0, input.size());
+            out.close(); // don't swallow close Exception if copy completes normally
+        }
+        finally
+        {
+            IOUtils.closeQuietly(out);
+            IOUtils.closeQuietly(in);
+        }
+
+        if (srcFile.length() != destFile.length())
+        {
+            throw new IOException("Failed to copy full contents from '" + srcFile + "' to '" + destFile + "'");
+        }
+        if (preserveFileDate)
+        {
+            destFile.setLastModified(srcFile.lastModified());
+        }
+    }
+
+    /**
+     * Copy bytes from a <code>File</code> to an <code>OutputStream</code>.
+     * File outputs are written with {@link FileChannel#transferTo}.
+     *
+     * @param input  the <code>File</code> to read from
+     * @param output the <code>OutputStream</code> to write to
+     * @return the number of bytes copied
+     * @throws IOException if an I/O error occurs
+     * @since 2.1
+     */
+    public static long copyFile(File input, OutputStream output) throws IOException
+    {
+        final FileInputStream fis = openInputStream(input);
+        try
+        {
+            return IOUtils.copyLarge(fis, output);
+        }
+        finally
+        {
+            fis.close();
+        }
+    }
+
+    /**
+     * Copy a region of a <code>File</code> to a channel with
+     * {@link FileChannel#transferTo}, e.g. serving a downloaded file over a
+     * socket without reading it into the Java heap.
+     *
+     * @param input    the <code>File</code> to read from
+     * @param position where to start in the file
+     * @param count    how many bytes to copy at most
+     * @param output   the <code>WritableByteChannel</code> to write to
+     * @return the number of bytes copied
+     * @throws IOException if an I/O error occurs
+     */
+    public static long copyFile(File input, long position, long count, WritableByteChannel output) throws IOException
+    {
+        final RandomAccessFile file = new RandomAccessFile(input, "r");
+        try
+        {
+            return IOUtils.copyLarge(file.getChannel(), position, count, output);
+        }
+        finally
+        {
+            file.close();
+        }
+    }
+
     //-----------------------------------------------------------------------
 
     /**
@@ -3,9 +3,15 @@ package org.apache.commons.io;
 import org.apache.commons.io.output.ByteArrayOutputStream;
 
 import java.io.Closeable;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 
 /**
  * Origin of code: Excalibur, Alexandria, Commons-Utils
@@ -222,7 +228,36 @@ public class IOUtils
     public static long copyLarge(InputStream input, OutputStream output)
             throws IOException
     {
-        return copyLarge(input, output, new byte[DEFAULT_BUFFER_SIZE]);
+        return copyLarge(input, output, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Copy bytes from a large (over 2GB) <code>InputStream</code> to an
+     * <code>OutputStream</code> using a buffer of the given size.
+     * <p/>
+     * When both ends are file streams the bytes are moved with
+     * {@link FileChannel#transferTo} instead and never enter the Java heap;
+     * the buffer is then not allocated at all.
+     *
+     * @param input      the <code>InputStream</code> to read from
+     * @param output     the <code>OutputStream</code> to write to
+     * @param bufferSize the size of the buffer to use for stream copies
+     * @return the number of bytes copied
+     * @throws NullPointerException if the input or output is null
+     * @throws IOException          if an I/O error occurs
+     */
+    public static long copyLarge(InputStream input, OutputStream output, int bufferSize)
+            throws IOException
+    {
+        if (input instanceof FileInputStream && output instanceof FileOutputStream)
+        {
+            final FileChannel source = ((FileInputStream) input).getChannel();
+            final long position = source.position();
+            final long count = copyLarge(source, position, source.size() - position, ((FileOutputStream) output).getChannel());
+            source.position(position + count); //transferTo leaves the stream position alone
+            return count;
+        }
+        return copyLarge(input, output, new byte[bufferSize]);
     }
 
     /**
@@ -254,8 +289,127 @@ public class IOUtils
         return count;
     }
 
+    /**
+     * Copy a region of a file to a channel with {@link FileChannel#transferTo},
+     * which lets the kernel move the bytes (e.g. sendfile to a socket) without
+     * copying them through the Java heap.
+     * <p/>
+     * The position of the source channel is not changed, the target is written
+     * at its current position.
+     *
+     * @param input    the <code>FileChannel</code> to read from
+     * @param position where to start reading in the file
+     * @param count    how many bytes to copy at most
+     * @param output   the <code>WritableByteChannel</code> to write to
+     * @return the number of bytes copied, less than count only if the file is shorter
+     * @throws IOException if an I/O error occurs
+     */
+    public static long copyLarge(FileChannel input, long position, long count, WritableByteChannel output)
+            throws IOException
+    {
+        long copied = 0;
+        while (copied < count)
+        {
+            //transferTo may move fewer bytes than asked, e.g. for non-blocking sockets or huge counts
+            final long n = input.transferTo(position + copied, Math.min(count - copied, FILE_TRANSFER_CHUNK_SIZE), output);
+            if (n <= 0)
+            {
+                if (position + copied >= input.size())
+                {
+                    break;
+                }
+                continue;
+            }
+            copied += n;
+        }
+        return copied;
+    }
+
+    /**
+     * Copy bytes from a channel into a file region with
+     * {@link FileChannel#transferFrom}.
+     * <p/>
+     * The position of the target channel is not changed.
+     *
+     * @param input    the <code>ReadableByteChannel</code> to read from
+     * @param output   the <code>FileChannel</code> to write to
+     * @param position where to start writing in the file
+     * @param count    how many bytes to copy at most
+     * @return the number of bytes copied, less than count only if the input ended first
+     * @throws IOException if an I/O error occurs
+     */
+    public static long copyLarge(ReadableByteChannel input, FileChannel output, long position, long count)
+            throws IOException
+    {
+        long copied = 0;
+        while (copied < count)
+        {
+            final long n = output.transferFrom(input, position + copied, Math.min(count - copied, FILE_TRANSFER_CHUNK_SIZE));
+            if (n <= 0)
+            {
+                break; //transferFrom can't tell EOF from a short read, a blocking channel only returns 0 at its end
+            }
+            copied += n;
+        }
+        return copied;
+    }
+
+    /**
+     * Copy all bytes from a channel to another through the given buffer,
+     * for channels that can't use the file transfer paths. Pass a direct
+     * buffer to avoid the extra copy NIO makes for heap buffers.
+     *
+     * @param input  the <code>ReadableByteChannel</code> to read from
+     * @param output the <code>WritableByteChannel</code> to write to
+     * @param buffer the buffer to use for the copy, cleared before use
+     * @return the number of bytes copied
+     * @throws IOException if an I/O error occurs
+     */
+    public static long copyLarge(ReadableByteChannel input, WritableByteChannel output, ByteBuffer buffer)
+            throws IOException
+    {
+        long count = 0;
+        buffer.clear();
+        while (input.read(buffer) != EOF)
+        {
+            buffer.flip();
+            while (buffer.hasRemaining())
+            {
+                count += output.write(buffer);
+            }
+            buffer.clear();
+        }
+        return count;
+    }
+
+    /**
+     * Reads exactly <code>size</code> bytes from the channel into a new buffer.
+     *
+     * @param input  the <code>ReadableByteChannel</code> to read from
+     * @param size   the number of bytes to read
+     * @param direct whether to allocate the buffer outside the Java heap
+     * @return the filled buffer, flipped for reading
+     * @throws IOException if an I/O error occurs or the channel ends early
+     */
+    public static ByteBuffer toByteBuffer(ReadableByteChannel input, int size, boolean direct) throws IOException
+    {
+        final ByteBuffer buffer = direct ? ByteBuffer.allocateDirect(size) : ByteBuffer.allocate(size);
+        while (buffer.hasRemaining())
+        {
+            if (input.read(buffer) == EOF)
+            {
+                throw new IOException("Unexpected readed size. current: " + buffer.position() + ", excepted: " + size);
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
     private static final int EOF = -1;
 
+    //Bounds a single transfer so huge files don't fail on platforms limiting transfer sizes (e.g. 32-bit)
+    private static final long FILE_TRANSFER_CHUNK_SIZE = 1024 * 1024 * 32;
+
     private static final int DEFAULT_BUFFER_SIZE = 1024 * 4;
 
 
@@ -19,14 +19,15 @@ package org.apache.commons.io.output;
 
 import org.apache.commons.io.input.ClosedInputStream;
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.io.SequenceInputStream;
 import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.ReadableByteChannel;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
 
 /**
@@ -254,6 +255,67 @@ public class ByteArrayOutputStream extends OutputStream
         }
     }
 
+    /**
+     * Writes the entire contents of this byte stream to the specified
+     * channel, handing every chunk over in a single vectored write where
+     * the channel supports it. Nothing is copied or flattened first.
+     *
+     * @param out  the channel to write to
+     * @return the number of bytes written
+     * @throws IOException if an I/O error occurs, such as if the channel is closed
+     */
+    public synchronized long writeTo(GatheringByteChannel out) throws IOException {
+        int remaining = count;
+        List<ByteBuffer> list = new ArrayList<ByteBuffer>(buffers.size());
+        for (byte[] buf : buffers) {
+            int c = Math.min(buf.length, remaining);
+            list.add(ByteBuffer.wrap(buf, 0, c));
+            remaining -= c;
+            if (remaining == 0) {
+                break;
+            }
+        }
+        ByteBuffer[] srcs = list.toArray(new ByteBuffer[list.size()]);
+        long written = 0;
+        int first = 0;
+        while (written < count) {
+            //A gathering write may stop early, e.g. on a full socket buffer
+            written += out.write(srcs, first, srcs.length - first);
+            while (first < srcs.length && !srcs[first].hasRemaining()) {
+                first++;
+            }
+        }
+        return written;
+    }
+
+    /**
+     * Gets the current contents of this byte stream as an
+     * <code>InputStream</code> reading straight over the internal chunks,
+     * so the content is never flattened into one array.
+     * <p>
+     * The view covers the bytes written so far. It must not be used after
+     * {@link #reset()}, since the chunks are then overwritten by new writes.
+     *
+     * @return the current contents of this output stream
+     */
+    public synchronized InputStream toInputStream() {
+        if (count == 0) {
+            return new ClosedInputStream();
+        }
+        return new ChunkInputStream(buffers.toArray(new byte[buffers.size()][]), count);
+    }
+
+    /**
+     * Gets the current contents of this byte stream as a
+     * <code>ReadableByteChannel</code> over the internal chunks, with the
+     * same lifetime rules as {@link #toInputStream()}.
+     *
+     * @return the current contents of this output stream
+     */
+    public synchronized ReadableByteChannel toChannel() {
+        return new ChunkChannel(buffers.toArray(new byte[buffers.size()][]), count);
+    }
+
     /**
      * Fetches entire contents of an <code>InputStream</code> and represent
      * same data as result InputStream.
@@ -279,34 +341,7 @@ public class ByteArrayOutputStream extends OutputStream
             throws IOException {
         ByteArrayOutputStream output = new ByteArrayOutputStream();
         output.write(input);
-        return output.toBufferedInputStream();
-    }
-
-    /**
-     * Gets the current contents of this byte stream as a Input Stream. The
-     * returned stream is backed by buffers of <code>this</code> stream,
-     * avoiding memory allocation and copy, thus saving space and time.<br>
-     *
-     * @return the current contents of this output stream.
-     * @see java.io.ByteArrayOutputStream#toByteArray()
-     * @see #reset()
-     * @since 2.0
-     */
-    private InputStream toBufferedInputStream() {
-        int remaining = count;
-        if (remaining == 0) {
-            return new ClosedInputStream();
-        }
-        List<ByteArrayInputStream> list = new ArrayList<ByteArrayInputStream>(buffers.size());
-        for (byte[] buf : buffers) {
-            int c = Math.min(buf.length, remaining);
-            list.add(new ByteArrayInputStream(buf, 0, c));
-            remaining -= c;
-            if (remaining == 0) {
-                break;
-            }
-        }
-        return new SequenceInputStream(Collections.enumeration(list));
+        return output.toInputStream();
     }
 
     /**
@@ -358,5 +393,145 @@ public class ByteArrayOutputStream extends OutputStream
         return new String(toByteArray(), enc);
     }
 
+    /**
+     * Sequential reader over a fixed set of chunks, the first <code>count</code>
+     * bytes of which are the content.
+     */
+    private static class ChunkReader {
+        private final byte[][] chunks;
+        private final int count;
+        private int chunk;
+        private int inChunkPos;
+        private int pos;
+
+        ChunkReader(byte[][] chunks, int count) {
+            this.chunks = chunks;
+            this.count = count;
+        }
+
+        int available() {
+            return count - pos;
+        }
+
+        /** Moves past exhausted chunks, returns false at the end. */
+        boolean advance() {
+            if (pos == count) {
+                return false;
+            }
+            while (inChunkPos == chunks[chunk].length) {
+                chunk++;
+                inChunkPos = 0;
+            }
+            return true;
+        }
+
+        int read() {
+            if (!advance()) {
+                return -1;
+            }
+            pos++;
+            return chunks[chunk][inChunkPos++] & 0xff;
+        }
+
+        int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            int total = 0;
+            while (total < len && advance()) {
+                int part = Math.min(len - total, Math.min(chunks[chunk].length - inChunkPos, count - pos));
+                System.arraycopy(chunks[chunk], inChunkPos, b, off + total, part);
+                inChunkPos += part;
+                pos += part;
+                total += part;
+            }
+            return total == 0 ? -1 : total;
+        }
+
+        int read(ByteBuffer dst) {
+            if (!dst.hasRemaining()) {
+                return 0;
+            }
+            int total = 0;
+            while (dst.hasRemaining() && advance()) {
+                int part = Math.min(dst.remaining(), Math.min(chunks[chunk].length - inChunkPos, count - pos));
+                dst.put(chunks[chunk], inChunkPos, part);
+                inChunkPos += part;
+                pos += part;
+                total += part;
+            }
+            return total == 0 ? -1 : total;
+        }
+
+        long skip(long n) {
+            long skipped = 0;
+            while (skipped < n && advance()) {
+                int part = (int) Math.min(n - skipped, Math.min(chunks[chunk].length - inChunkPos, count - pos));
+                inChunkPos += part;
+                pos += part;
+                skipped += part;
+            }
+            return skipped;
+        }
+    }
+
+    private static class ChunkInputStream extends InputStream {
+        private final ChunkReader reader;
+
+        ChunkInputStream(byte[][] chunks, int count) {
+            reader = new ChunkReader(chunks, count);
+        }
+
+        @Override
+        public int read() {
+            return reader.read();
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if ((off < 0) || (len < 0) || (off + len > b.length) || (off + len < 0)) {
+                throw new IndexOutOfBoundsException();
+            }
+            return reader.read(b, off, len);
+        }
+
+        @Override
+        public long skip(long n) {
+            return n <= 0 ? 0 : reader.skip(n);
+        }
+
+        @Override
+        public int available() {
+            return reader.available();
+        }
+    }
+
+    private static class ChunkChannel implements ReadableByteChannel {
+        private final ChunkReader reader;
+        private boolean open = true;
+
+        ChunkChannel(byte[][] chunks, int count) {
+            reader = new ChunkReader(chunks, count);
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            if (!open) {
+                throw new ClosedChannelException();
+            }
+            return reader.read(dst);
+        }
+
+        @Override
+        public boolean isOpen() {
+            return open;
+        }
+
+        @Override
+        public void close() {
+            open = false;
+        }
+    }
+
 }
 
@@ -0,0 +1,170 @@
+package org.apache.commons.io.output;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded pool of equally sized byte arrays, used as chunk buffers by
+ * {@link PooledByteArrayOutputStream}.
+ * <p>
+ * Each thread first rents from and returns to a small cache of its own, so
+ * the common case of a thread building stream after stream touches no lock.
+ * Only when that cache is empty or full the shared pool is used, and only
+ * when both are empty a new array is allocated. Arrays returned to a full
+ * pool are left to the garbage collector, so the pool never holds more than
+ * its configured bounds.
+ * <p>
+ * The hit and miss counters tell whether the bounds fit the workload.
+ */
+public class ByteArrayPool
+{
+
+    /** The default chunk size, 4KB. */
+    public static final int DEFAULT_CHUNK_SIZE = 1024 * 4;
+
+    private static final ByteArrayPool DEFAULT = new ByteArrayPool(DEFAULT_CHUNK_SIZE, 64, 8);
+
+    private final int chunkSize;
+    private final int maxShared;
+    private final int maxPerThread;
+    /** Guarded by itself. */
+    private final ArrayDeque<byte[]> shared = new ArrayDeque<byte[]>();
+    private final ThreadLocal<ArrayDeque<byte[]>> local = new ThreadLocal<ArrayDeque<byte[]>>() {
+        @Override
+        protected ArrayDeque<byte[]> initialValue() {
+            return new ArrayDeque<byte[]>();
+        }
+    };
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong discards = new AtomicLong();
+
+    /**
+     * Creates a new pool.
+     *
+     * @param chunkSize     the size of every array of the pool
+     * @param maxShared     how many arrays the shared pool keeps at most
+     * @param maxPerThread  how many arrays each thread keeps at most
+     * @throws IllegalArgumentException if a size is not positive or a bound negative
+     */
+    public ByteArrayPool(int chunkSize, int maxShared, int maxPerThread) {
+        if (chunkSize <= 0 || maxShared < 0 || maxPerThread < 0) {
+            throw new IllegalArgumentException(
+                    "Invalid pool bounds: " + chunkSize + "/" + maxShared + "/" + maxPerThread);
+        }
+        this.chunkSize = chunkSize;
+        this.maxShared = maxShared;
+        this.maxPerThread = maxPerThread;
+    }
+
+    /**
+     * The pool shared by every {@link PooledByteArrayOutputStream} created
+     * without one. Holds at most 64 shared and 8 per thread chunks of 4KB.
+     *
+     * @return the default pool
+     */
+    public static ByteArrayPool getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Rents an array of {@link #getChunkSize()} bytes. Its content is
+     * whatever the previous user left in it.
+     *
+     * @return an array, pooled if one is available
+     */
+    public byte[] acquire() {
+        byte[] chunk = local.get().pollFirst();
+        if (chunk == null) {
+            synchronized (shared) {
+                chunk = shared.pollFirst();
+            }
+        }
+        if (chunk != null) {
+            hits.incrementAndGet();
+            return chunk;
+        }
+        misses.incrementAndGet();
+        return new byte[chunkSize];
+    }
+
+    /**
+     * Returns an array to the pool. Arrays of another size are ignored.
+     * The caller must not use the array afterwards.
+     *
+     * @param chunk  the array to return, may be null
+     */
+    public void release(byte[] chunk) {
+        if (chunk == null || chunk.length != chunkSize) {
+            return;
+        }
+        ArrayDeque<byte[]> cache = local.get();
+        if (cache.size() < maxPerThread) {
+            cache.addFirst(chunk);
+            return;
+        }
+        synchronized (shared) {
+            if (shared.size() < maxShared) {
+                shared.addFirst(chunk);
+                return;
+            }
+        }
+        discards.incrementAndGet();
+    }
+
+    /**
+     * @return the size of every array of this pool
+     */
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    /**
+     * @return how many times an array was served from the pool
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * @return how many times an array had to be allocated
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * @return how many returned arrays were dropped because the pool was full
+     */
+    public long getDiscardCount() {
+        return discards.get();
+    }
+
+    /**
+     * @return how many arrays the shared pool currently holds
+     */
+    public int getSharedSize() {
+        synchronized (shared) {
+            return shared.size();
+        }
+    }
+
+}
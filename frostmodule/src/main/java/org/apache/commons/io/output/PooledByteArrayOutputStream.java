@@ -0,0 +1,240 @@
+package org.apache.commons.io.output;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An unsynchronized {@link ByteArrayOutputStream} whose chunk buffers are
+ * rented from a {@link ByteArrayPool}.
+ * <p>
+ * Meant for the many short lived streams built while serializing metadata:
+ * the chunks go back to the pool on {@link #reset()} and {@link #close()},
+ * so building the next stream reuses them instead of allocating.
+ * <p>
+ * Unlike <tt>ByteArrayOutputStream</tt> an instance must only be used by one
+ * thread at a time, and nothing obtained from it that shares its chunks may
+ * be used after it's reset or closed. The stream can still be written to after
+ * being closed, it then rents new chunks.
+ */
+public class PooledByteArrayOutputStream extends OutputStream
+{
+
+    /** A singleton empty byte array. */
+    private static final byte[] EMPTY_BYTE_ARRAY = new byte[0];
+
+    private final ByteArrayPool pool;
+    private final int chunkSize;
+    /** The rented chunks, all full but the last. */
+    private final List<byte[]> buffers = new ArrayList<byte[]>();
+    /** The last chunk, null until the first write. */
+    private byte[] currentBuffer;
+    /** The position in the current chunk. */
+    private int inBufferPos;
+    /** The total count of bytes written. */
+    private int count;
+
+    /**
+     * Creates a new stream renting from the default pool.
+     */
+    public PooledByteArrayOutputStream() {
+        this(ByteArrayPool.getDefault());
+    }
+
+    /**
+     * Creates a new stream renting from the given pool.
+     *
+     * @param pool  the pool to rent chunks from
+     */
+    public PooledByteArrayOutputStream(ByteArrayPool pool) {
+        this.pool = pool;
+        this.chunkSize = pool.getChunkSize();
+    }
+
+    private void needNewBuffer() {
+        currentBuffer = pool.acquire();
+        buffers.add(currentBuffer);
+        inBufferPos = 0;
+    }
+
+    /**
+     * Write the bytes to the stream.
+     * @param b the bytes to write
+     * @param off The start offset
+     * @param len The number of bytes to write
+     */
+    @Override
+    public void write(byte[] b, int off, int len) {
+        if ((off < 0)
+                || (off > b.length)
+                || (len < 0)
+                || ((off + len) > b.length)
+                || ((off + len) < 0)) {
+            throw new IndexOutOfBoundsException();
+        }
+        int remaining = len;
+        while (remaining > 0) {
+            if (currentBuffer == null || inBufferPos == chunkSize) {
+                needNewBuffer();
+            }
+            int part = Math.min(remaining, chunkSize - inBufferPos);
+            System.arraycopy(b, off + len - remaining, currentBuffer, inBufferPos, part);
+            inBufferPos += part;
+            remaining -= part;
+        }
+        count += len;
+    }
+
+    /**
+     * Write a byte to the stream.
+     * @param b the byte to write
+     */
+    @Override
+    public void write(int b) {
+        if (currentBuffer == null || inBufferPos == chunkSize) {
+            needNewBuffer();
+        }
+        currentBuffer[inBufferPos++] = (byte) b;
+        count++;
+    }
+
+    /**
+     * Writes the entire contents of the specified input stream to this
+     * byte stream. Bytes from the input stream are read directly into the
+     * chunks of this stream.
+     *
+     * @param in the input stream to read from
+     * @return total number of bytes read from the input stream
+     *         (and written to this stream)
+     * @throws IOException if an I/O error occurs while reading the input stream
+     */
+    public int write(InputStream in) throws IOException {
+        int readCount = 0;
+        while (true) {
+            if (currentBuffer == null || inBufferPos == chunkSize) {
+                needNewBuffer();
+            }
+            int n = in.read(currentBuffer, inBufferPos, chunkSize - inBufferPos);
+            if (n == -1) {
+                return readCount;
+            }
+            inBufferPos += n;
+            count += n;
+            readCount += n;
+        }
+    }
+
+    /**
+     * Return the current size of the stream.
+     * @return the number of bytes written since the last reset
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Returns the chunks to the pool, same as {@link #reset()}.
+     */
+    @Override
+    public void close() {
+        reset();
+    }
+
+    /**
+     * Discards the content and returns every chunk to the pool.
+     * @see java.io.ByteArrayOutputStream#reset()
+     */
+    public void reset() {
+        for (int i = buffers.size() - 1; i >= 0; i--) {
+            pool.release(buffers.get(i));
+        }
+        buffers.clear();
+        currentBuffer = null;
+        inBufferPos = 0;
+        count = 0;
+    }
+
+    /**
+     * Writes the entire contents of this byte stream to the
+     * specified output stream.
+     *
+     * @param out  the output stream to write to
+     * @throws IOException if an I/O error occurs, such as if the stream is closed
+     * @see java.io.ByteArrayOutputStream#writeTo(OutputStream)
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        int remaining = count;
+        for (byte[] buf : buffers) {
+            int c = Math.min(buf.length, remaining);
+            out.write(buf, 0, c);
+            remaining -= c;
+        }
+    }
+
+    /**
+     * Gets the curent contents of this byte stream as a byte array.
+     * The result is independent of this stream and of the pool.
+     *
+     * @return the current contents of this output stream, as a byte array
+     * @see java.io.ByteArrayOutputStream#toByteArray()
+     */
+    public byte[] toByteArray() {
+        int remaining = count;
+        if (remaining == 0) {
+            return EMPTY_BYTE_ARRAY;
+        }
+        byte newbuf[] = new byte[remaining];
+        int pos = 0;
+        for (byte[] buf : buffers) {
+            int c = Math.min(buf.length, remaining);
+            System.arraycopy(buf, 0, newbuf, pos, c);
+            pos += c;
+            remaining -= c;
+        }
+        return newbuf;
+    }
+
+    /**
+     * Gets the curent contents of this byte stream as a string.
+     * @return the contents of the byte array as a String
+     * @see java.io.ByteArrayOutputStream#toString()
+     */
+    @Override
+    public String toString() {
+        return new String(toByteArray());
+    }
+
+    /**
+     * Gets the curent contents of this byte stream as a string
+     * using the specified encoding.
+     *
+     * @param enc  the name of the character encoding
+     * @return the string converted from the byte array
+     * @throws UnsupportedEncodingException if the encoding is not supported
+     * @see java.io.ByteArrayOutputStream#toString(String)
+     */
+    public String toString(String enc) throws UnsupportedEncodingException {
+        return new String(toByteArray(), enc);
+    }
+
+}
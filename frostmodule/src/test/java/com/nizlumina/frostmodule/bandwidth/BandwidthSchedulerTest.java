@@ -0,0 +1,115 @@
+package com.nizlumina.frostmodule.bandwidth;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class BandwidthSchedulerTest
+{
+    private static final int LIMIT = 100000;
+
+    private final Map<String, Integer> mDownloadLimits = new HashMap<>();
+    private final BandwidthScheduler mScheduler = new BandwidthScheduler(LIMIT, BandwidthScheduler.UNLIMITED, new BandwidthScheduler.Actuator()
+    {
+        @Override
+        public void applyLimits(String id, int downloadLimit, int uploadLimit)
+        {
+            mDownloadLimits.put(id, downloadLimit);
+        }
+    });
+
+    @Test
+    public void splitsByClassWeightWhenEveryoneWantsMore()
+    {
+        add("a", TrafficClass.STREAMING, 80000);
+        add("b", TrafficClass.BACKGROUND, 80000);
+        mScheduler.rebalance();
+
+        assertEquals(LIMIT * 6 / 7, (int) mDownloadLimits.get("a"));
+        assertEquals(LIMIT / 7, (int) mDownloadLimits.get("b"));
+    }
+
+    @Test
+    public void lendsUnusedClassShare()
+    {
+        add("a", TrafficClass.STREAMING, 8000); //Wants 10000 of its 85714
+        add("b", TrafficClass.BACKGROUND, 80000);
+        mScheduler.rebalance();
+
+        assertEquals(10000, (int) mDownloadLimits.get("a"));
+        assertEquals(90000, (int) mDownloadLimits.get("b"));
+    }
+
+    @Test
+    public void splitsMaxMinWithinAClass()
+    {
+        add("small", TrafficClass.FOREGROUND, 8000);
+        add("x", TrafficClass.FOREGROUND, 80000);
+        add("y", TrafficClass.FOREGROUND, 80000);
+        mScheduler.rebalance();
+
+        assertEquals(10000, (int) mDownloadLimits.get("small"));
+        assertEquals(45000, (int) mDownloadLimits.get("x"));
+        assertEquals(45000, (int) mDownloadLimits.get("y"));
+    }
+
+    @Test
+    public void keepsTheFloorForIdleTorrentsAndCapsWin()
+    {
+        add("busy", TrafficClass.FOREGROUND, 8000);
+        mScheduler.setTorrentLimits("busy", 20000, BandwidthScheduler.UNLIMITED);
+        add("idle", TrafficClass.FOREGROUND, 0);
+        mScheduler.rebalance();
+
+        assertEquals(20000, (int) mDownloadLimits.get("busy")); //The leftover is lent, up to the cap
+        assertEquals(4 * 1024, (int) mDownloadLimits.get("idle"));
+    }
+
+    @Test
+    public void skipsPausedTorrents()
+    {
+        add("a", TrafficClass.FOREGROUND, 80000);
+        mScheduler.register("paused", TrafficClass.STREAMING);
+        mScheduler.onRates("paused", 80000, 0, true);
+        mScheduler.rebalance();
+
+        assertFalse(mDownloadLimits.containsKey("paused"));
+        assertEquals(LIMIT, (int) mDownloadLimits.get("a"));
+    }
+
+    @Test
+    public void onlyAppliesNoticeableChanges()
+    {
+        add("a", TrafficClass.STREAMING, 80000);
+        add("b", TrafficClass.BACKGROUND, 80000);
+        mScheduler.rebalance();
+        mDownloadLimits.clear();
+
+        mScheduler.rebalance(); //Both still saturated, the split stays the same
+        assertTrue(mDownloadLimits.isEmpty());
+    }
+
+    @Test
+    public void unlimitedGlobalLimitLeavesOnlyCaps()
+    {
+        mScheduler.setGlobalLimits(BandwidthScheduler.UNLIMITED, BandwidthScheduler.UNLIMITED);
+        add("a", TrafficClass.FOREGROUND, 80000);
+        add("b", TrafficClass.FOREGROUND, 80000);
+        mScheduler.setTorrentLimits("b", 5000, BandwidthScheduler.UNLIMITED);
+        mScheduler.rebalance();
+
+        assertEquals(BandwidthScheduler.UNLIMITED, (int) mDownloadLimits.get("a"));
+        assertEquals(5000, (int) mDownloadLimits.get("b"));
+    }
+
+    private void add(String id, TrafficClass trafficClass, int downloadRate)
+    {
+        mScheduler.register(id, trafficClass);
+        mScheduler.onRates(id, downloadRate, 0, false);
+    }
+}
@@ -0,0 +1,257 @@
+package com.nizlumina.frostmodule.bencode;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class BencodeReaderTest
+{
+    private static final Charset US_ASCII = Charset.forName("US-ASCII");
+
+    @Test
+    public void readsEveryTokenType() throws Exception
+    {
+        final BencodeReader reader = reader("d3:keyli-42ei0e0:ee");
+        reader.beginDictionary();
+        assertTrue(reader.hasNext());
+        assertEquals("key", reader.nextUtf8String());
+        reader.beginList();
+        assertEquals(-42, reader.nextLong());
+        assertEquals(0, reader.nextLong());
+        assertEquals(0, reader.nextString());
+        assertFalse(reader.hasNext());
+        reader.endContainer();
+        assertFalse(reader.hasNext());
+        reader.endContainer();
+        assertEquals(BencodeReader.Token.EOF, reader.peek());
+    }
+
+    @Test
+    public void readsLongExtremes() throws Exception
+    {
+        assertEquals(Long.MAX_VALUE, reader("i9223372036854775807e").nextLong());
+        assertEquals(-Long.MAX_VALUE, reader("i-9223372036854775807e").nextLong());
+    }
+
+    @Test
+    public void rejectsBrokenIntegers()
+    {
+        assertInvalid("i9223372036854775808e"); //Overflow
+        assertInvalid("ie");
+        assertInvalid("i-e");
+        assertInvalid("i12");
+        assertInvalid("i1x2e");
+    }
+
+    @Test
+    public void rejectsBrokenStrings()
+    {
+        assertInvalid("5:abc"); //Runs past the end
+        assertInvalid("3abc");
+        assertInvalid("99999999999:a"); //More length digits than any buffer can hold
+        assertInvalid("4294967299:a"); //Doesn't fit an int
+    }
+
+    @Test
+    public void rejectsUnterminatedContainers() throws Exception
+    {
+        final BencodeReader reader = reader("li1e");
+        reader.beginList();
+        reader.nextLong();
+        try
+        {
+            reader.hasNext();
+            fail();
+        }
+        catch (BencodeException expected)
+        {
+        }
+
+        try
+        {
+            reader("d1:ai1e").skipValue();
+            fail();
+        }
+        catch (BencodeException expected)
+        {
+        }
+    }
+
+    @Test
+    public void rejectsUnexpectedBytes()
+    {
+        try
+        {
+            reader("x").peek();
+            fail();
+        }
+        catch (BencodeException expected)
+        {
+        }
+    }
+
+    @Test
+    public void skipsNestedValues() throws Exception
+    {
+        final BencodeReader reader = reader("d1:ald1:bli1ei2eeee1:ci3ee");
+        reader.beginDictionary();
+        reader.nextString();
+        reader.skipValue();
+        reader.nextString();
+        assertTrue(reader.stringEquals(ascii("c")));
+        assertEquals(3, reader.nextLong());
+        reader.endContainer();
+    }
+
+    @Test
+    public void locatesStringsWithoutCopying() throws Exception
+    {
+        final ByteBuffer buffer = ByteBuffer.wrap(ascii("xx4:spam"));
+        buffer.position(2);
+        final BencodeReader reader = new BencodeReader(buffer);
+        assertEquals(4, reader.nextString());
+        assertEquals(4, reader.stringOffset());
+        assertTrue(reader.stringEquals(ascii("spam")));
+        assertFalse(reader.stringEquals(ascii("spa")));
+        assertEquals(4, reader.stringSlice().remaining());
+        assertEquals(2, buffer.position()); //Absolute reads only
+    }
+
+    @Test
+    public void parsesMultiFileMetafile() throws Exception
+    {
+        final String info = "d5:filesld6:lengthi3e4:pathl1:aeed6:lengthi5e4:pathl1:beee4:name3:dir12:piece lengthi4e6:pieces40:"
+                + repeat('x', 40) + "e";
+        final ByteBuffer buffer = ByteBuffer.wrap(ascii("d8:announce3:url4:info" + info + "e"));
+        final MetafileInfo metafileInfo = MetafileInfo.parse(buffer);
+
+        assertEquals("dir", metafileInfo.getName());
+        assertEquals(2, metafileInfo.getFileCount());
+        assertEquals(8, metafileInfo.getTotalSize());
+        assertEquals(4, metafileInfo.getPieceLength());
+        assertEquals(2, metafileInfo.getPieceCount());
+        assertEquals(info.length(), metafileInfo.getInfoEnd() - metafileInfo.getInfoStart());
+        assertEquals(sha1Hex(ascii(info)), metafileInfo.getInfoHash());
+    }
+
+    @Test
+    public void prefersUtf8Name() throws Exception
+    {
+        final MetafileInfo metafileInfo = MetafileInfo.parse(ByteBuffer.wrap(ascii("d4:infod6:lengthi1e4:name1:a10:name.utf-81:bee")));
+        assertEquals("b", metafileInfo.getName());
+        assertEquals(1, metafileInfo.getFileCount());
+    }
+
+    @Test
+    public void rejectsBrokenMetafiles()
+    {
+        assertInvalidMetafile("d8:announce3:urle"); //No info
+        assertInvalidMetafile("d4:infod6:pieces3:abcee"); //Not whole hashes
+        assertInvalidMetafile("d4:infod12:piece lengthi0eee");
+    }
+
+    @Test
+    public void readsLayoutWithSafeNames() throws Exception
+    {
+        final MetafileLayout layout = MetafileLayout.parse(ByteBuffer.wrap(ascii(singleFileMetafile("a.txt"))));
+        assertEquals("a.txt", layout.getName());
+        assertEquals(1, layout.getFileCount());
+        assertEquals(1, layout.getPieceCount());
+    }
+
+    @Test
+    public void rejectsLayoutsLeavingTheSaveDirectory()
+    {
+        assertInvalidLayout(singleFileMetafile(".."));
+        assertInvalidLayout(singleFileMetafile("../x"));
+        assertInvalidLayout(singleFileMetafile("."));
+        assertInvalidLayout(singleFileMetafile(""));
+        assertInvalidLayout("d4:infod5:filesld6:lengthi1e4:pathl2:..1:xeee4:name1:a12:piece lengthi1e6:pieces20:" + repeat('h', 20) + "ee");
+    }
+
+    private static String singleFileMetafile(String name)
+    {
+        return "d4:infod6:lengthi1e4:name" + name.length() + ":" + name + "12:piece lengthi1e6:pieces20:" + repeat('h', 20) + "ee";
+    }
+
+    private static void assertInvalidLayout(String bencode)
+    {
+        try
+        {
+            MetafileLayout.parse(ByteBuffer.wrap(ascii(bencode)));
+            fail("Accepted " + bencode);
+        }
+        catch (BencodeException expected)
+        {
+        }
+        catch (Exception e)
+        {
+            fail("Unexpected " + e);
+        }
+    }
+
+    private static void assertInvalid(String bencode)
+    {
+        try
+        {
+            reader(bencode).skipValue();
+            fail("Accepted " + bencode);
+        }
+        catch (BencodeException expected)
+        {
+        }
+    }
+
+    private static void assertInvalidMetafile(String bencode)
+    {
+        try
+        {
+            MetafileInfo.parse(ByteBuffer.wrap(ascii(bencode)));
+            fail("Accepted " + bencode);
+        }
+        catch (BencodeException expected)
+        {
+        }
+        catch (Exception e)
+        {
+            fail("Unexpected " + e);
+        }
+    }
+
+    private static BencodeReader reader(String bencode)
+    {
+        return new BencodeReader(ByteBuffer.wrap(ascii(bencode)));
+    }
+
+    private static byte[] ascii(String s)
+    {
+        return s.getBytes(US_ASCII);
+    }
+
+    private static String repeat(char c, int count)
+    {
+        final StringBuilder builder = new StringBuilder(count);
+        for (int i = 0; i < count; i++)
+        {
+            builder.append(c);
+        }
+        return builder.toString();
+    }
+
+    private static String sha1Hex(byte[] bytes) throws Exception
+    {
+        final StringBuilder hex = new StringBuilder();
+        for (byte b : MessageDigest.getInstance("SHA-1").digest(bytes))
+        {
+            hex.append(String.format("%02x", b & 0xff));
+        }
+        return hex.toString();
+    }
+}
@@ -0,0 +1,221 @@
+package com.nizlumina.frostmodule.common;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class EngineCommandQueueTest
+{
+    private final BlockingQueue<EngineCommandQueue.Batch> mBatches = new LinkedBlockingQueue<>();
+    private final EngineCommandQueue mQueue = new EngineCommandQueue(4, new EngineCommandQueue.BatchHandler()
+    {
+        @Override
+        public void onBatch(EngineCommandQueue.Batch batch)
+        {
+            mBatches.add(batch);
+        }
+    });
+
+    @After
+    public void tearDown()
+    {
+        mQueue.stop();
+    }
+
+    @Test
+    public void addThenRemoveRunsInArrivalOrder() throws Exception
+    {
+        final TorrentObject add = new TorrentObject().setMetafilePath("/x.torrent"); //Id unknown until the worker parses it
+        assertTrue(mQueue.offerAdd(add));
+        assertTrue(mQueue.offer(EngineCommandQueue.Type.REMOVE, "x"));
+
+        final List<EngineCommandQueue.Command> commands = drain().getCommands();
+        assertEquals(2, commands.size());
+        assertSame(add, commands.get(0).getTorrentObject());
+        assertEquals("x", commands.get(1).getId());
+        assertEquals(EngineCommandQueue.Type.REMOVE, commands.get(1).getType());
+    }
+
+    @Test
+    public void removeThenAddRunsInArrivalOrder() throws Exception
+    {
+        assertTrue(mQueue.offer(EngineCommandQueue.Type.REMOVE, "x"));
+        assertTrue(mQueue.offerAdd(new TorrentObject().setMetafilePath("/x.torrent").setId("x")));
+
+        final List<EngineCommandQueue.Command> commands = drain().getCommands();
+        assertEquals(2, commands.size());
+        assertFalse(commands.get(0).isAdd());
+        assertTrue(commands.get(1).isAdd());
+    }
+
+    @Test
+    public void removeDropsEarlierAddsWithTheSameId() throws Exception
+    {
+        assertTrue(mQueue.offerAdd(new TorrentObject().setMetafilePath("/x.torrent").setId("x")));
+        assertTrue(mQueue.offerAdd(new TorrentObject().setMetafilePath("/y.torrent").setId("y")));
+        assertTrue(mQueue.offer(EngineCommandQueue.Type.REMOVE, "x"));
+
+        final List<EngineCommandQueue.Command> commands = drain().getCommands();
+        assertEquals(2, commands.size());
+        assertEquals("y", commands.get(0).getTorrentObject().getId());
+        assertEquals("x", commands.get(1).getId());
+        assertEquals(1, mQueue.getCoalescedCount());
+    }
+
+    @Test
+    public void reportsDroppedAdds()
+    {
+        final List<TorrentObject> dropped = new ArrayList<>();
+        mQueue.setDropListener(new EngineCommandQueue.DropListener()
+        {
+            @Override
+            public void onAddDropped(TorrentObject torrentObject)
+            {
+                dropped.add(torrentObject);
+            }
+        });
+        final TorrentObject add = new TorrentObject().setMetafilePath("/x.torrent").setId("x");
+        assertTrue(mQueue.offerAdd(add));
+        assertTrue(mQueue.offer(EngineCommandQueue.Type.REMOVE, "x"));
+
+        assertEquals(1, dropped.size());
+        assertSame(add, dropped.get(0));
+    }
+
+    @Test
+    public void lastStateChangeWinsAndMovesToItsArrival() throws Exception
+    {
+        assertTrue(mQueue.offer(EngineCommandQueue.Type.PAUSE, "x"));
+        assertTrue(mQueue.offer(EngineCommandQueue.Type.PAUSE, "y"));
+        assertTrue(mQueue.offer(EngineCommandQueue.Type.RESUME, "x"));
+        assertEquals(2, mQueue.getDepth());
+
+        final List<EngineCommandQueue.Command> commands = drain().getCommands();
+        assertEquals(2, commands.size());
+        assertEquals("y", commands.get(0).getId());
+        assertEquals("x", commands.get(1).getId());
+        assertEquals(EngineCommandQueue.Type.RESUME, commands.get(1).getType());
+    }
+
+    @Test
+    public void nothingOverridesARemoval() throws Exception
+    {
+        assertTrue(mQueue.offer(EngineCommandQueue.Type.REMOVE, "x"));
+        assertTrue(mQueue.offer(EngineCommandQueue.Type.RESUME, "x"));
+
+        final List<EngineCommandQueue.Command> commands = drain().getCommands();
+        assertEquals(1, commands.size());
+        assertEquals(EngineCommandQueue.Type.REMOVE, commands.get(0).getType());
+    }
+
+    @Test
+    public void refusesWhatDoesNotFit()
+    {
+        assertFalse(mQueue.offerAdd(new TorrentObject(), new TorrentObject(), new TorrentObject(), new TorrentObject(), new TorrentObject()));
+        assertEquals(0, mQueue.getDepth());
+
+        assertTrue(mQueue.offerAdd(new TorrentObject(), new TorrentObject(), new TorrentObject()));
+        assertFalse(mQueue.offer(EngineCommandQueue.Type.PAUSE, "x", "y"));
+        assertEquals(4, mQueue.getDepth()); //x made it in
+        assertTrue(mQueue.offer(EngineCommandQueue.Type.RESUME, "x")); //Merged, takes no room
+    }
+
+    @Test
+    public void requestedBatchRunsWithNothingPending() throws Exception
+    {
+        mQueue.requestBatch();
+        assertEquals(0, mQueue.getDepth());
+        assertEquals(0, drain().size());
+    }
+
+    @Test
+    public void postedTasksRunInArrivalOrderAndTakeNoRoom() throws Exception
+    {
+        final Runnable task = new Runnable()
+        {
+            @Override
+            public void run()
+            {
+            }
+        };
+        assertTrue(mQueue.offer(EngineCommandQueue.Type.PAUSE, "x"));
+        mQueue.post(task);
+        assertTrue(mQueue.offer(EngineCommandQueue.Type.PAUSE, "y"));
+        assertEquals(2, mQueue.getDepth());
+
+        final List<EngineCommandQueue.Command> commands = drain().getCommands();
+        assertEquals(3, commands.size());
+        assertSame(task, commands.get(1).getTask());
+        assertNull(commands.get(1).getType());
+    }
+
+    @Test
+    public void workerOutlivesAFailingBatch() throws Exception
+    {
+        final CountDownLatch failing = new CountDownLatch(1);
+        final EngineCommandQueue queue = new EngineCommandQueue(4, new EngineCommandQueue.BatchHandler()
+        {
+            @Override
+            public void onBatch(EngineCommandQueue.Batch batch)
+            {
+                if (batch.getCommands().get(0).getTask() != null)
+                {
+                    failing.countDown();
+                    throw new IllegalStateException("Broken task");
+                }
+                mBatches.add(batch);
+            }
+        });
+        try
+        {
+            queue.start("test");
+            queue.post(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                }
+            });
+            assertTrue(failing.await(5, TimeUnit.SECONDS));
+            assertTrue(queue.offer(EngineCommandQueue.Type.PAUSE, "x"));
+
+            final EngineCommandQueue.Batch batch = mBatches.poll(5, TimeUnit.SECONDS);
+            assertNotNull(batch);
+            assertEquals("x", batch.getCommands().get(0).getId());
+        }
+        finally
+        {
+            queue.stop();
+        }
+    }
+
+    @Test
+    public void stoppedQueueRunsNothing() throws Exception
+    {
+        mQueue.start("test");
+        mQueue.stop();
+        assertTrue(mQueue.offer(EngineCommandQueue.Type.PAUSE, "x"));
+        assertNull(mBatches.poll(50, TimeUnit.MILLISECONDS));
+    }
+
+    private EngineCommandQueue.Batch drain() throws InterruptedException
+    {
+        mQueue.start("test");
+        final EngineCommandQueue.Batch batch = mBatches.poll(5, TimeUnit.SECONDS);
+        assertNotNull(batch);
+        return batch;
+    }
+}
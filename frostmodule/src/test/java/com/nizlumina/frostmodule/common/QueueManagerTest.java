@@ -0,0 +1,184 @@
+package com.nizlumina.frostmodule.common;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class QueueManagerTest
+{
+    private static final long STALL_TIMEOUT = 1000;
+
+    private final List<String> mEvents = new ArrayList<>();
+    private final QueueManager.Actuator mActuator = new QueueManager.Actuator()
+    {
+        @Override
+        public void activate(String id)
+        {
+            mEvents.add("+" + id);
+        }
+
+        @Override
+        public void park(String id)
+        {
+            mEvents.add("-" + id);
+        }
+    };
+
+    @Test
+    public void startsTheHighestPrioritiesFirst()
+    {
+        final QueueManager queueManager = new QueueManager(2, 0, 0, STALL_TIMEOUT, mActuator);
+        queueManager.add("a", false, false, false, 0);
+        queueManager.add("b", false, false, false, 0);
+        queueManager.add("c", false, false, false, 0);
+        queueManager.setPriority("c", 5);
+        queueManager.rebalance(0);
+
+        assertEquals(Arrays.asList("+c", "+a"), mEvents);
+        assertEquals(1, queueManager.getQueuedCount());
+    }
+
+    @Test
+    public void higherPriorityPreemptsARunningTorrent()
+    {
+        final QueueManager queueManager = new QueueManager(1, 0, 0, STALL_TIMEOUT, mActuator);
+        queueManager.add("a", false, false, true, 0);
+        queueManager.add("b", false, false, false, 0);
+        queueManager.rebalance(0);
+        assertTrue(mEvents.isEmpty()); //Same priority, first come first served
+
+        queueManager.setPriority("b", 1);
+        queueManager.rebalance(10);
+        assertEquals(Arrays.asList("-a", "+b"), mEvents);
+        assertTrue(queueManager.isActive("b"));
+        assertFalse(queueManager.isActive("a"));
+    }
+
+    @Test
+    public void swapsAStalledTorrentForAQueuedOne()
+    {
+        final QueueManager queueManager = new QueueManager(1, 0, 0, STALL_TIMEOUT, mActuator);
+        queueManager.add("a", false, false, true, 0);
+        queueManager.add("b", false, false, false, 0);
+
+        queueManager.onProgress("a", 100, 0, false, STALL_TIMEOUT - 1);
+        queueManager.rebalance(STALL_TIMEOUT);
+        assertTrue(mEvents.isEmpty()); //Made progress recently
+
+        queueManager.rebalance(2 * STALL_TIMEOUT);
+        assertEquals(Arrays.asList("-a", "+b"), mEvents);
+    }
+
+    @Test
+    public void stalledTorrentsTakeTurns()
+    {
+        final QueueManager queueManager = new QueueManager(1, 0, 0, STALL_TIMEOUT, mActuator);
+        queueManager.add("a", false, false, true, 0);
+        queueManager.add("b", false, false, false, 0);
+        queueManager.rebalance(STALL_TIMEOUT); //a stalls, b takes over
+        mEvents.clear();
+
+        queueManager.rebalance(STALL_TIMEOUT + 1);
+        assertTrue(mEvents.isEmpty()); //b gets a full timeout of its own
+
+        queueManager.rebalance(2 * STALL_TIMEOUT);
+        assertEquals(Arrays.asList("-b", "+a"), mEvents);
+    }
+
+    @Test
+    public void leavesPausedTorrentsOut()
+    {
+        final QueueManager queueManager = new QueueManager(2, 0, 0, STALL_TIMEOUT, mActuator);
+        queueManager.add("a", false, true, false, 0);
+        queueManager.add("b", false, false, false, 0);
+        queueManager.rebalance(0);
+        assertEquals(Arrays.asList("+b"), mEvents);
+
+        queueManager.setPaused("a", false, 1);
+        queueManager.rebalance(1);
+        assertEquals(Arrays.asList("+b", "+a"), mEvents);
+    }
+
+    @Test
+    public void heldTorrentsGiveUpTheirSlotUntilReleased()
+    {
+        final QueueManager queueManager = new QueueManager(1, 0, 0, STALL_TIMEOUT, mActuator);
+        queueManager.add("a", false, false, true, 0);
+        queueManager.add("b", false, false, false, 0);
+
+        queueManager.setHeld("a", true, 1);
+        queueManager.rebalance(1);
+        assertEquals(Arrays.asList("+b"), mEvents); //Parking a held torrent is the engine's business
+        assertFalse(queueManager.isActive("a"));
+
+        queueManager.setHeld("a", false, 2);
+        queueManager.setPriority("a", 1);
+        queueManager.rebalance(2);
+        assertEquals(Arrays.asList("+b", "-b", "+a"), mEvents);
+    }
+
+    @Test
+    public void releasingKeepsPausedTorrentsOut()
+    {
+        final QueueManager queueManager = new QueueManager(1, 0, 0, STALL_TIMEOUT, mActuator);
+        queueManager.add("a", false, false, false, 0);
+        queueManager.setHeld("a", true, 0);
+        queueManager.setPaused("a", true, 1);
+        queueManager.setHeld("a", false, 2);
+        queueManager.rebalance(2);
+        assertTrue(mEvents.isEmpty());
+
+        queueManager.setHeld("a", true, 3);
+        queueManager.setPaused("a", false, 4);
+        queueManager.rebalance(4);
+        assertTrue(mEvents.isEmpty()); //Resumed, but still held
+
+        queueManager.setHeld("a", false, 5);
+        queueManager.rebalance(5);
+        assertEquals(Arrays.asList("+a"), mEvents);
+    }
+
+    @Test
+    public void completedDownloadsMoveToTheSeedingLimit()
+    {
+        final QueueManager queueManager = new QueueManager(1, 1, 0, STALL_TIMEOUT, mActuator);
+        queueManager.add("seed", true, false, true, 0);
+        queueManager.add("a", false, false, true, 5);
+        queueManager.add("b", false, false, false, 5);
+
+        queueManager.onProgress("a", 100, 0, true, 6);
+        queueManager.rebalance(6);
+        assertEquals(Arrays.asList("-a", "+b"), mEvents); //a now competes for the one seeding slot and, started last, gives way
+        assertEquals(2, queueManager.getActiveCount());
+    }
+
+    @Test
+    public void knowsAboutUnfinishedDownloadsBeforeAnyRebalance()
+    {
+        final QueueManager queueManager = new QueueManager(1, 0, 0, STALL_TIMEOUT, mActuator);
+        queueManager.add("seed", true, false, true, 0);
+        queueManager.add("paused", false, true, false, 0);
+        assertFalse(queueManager.hasUnfinishedDownloads());
+
+        queueManager.add("queued", false, false, false, 0);
+        assertTrue(queueManager.hasUnfinishedDownloads());
+    }
+
+    @Test
+    public void demotesWhenLimitsAreLowered()
+    {
+        final QueueManager queueManager = new QueueManager(2, 0, 0, STALL_TIMEOUT, mActuator);
+        queueManager.add("a", false, false, true, 0);
+        queueManager.add("b", false, false, true, 1);
+        queueManager.setLimits(1, 0, 0);
+        queueManager.rebalance(2);
+
+        assertEquals(Arrays.asList("-b"), mEvents); //The most recently started goes first
+    }
+}
@@ -0,0 +1,133 @@
+package com.nizlumina.frostmodule.common;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TorrentSnapshotCodecTest
+{
+    private static final String A = "0123456789abcdef0123456789abcdef01234567";
+    private static final String B = "89abcdef0123456789abcdef0123456789abcdef";
+    private static final String C = "ffffffffffffffffffffffffffffffffffffffff";
+    private static final String D = "0000000000000000000000000000000000000000";
+
+    @Test
+    public void fullSnapshotRoundTrips()
+    {
+        final TorrentSnapshot snapshot = snapshot(7,
+                new TorrentSnapshot.Entry(A, TorrentObject.Status.DOWNLOADING, "/sdcard/\u00e9t\u00e9.torrent", 1, 2, 3, 4, 5, 6),
+                new TorrentSnapshot.Entry(B, null, null, Long.MAX_VALUE, 0, Long.MAX_VALUE, Long.MAX_VALUE, Integer.MAX_VALUE, 0));
+
+        final byte[] data = TorrentSnapshotCodec.encode(snapshot);
+        assertFalse(TorrentSnapshotCodec.isDelta(data));
+        assertEquals(-1, TorrentSnapshotCodec.getBaseVersion(data));
+        assertSnapshotEquals(snapshot, TorrentSnapshotCodec.decode(data, null));
+    }
+
+    @Test
+    public void deltaRoundTrips()
+    {
+        final TorrentSnapshot base = snapshot(1,
+                new TorrentSnapshot.Entry(A, TorrentObject.Status.DOWNLOADING, "/a", 100, 10, 100, 1000, 3, 1),
+                new TorrentSnapshot.Entry(B, TorrentObject.Status.PAUSED, "/b", 5, 5, 5, 50, 0, 0),
+                new TorrentSnapshot.Entry(C, TorrentObject.Status.COMPLETED, "/c", 9, 9, 9, 9, 9, 9));
+        //B removed
+        final TorrentSnapshot snapshot = snapshot(2,
+                new TorrentSnapshot.Entry(D, TorrentObject.Status.DOWNLOADING, "/d", 0, 0, 0, 70, 0, 0), //Added
+                new TorrentSnapshot.Entry(C, TorrentObject.Status.COMPLETED, "/c", 9, 9, 9, 9, 9, 9), //Unchanged
+                new TorrentSnapshot.Entry(A, TorrentObject.Status.COMPLETED, null, 1000, 20, 1000, 1000, 0, 1)); //Changed, peers going down
+
+        final byte[] delta = TorrentSnapshotCodec.encodeDelta(base, snapshot);
+        assertTrue(TorrentSnapshotCodec.isDelta(delta));
+        assertEquals(1, TorrentSnapshotCodec.getBaseVersion(delta));
+
+        //Base order without the removed ones, then the added ones
+        final TorrentSnapshot decoded = TorrentSnapshotCodec.decode(delta, base);
+        assertEquals(2, decoded.getVersion());
+        assertEntriesEqual(Arrays.asList(snapshot.get(A), snapshot.get(C), snapshot.get(D)), decoded.getEntries());
+    }
+
+    @Test
+    public void unchangedDeltaIsSmall()
+    {
+        final TorrentSnapshot base = snapshot(1, new TorrentSnapshot.Entry(A, TorrentObject.Status.DOWNLOADING, "/a", 1, 2, 3, 4, 5, 6));
+        final TorrentSnapshot same = snapshot(2, new TorrentSnapshot.Entry(A, TorrentObject.Status.DOWNLOADING, "/a", 1, 2, 3, 4, 5, 6));
+
+        final byte[] delta = TorrentSnapshotCodec.encodeDelta(base, same);
+        assertTrue(delta.length < TorrentSnapshotCodec.encode(same).length);
+        assertSnapshotEquals(same, TorrentSnapshotCodec.decode(delta, base));
+    }
+
+    @Test
+    public void refusesDeltaAgainstAnotherBase()
+    {
+        final TorrentSnapshot base = snapshot(1, new TorrentSnapshot.Entry(A, null, null, 0, 0, 0, 0, 0, 0));
+        final byte[] delta = TorrentSnapshotCodec.encodeDelta(base, snapshot(2));
+        assertInvalid(delta, null);
+        assertInvalid(delta, snapshot(3));
+    }
+
+    @Test
+    public void refusesMalformedBuffers()
+    {
+        final byte[] data = TorrentSnapshotCodec.encode(snapshot(1, new TorrentSnapshot.Entry(A, TorrentObject.Status.PAUSED, "/a", 1, 2, 3, 4, 5, 6)));
+        assertInvalid(Arrays.copyOf(data, data.length - 1), null);
+        assertInvalid(Arrays.copyOf(data, data.length + 1), null);
+
+        data[0] = 0;
+        assertInvalid(data, null);
+    }
+
+    private static TorrentSnapshot snapshot(long version, TorrentSnapshot.Entry... entries)
+    {
+        final TorrentSnapshot.Builder builder = new TorrentSnapshot.Builder(version);
+        for (TorrentSnapshot.Entry entry : entries)
+        {
+            builder.add(entry);
+        }
+        return builder.build();
+    }
+
+    private static void assertInvalid(byte[] data, TorrentSnapshot base)
+    {
+        try
+        {
+            TorrentSnapshotCodec.decode(data, base);
+            fail();
+        }
+        catch (IllegalArgumentException expected)
+        {
+        }
+    }
+
+    private static void assertSnapshotEquals(TorrentSnapshot expected, TorrentSnapshot actual)
+    {
+        assertEquals(expected.getVersion(), actual.getVersion());
+        assertEntriesEqual(expected.getEntries(), actual.getEntries());
+    }
+
+    private static void assertEntriesEqual(List<TorrentSnapshot.Entry> expected, List<TorrentSnapshot.Entry> actual)
+    {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++)
+        {
+            final TorrentSnapshot.Entry lhs = expected.get(i);
+            final TorrentSnapshot.Entry rhs = actual.get(i);
+            assertEquals(lhs.getId(), rhs.getId());
+            assertEquals(lhs.getStatus(), rhs.getStatus());
+            assertEquals(lhs.getMetafilePath(), rhs.getMetafilePath());
+            assertEquals(lhs.getDownloaded(), rhs.getDownloaded());
+            assertEquals(lhs.getUploaded(), rhs.getUploaded());
+            assertEquals(lhs.getCompletedBytes(), rhs.getCompletedBytes());
+            assertEquals(lhs.getSize(), rhs.getSize());
+            assertEquals(lhs.getActivePeersNumber(), rhs.getActivePeersNumber());
+            assertEquals(lhs.getSeedersNumber(), rhs.getSeedersNumber());
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package com.nizlumina.frostmodule.streaming;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class StreamServerTest
+{
+    @Test
+    public void parsesPlainRanges()
+    {
+        assertArrayEquals(new long[]{0, 99}, StreamServer.parseRange("bytes=0-", 100));
+        assertArrayEquals(new long[]{10, 19}, StreamServer.parseRange("bytes=10-19", 100));
+        assertArrayEquals(new long[]{5, 5}, StreamServer.parseRange(" BYTES=5-5 ", 100));
+        assertArrayEquals(new long[]{0, 9}, StreamServer.parseRange("bytes=0-9,20-29", 100)); //First range only
+    }
+
+    @Test
+    public void parsesSuffixRanges()
+    {
+        assertArrayEquals(new long[]{90, 99}, StreamServer.parseRange("bytes=-10", 100));
+        assertArrayEquals(new long[]{0, 99}, StreamServer.parseRange("bytes=-500", 100));
+        assertNull(StreamServer.parseRange("bytes=-0", 100));
+    }
+
+    @Test
+    public void clampsOrRefusesRangesPastTheEnd()
+    {
+        assertArrayEquals(new long[]{90, 99}, StreamServer.parseRange("bytes=90-1000", 100));
+        assertNull(StreamServer.parseRange("bytes=100-", 100));
+        assertNull(StreamServer.parseRange("bytes=100-200", 100));
+        assertNull(StreamServer.parseRange("bytes=0-", 0));
+        assertNull(StreamServer.parseRange("bytes=-5", 0));
+    }
+
+    @Test
+    public void ignoresMalformedRanges()
+    {
+        assertSame(StreamServer.NO_RANGE, StreamServer.parseRange("bytes=5-2", 100));
+        assertSame(StreamServer.NO_RANGE, StreamServer.parseRange("bytes=5", 100));
+        assertSame(StreamServer.NO_RANGE, StreamServer.parseRange("bytes=a-b", 100));
+        assertSame(StreamServer.NO_RANGE, StreamServer.parseRange("items=0-5", 100));
+    }
+}
@@ -0,0 +1,117 @@
+package com.nizlumina.frostmodule.streaming;
+
+import com.nizlumina.frostmodule.bencode.MetafileLayout;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.BitSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class TorrentStreamTest
+{
+    private final FakeSource mSource = new FakeSource();
+
+    @Test
+    public void borrowsSequentialOnlyWhileOpen() throws Exception
+    {
+        final TorrentStream stream = stream();
+        assertEquals(0, mSource.sequential);
+
+        stream.open();
+        assertEquals(1, mSource.sequential);
+        stream.close();
+        assertEquals(0, mSource.sequential);
+        stream.close();
+        assertEquals(0, mSource.sequential);
+    }
+
+    @Test
+    public void openAfterCloseDoesNothing() throws Exception
+    {
+        final TorrentStream stream = stream();
+        stream.close();
+        stream.open();
+        assertEquals(0, mSource.sequential);
+        assertEquals(0, mSource.pieceChecks);
+    }
+
+    @Test
+    public void readersWaitForOpen() throws Exception
+    {
+        mSource.have.set(0, 3);
+        final TorrentStream stream = stream();
+        final Thread reader = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    stream.awaitRange(0, 10);
+                }
+                catch (Exception e)
+                {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+        reader.start();
+        stream.open();
+        reader.join(5000);
+        assertFalse(reader.isAlive());
+        stream.close();
+    }
+
+    private TorrentStream stream() throws Exception
+    {
+        final StringBuilder pieces = new StringBuilder();
+        for (int i = 0; i < 60; i++)
+        {
+            pieces.append('x');
+        }
+        final String metafile = "d4:infod6:lengthi10e4:name1:a12:piece lengthi4e6:pieces60:" + pieces + "ee";
+        final MetafileLayout layout = MetafileLayout.parse(ByteBuffer.wrap(metafile.getBytes(Charset.forName("US-ASCII"))));
+        return new TorrentStream("t", layout, new File("."), 0, mSource);
+    }
+
+    private static final class FakeSource implements PieceSource
+    {
+        final BitSet have = new BitSet();
+        int sequential;
+        int pieceChecks;
+
+        @Override
+        public boolean havePiece(int piece)
+        {
+            pieceChecks++;
+            return have.get(piece);
+        }
+
+        @Override
+        public void setPieceDeadline(int piece, int deadlineMillis)
+        {
+        }
+
+        @Override
+        public void resetPieceDeadline(int piece)
+        {
+        }
+
+        @Override
+        public void beginSequentialDownload()
+        {
+            sequential++;
+        }
+
+        @Override
+        public void endSequentialDownload()
+        {
+            sequential--;
+        }
+    }
+}